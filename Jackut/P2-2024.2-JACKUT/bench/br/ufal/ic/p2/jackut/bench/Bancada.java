@@ -0,0 +1,229 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.Configuracao;
+import br.ufal.ic.p2.jackut.Facade;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Bancada de medição de desempenho da {@link Facade}.
+ *
+ * <p>Constrói uma {@link RedeSintetica} e executa, para cada {@link Cenario} de {@link Cenarios}, algumas
+ * rodadas de aquecimento seguidas das rodadas medidas. Cada operação é cronometrada individualmente,
+ * o que dá a vazão e os percentis de latência, e os bytes alocados pela thread durante a operação são
+ * somados, o que torna visíveis as regressões de alocação nos caminhos mais usados.</p>
+ *
+ * <p>Configuração (propriedades do sistema, além das de escala da rede):</p>
+ * <ul>
+ *   <li>{@code jackut.bench.operacoes}: operações por rodada (padrão 10000);</li>
+ *   <li>{@code jackut.bench.aquecimento}: rodadas descartadas (padrão 2);</li>
+ *   <li>{@code jackut.bench.rodadas}: rodadas medidas (padrão 3);</li>
+ *   <li>{@code jackut.bench.cenarios}: nomes dos cenários a executar, separados por vírgula (padrão: todos);</li>
+ *   <li>{@code jackut.bench.csv}: arquivo ao qual os resultados são acrescentados em CSV.</li>
+ *   <li>{@code jackut.perfil.atributosIndexados}: como no Jackut, mas com padrão {@code cidade}, usado pelo
+ *   cenário getUsuariosComAtributo.</li>
+ *   <li>{@code jackut.senha.iteracoes}: como no Jackut, mas com padrão 1, para que cadastrar e reabrir as
+ *   sessões da rede não domine a execução; o custo do login é medido por {@link EscalaSenhas}.</li>
+ * </ul>
+ *
+ * <p>O Jackut grava {@code jackut.dat} e {@code jackut.log} no diretório atual, então a bancada deve
+ * ser executada em um diretório vazio; ela se recusa a começar se encontrar esses arquivos, a menos
+ * que {@code jackut.bench.sobrescrever=true}. Exemplo, a partir da raiz do projeto:</p>
+ * <pre>
+ * javac -encoding ISO-8859-1 -d out $(find src bench -name '*.java' -not -name Main.java)
+ * mkdir -p /tmp/bancada &amp;&amp; cd /tmp/bancada
+ * java -Xms2g -Djackut.bench.usuarios=50000 -cp $OLDPWD/out br.ufal.ic.p2.jackut.bench.Bancada
+ * </pre>
+ */
+public class Bancada {
+
+    // jackut.dat, jackut.dat.tmp e jackut.log, os registros separados para um snapshot (jackut.log-1200)
+    // e o armazenamento chave-valor (jackut.kv, jackut.kv.tmp)
+    private static final FilenameFilter ARQUIVOS = (d, n) -> n.startsWith("jackut.dat") || n.startsWith("jackut.log")
+            || n.startsWith("jackut.kv");
+
+    private final RedeSintetica rede;
+    private Facade facade;
+
+    /**
+     * @param rede A rede a construir
+     */
+    public Bancada(RedeSintetica rede) {
+        // cada fachada lê o custo das senhas ao ser criada
+        if (System.getProperty("jackut.senha.iteracoes") == null) {
+            System.setProperty("jackut.senha.iteracoes", "1");
+        }
+        this.rede = rede;
+        this.facade = new Facade();
+        rede.construir(facade);
+    }
+
+    public Facade getFacade() { return facade; }
+
+    public RedeSintetica getRede() { return rede; }
+
+    /**
+     * Salva o sistema e encerra a fachada atual.
+     */
+    public void encerrar() {
+        facade.encerrarSistema();
+    }
+
+    /**
+     * Carrega o sistema salvo em uma nova fachada. As sessões da rede precisam ser reabertas com
+     * {@link #reabrirSessoes()}.
+     */
+    public void carregar() {
+        facade = new Facade();
+    }
+
+    /**
+     * Reabre as sessões de todos os usuários da rede na fachada atual.
+     */
+    public void reabrirSessoes() {
+        rede.reabrirSessoes(facade);
+    }
+
+    /**
+     * Cria usuários que não fazem parte da rede, para operações que precisam de um par ainda não
+     * relacionado a cada execução.
+     *
+     * @param prefixo O prefixo dos logins, que deve ser exclusivo do cenário
+     * @param n A quantidade de usuários
+     * @return A sessão de cada usuário criado; o login do i-ésimo é {@code prefixo + i}
+     */
+    public String[] novosUsuarios(String prefixo, int n) {
+        List<String[]> novos = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) novos.add(new String[]{ prefixo + i, "s", "Extra " + i });
+        facade.criarUsuarios(novos);
+        String[] sessoes = new String[n];
+        for (int i = 0; i < n; i++) sessoes[i] = facade.abrirSessao(prefixo + i, "s");
+        return sessoes;
+    }
+
+    /**
+     * Executa um cenário: prepara, aquece e mede.
+     *
+     * @param c O cenário
+     * @param operacoes As operações por rodada
+     * @param aquecimento As rodadas descartadas
+     * @param rodadas As rodadas medidas
+     * @return A medição das rodadas medidas
+     */
+    public Medicao medir(Cenario c, int operacoes, int aquecimento, int rodadas) {
+        int n = Math.min(operacoes, c.getLimiteOperacoes());
+        c.preparar(this, n * (aquecimento + rodadas));
+        int i = 0;
+        for (int r = 0; r < aquecimento; r++) {
+            for (int k = 0; k < n; k++, i++) {
+                c.antes(i);
+                c.executar(i);
+                c.depois(i);
+            }
+        }
+        System.gc();
+
+        com.sun.management.ThreadMXBean mx = memoria();
+        long[] latencias = new long[n * rodadas];
+        long bytes = 0;
+        for (int k = 0; k < latencias.length; k++, i++) {
+            c.antes(i);
+            long a0 = mx == null ? 0 : mx.getCurrentThreadAllocatedBytes();
+            long t0 = System.nanoTime();
+            c.executar(i);
+            long t1 = System.nanoTime();
+            long a1 = mx == null ? 0 : mx.getCurrentThreadAllocatedBytes();
+            c.depois(i);
+            latencias[k] = t1 - t0;
+            bytes += a1 - a0;
+        }
+        return new Medicao(c.getNome(), latencias, mx == null ? -1 : bytes);
+    }
+
+    private static com.sun.management.ThreadMXBean memoria() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) return null;
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!mx.isThreadAllocatedMemorySupported()) return null;
+        mx.setThreadAllocatedMemoryEnabled(true);
+        return mx;
+    }
+
+    /**
+     * Encerra o processo se o diretório atual já tiver arquivos do Jackut, a menos que
+     * {@code jackut.bench.sobrescrever=true}.
+     */
+    static void exigirDiretorioVazio() {
+        if (Configuracao.booleano("bench.sobrescrever", false)) return;
+        for (File a : arquivos()) {
+            System.err.println("O diretório atual já contém " + a.getName() + "; execute a bancada em um diretório"
+                    + " vazio ou use -Djackut.bench.sobrescrever=true.");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Zera e encerra o sistema e apaga os arquivos que ele gravou no diretório atual.
+     */
+    void descartar() {
+        facade.zerarSistema();
+        facade.encerrarSistema();
+        apagarArquivos();
+    }
+
+    /**
+     * Apaga os arquivos que o Jackut grava no diretório atual.
+     */
+    static void apagarArquivos() {
+        for (File a : arquivos()) a.delete();
+    }
+
+    /**
+     * @return Os arquivos do Jackut no diretório atual
+     */
+    private static File[] arquivos() {
+        File[] fs = new File(".").listFiles(ARQUIVOS);
+        return fs == null ? new File[0] : fs;
+    }
+
+    public static void main(String[] args) throws IOException {
+        exigirDiretorioVazio();
+        int operacoes   = Configuracao.inteiro("bench.operacoes", 10_000);
+        int aquecimento = Configuracao.inteiro("bench.aquecimento", 2);
+        int rodadas     = Configuracao.inteiro("bench.rodadas", 3);
+        Set<String> filtro = new HashSet<>();
+        for (String s : Configuracao.texto("bench.cenarios", "").split(",")) {
+            if (!s.trim().isEmpty()) filtro.add(s.trim());
+        }
+        String csv = Configuracao.texto("bench.csv", null);
+        // antes de a classe Jackut ler a configuração
+        if (System.getProperty("jackut.perfil.atributosIndexados") == null) {
+            System.setProperty("jackut.perfil.atributosIndexados", "cidade");
+        }
+
+        long t = System.nanoTime();
+        Bancada b = new Bancada(new RedeSintetica());
+        System.out.printf("rede: %s (%.1f s)%n", b.getRede(), (System.nanoTime() - t) / 1e9);
+        System.out.printf("rodadas: %d x %d operações, %d de aquecimento%n%n", rodadas, operacoes, aquecimento);
+        System.out.println(Medicao.cabecalho());
+
+        List<Medicao> medicoes = new ArrayList<>();
+        for (Cenario c : Cenarios.todos()) {
+            if (!filtro.isEmpty() && !filtro.contains(c.getNome())) continue;
+            Medicao m = b.medir(c, operacoes, aquecimento, rodadas);
+            medicoes.add(m);
+            System.out.println(m);
+        }
+
+        if (csv != null) {
+            File f = new File(csv);
+            boolean novo = !f.exists() || f.length() == 0;
+            try (PrintWriter w = new PrintWriter(new FileWriter(f, true))) {
+                if (novo) w.println(Medicao.cabecalhoCsv());
+                for (Medicao m : medicoes) w.println(m.linhaCsv());
+            }
+        }
+
+        b.descartar();
+    }
+}
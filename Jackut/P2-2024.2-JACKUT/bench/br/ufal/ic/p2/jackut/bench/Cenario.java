@@ -0,0 +1,64 @@
+package br.ufal.ic.p2.jackut.bench;
+
+/**
+ * Uma operação medida pela {@link Bancada}.
+ *
+ * <p>A bancada chama {@link #preparar} uma vez, informando quantas operações serão executadas ao todo
+ * (aquecimento e medição), e depois {@link #executar(int)} com um índice crescente, de 0 até esse total.
+ * Só {@code executar} é cronometrado; argumentos devem ser montados em {@code preparar}, para que a
+ * alocação medida seja a da operação, e não a do cenário. Operações que precisam de arrumação entre
+ * uma execução e outra (recarregar o sistema, por exemplo) usam {@link #antes(int)} e {@link #depois(int)},
+ * que ficam fora da medição.</p>
+ */
+public abstract class Cenario {
+
+    private final String nome;
+    private final int limiteOperacoes;
+
+    /**
+     * @param nome O nome do cenário, usado no relatório e no filtro {@code jackut.bench.cenarios}
+     * @param limiteOperacoes O máximo de operações por rodada, para operações caras como remoção e
+     *                        persistência
+     */
+    protected Cenario(String nome, int limiteOperacoes) {
+        this.nome = nome;
+        this.limiteOperacoes = limiteOperacoes;
+    }
+
+    protected Cenario(String nome) {
+        this(nome, Integer.MAX_VALUE);
+    }
+
+    public String getNome() { return nome; }
+
+    public int getLimiteOperacoes() { return limiteOperacoes; }
+
+    /**
+     * Monta o estado e os argumentos das operações.
+     *
+     * @param b A bancada, com a fachada e a rede já construídas
+     * @param total A quantidade de operações que serão executadas
+     */
+    public void preparar(Bancada b, int total) { }
+
+    /**
+     * Arrumação antes da operação {@code i}, fora da medição.
+     *
+     * @param i O índice da operação
+     */
+    public void antes(int i) { }
+
+    /**
+     * Executa a operação {@code i}; é o único trecho cronometrado.
+     *
+     * @param i O índice da operação
+     */
+    public abstract void executar(int i);
+
+    /**
+     * Arrumação depois da operação {@code i}, fora da medição.
+     *
+     * @param i O índice da operação
+     */
+    public void depois(int i) { }
+}
@@ -0,0 +1,535 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.Facade;
+import br.ufal.ic.p2.jackut.exceptions.ComunidadeNaoExisteException;
+import java.util.*;
+
+/**
+ * Os cenários medidos pela {@link Bancada}, um para cada operação da {@link Facade}.
+ *
+ * <p>Operações que criam um relacionamento só podem ser executadas uma vez para cada par; nesses
+ * cenários, cada execução usa um usuário novo, criado em {@code preparar}, contra um usuário sorteado
+ * da rede. Os cenários de remoção e de persistência vêm por último, porque invalidam sessões.</p>
+ *
+ * <p>Os cenários de listagens grandes comparam as listagens completas com as paginadas sobre o ídolo
+ * mais popular da rede e sobre uma comunidade com todos os usuários; os bytes por operação das
+ * páginas não devem crescer com o tamanho da listagem.</p>
+ *
+ * <p>Os cenários de sugestões de amizade fazem sentido sobretudo com {@code -Djackut.bench.amizades=potencia};
+ * com {@code -Djackut.sugestoes.cache=false}, medem o cálculo completo em todas as execuções.</p>
+ *
+ * <p>Os cenários de busca e de índice de atributos preenchem cidade e interesses de todos os usuários e
+ * fazem a primeira consulta, que constrói o índice, ainda em {@code preparar}.</p>
+ */
+public final class Cenarios {
+
+    private Cenarios() { }
+
+    /**
+     * @return Todos os cenários, na ordem em que devem ser executados
+     */
+    public static List<Cenario> todos() {
+        List<Cenario> c = new ArrayList<>();
+
+        // ** Usuários e sessões **
+
+        c.add(new Cenario("criarUsuario") {
+            Facade f; String[] logins;
+            @Override public void preparar(Bancada b, int total) {
+                f = b.getFacade();
+                logins = textos("cu", total);
+            }
+            @Override public void executar(int i) { f.criarUsuario(logins[i], "senha", "Novo"); }
+        });
+
+        c.add(new Cenario("abrirSessao") {
+            Facade f; RedeSintetica r; int[] u;
+            @Override public void preparar(Bancada b, int total) {
+                f = b.getFacade(); r = b.getRede();
+                u = sortear(getNome(), total, r.getUsuarios());
+            }
+            @Override public void executar(int i) { f.abrirSessao(r.getLogin(u[i]), r.getSenha(u[i])); }
+        });
+
+        c.add(new Cenario("getAtributoUsuario") {
+            Facade f; RedeSintetica r; int[] u;
+            @Override public void preparar(Bancada b, int total) {
+                f = b.getFacade(); r = b.getRede();
+                u = sortear(getNome(), total, r.getUsuarios());
+            }
+            @Override public void executar(int i) { f.getAtributoUsuario(r.getLogin(u[i]), "nome"); }
+        });
+
+        c.add(new Cenario("editarPerfil") {
+            Facade f; RedeSintetica r; int[] u; String[] valores;
+            @Override public void preparar(Bancada b, int total) {
+                f = b.getFacade(); r = b.getRede();
+                u = sortear(getNome(), total, r.getUsuarios());
+                valores = textos("Cidade ", 64);
+            }
+            @Override public void executar(int i) {
+                f.editarPerfil(r.getSessao(u[i]), "cidade", valores[i & 63]);
+            }
+        });
+
+        // ** Amigos **
+
+        // execuções pares enviam o convite de um usuário novo; as ímpares são o aceite
+        c.add(new Cenario("adicionarAmigo") {
+            Facade f; RedeSintetica r; int[] u; String[] sessoes, logins;
+            @Override public void preparar(Bancada b, int total) {
+                f = b.getFacade(); r = b.getRede();
+                int n = (total + 1) / 2;
+                u = sortear(getNome(), n, r.getUsuarios());
+                sessoes = b.novosUsuarios("am", n);
+                logins = textos("am", n);
+            }
+            @Override public void executar(int i) {
+                int k = i >> 1;
+                if ((i & 1) == 0) f.adicionarAmigo(sessoes[k], r.getLogin(u[k]));
+                else f.adicionarAmigo(r.getSessao(u[k]), logins[k]);
+            }
+        });
+
+        c.add(new Cenario("ehAmigo") {
+            Facade f; RedeSintetica r; int[] a, d;
+            @Override public void preparar(Bancada b, int total) {
+                f = b.getFacade(); r = b.getRede();
+                a = sortear(getNome(), total, r.getUsuarios());
+                d = sortear(getNome() + "2", total, r.getUsuarios());
+            }
+            @Override public void executar(int i) { f.ehAmigo(r.getLogin(a[i]), r.getLogin(d[i])); }
+        });
+
+        c.add(new Cenario("getAmigos") {
+            Facade f; RedeSintetica r; int[] u;
+            @Override public void preparar(Bancada b, int total) {
+                f = b.getFacade(); r = b.getRede();
+                u = sortear(getNome(), total, r.getUsuarios());
+            }
+            @Override public void executar(int i) { f.getAmigos(r.getLogin(u[i])); }
+        });
+
+        // ** Recados **
+
+        c.add(new Cenario("enviarRecado") {
+            Facade f; RedeSintetica r; int[] a, d;
+            @Override public void preparar(Bancada b, int total) {
+                f = b.getFacade(); r = b.getRede();
+                a = sortear(getNome(), total, r.getUsuarios());
+                d = distintos(getNome(), a, r.getUsuarios());
+            }
+            @Override public void executar(int i) {
+                f.enviarRecado(r.getSessao(a[i]), r.getLogin(d[i]), "Oi, tudo bem?");
+            }
+        });
+
+        // cada execução envia um recado e o destinatário lê o mais antigo da sua fila
+        c.add(new Cenario("enviarLerRecado") {
+            Facade f; RedeSintetica r; int[] a, d;
+            @Override public void preparar(Bancada b, int total) {
+                f = b.getFacade(); r = b.getRede();
+                a = sortear(getNome(), total, r.getUsuarios());
+                d = distintos(getNome(), a, r.getUsuarios());
+            }
+            @Override public void executar(int i) {
+                f.enviarRecado(r.getSessao(a[i]), r.getLogin(d[i]), "Oi, tudo bem?");
+                f.lerRecado(r.getSessao(d[i]));
+            }
+        });
+
+        // ** Comunidades **
+
+        c.add(new Cenario("criarComunidade") {
+            Facade f; RedeSintetica r; int[] u; String[] nomes;
+            @Override public void preparar(Bancada b, int total) {
+                f = b.getFacade(); r = b.getRede();
+                u = sortear(getNome(), total, r.getUsuarios());
+                nomes = textos("cc", total);
+            }
+            @Override public void executar(int i) { f.criarComunidade(r.getSessao(u[i]), nomes[i], "Nova"); }
+        });
+
+        c.add(new Cenario("adicionarComunidade") {
+            Facade f; RedeSintetica r; int[] com; String[] sessoes;
+            @Override public void preparar(Bancada b, int total) {
+                f = b.getFacade(); r = b.getRede();
+                com = sortear(getNome(), total, r.getComunidades());
+                sessoes = b.novosUsuarios("ac", total);
+            }
+            @Override public void executar(int i) { f.adicionarComunidade(sessoes[i], r.getComunidade(com[i])); }
+        });
+
+        c.add(new Cenario("getMembrosComunidade") {
+            Facade f; RedeSintetica r; int[] com;
+            @Override public void preparar(Bancada b, int total) {
+                f = b.getFacade(); r = b.getRede();
+                com = sortear(getNome(), total, r.getComunidades());
+            }
+            @Override public void executar(int i) { f.getMembrosComunidade(r.getComunidade(com[i])); }
+        });
+
+        c.add(new Cenario("getComunidades") {
+            Facade f; RedeSintetica r; int[] u;
+            @Override public void preparar(Bancada b, int total) {
+                f = b.getFacade(); r = b.getRede();
+                u = sortear(getNome(), total, r.getUsuarios());
+            }
+            @Override public void executar(int i) { f.getComunidades(r.getLogin(u[i])); }
+        });
+
+        c.add(new Cenario("enviarMensagem") {
+            Facade f; RedeSintetica r; int[] com, autor;
+            @Override public void preparar(Bancada b, int total) {
+                f = b.getFacade(); r = b.getRede();
+                com = sortear(getNome(), total, r.getComunidades());
+                autor = membros(r, com, getNome());
+            }
+            @Override public void executar(int i) {
+                f.enviarMensagem(r.getSessao(autor[i]), r.getComunidade(com[i]), "Mensagem para todos");
+            }
+        });
+
+        // cada execução publica uma mensagem e outro membro lê a mais antiga que tiver
+        c.add(new Cenario("enviarLerMensagem") {
+            Facade f; RedeSintetica r; int[] com, autor, leitor;
+            @Override public void preparar(Bancada b, int total) {
+                f = b.getFacade(); r = b.getRede();
+                com = sortear(getNome(), total, r.getComunidades());
+                autor = membros(r, com, getNome());
+                leitor = membros(r, com, getNome() + "2");
+            }
+            @Override public void executar(int i) {
+                f.enviarMensagem(r.getSessao(autor[i]), r.getComunidade(com[i]), "Mensagem para todos");
+                f.lerMensagem(r.getSessao(leitor[i]));
+            }
+        });
+
+        // ** Fãs, paqueras e inimigos **
+
+        c.add(new Cenario("adicionarIdolo") {
+            Facade f; RedeSintetica r; int[] u; String[] sessoes;
+            @Override public void preparar(Bancada b, int total) {
+                f = b.getFacade(); r = b.getRede();
+                u = populares(r, getNome(), total);
+                sessoes = b.novosUsuarios("ai", total);
+            }
+            @Override public void executar(int i) { f.adicionarIdolo(sessoes[i], r.getLogin(u[i])); }
+        });
+
+        c.add(new Cenario("ehFa") {
+            Facade f; RedeSintetica r; int[] u, idolo;
+            @Override public void preparar(Bancada b, int total) {
+                f = b.getFacade(); r = b.getRede();
+                u = sortear(getNome(), total, r.getUsuarios());
+                idolo = populares(r, getNome(), total);
+            }
+            @Override public void executar(int i) { f.ehFa(r.getLogin(u[i]), r.getLogin(idolo[i])); }
+        });
+
+        c.add(new Cenario("getFas") {
+            Facade f; RedeSintetica r; int[] idolo;
+            @Override public void preparar(Bancada b, int total) {
+                f = b.getFacade(); r = b.getRede();
+                idolo = populares(r, getNome(), total);
+            }
+            @Override public void executar(int i) { f.getFas(r.getLogin(idolo[i])); }
+        });
+
+        c.add(new Cenario("adicionarPaquera") {
+            Facade f; RedeSintetica r; int[] u; String[] sessoes;
+            @Override public void preparar(Bancada b, int total) {
+                f = b.getFacade(); r = b.getRede();
+                u = sortear(getNome(), total, r.getUsuarios());
+                sessoes = b.novosUsuarios("ap", total);
+            }
+            @Override public void executar(int i) { f.adicionarPaquera(sessoes[i], r.getLogin(u[i])); }
+        });
+
+        c.add(new Cenario("getPaqueras") {
+            Facade f; String[] logins;
+            @Override public void preparar(Bancada b, int total) {
+                f = b.getFacade();
+                RedeSintetica r = b.getRede();
+                int[] u = sortear(getNome(), 256, r.getUsuarios());
+                String[] sessoes = b.novosUsuarios("gp", 256);
+                for (int k = 0; k < 256; k++) f.adicionarPaquera(sessoes[k], r.getLogin(u[k]));
+                logins = textos("gp", 256);
+            }
+            @Override public void executar(int i) { f.getPaqueras(logins[i & 255]); }
+        });
+
+        c.add(new Cenario("adicionarInimigo") {
+            Facade f; RedeSintetica r; int[] u; String[] sessoes;
+            @Override public void preparar(Bancada b, int total) {
+                f = b.getFacade(); r = b.getRede();
+                u = sortear(getNome(), total, r.getUsuarios());
+                sessoes = b.novosUsuarios("an", total);
+            }
+            @Override public void executar(int i) { f.adicionarInimigo(sessoes[i], r.getLogin(u[i])); }
+        });
+
+        // ** Listagens grandes **
+
+        c.add(new Cenario("getFasCelebridade", 1000) {
+            Facade f; String idolo;
+            @Override public void preparar(Bancada b, int total) {
+                f = b.getFacade();
+                idolo = b.getRede().getLogin(0);
+            }
+            @Override public void executar(int i) { f.getFas(idolo); }
+        });
+
+        c.add(new Cenario("getFasPagina") {
+            Facade f; String idolo; int[] inicio;
+            @Override public void preparar(Bancada b, int total) {
+                f = b.getFacade();
+                idolo = b.getRede().getLogin(0);
+                inicio = sortear(getNome(), total, Math.max(1, f.getFas(idolo, 0, 1).getTotal()));
+            }
+            @Override public void executar(int i) { f.getFas(idolo, inicio[i], TAMANHO_PAGINA); }
+        });
+
+        c.add(new Cenario("getMembrosCelebridade", 1000) {
+            Facade f; String nome;
+            @Override public void preparar(Bancada b, int total) {
+                f = b.getFacade();
+                nome = comunidadeCelebridade(b);
+            }
+            @Override public void executar(int i) { f.getMembrosComunidade(nome); }
+        });
+
+        c.add(new Cenario("getMembrosPagina") {
+            Facade f; String nome; int[] inicio;
+            @Override public void preparar(Bancada b, int total) {
+                f = b.getFacade();
+                nome = comunidadeCelebridade(b);
+                inicio = sortear(getNome(), total, b.getRede().getUsuarios());
+            }
+            @Override public void executar(int i) { f.getMembrosComunidade(nome, inicio[i], TAMANHO_PAGINA); }
+        });
+
+        // percorre a comunidade inteira; a memória viva é a de uma página, mas a alocação total é linear
+        c.add(new Cenario("iterarMembros", 200) {
+            Facade f; String nome; long vistos;
+            @Override public void preparar(Bancada b, int total) {
+                f = b.getFacade();
+                nome = comunidadeCelebridade(b);
+            }
+            @Override public void executar(int i) {
+                Iterator<String> it = f.iterarMembrosComunidade(nome);
+                while (it.hasNext()) {
+                    it.next();
+                    vistos++;
+                }
+            }
+        });
+
+        // ** Sugestões de amizade **
+
+        c.add(new Cenario("sugerirAmigos") {
+            Facade f; RedeSintetica r; int[] u;
+            @Override public void preparar(Bancada b, int total) {
+                f = b.getFacade(); r = b.getRede();
+                u = sortear(getNome(), total, r.getUsuarios());
+            }
+            @Override public void executar(int i) { f.sugerirAmigos(r.getSessao(u[i]), 10); }
+        });
+
+        // os usuários mais populares da rede, que com amizades em lei de potência têm milhares de amigos
+        c.add(new Cenario("sugerirAmigosPopulares", 1000) {
+            Facade f; RedeSintetica r; int[] u;
+            @Override public void preparar(Bancada b, int total) {
+                f = b.getFacade(); r = b.getRede();
+                u = sortear(getNome(), total, Math.min(10, r.getUsuarios()));
+            }
+            @Override public void executar(int i) { f.sugerirAmigos(r.getSessao(u[i]), 10); }
+        });
+
+        // ** Busca **
+
+        c.add(new Cenario("buscarUsuarios") {
+            Facade f; String[] consultas;
+            @Override public void preparar(Bancada b, int total) {
+                f = b.getFacade();
+                preencherPerfis(b);
+                Random r = new Random(getNome().hashCode());
+                consultas = new String[total];
+                for (int i = 0; i < total; i++) {
+                    consultas[i] = switch (i % 4) {
+                        case 0 -> CIDADES[r.nextInt(CIDADES.length)];
+                        case 1 -> INTERESSES[r.nextInt(INTERESSES.length)] + " " + CIDADES[r.nextInt(CIDADES.length)];
+                        case 2 -> INTERESSES[r.nextInt(INTERESSES.length)].substring(0, 3) + "*";
+                        default -> "usuario " + r.nextInt(b.getRede().getUsuarios());
+                    };
+                }
+                // a primeira busca constrói o índice
+                f.buscarUsuarios(consultas[0], 10);
+            }
+            @Override public void executar(int i) { f.buscarUsuarios(consultas[i], 10); }
+        });
+
+        // cada cidade tem cerca de um décimo dos usuários; o custo deve ser o da página
+        c.add(new Cenario("getUsuariosComAtributo") {
+            Facade f; String[] cidades;
+            @Override public void preparar(Bancada b, int total) {
+                f = b.getFacade();
+                preencherPerfis(b);
+                Random r = new Random(getNome().hashCode());
+                cidades = new String[total];
+                for (int i = 0; i < total; i++) cidades[i] = CIDADES[r.nextInt(CIDADES.length)];
+                // a primeira consulta constrói o índice
+                f.getUsuariosComAtributo("cidade", cidades[0], 0, TAMANHO_PAGINA);
+            }
+            @Override public void executar(int i) { f.getUsuariosComAtributo("cidade", cidades[i], 0, TAMANHO_PAGINA); }
+        });
+
+        c.add(new Cenario("buscarComunidades") {
+            Facade f; String[] consultas;
+            @Override public void preparar(Bancada b, int total) {
+                f = b.getFacade();
+                Random r = new Random(getNome().hashCode());
+                consultas = new String[total];
+                for (int i = 0; i < total; i++) {
+                    consultas[i] = i % 2 == 0 ? "comunidade " + r.nextInt(b.getRede().getComunidades())
+                            : "comunidade " + r.nextInt(10) + "*";
+                }
+                f.buscarComunidades(consultas[0], 10);
+            }
+            @Override public void executar(int i) { f.buscarComunidades(consultas[i], 10); }
+        });
+
+        // ** Análise da rede **
+
+        // a captura (com todas as travas) e os cálculos, com o paralelismo padrão; ver EscalaAnalise
+        c.add(new Cenario("analisarRede", 5) {
+            Facade f;
+            @Override public void preparar(Bancada b, int total) { f = b.getFacade(); }
+            @Override public void executar(int i) { f.analisarRede(); }
+        });
+
+        // ** Remoção e persistência **
+
+        // cada usuário removido tem amigos, ídolo, paquera, comunidade e recado enviado, como na rede
+        c.add(new Cenario("removerUsuario", 500) {
+            Facade f; String[] sessoes;
+            @Override public void preparar(Bancada b, int total) {
+                f = b.getFacade();
+                RedeSintetica r = b.getRede();
+                sessoes = b.novosUsuarios("ru", total);
+                int[] u = sortear(getNome(), total * 4, r.getUsuarios());
+                int[] com = sortear(getNome(), total, r.getComunidades());
+                int[] idolo = populares(r, getNome(), total);
+                for (int k = 0; k < total; k++) {
+                    f.adicionarAmigo(sessoes[k], r.getLogin(u[4 * k]));
+                    f.adicionarAmigo(r.getSessao(u[4 * k]), "ru" + k);
+                    if (u[4 * k + 1] != u[4 * k]) f.adicionarAmigo(sessoes[k], r.getLogin(u[4 * k + 1]));
+                    f.adicionarIdolo(sessoes[k], r.getLogin(idolo[k]));
+                    f.adicionarPaquera(sessoes[k], r.getLogin(u[4 * k + 2]));
+                    f.adicionarComunidade(sessoes[k], r.getComunidade(com[k]));
+                    f.enviarRecado(sessoes[k], r.getLogin(u[4 * k + 3]), "Tchau");
+                }
+            }
+            @Override public void executar(int i) { f.removerUsuario(sessoes[i]); }
+        });
+
+        c.add(new Cenario("salvar", 3) {
+            Bancada b;
+            @Override public void preparar(Bancada b, int total) { this.b = b; }
+            @Override public void executar(int i) { b.encerrar(); }
+            @Override public void depois(int i) {
+                b.carregar();
+                b.reabrirSessoes();
+            }
+        });
+
+        c.add(new Cenario("carregar", 3) {
+            Bancada b;
+            @Override public void preparar(Bancada b, int total) { this.b = b; }
+            @Override public void antes(int i) { b.encerrar(); }
+            @Override public void executar(int i) { b.carregar(); }
+            @Override public void depois(int i) { b.reabrirSessoes(); }
+        });
+
+        return c;
+    }
+
+    private static final int TAMANHO_PAGINA = 50;
+    private static final String CELEBRIDADE = "celebridade";
+    private static final String[] CIDADES = { "São Paulo", "Maceió", "Arapiraca", "Recife", "João Pessoa",
+            "Palmeira dos Índios", "Penedo", "União dos Palmares", "Ribeirão Preto", "Belém" };
+    private static final String[] INTERESSES = { "música", "futebol", "programação", "cinema", "xadrez",
+            "culinária", "fotografia", "forró", "literatura", "ciência" };
+
+    /**
+     * Cria, na primeira chamada, uma comunidade com todos os usuários da rede.
+     */
+    private static String comunidadeCelebridade(Bancada b) {
+        Facade f = b.getFacade();
+        RedeSintetica r = b.getRede();
+        try {
+            f.getDonoComunidade(CELEBRIDADE);
+            return CELEBRIDADE;
+        } catch (ComunidadeNaoExisteException e) {
+            // ainda não foi criada
+        }
+        f.criarComunidade(r.getSessao(0), CELEBRIDADE, "Todos os usuários da rede");
+        List<String> sessoes = new ArrayList<>(r.getUsuarios());
+        for (int i = 1; i < r.getUsuarios(); i++) sessoes.add(r.getSessao(i));
+        f.adicionarMembros(CELEBRIDADE, sessoes);
+        return CELEBRIDADE;
+    }
+
+    /**
+     * Preenche a cidade e os interesses de todos os usuários da rede.
+     */
+    private static void preencherPerfis(Bancada b) {
+        Facade f = b.getFacade();
+        RedeSintetica r = b.getRede();
+        Random s = new Random(r.getUsuarios());
+        for (int i = 0; i < r.getUsuarios(); i++) {
+            f.editarPerfil(r.getSessao(i), "cidade", CIDADES[s.nextInt(CIDADES.length)]);
+            f.editarPerfil(r.getSessao(i), "interesses", INTERESSES[s.nextInt(INTERESSES.length)] + ", "
+                    + INTERESSES[s.nextInt(INTERESSES.length)]);
+        }
+    }
+
+    private static String[] textos(String prefixo, int n) {
+        String[] v = new String[n];
+        for (int i = 0; i < n; i++) v[i] = prefixo + i;
+        return v;
+    }
+
+    private static int[] sortear(String semente, int n, int limite) {
+        Random r = new Random(semente.hashCode());
+        int[] v = new int[n];
+        for (int i = 0; i < n; i++) v[i] = r.nextInt(limite);
+        return v;
+    }
+
+    private static int[] distintos(String semente, int[] outros, int limite) {
+        Random r = new Random(~semente.hashCode());
+        int[] v = new int[outros.length];
+        for (int i = 0; i < v.length; i++) {
+            do { v[i] = r.nextInt(limite); } while (v[i] == outros[i]);
+        }
+        return v;
+    }
+
+    private static int[] populares(RedeSintetica rede, String semente, int n) {
+        Random r = new Random(semente.hashCode());
+        int[] v = new int[n];
+        for (int i = 0; i < n; i++) v[i] = rede.idoloPopular(r);
+        return v;
+    }
+
+    private static int[] membros(RedeSintetica rede, int[] com, String semente) {
+        Random r = new Random(semente.hashCode());
+        int[] v = new int[com.length];
+        for (int i = 0; i < v.length; i++) {
+            int[] m = rede.getMembros(com[i]);
+            v[i] = m[r.nextInt(m.length)];
+        }
+        return v;
+    }
+}
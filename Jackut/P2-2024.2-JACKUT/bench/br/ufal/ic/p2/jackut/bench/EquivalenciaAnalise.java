@@ -0,0 +1,170 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.Configuracao;
+import br.ufal.ic.p2.jackut.Facade;
+import br.ufal.ic.p2.jackut.analise.RelatorioRede;
+import java.util.*;
+
+/**
+ * Confere a análise da rede ({@link Facade#analisarRede(int)}): com 1, 2, ... N threads, o relatório deve
+ * ser idêntico, tirando os tempos, e deve bater com um cálculo sequencial simples feito a partir das
+ * listagens da {@link Facade}, com uma busca em largura para as componentes conexas e a comparação direta
+ * dos membros de cada par de comunidades.
+ *
+ * <p>São conferidas redes esparsas, com milhares de componentes pequenas, e redes com amizades em lei de
+ * potência, para algumas sementes. Configuração: {@code jackut.bench.usuarios} (padrão 3000),
+ * {@code jackut.bench.nucleos} (maior quantidade de threads, padrão 6) e {@code jackut.bench.sementes}
+ * (padrão 3). Termina com código 1 se alguma conferência falhar. Como a {@link Bancada}, deve ser
+ * executada num diretório vazio:</p>
+ * <pre>
+ * java -cp out br.ufal.ic.p2.jackut.bench.EquivalenciaAnalise
+ * </pre>
+ */
+public class EquivalenciaAnalise {
+
+    public static void main(String[] args) {
+        Bancada.exigirDiretorioVazio();
+        if (System.getProperty("jackut.senha.iteracoes") == null) System.setProperty("jackut.senha.iteracoes", "1");
+        int usuarios = Math.max(10, Configuracao.inteiro("bench.usuarios", 3000));
+        int nucleos  = Math.max(2, Configuracao.inteiro("bench.nucleos", 6));
+        int sementes = Math.max(1, Configuracao.inteiro("bench.sementes", 3));
+
+        List<String> falhas = new ArrayList<>();
+        Facade f = new Facade();
+        for (int s = 1; s <= sementes; s++) {
+            // grau 1: metade dos usuários sem amigos e milhares de componentes; grau 8 em lei de potência:
+            // uma componente gigante e ídolos muito populares
+            RedeSintetica[] redes = {
+                    new RedeSintetica(usuarios, 1, 2, 30, s, false),
+                    new RedeSintetica(usuarios, 8, 5, 60, s, true)
+            };
+            for (RedeSintetica rede : redes) {
+                int antes = falhas.size();
+                rede.construir(f);
+                String quando = rede.toString();
+                RelatorioRede base = f.analisarRede(1);
+                for (int p = 2; p <= nucleos; p++) {
+                    RelatorioRede r = f.analisarRede(p);
+                    if (!semTempos(r).equals(semTempos(base))) {
+                        falhas.add(quando + ": com " + p + " threads\n" + semTempos(r)
+                                + "\ncom 1 thread\n" + semTempos(base));
+                    }
+                }
+                conferir(f, rede, base, quando, falhas);
+                System.out.printf("%s: %d componentes, %d isolados, %d pares de comunidades, %d falhas%n", quando,
+                        base.getComponentes(), base.getIsolados(), base.getSobreposicao().getPares(),
+                        falhas.size() - antes);
+            }
+        }
+        f.zerarSistema();
+        f.encerrarSistema();
+        Bancada.apagarArquivos();
+        if (!falhas.isEmpty()) {
+            for (String s : falhas.subList(0, Math.min(20, falhas.size()))) System.out.println("FALHA: " + s);
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    /**
+     * @return O relatório em texto, sem a primeira linha, que traz o paralelismo e os tempos
+     */
+    private static String semTempos(RelatorioRede r) {
+        String s = r.toString();
+        return s.substring(s.indexOf('\n') + 1);
+    }
+
+    /**
+     * Confere o relatório contra o cálculo sequencial.
+     */
+    private static void conferir(Facade f, RedeSintetica rede, RelatorioRede r, String quando, List<String> falhas) {
+        int n = rede.getUsuarios();
+        Map<String, Integer> indice = new HashMap<>();
+        for (int u = 0; u < n; u++) indice.put(rede.getLogin(u), u);
+        List<List<Integer>> amigos = new ArrayList<>(n);
+        long graus = 0, fas = 0;
+        int maiorGrau = 0, maisFas = 0;
+        for (int u = 0; u < n; u++) {
+            List<Integer> vizinhos = new ArrayList<>();
+            for (String a : itens(f.getAmigos(rede.getLogin(u)))) vizinhos.add(indice.get(a));
+            amigos.add(vizinhos);
+            graus += vizinhos.size();
+            maiorGrau = Math.max(maiorGrau, vizinhos.size());
+            int k = f.getFas(rede.getLogin(u), 0, 1).getTotal();
+            fas += k;
+            maisFas = Math.max(maisFas, k);
+        }
+
+        // componentes por busca em largura
+        boolean[] visto = new boolean[n];
+        int componentes = 0, maior = 0, isolados = 0;
+        ArrayDeque<Integer> fila = new ArrayDeque<>();
+        for (int u = 0; u < n; u++) {
+            if (amigos.get(u).isEmpty()) isolados++;
+            if (visto[u]) continue;
+            componentes++;
+            int tamanho = 0;
+            visto[u] = true;
+            fila.add(u);
+            while (!fila.isEmpty()) {
+                int v = fila.poll();
+                tamanho++;
+                for (int w : amigos.get(v)) {
+                    if (!visto[w]) {
+                        visto[w] = true;
+                        fila.add(w);
+                    }
+                }
+            }
+            maior = Math.max(maior, tamanho);
+        }
+
+        // sobreposição: cada par de comunidades, pela interseção dos membros
+        List<Set<String>> membros = new ArrayList<>();
+        for (int c = 0; c < rede.getComunidades(); c++) {
+            membros.add(new HashSet<>(itens(f.getMembrosComunidade(rede.getComunidade(c)))));
+        }
+        long pares = 0;
+        double somaJaccard = 0;
+        for (int a = 0; a < membros.size(); a++) {
+            for (int b = a + 1; b < membros.size(); b++) {
+                int comuns = 0;
+                for (String m : membros.get(a)) if (membros.get(b).contains(m)) comuns++;
+                if (comuns == 0) continue;
+                pares++;
+                somaJaccard += (double) comuns / (membros.get(a).size() + membros.get(b).size() - comuns);
+            }
+        }
+        double jaccard = pares == 0 ? 0 : somaJaccard / pares;
+
+        RelatorioRede.Sobreposicao s = r.getSobreposicao();
+        igual(falhas, quando, "usuários", n, r.getUsuarios());
+        igual(falhas, quando, "amizades", graus / 2, r.getAmizades());
+        igual(falhas, quando, "maior quantidade de amigos", maiorGrau, r.getAmigos().getMaximo());
+        igual(falhas, quando, "fãs", fas, r.getFas().getTotal());
+        igual(falhas, quando, "maior quantidade de fãs", maisFas, r.getFas().getMaximo());
+        igual(falhas, quando, "componentes", componentes, r.getComponentes());
+        igual(falhas, quando, "maior componente", maior, r.getMaiorComponente());
+        igual(falhas, quando, "isolados", isolados, r.getIsolados());
+        igual(falhas, quando, "comunidades", membros.size(), s.getComunidades());
+        if (s.getAnalisadas() == membros.size()) {
+            igual(falhas, quando, "pares de comunidades", pares, s.getPares());
+            if (Math.abs(jaccard - s.getJaccardMedio()) > 1e-9) {
+                falhas.add(quando + ": Jaccard médio " + s.getJaccardMedio() + ", esperado " + jaccard);
+            }
+        }
+    }
+
+    private static void igual(List<String> falhas, String quando, String oque, long esperado, long obtido) {
+        if (esperado != obtido) falhas.add(quando + ": " + oque + " " + obtido + ", esperado " + esperado);
+    }
+
+    /**
+     * @param listagem Uma listagem completa, como {@code "{a,b,c}"}
+     * @return Os itens da listagem
+     */
+    private static List<String> itens(String listagem) {
+        String meio = listagem.substring(1, listagem.length() - 1);
+        return meio.isEmpty() ? Collections.emptyList() : Arrays.asList(meio.split(","));
+    }
+}
@@ -0,0 +1,166 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.Configuracao;
+import br.ufal.ic.p2.jackut.Facade;
+import br.ufal.ic.p2.jackut.Pagina;
+import java.util.*;
+
+/**
+ * Confere as listagens paginadas e os iteradores da {@link Facade} contra as listagens completas: para cada
+ * usuário, amigos, fãs, paqueras e comunidades, e para cada comunidade, os membros, as páginas concatenadas
+ * (com vários tamanhos de página, seguindo {@link Pagina#getProximo()}) e o iterador devem dar exatamente a
+ * listagem de {@code getAmigos(login)} e das outras, na mesma ordem, e cada página deve informar o total.
+ *
+ * <p>Para cada semente, uma {@link RedeSintetica} é construída e alterada ao acaso: paqueras, entradas em
+ * mais comunidades e remoções de contas, que abrem buracos nas listas por posição. A comparação é feita
+ * sobre o sistema em memória e de novo depois de encerrá-lo e abri-lo; com
+ * {@code -Djackut.usuarios.sobDemanda=true}, a releitura usa a carga sob demanda.</p>
+ *
+ * <p>Configuração: {@code jackut.bench.usuarios} (padrão 400), {@code jackut.bench.sementes} (padrão 4) e
+ * {@code jackut.pagina.tamanhoIteracao}, que aqui tem padrão 5, para que os iteradores busquem várias
+ * páginas. Termina com código 1 se alguma comparação falhar. Como a {@link Bancada}, deve ser executada
+ * num diretório vazio:</p>
+ * <pre>
+ * java -cp out br.ufal.ic.p2.jackut.bench.EquivalenciaPaginas
+ * </pre>
+ */
+public class EquivalenciaPaginas {
+
+    private static final int[] LIMITES = { 1, 3, 17, Integer.MAX_VALUE };
+
+    private interface Paginas { Pagina obter(int inicio, int limite); }
+
+    private final List<String> falhas;
+
+    private EquivalenciaPaginas(List<String> falhas) {
+        this.falhas = falhas;
+    }
+
+    public static void main(String[] args) {
+        Bancada.exigirDiretorioVazio();
+        if (System.getProperty("jackut.senha.iteracoes") == null) System.setProperty("jackut.senha.iteracoes", "1");
+        // lido uma vez, ao carregar o iterador
+        if (System.getProperty("jackut.pagina.tamanhoIteracao") == null) {
+            System.setProperty("jackut.pagina.tamanhoIteracao", "5");
+        }
+        int usuarios = Math.max(10, Configuracao.inteiro("bench.usuarios", 400));
+        int sementes = Math.max(1, Configuracao.inteiro("bench.sementes", 4));
+
+        List<String> falhas = new ArrayList<>();
+        EquivalenciaPaginas e = new EquivalenciaPaginas(falhas);
+        for (int s = 1; s <= sementes; s++) {
+            int antes = falhas.size();
+            int listagens = e.executar(usuarios, s);
+            System.out.printf("semente %d: %d listagens, %d falhas%n", s, listagens, falhas.size() - antes);
+        }
+        Bancada.apagarArquivos();
+        if (!falhas.isEmpty()) {
+            for (String s : falhas.subList(0, Math.min(20, falhas.size()))) System.out.println("FALHA: " + s);
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    private int executar(int usuarios, long semente) {
+        RedeSintetica rede = new RedeSintetica(usuarios, 12, 4, 40, semente);
+        Facade f = new Facade();
+        rede.construir(f);
+        Set<Integer> removidos = alterar(f, rede, new Random(semente));
+
+        int listagens = comparar(f, rede, removidos, "em memória");
+        f.encerrarSistema();
+        f = new Facade();
+        listagens += comparar(f, rede, removidos, "depois de reabrir");
+        f.zerarSistema();
+        f.encerrarSistema();
+        return listagens;
+    }
+
+    /**
+     * Acrescenta paqueras e entradas em comunidades e remove algumas contas, ignorando as recusas.
+     *
+     * @return Os índices das contas removidas
+     */
+    private static Set<Integer> alterar(Facade f, RedeSintetica rede, Random r) {
+        int n = rede.getUsuarios();
+        for (int i = 0; i < n * 4; i++) {
+            String s = rede.getSessao(r.nextInt(n));
+            try {
+                if (r.nextBoolean()) f.adicionarPaquera(s, rede.getLogin(rede.idoloPopular(r)));
+                else f.adicionarComunidade(s, rede.getComunidade(r.nextInt(rede.getComunidades())));
+            } catch (RuntimeException e) {
+                // já adicionado, inimigo ou a si mesmo
+            }
+        }
+        Set<Integer> removidos = new HashSet<>();
+        for (int i = 0; i < n / 20; i++) {
+            int u = r.nextInt(n);
+            if (removidos.add(u)) f.removerUsuario(rede.getSessao(u));
+        }
+        return removidos;
+    }
+
+    private int comparar(Facade f, RedeSintetica rede, Set<Integer> removidos, String quando) {
+        int listagens = 0;
+        for (int i = 0; i < rede.getUsuarios(); i++) {
+            if (removidos.contains(i)) continue;
+            String l = rede.getLogin(i);
+            String oque = quando + ": de " + l;
+            igual(oque + ", amigos", f.getAmigos(l), (a, b) -> f.getAmigos(l, a, b), f.iterarAmigos(l));
+            igual(oque + ", fãs", f.getFas(l), (a, b) -> f.getFas(l, a, b), f.iterarFas(l));
+            igual(oque + ", paqueras", f.getPaqueras(l), (a, b) -> f.getPaqueras(l, a, b), f.iterarPaqueras(l));
+            igual(oque + ", comunidades", f.getComunidades(l), (a, b) -> f.getComunidades(l, a, b),
+                    f.iterarComunidades(l));
+            listagens += 4;
+        }
+        for (int c = 0; c < rede.getComunidades(); c++) {
+            String nome = rede.getComunidade(c);
+            String completa;
+            try {
+                completa = f.getMembrosComunidade(nome);
+            } catch (RuntimeException e) {
+                continue; // o dono foi removido
+            }
+            igual(quando + ": membros de " + nome, completa, (a, b) -> f.getMembrosComunidade(nome, a, b),
+                    f.iterarMembrosComunidade(nome));
+            listagens++;
+        }
+        return listagens;
+    }
+
+    private void igual(String oque, String completa, Paginas paginas, Iterator<String> iterador) {
+        List<String> esperado = itens(completa);
+        for (int limite : LIMITES) {
+            List<String> obtido = new ArrayList<>();
+            int inicio = 0, paginasLidas = 0;
+            while (inicio >= 0 && paginasLidas++ <= esperado.size()) {
+                Pagina p = paginas.obter(inicio, limite);
+                if (p.getTotal() != esperado.size() || p.getInicio() != inicio) {
+                    falhas.add(oque + ", limite " + limite + ": página em " + p.getInicio() + " de " + p.getTotal()
+                            + ", esperada em " + inicio + " de " + esperado.size());
+                }
+                obtido.addAll(p.getItens());
+                inicio = p.getProximo();
+            }
+            if (!obtido.equals(esperado)) {
+                falhas.add(oque + ", limite " + limite + ": " + obtido + ", esperado " + esperado);
+            }
+        }
+        boolean cabe = esperado.size() <= Pagina.LIMITE_MAXIMO;
+        if (cabe && !paginas.obter(0, Pagina.LIMITE_MAXIMO).toString().equals(completa)) {
+            falhas.add(oque + ": a página inteira não tem o formato da listagem completa");
+        }
+        List<String> iterados = new ArrayList<>();
+        iterador.forEachRemaining(iterados::add);
+        if (!iterados.equals(esperado)) falhas.add(oque + ", iterador: " + iterados + ", esperado " + esperado);
+    }
+
+    /**
+     * @param listagem Uma listagem completa, como {@code "{a,b,c}"}
+     * @return Os itens da listagem
+     */
+    private static List<String> itens(String listagem) {
+        String meio = listagem.substring(1, listagem.length() - 1);
+        return meio.isEmpty() ? Collections.emptyList() : Arrays.asList(meio.split(","));
+    }
+}
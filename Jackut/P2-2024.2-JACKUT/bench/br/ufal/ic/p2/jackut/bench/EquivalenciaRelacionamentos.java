@@ -0,0 +1,348 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.Configuracao;
+import br.ufal.ic.p2.jackut.Facade;
+import br.ufal.ic.p2.jackut.exceptions.*;
+import java.util.*;
+
+/**
+ * Confere os relacionamentos guardados como ids inteiros, e a remoção de contas pelos índices reversos,
+ * contra um modelo simples em conjuntos de logins, como o Jackut os guardava antes: uma carga sorteada de
+ * amizades, convites, ídolos, paqueras, inimigos, comunidades, recados, mensagens, remoções e recriações
+ * de contas é aplicada à {@link Facade} e ao modelo, e cada operação deve dar o mesmo resultado (ou lançar
+ * a mesma exceção) nos dois.
+ *
+ * <p>De tempos em tempos, e no fim de cada semente, o estado inteiro é comparado: amigos, fãs, paqueras e
+ * comunidades de cada usuário, na ordem, membros e dono de cada comunidade, e a ausência das contas
+ * removidas. Recados e mensagens são comparados a cada leitura. Algumas vezes por semente o sistema é
+ * encerrado e aberto de novo, e a comparação é repetida sobre o estado recarregado; com
+ * {@code -Djackut.usuarios.sobDemanda=true}, a releitura usa a carga sob demanda.</p>
+ *
+ * <p>Configuração: {@code jackut.bench.usuarios} (padrão 40), {@code jackut.bench.comunidades} (padrão 8),
+ * {@code jackut.bench.operacoes} (por semente, padrão 6000) e {@code jackut.bench.sementes} (padrão 8).
+ * Termina com código 1 se alguma comparação falhar. Como a {@link Bancada}, deve ser executada num
+ * diretório vazio:</p>
+ * <pre>
+ * java -cp out br.ufal.ic.p2.jackut.bench.EquivalenciaRelacionamentos
+ * </pre>
+ */
+public class EquivalenciaRelacionamentos {
+
+    private final int usuarios;
+    private final int comunidades;
+    private final Random r;
+    private final List<String> falhas;
+    private Facade f;
+
+    // o modelo: conjuntos de logins na ordem de inserção, como os do Jackut antes dos ids inteiros
+    private final Map<String, Conta> contas = new HashMap<>();
+    private final Map<String, String> donos = new HashMap<>();
+    private final Map<String, Set<String>> membros = new HashMap<>();
+    private final Map<String, String> sessoes = new HashMap<>();
+
+    private static final class Conta {
+        final Set<String> amigos = new LinkedHashSet<>();
+        // quem convidou esta conta e ainda espera a resposta
+        final Set<String> convites = new LinkedHashSet<>();
+        final Set<String> idolos = new LinkedHashSet<>();
+        final Set<String> fas = new LinkedHashSet<>();
+        final Set<String> paqueras = new LinkedHashSet<>();
+        final Set<String> inimigos = new LinkedHashSet<>();
+        final Set<String> comunidades = new LinkedHashSet<>();
+        // {remetente, texto}
+        final Deque<String[]> recados = new ArrayDeque<>();
+        // {autor, comunidade, texto}, na ordem global de envio
+        final Deque<String[]> mensagens = new ArrayDeque<>();
+    }
+
+    private EquivalenciaRelacionamentos(int usuarios, int comunidades, long semente, List<String> falhas) {
+        this.usuarios = usuarios;
+        this.comunidades = comunidades;
+        this.r = new Random(semente);
+        this.falhas = falhas;
+    }
+
+    public static void main(String[] args) {
+        Bancada.exigirDiretorioVazio();
+        if (System.getProperty("jackut.senha.iteracoes") == null) System.setProperty("jackut.senha.iteracoes", "1");
+        int usuarios    = Math.max(4, Configuracao.inteiro("bench.usuarios", 40));
+        int comunidades = Math.max(1, Configuracao.inteiro("bench.comunidades", 8));
+        int operacoes   = Math.max(1, Configuracao.inteiro("bench.operacoes", 6000));
+        int sementes    = Math.max(1, Configuracao.inteiro("bench.sementes", 8));
+
+        List<String> falhas = new ArrayList<>();
+        for (int s = 1; s <= sementes; s++) {
+            int antes = falhas.size();
+            EquivalenciaRelacionamentos e = new EquivalenciaRelacionamentos(usuarios, comunidades, s, falhas);
+            e.executar(operacoes);
+            System.out.printf("semente %d: %d operações, %d falhas%n", s, operacoes, falhas.size() - antes);
+        }
+        Bancada.apagarArquivos();
+        if (!falhas.isEmpty()) {
+            for (String s : falhas.subList(0, Math.min(20, falhas.size()))) System.out.println("FALHA: " + s);
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    private static String login(int u) { return "q" + u; }
+
+    private static String nome(String login) { return "Nome " + login; }
+
+    private static String comunidade(int c) { return "qc" + c; }
+
+    private void executar(int operacoes) {
+        f = new Facade();
+        f.zerarSistema();
+        for (int u = 0; u < usuarios; u++) criar(login(u));
+        for (int i = 1; i <= operacoes && falhas.size() < 100; i++) {
+            operar(i);
+            if (i % 500 == 0) comparar("operação " + i);
+            if (i % 2000 == 0) reabrir("operação " + i);
+        }
+        comparar("fim");
+        reabrir("fim");
+        f.zerarSistema();
+        f.encerrarSistema();
+    }
+
+    private void operar(int i) {
+        String a = login(r.nextInt(usuarios)), b = login(r.nextInt(usuarios));
+        String c = comunidade(r.nextInt(comunidades));
+        int op = r.nextInt(100);
+        if (!contas.containsKey(a)) {
+            // a conta foi removida: às vezes volta, com o mesmo login
+            if (op < 20) criar(a);
+            return;
+        }
+        String s = sessoes.get(a);
+        if (op < 20)      executar("adicionarAmigo " + a + " " + b, () -> f.adicionarAmigo(s, b), () -> amigo(a, b));
+        else if (op < 30) executar("adicionarIdolo " + a + " " + b, () -> f.adicionarIdolo(s, b), () -> idolo(a, b));
+        else if (op < 37) executar("adicionarPaquera " + a + " " + b, () -> f.adicionarPaquera(s, b),
+                () -> paquera(a, b));
+        else if (op < 40) executar("adicionarInimigo " + a + " " + b, () -> f.adicionarInimigo(s, b),
+                () -> inimigo(a, b));
+        else if (op < 44) executar("criarComunidade " + a + " " + c, () -> f.criarComunidade(s, c, "d"),
+                () -> criarComunidade(a, c));
+        else if (op < 54) executar("adicionarComunidade " + a + " " + c, () -> f.adicionarComunidade(s, c),
+                () -> entrar(a, c));
+        else if (op < 66) {
+            String texto = "recado " + i;
+            executar("enviarRecado " + a + " " + b, () -> f.enviarRecado(s, b, texto), () -> recado(a, b, texto));
+        } else if (op < 74) {
+            String texto = "mensagem " + i;
+            executar("enviarMensagem " + a + " " + c, () -> f.enviarMensagem(s, c, texto), () -> mensagem(a, c, texto));
+        } else if (op < 86) ler("lerRecado " + a, () -> f.lerRecado(s), () -> lerRecado(a));
+        else if (op < 97) ler("lerMensagem " + a, () -> f.lerMensagem(s), () -> lerMensagem(a));
+        else executar("removerUsuario " + a, () -> f.removerUsuario(s), () -> remover(a));
+    }
+
+    // ** Modelo **
+
+    private void criar(String l) {
+        f.criarUsuario(l, "s", nome(l));
+        contas.put(l, new Conta());
+        sessoes.put(l, f.abrirSessao(l, "s"));
+    }
+
+    private Conta conta(String l) {
+        Conta c = contas.get(l);
+        if (c == null) throw new UsuarioNaoCadastradoException();
+        return c;
+    }
+
+    private void amigo(String a, String b) {
+        Conta ca = conta(a), cb = conta(b);
+        if (cb.inimigos.contains(a)) throw new FuncaoInvalidaException(nome(b) + " é seu inimigo.");
+        if (a.equals(b)) throw new UsuarioNaoPodeAdicionarASiMesmoException();
+        if (ca.amigos.contains(b)) throw new UsuarioJaEstaAdicionadoException();
+        if (cb.convites.contains(a)) throw new UsuarioJaEstaAdicionadoEsperandoException();
+        if (ca.convites.remove(b)) {
+            ca.amigos.add(b);
+            cb.amigos.add(a);
+        } else {
+            cb.convites.add(a);
+        }
+    }
+
+    private void idolo(String a, String b) {
+        Conta ca = conta(a), cb = conta(b);
+        if (cb.inimigos.contains(a)) throw new FuncaoInvalidaException(nome(b) + " é seu inimigo.");
+        if (a.equals(b)) throw new UsuarioNaoPodeSerFaDeSiMesmoException();
+        if (ca.idolos.contains(b)) throw new UsuarioJaEstaIdoloException();
+        ca.idolos.add(b);
+        cb.fas.add(a);
+    }
+
+    private void paquera(String a, String b) {
+        Conta ca = conta(a), cb = conta(b);
+        if (cb.inimigos.contains(a)) throw new FuncaoInvalidaException(nome(b) + " é seu inimigo.");
+        if (a.equals(b)) throw new UsuarioNaoPodeSerPaqueraDeSiMesmoException();
+        if (ca.paqueras.contains(b)) throw new UsuarioJaEstaPaqueraException();
+        ca.paqueras.add(b);
+        if (cb.paqueras.contains(a)) {
+            ca.recados.add(new String[] { b, nome(b) + " é seu paquera - Recado do Jackut." });
+            cb.recados.add(new String[] { a, nome(a) + " é seu paquera - Recado do Jackut." });
+        }
+    }
+
+    private void inimigo(String a, String b) {
+        Conta ca = conta(a);
+        conta(b);
+        if (a.equals(b)) throw new UsuarioNaoPodeSerInimigoDeSiMesmoException();
+        if (ca.inimigos.contains(b)) throw new UsuarioJaEstaInimigoException();
+        ca.inimigos.add(b);
+    }
+
+    private void criarComunidade(String a, String c) {
+        Conta ca = conta(a);
+        if (donos.containsKey(c)) throw new ComunidadeJaExisteException();
+        donos.put(c, a);
+        membros.put(c, new LinkedHashSet<>(Collections.singleton(a)));
+        ca.comunidades.add(c);
+    }
+
+    private void entrar(String a, String c) {
+        if (!donos.containsKey(c)) throw new ComunidadeNaoExisteException();
+        Conta ca = conta(a);
+        if (!membros.get(c).add(a)) throw new UsuarioJaEstaNaComunidadeException();
+        ca.comunidades.add(c);
+    }
+
+    private void recado(String a, String b, String texto) {
+        conta(a);
+        Conta cb = conta(b);
+        if (cb.inimigos.contains(a)) throw new FuncaoInvalidaException(nome(b) + " é seu inimigo.");
+        if (a.equals(b)) throw new UsuarioNaoPodeEnviarRecadoParaSiMesmoException();
+        cb.recados.add(new String[] { a, texto });
+    }
+
+    private void mensagem(String a, String c, String texto) {
+        if (!donos.containsKey(c)) throw new ComunidadeNaoExisteException();
+        for (String m : membros.get(c)) contas.get(m).mensagens.add(new String[] { a, c, texto });
+    }
+
+    private String lerRecado(String a) {
+        String[] r = conta(a).recados.poll();
+        if (r == null) throw new NaoHaRecadosException();
+        return r[1];
+    }
+
+    private String lerMensagem(String a) {
+        Conta ca = conta(a);
+        // as mensagens de inimigos são puladas na leitura e não voltam
+        for (String[] m; (m = ca.mensagens.poll()) != null; ) {
+            if (!ca.inimigos.contains(m[0])) return m[2];
+        }
+        throw new NaoHaMensagensException();
+    }
+
+    private void remover(String a) {
+        Conta ca = contas.remove(a);
+        sessoes.remove(a);
+        for (Conta o : contas.values()) {
+            o.amigos.remove(a);
+            o.convites.remove(a);
+            o.idolos.remove(a);
+            o.fas.remove(a);
+            o.paqueras.remove(a);
+            o.inimigos.remove(a);
+            o.recados.removeIf(x -> x[0].equals(a));
+            o.mensagens.removeIf(x -> x[0].equals(a));
+        }
+        for (String c : ca.comunidades) {
+            if (!a.equals(donos.get(c))) {
+                membros.get(c).remove(a);
+                continue;
+            }
+            donos.remove(c);
+            for (String m : membros.remove(c)) {
+                Conta cm = contas.get(m);
+                if (cm == null) continue;
+                cm.comunidades.remove(c);
+                cm.mensagens.removeIf(x -> x[1].equals(c));
+            }
+        }
+    }
+
+    // ** Comparação **
+
+    private interface Acao { void executar(); }
+
+    private interface Leitura { String ler(); }
+
+    private void executar(String descricao, Acao real, Acao modelo) {
+        String esperado = resultado(modelo), obtido = resultado(real);
+        if (!esperado.equals(obtido)) falhas.add(descricao + ": " + obtido + ", esperado " + esperado);
+    }
+
+    private void ler(String descricao, Leitura real, Leitura modelo) {
+        String[] esperado = new String[1], obtido = new String[1];
+        String ee = resultado(() -> esperado[0] = modelo.ler()), eo = resultado(() -> obtido[0] = real.ler());
+        if (!ee.equals(eo) || !Objects.equals(esperado[0], obtido[0])) {
+            falhas.add(descricao + ": " + eo + " " + obtido[0] + ", esperado " + ee + " " + esperado[0]);
+        }
+    }
+
+    private static String resultado(Acao a) {
+        try {
+            a.executar();
+            return "ok";
+        } catch (RuntimeException e) {
+            return e.getClass().getSimpleName();
+        }
+    }
+
+    private void comparar(String quando) {
+        for (int u = 0; u < usuarios; u++) {
+            String l = login(u);
+            Conta c = contas.get(l);
+            if (c == null) {
+                String obtido = resultado(() -> f.getAmigos(l));
+                if (!obtido.equals("UsuarioNaoCadastradoException")) {
+                    falhas.add(quando + ": " + l + " foi removido, mas getAmigos deu " + obtido);
+                }
+                continue;
+            }
+            igual(quando, "amigos de " + l, c.amigos, f.iterarAmigos(l));
+            igual(quando, "fãs de " + l, c.fas, f.iterarFas(l));
+            igual(quando, "paqueras de " + l, c.paqueras, f.iterarPaqueras(l));
+            igual(quando, "comunidades de " + l, c.comunidades, f.iterarComunidades(l));
+            for (int v = 0; v < usuarios; v++) {
+                String o = login(v);
+                if (!contas.containsKey(o)) continue;
+                if (f.ehFa(l, o) != c.idolos.contains(o)) falhas.add(quando + ": ehFa(" + l + ", " + o + ")");
+            }
+        }
+        for (int k = 0; k < comunidades; k++) {
+            String nome = comunidade(k);
+            if (!donos.containsKey(nome)) {
+                String obtido = resultado(() -> f.getDonoComunidade(nome));
+                if (!obtido.equals("ComunidadeNaoExisteException")) {
+                    falhas.add(quando + ": " + nome + " não existe, mas getDonoComunidade deu " + obtido);
+                }
+                continue;
+            }
+            if (!donos.get(nome).equals(f.getDonoComunidade(nome))) falhas.add(quando + ": dono de " + nome);
+            igual(quando, "membros de " + nome, membros.get(nome), f.iterarMembrosComunidade(nome));
+        }
+    }
+
+    private void igual(String quando, String oque, Collection<String> esperado, Iterator<String> obtido) {
+        List<String> lista = new ArrayList<>();
+        while (obtido.hasNext()) lista.add(obtido.next());
+        if (!lista.equals(new ArrayList<>(esperado))) {
+            falhas.add(quando + ": " + oque + " " + lista + ", esperado " + esperado);
+        }
+    }
+
+    /**
+     * Encerra o sistema, abre outro sobre os mesmos arquivos e compara de novo; as sessões não sobrevivem.
+     */
+    private void reabrir(String quando) {
+        f.encerrarSistema();
+        f = new Facade();
+        for (String l : contas.keySet()) sessoes.put(l, f.abrirSessao(l, "s"));
+        comparar(quando + ", depois de reabrir");
+    }
+}
@@ -0,0 +1,54 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.Configuracao;
+import br.ufal.ic.p2.jackut.analise.RelatorioRede;
+import java.util.Arrays;
+
+/**
+ * Mede o tempo da análise da rede ({@link br.ufal.ic.p2.jackut.Facade#analisarRede(int)}) com 1, 2, ...
+ * N threads sobre a mesma {@link RedeSintetica}, e imprime o tempo mediano de cada etapa e o ganho em
+ * relação a uma thread.
+ *
+ * <p>Além das propriedades de escala da rede, usa {@code jackut.bench.nucleos} (padrão: a quantidade de
+ * núcleos da máquina) e {@code jackut.bench.rodadas} (execuções medidas por quantidade de threads, padrão 5,
+ * depois de uma de aquecimento). Como a {@link Bancada}, deve ser executada num diretório vazio:</p>
+ * <pre>
+ * java -Djackut.bench.usuarios=200000 -Djackut.bench.amizades=potencia -cp out br.ufal.ic.p2.jackut.bench.EscalaAnalise
+ * </pre>
+ */
+public class EscalaAnalise {
+
+    public static void main(String[] args) {
+        Bancada.exigirDiretorioVazio();
+        int nucleos = Math.max(1, Configuracao.inteiro("bench.nucleos", Runtime.getRuntime().availableProcessors()));
+        int rodadas = Math.max(1, Configuracao.inteiro("bench.rodadas", 5));
+
+        long t = System.nanoTime();
+        Bancada b = new Bancada(new RedeSintetica());
+        System.out.printf("rede: %s (%.1f s)%n", b.getRede(), (System.nanoTime() - t) / 1e9);
+        System.out.println(b.getFacade().analisarRede(nucleos));
+        System.out.println();
+        System.out.printf("%-8s %12s %12s %10s%n", "threads", "captura ms", "calculo ms", "ganho");
+
+        double base = 0;
+        for (int p = 1; p <= nucleos; p++) {
+            b.getFacade().analisarRede(p);
+            long[] captura = new long[rodadas], calculo = new long[rodadas];
+            for (int r = 0; r < rodadas; r++) {
+                RelatorioRede rel = b.getFacade().analisarRede(p);
+                captura[r] = rel.getCapturaNanos();
+                calculo[r] = rel.getCalculoNanos();
+            }
+            double ms = mediana(calculo) / 1e6;
+            if (p == 1) base = ms;
+            System.out.printf("%-8d %12.2f %12.2f %9.2fx%n", p, mediana(captura) / 1e6, ms, base / ms);
+        }
+        b.descartar();
+    }
+
+    private static long mediana(long[] v) {
+        long[] c = v.clone();
+        Arrays.sort(c);
+        return c[c.length / 2];
+    }
+}
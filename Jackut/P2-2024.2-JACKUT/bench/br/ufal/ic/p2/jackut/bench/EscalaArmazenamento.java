@@ -0,0 +1,181 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.Configuracao;
+import br.ufal.ic.p2.jackut.Facade;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Compara os armazenamentos do Jackut ({@code -Djackut.armazenamento}) com a mesma carga: a vazão e a
+ * latência das escritas de vários clientes ao mesmo tempo, o espaço ocupado no disco e o tempo para voltar
+ * a atender, depois de um encerramento normal e depois de uma queda.
+ *
+ * <p>Os armazenamentos são dados em {@code jackut.bench.armazenamentos}, separados por vírgula (padrão
+ * {@code arquivo,chaveValor,memoria}). Para cada um, cria uma fachada nova num diretório limpo, cadastra os
+ * usuários e dispara clientes, cada um com a sua sessão, que alternam {@link Facade#editarPerfil} e
+ * {@link Facade#enviarRecado} durante o tempo pedido, como a {@link EscalaDurabilidade}. Depois mede:</p>
+ * <ul>
+ *   <li>a recuperação: uma JVM nova carrega o que a fachada deixou, sem que ela tenha sido encerrada (não se
+ *   aplica ao armazenamento em memória, que não sobrevive ao processo);</li>
+ *   <li>a reabertura: a fachada é encerrada e uma nova é criada no mesmo processo, até todos os usuários
+ *   estarem decodificados.</li>
+ * </ul>
+ *
+ * <p>Configuração: {@code jackut.bench.usuarios} (padrão 2000), {@code jackut.bench.clientes} (threads de
+ * escrita, padrão 16), {@code jackut.bench.duracaoMs} (padrão 3000) e {@code jackut.bench.aquecimento}
+ * (medições descartadas antes da primeira, com o primeiro armazenamento, padrão 1). As outras propriedades
+ * {@code jackut.*}, como {@code jackut.log.durabilidade}, valem para todos os armazenamentos. Como a
+ * {@link Bancada}, deve ser executada num diretório vazio:</p>
+ * <pre>
+ * java -Djackut.log.durabilidade=grupo -cp out br.ufal.ic.p2.jackut.bench.EscalaArmazenamento
+ * </pre>
+ */
+public class EscalaArmazenamento {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 1 && args[0].equals("recuperar")) {
+            recuperar();
+            return;
+        }
+        Bancada.exigirDiretorioVazio();
+        int usuarios = Math.max(2, Configuracao.inteiro("bench.usuarios", 2000));
+        int clientes = Math.max(1, Math.min(usuarios, Configuracao.inteiro("bench.clientes", 16)));
+        long duracao = Configuracao.longo("bench.duracaoMs", 3000);
+        int aquecimento = Configuracao.inteiro("bench.aquecimento", 1);
+        List<String> armazenamentos = new ArrayList<>();
+        for (String s : Configuracao.texto("bench.armazenamentos", "arquivo,chaveValor,memoria").split(",")) {
+            if (!s.trim().isEmpty()) armazenamentos.add(s.trim());
+        }
+        if (System.getProperty("jackut.senha.iteracoes") == null) System.setProperty("jackut.senha.iteracoes", "1");
+
+        System.out.printf("%d usuários, %d clientes, %d ms de escrita por medição, durabilidade %s, %d processadores%n%n",
+                usuarios, clientes, duracao, Configuracao.texto("log.durabilidade", "assincrona"),
+                Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-14s %12s %10s %10s %12s %14s %14s%n",
+                "armazenamento", "escritas/s", "p50 us", "p99 us", "disco KiB", "recuperação ms", "reabertura ms");
+        for (int i = 0; i < aquecimento && !armazenamentos.isEmpty(); i++) {
+            medir(armazenamentos.get(0), usuarios, clientes, duracao);
+        }
+        for (String a : armazenamentos) System.out.println(medir(a, usuarios, clientes, duracao));
+    }
+
+    private static String medir(String armazenamento, int usuarios, int clientes, long duracao) throws Exception {
+        System.setProperty("jackut.armazenamento", armazenamento);
+        Facade f = new Facade();
+        f.zerarSistema();
+        List<String[]> novos = new ArrayList<>(usuarios);
+        for (int i = 0; i < usuarios; i++) novos.add(new String[] { "login" + i, "senha" + i, "Usuário " + i });
+        f.criarUsuarios(novos);
+        String[] sessoes = new String[clientes];
+        for (int c = 0; c < clientes; c++) sessoes[c] = f.abrirSessao("login" + c, "senha" + c);
+        System.gc();
+
+        long fim = System.nanoTime() + duracao * 1_000_000;
+        long[][] latencias = new long[clientes][];
+        Thread[] ts = new Thread[clientes];
+        for (int c = 0; c < clientes; c++) {
+            int k = c;
+            ts[c] = new Thread(() -> {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                long[] l = new long[1024];
+                int n = 0;
+                while (System.nanoTime() < fim) {
+                    long t0 = System.nanoTime();
+                    if ((n & 1) == 0) f.editarPerfil(sessoes[k], "cidade", "c" + r.nextInt(1000));
+                    else {
+                        // o cliente não manda recado para si mesmo
+                        int d = r.nextInt(usuarios - 1);
+                        f.enviarRecado(sessoes[k], "login" + (d >= k ? d + 1 : d), "recado");
+                    }
+                    if (n == l.length) l = Arrays.copyOf(l, n * 2);
+                    l[n++] = System.nanoTime() - t0;
+                }
+                latencias[k] = Arrays.copyOf(l, n);
+            });
+        }
+        long inicio = System.nanoTime();
+        for (Thread t : ts) t.start();
+        for (Thread t : ts) t.join();
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+
+        int total = 0;
+        for (long[] l : latencias) total += l.length;
+        long[] todas = new long[total];
+        int p = 0;
+        for (long[] l : latencias) {
+            System.arraycopy(l, 0, todas, p, l.length);
+            p += l.length;
+        }
+        Medicao escritas = new Medicao("escritas", todas, -1);
+
+        // a JVM da recuperação lê os arquivos como a queda os deixou; a memória não passa para ela
+        boolean emMemoria = armazenamento.equalsIgnoreCase("memoria");
+        long disco = emMemoria ? 0 : tamanhoArquivos();
+        String recuperacao = emMemoria ? "-" : String.format(Locale.ROOT, "%.1f", executarRecuperacao() / 1e6);
+
+        f.encerrarSistema();
+        long t = System.nanoTime();
+        Facade reaberta = new Facade();
+        reaberta.aguardarCarga();
+        double reabertura = (System.nanoTime() - t) / 1e6;
+        reaberta.zerarSistema();
+        reaberta.encerrarSistema();
+        Bancada.apagarArquivos();
+        return String.format(Locale.ROOT, "%-14s %12.0f %10.1f %10.1f %12d %14s %14.1f",
+                armazenamento, total / segundos, escritas.percentil(50) / 1e3, escritas.percentil(99) / 1e3,
+                disco / 1024, recuperacao, reabertura);
+    }
+
+    /**
+     * Mede a recuperação numa JVM nova, que carrega os arquivos deixados pela fachada atual sem que ela
+     * tenha sido encerrada.
+     *
+     * @return O tempo até o sistema atender com todos os usuários decodificados, em nanossegundos
+     */
+    private static long executarRecuperacao() throws IOException, InterruptedException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        for (String a : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (a.startsWith("-X")) cmd.add(a);
+        }
+        for (String p : System.getProperties().stringPropertyNames()) {
+            if (p.startsWith("jackut.")) cmd.add("-D" + p + "=" + System.getProperty(p));
+        }
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(EscalaArmazenamento.class.getName());
+        cmd.add("recuperar");
+
+        Process p = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+        String ultima = null;
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+            for (String l; (l = r.readLine()) != null; ) ultima = l;
+        }
+        if (p.waitFor() != 0 || ultima == null || !ultima.startsWith("medida ")) {
+            throw new IllegalStateException("A recuperação falhou: " + ultima);
+        }
+        return Long.parseLong(ultima.substring("medida ".length()));
+    }
+
+    /**
+     * Carrega o sistema e imprime o tempo; executado na JVM criada por {@link #executarRecuperacao()}.
+     * O processo termina sem encerrar o sistema, que regravaria o que carregou.
+     */
+    private static void recuperar() {
+        long inicio = System.nanoTime();
+        Facade f = new Facade();
+        f.aguardarCarga();
+        System.out.println("medida " + (System.nanoTime() - inicio));
+        System.exit(0);
+    }
+
+    private static long tamanhoArquivos() {
+        long n = 0;
+        for (File a : Objects.requireNonNull(new File(".").listFiles((d, s) -> s.startsWith("jackut.")))) {
+            n += a.length();
+        }
+        return n;
+    }
+}
@@ -0,0 +1,129 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.Configuracao;
+import br.ufal.ic.p2.jackut.Facade;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Mede o custo da durabilidade: para cada modo de sincronização do registro de operações
+ * ({@code -Djackut.log.durabilidade}), a vazão e a latência das escritas de vários clientes ao mesmo tempo,
+ * e quantas escritas cada fsync confirma.
+ *
+ * <p>Os modos são dados em {@code jackut.bench.durabilidades}, separados por vírgula: {@code assincrona}
+ * (a operação é confirmada sem esperar o disco) ou {@code grupo:<esperaUs>:<lote>} (a operação espera o
+ * fsync em grupo, que espera até {@code esperaUs} microssegundos por outras operações ou até juntar
+ * {@code lote} delas). {@code grupo:0:1} é o mais próximo de um fsync por operação: só se juntam as
+ * operações que chegam enquanto o disco sincroniza. O padrão é
+ * {@code assincrona,grupo:0:1,grupo:200:8,grupo:500:32,grupo:2000:64}.</p>
+ *
+ * <p>Para cada modo, cria uma fachada nova num diretório limpo, cadastra os usuários e dispara clientes,
+ * cada um com a sua sessão, que alternam {@link Facade#editarPerfil} e {@link Facade#enviarRecado} durante
+ * o tempo pedido. Configuração: {@code jackut.bench.usuarios} (padrão 2000), {@code jackut.bench.clientes}
+ * (threads de escrita, padrão 16), {@code jackut.bench.duracaoMs} (padrão 3000) e
+ * {@code jackut.bench.aquecimento} (medições descartadas antes da primeira, com o primeiro modo, padrão 1).
+ * Como a {@link Bancada}, deve ser executada num diretório vazio, no disco que se quer medir (num sistema de
+ * arquivos em memória o fsync não custa nada):</p>
+ * <pre>
+ * java -Djackut.bench.clientes=32 -cp out br.ufal.ic.p2.jackut.bench.EscalaDurabilidade
+ * </pre>
+ */
+public class EscalaDurabilidade {
+
+    public static void main(String[] args) throws InterruptedException {
+        Bancada.exigirDiretorioVazio();
+        int usuarios = Math.max(2, Configuracao.inteiro("bench.usuarios", 2000));
+        int clientes = Math.max(1, Math.min(usuarios, Configuracao.inteiro("bench.clientes", 16)));
+        long duracao = Configuracao.longo("bench.duracaoMs", 3000);
+        int aquecimento = Configuracao.inteiro("bench.aquecimento", 1);
+        List<String> modos = new ArrayList<>();
+        for (String s : Configuracao.texto("bench.durabilidades",
+                "assincrona,grupo:0:1,grupo:200:8,grupo:500:32,grupo:2000:64").split(",")) {
+            if (!s.trim().isEmpty()) modos.add(s.trim());
+        }
+        if (System.getProperty("jackut.log.limiteCompactacao") == null) {
+            System.setProperty("jackut.log.limiteCompactacao", Integer.toString(Integer.MAX_VALUE));
+        }
+        if (System.getProperty("jackut.senha.iteracoes") == null) System.setProperty("jackut.senha.iteracoes", "1");
+
+        System.out.printf("%d usuários, %d clientes, %d ms de escrita por medição, %d processadores%n%n",
+                usuarios, clientes, duracao, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-20s %12s %10s %10s %10s %12s%n",
+                "durabilidade", "escritas/s", "p50 us", "p99 us", "fsyncs/s", "escritas/fsync");
+        for (int i = 0; i < aquecimento && !modos.isEmpty(); i++) medir(modos.get(0), usuarios, clientes, duracao);
+        for (String m : modos) System.out.println(medir(m, usuarios, clientes, duracao));
+    }
+
+    private static String medir(String modo, int usuarios, int clientes, long duracao) throws InterruptedException {
+        String[] partes = modo.split(":");
+        System.setProperty("jackut.log.durabilidade", partes[0]);
+        if (partes.length > 1) System.setProperty("jackut.log.grupo.esperaUs", partes[1]);
+        if (partes.length > 2) System.setProperty("jackut.log.grupo.lote", partes[2]);
+
+        Facade f = new Facade();
+        f.zerarSistema();
+        List<String[]> novos = new ArrayList<>(usuarios);
+        for (int i = 0; i < usuarios; i++) novos.add(new String[] { "login" + i, "senha" + i, "Usuário " + i });
+        f.criarUsuarios(novos);
+        String[] sessoes = new String[clientes];
+        for (int c = 0; c < clientes; c++) sessoes[c] = f.abrirSessao("login" + c, "senha" + c);
+        String antes = f.getMetricasRegistro();
+        System.gc();
+
+        long fim = System.nanoTime() + duracao * 1_000_000;
+        long[][] latencias = new long[clientes][];
+        Thread[] ts = new Thread[clientes];
+        for (int c = 0; c < clientes; c++) {
+            int k = c;
+            ts[c] = new Thread(() -> {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                long[] l = new long[1024];
+                int n = 0;
+                while (System.nanoTime() < fim) {
+                    long t0 = System.nanoTime();
+                    if ((n & 1) == 0) f.editarPerfil(sessoes[k], "cidade", "c" + r.nextInt(1000));
+                    else {
+                        // o cliente não manda recado para si mesmo
+                        int d = r.nextInt(usuarios - 1);
+                        f.enviarRecado(sessoes[k], "login" + (d >= k ? d + 1 : d), "recado");
+                    }
+                    if (n == l.length) l = Arrays.copyOf(l, n * 2);
+                    l[n++] = System.nanoTime() - t0;
+                }
+                latencias[k] = Arrays.copyOf(l, n);
+            });
+        }
+        long inicio = System.nanoTime();
+        for (Thread t : ts) t.start();
+        for (Thread t : ts) t.join();
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+        String depois = f.getMetricasRegistro();
+
+        int total = 0;
+        for (long[] l : latencias) total += l.length;
+        long[] todas = new long[total];
+        int p = 0;
+        for (long[] l : latencias) {
+            System.arraycopy(l, 0, todas, p, l.length);
+            p += l.length;
+        }
+        Medicao escritas = new Medicao("escritas", todas, -1);
+
+        long fsyncs = valor(depois, "sincronizacoes") - valor(antes, "sincronizacoes");
+        long sincronizadas = valor(depois, "sincronizados") - valor(antes, "sincronizados");
+        f.zerarSistema();
+        f.encerrarSistema();
+        Bancada.apagarArquivos();
+        return String.format(Locale.ROOT, "%-20s %12.0f %10.1f %10.1f %10.0f %12.1f",
+                modo, total / segundos, escritas.percentil(50) / 1e3, escritas.percentil(99) / 1e3,
+                fsyncs / segundos, fsyncs == 0 ? 0.0 : (double) sincronizadas / fsyncs);
+    }
+
+    // Lê um contador de Facade#getMetricasRegistro, no formato "nome=valor"
+    private static long valor(String metricas, String nome) {
+        for (String parte : metricas.split(" ")) {
+            if (parte.startsWith(nome + "=")) return Long.parseLong(parte.substring(nome.length() + 1));
+        }
+        throw new IllegalArgumentException(nome + " não está em " + metricas);
+    }
+}
@@ -0,0 +1,78 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.Configuracao;
+import br.ufal.ic.p2.jackut.Facade;
+import java.util.*;
+
+/**
+ * Mede {@link Facade#getFas} em redes de tamanhos crescentes: com o índice reverso de fãs, a latência
+ * depende só da quantidade de fãs do ídolo, e não da quantidade de usuários do sistema.
+ *
+ * <p>Para cada tamanho de {@code jackut.bench.tamanhos} (separados por vírgula, padrão
+ * {@code 1000,10000,100000}), constrói uma {@link RedeSintetica} com as demais propriedades de escala e
+ * mede dois cenários:</p>
+ * <ul>
+ *   <li>{@code fixo}: um ídolo que recebe exatamente {@code jackut.bench.fas} fãs novos (padrão 100), o
+ *   mesmo em todos os tamanhos; é a linha que deve ficar plana;</li>
+ *   <li>{@code rede}: ídolos sorteados com a popularidade da rede, cujos fãs crescem com ela.</li>
+ * </ul>
+ *
+ * <p>Usa {@code jackut.bench.operacoes}, {@code jackut.bench.aquecimento} e {@code jackut.bench.rodadas}
+ * como a {@link Bancada}, e também deve ser executada num diretório vazio:</p>
+ * <pre>
+ * java -Xmx2g -Djackut.bench.tamanhos=1000,10000,100000 -cp out br.ufal.ic.p2.jackut.bench.EscalaFas
+ * </pre>
+ */
+public class EscalaFas {
+
+    public static void main(String[] args) {
+        Bancada.exigirDiretorioVazio();
+        int operacoes   = Configuracao.inteiro("bench.operacoes", 10_000);
+        int aquecimento = Configuracao.inteiro("bench.aquecimento", 2);
+        int rodadas     = Configuracao.inteiro("bench.rodadas", 3);
+        int fas         = Math.max(1, Configuracao.inteiro("bench.fas", 100));
+        List<Integer> tamanhos = new ArrayList<>();
+        for (String s : Configuracao.texto("bench.tamanhos", "1000,10000,100000").split(",")) {
+            if (!s.trim().isEmpty()) tamanhos.add(Integer.parseInt(s.trim()));
+        }
+
+        System.out.printf("%d fãs no ídolo fixo, %d operações por rodada%n%n", fas, operacoes);
+        System.out.printf("%-10s %-6s %10s %10s %10s %12s%n", "usuarios", "idolo", "fãs médios", "p50 us", "p99 us",
+                "bytes/op");
+        for (int n : tamanhos) {
+            Bancada b = new Bancada(new RedeSintetica(n,
+                    Configuracao.inteiro("bench.grau", 20),
+                    Configuracao.inteiro("bench.idolos", 5),
+                    Configuracao.inteiro("bench.tamanhoComunidade", 50),
+                    Configuracao.longo("bench.semente", 42)));
+            Facade f = b.getFacade();
+            RedeSintetica r = b.getRede();
+
+            // o último usuário da rede quase não tem fãs; recebe os fãs do cenário fixo
+            String fixo = r.getLogin(n - 1);
+            for (String s : b.novosUsuarios("ef", fas)) f.adicionarIdolo(s, fixo);
+            Cenario cFixo = new Cenario("fixo") {
+                @Override public void executar(int i) { f.getFas(fixo); }
+            };
+            imprimir(n, "fixo", f.getFas(fixo, 0, 1).getTotal(), b.medir(cFixo, operacoes, aquecimento, rodadas));
+
+            Random sorteio = new Random(n);
+            String[] idolos = new String[1024];
+            long soma = 0;
+            for (int k = 0; k < idolos.length; k++) {
+                idolos[k] = r.getLogin(r.idoloPopular(sorteio));
+                soma += f.getFas(idolos[k], 0, 1).getTotal();
+            }
+            Cenario cRede = new Cenario("rede") {
+                @Override public void executar(int i) { f.getFas(idolos[i & 1023]); }
+            };
+            imprimir(n, "rede", soma / idolos.length, b.medir(cRede, operacoes, aquecimento, rodadas));
+            b.descartar();
+        }
+    }
+
+    private static void imprimir(int usuarios, String idolo, long fas, Medicao m) {
+        System.out.printf(Locale.ROOT, "%-10d %-6s %10d %10.2f %10.2f %12d%n", usuarios, idolo, fas,
+                m.percentil(50) / 1e3, m.percentil(99) / 1e3, m.getBytesPorOperacao());
+    }
+}
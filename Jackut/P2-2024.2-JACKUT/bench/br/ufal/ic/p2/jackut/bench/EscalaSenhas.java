@@ -0,0 +1,124 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.Configuracao;
+import br.ufal.ic.p2.jackut.Facade;
+import br.ufal.ic.p2.jackut.exceptions.AutenticacaoSobrecarregadaException;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mede a vazão de logins ({@link Facade#abrirSessao}) para cada custo de hash das senhas, com o cache de
+ * autenticação desligado e ligado, e a latência de uma consulta barata ({@link Facade#getAtributoUsuario})
+ * feita ao mesmo tempo, que mostra se a rajada de logins atrasa as demais requisições.
+ *
+ * <p>Para cada custo, cria uma fachada nova com {@code -Djackut.senha.iteracoes} ajustado, cadastra os
+ * usuários e dispara clientes que abrem sessões com usuários sorteados durante o tempo pedido. Um em cada
+ * {@code jackut.bench.erros} logins usa uma senha errada (padrão 10), que nunca é atendida pelo cache.</p>
+ *
+ * <p>Configuração: {@code jackut.bench.custos} (iterações separadas por vírgula, padrão
+ * {@code 1000,10000,100000,600000}), {@code jackut.bench.logins} (usuários cadastrados, padrão 200),
+ * {@code jackut.bench.clientes} (threads de login, padrão 8) e {@code jackut.bench.duracaoMs} (tempo medido
+ * por custo e modo, padrão 5000). O pool de verificação segue {@code -Djackut.autenticacao.threads}. Como a
+ * {@link Bancada}, deve ser executada num diretório vazio:</p>
+ * <pre>
+ * java -Djackut.bench.custos=10000,100000 -cp out br.ufal.ic.p2.jackut.bench.EscalaSenhas
+ * </pre>
+ */
+public class EscalaSenhas {
+
+    public static void main(String[] args) throws InterruptedException {
+        Bancada.exigirDiretorioVazio();
+        int usuarios = Math.max(1, Configuracao.inteiro("bench.logins", 200));
+        int clientes = Math.max(1, Configuracao.inteiro("bench.clientes", 8));
+        int erros    = Math.max(1, Configuracao.inteiro("bench.erros", 10));
+        long duracao = Configuracao.longo("bench.duracaoMs", 5000);
+        List<Integer> custos = new ArrayList<>();
+        for (String s : Configuracao.texto("bench.custos", "1000,10000,100000,600000").split(",")) {
+            if (!s.trim().isEmpty()) custos.add(Integer.parseInt(s.trim()));
+        }
+
+        System.out.printf("%d usuários, %d clientes, %d ms por medição%n%n", usuarios, clientes, duracao);
+        System.out.printf("%-9s %-6s %10s %10s %10s %9s %12s %12s%n",
+                "custo", "cache", "logins/s", "p50 ms", "p99 ms", "recusas", "leitura p50", "leitura p99");
+        for (int custo : custos) {
+            for (boolean cache : new boolean[] { false, true }) {
+                System.setProperty("jackut.senha.iteracoes", Integer.toString(custo));
+                System.setProperty("jackut.autenticacao.cache", Boolean.toString(cache));
+                medir(custo, cache, usuarios, clientes, erros, duracao);
+            }
+        }
+    }
+
+    private static void medir(int custo, boolean cache, int usuarios, int clientes, int erros, long duracao)
+            throws InterruptedException {
+        Facade f = new Facade();
+        f.zerarSistema();
+        List<String[]> novos = new ArrayList<>(usuarios);
+        for (int i = 0; i < usuarios; i++) novos.add(new String[] { "login" + i, "senha" + i, "Usuário " + i });
+        f.criarUsuarios(novos);
+
+        long fim = System.nanoTime() + duracao * 1_000_000;
+        AtomicLong recusas = new AtomicLong();
+        long[][] latencias = new long[clientes][];
+        Thread[] ts = new Thread[clientes];
+        for (int c = 0; c < clientes; c++) {
+            int k = c;
+            ts[c] = new Thread(() -> {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                long[] l = new long[1024];
+                int n = 0;
+                while (System.nanoTime() < fim) {
+                    int i = r.nextInt(usuarios);
+                    String senha = r.nextInt(erros) == 0 ? "errada" : "senha" + i;
+                    long t0 = System.nanoTime();
+                    try {
+                        f.abrirSessao("login" + i, senha);
+                    } catch (AutenticacaoSobrecarregadaException e) {
+                        recusas.incrementAndGet();
+                        continue;
+                    } catch (RuntimeException e) {
+                        // senha errada: conta como login atendido
+                    }
+                    if (n == l.length) l = Arrays.copyOf(l, n * 2);
+                    l[n++] = System.nanoTime() - t0;
+                }
+                latencias[k] = Arrays.copyOf(l, n);
+            });
+            ts[c].start();
+        }
+
+        // uma consulta barata por milissegundo durante a rajada
+        long[] leituras = new long[1024];
+        int m = 0;
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        long inicio = System.nanoTime();
+        while (System.nanoTime() < fim) {
+            long t0 = System.nanoTime();
+            f.getAtributoUsuario("login" + r.nextInt(usuarios), "nome");
+            if (m == leituras.length) leituras = Arrays.copyOf(leituras, m * 2);
+            leituras[m++] = System.nanoTime() - t0;
+            Thread.sleep(1);
+        }
+        for (Thread t : ts) t.join();
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+
+        int total = 0;
+        for (long[] l : latencias) total += l.length;
+        long[] todas = new long[total];
+        int p = 0;
+        for (long[] l : latencias) {
+            System.arraycopy(l, 0, todas, p, l.length);
+            p += l.length;
+        }
+        Medicao logins = new Medicao("logins", todas, -1);
+        Medicao leitura = new Medicao("leitura", Arrays.copyOf(leituras, m), -1);
+        System.out.printf(Locale.ROOT, "%-9d %-6s %10.0f %10.2f %10.2f %9d %9.1f us %9.1f us%n",
+                custo, cache ? "sim" : "nao", total / segundos, logins.percentil(50) / 1e6,
+                logins.percentil(99) / 1e6, recusas.get(), leitura.percentil(50) / 1e3, leitura.percentil(99) / 1e3);
+
+        f.zerarSistema();
+        f.encerrarSistema();
+        Bancada.apagarArquivos();
+    }
+}
@@ -0,0 +1,299 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.Configuracao;
+import br.ufal.ic.p2.jackut.Facade;
+import br.ufal.ic.p2.jackut.exceptions.FalhaAoCarregarDadosException;
+import br.ufal.ic.p2.jackut.exceptions.FalhaAoSalvarDadosException;
+import br.ufal.ic.p2.jackut.exceptions.NaoHaRecadosException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Teste de estresse das travas do Jackut: várias threads alteram os mesmos usuários e comunidades ao mesmo
+ * tempo pela {@link Facade} e, no fim, o estado é conferido. Termina com código 1 se alguma conferência
+ * falhar, se uma operação lançar uma exceção que não seja de regra de negócio ou se as threads não
+ * terminarem no prazo (um impasse entre travas, cujas threads são listadas).
+ *
+ * <p>São duas fases sobre o mesmo sistema:</p>
+ * <ul>
+ *   <li>sem remoções: convites e aceites de amizade, ídolos, entradas em comunidades e recados enviados e
+ *   lidos. Além das conferências estruturais, cada caixa de recados deve ter exatamente os recados enviados
+ *   a ela e ainda não lidos;</li>
+ *   <li>com remoções: as mesmas operações, e cada usuário de uma parte da rede remove a própria conta uma
+ *   vez, o que adquire todas as travas no meio das outras operações. Os removidos não podem aparecer em
+ *   nenhuma lista dos que ficaram.</li>
+ * </ul>
+ *
+ * <p>As conferências estruturais são: toda amizade é recíproca; os fãs de cada usuário são exatamente os
+ * usuários que o têm como ídolo; os membros de cada comunidade são exatamente os usuários que a listam.
+ * A rede é pequena de propósito, para que as threads disputem as mesmas travas o tempo todo. Configuração:
+ * {@code jackut.bench.usuarios} (padrão 20), {@code jackut.bench.comunidades} (padrão 10),
+ * {@code jackut.bench.threads} (padrão 16), {@code jackut.bench.operacoes} (por thread e por fase, padrão
+ * 50000), {@code jackut.bench.removidos} (fração removida na segunda fase, padrão 0.2) e
+ * {@code jackut.bench.limiteMs} (prazo de cada fase, padrão 120000). Como a {@link Bancada}, deve ser
+ * executada num diretório vazio:</p>
+ * <pre>
+ * java -Djackut.bench.threads=32 -cp out br.ufal.ic.p2.jackut.bench.EstresseConcorrencia
+ * </pre>
+ */
+public class EstresseConcorrencia {
+
+    private final Facade f;
+    private final int usuarios;
+    private final int comunidades;
+    private final String[] sessoes;
+    private final List<String> falhas = Collections.synchronizedList(new ArrayList<>());
+    // recados enviados a cada usuário e ainda não lidos, segundo as operações que deram certo
+    private final AtomicIntegerArray pendentes;
+
+    private EstresseConcorrencia(Facade f, int usuarios, int comunidades) {
+        this.f = f;
+        this.usuarios = usuarios;
+        this.comunidades = comunidades;
+        this.sessoes = new String[usuarios];
+        this.pendentes = new AtomicIntegerArray(usuarios);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Bancada.exigirDiretorioVazio();
+        if (System.getProperty("jackut.senha.iteracoes") == null) System.setProperty("jackut.senha.iteracoes", "1");
+        int usuarios    = Math.max(4, Configuracao.inteiro("bench.usuarios", 20));
+        int comunidades = Math.max(1, Configuracao.inteiro("bench.comunidades", 10));
+        int threads     = Math.max(2, Configuracao.inteiro("bench.threads", 16));
+        int operacoes   = Math.max(1, Configuracao.inteiro("bench.operacoes", 50_000));
+        double removidos = Double.parseDouble(Configuracao.texto("bench.removidos", "0.2"));
+        long limite     = Configuracao.longo("bench.limiteMs", 120_000);
+
+        Facade f = new Facade();
+        EstresseConcorrencia e = new EstresseConcorrencia(f, usuarios, comunidades);
+        e.povoar();
+        System.out.printf("%d usuários, %d comunidades, %d threads, %d operações por thread e fase%n",
+                usuarios, comunidades, threads, operacoes);
+
+        long t = System.nanoTime();
+        e.executar(threads, operacoes, 0, limite);
+        f.aguardarEntregas();
+        e.conferir(Collections.emptySet());
+        e.conferirRecados();
+        System.out.printf("fase sem remoções: %.1f s, %d falhas%n", (System.nanoTime() - t) / 1e9, e.falhas.size());
+
+        t = System.nanoTime();
+        int n = (int) Math.min(usuarios - 2, Math.round(usuarios * removidos));
+        e.executar(threads, operacoes, n, limite);
+        f.aguardarEntregas();
+        Set<String> fora = new HashSet<>();
+        for (int u = 0; u < n; u++) fora.add(login(u));
+        e.conferir(fora);
+        System.out.printf("fase com %d remoções: %.1f s, %d falhas%n", n, (System.nanoTime() - t) / 1e9,
+                e.falhas.size());
+
+        f.zerarSistema();
+        f.encerrarSistema();
+        Bancada.apagarArquivos();
+        if (!e.falhas.isEmpty()) {
+            for (String s : e.falhas.subList(0, Math.min(20, e.falhas.size()))) System.out.println("FALHA: " + s);
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    private static String login(int u) { return "e" + u; }
+
+    private static String comunidade(int c) { return "ec" + c; }
+
+    private void povoar() {
+        f.zerarSistema();
+        List<String[]> novos = new ArrayList<>(usuarios);
+        for (int u = 0; u < usuarios; u++) novos.add(new String[] { login(u), "s", "Estresse " + u });
+        f.criarUsuarios(novos);
+        for (int u = 0; u < usuarios; u++) sessoes[u] = f.abrirSessao(login(u), "s");
+        // os donos ficam no fim da rede, fora dos removidos
+        for (int c = 0; c < comunidades; c++) {
+            f.criarComunidade(sessoes[usuarios - 1 - c % (usuarios / 2)], comunidade(c), "Comunidade " + c);
+        }
+    }
+
+    /**
+     * Executa uma fase: cada thread sorteia operações sobre pares de usuários sorteados, e os primeiros
+     * {@code removidos} usuários removem a própria conta, cada um uma vez, no meio delas.
+     */
+    private void executar(int threads, int operacoes, int removidos, long limite) throws InterruptedException {
+        Thread[] ts = new Thread[threads];
+        for (int k = 0; k < threads; k++) {
+            ts[k] = new Thread(() -> {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                for (int i = 0; i < operacoes; i++) operar(r, r.nextInt(usuarios), r.nextInt(usuarios));
+            }, "estresse-" + k);
+        }
+        // as remoções ficam numa thread própria, que as espalha pelo começo da fase
+        Thread remocoes = new Thread(() -> {
+            for (int u = 0; u < removidos; u++) {
+                remover(u);
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "estresse-remocoes");
+        for (Thread t : ts) t.start();
+        if (removidos > 0) remocoes.start();
+        long fim = System.currentTimeMillis() + limite;
+        for (Thread t : ts) t.join(Math.max(1, fim - System.currentTimeMillis()));
+        if (removidos > 0) remocoes.join(Math.max(1, fim - System.currentTimeMillis()));
+        for (Thread t : ts) {
+            if (t.isAlive()) impasse();
+        }
+        if (remocoes.isAlive()) impasse();
+    }
+
+    private void operar(ThreadLocalRandom r, int a, int b) {
+        try {
+            switch (r.nextInt(7)) {
+                case 0:
+                case 1:
+                    // convite ou aceite, conforme quem chegou primeiro
+                    f.adicionarAmigo(sessoes[a], login(b));
+                    break;
+                case 2:
+                    f.adicionarIdolo(sessoes[a], login(b));
+                    break;
+                case 3:
+                    f.adicionarComunidade(sessoes[a], comunidade(b % comunidades));
+                    break;
+                case 4:
+                case 5:
+                    f.enviarRecado(sessoes[a], login(b), "r");
+                    pendentes.incrementAndGet(b);
+                    break;
+                default:
+                    f.lerRecado(sessoes[a]);
+                    pendentes.decrementAndGet(a);
+            }
+        } catch (RuntimeException e) {
+            registrar(e);
+        }
+    }
+
+    private void remover(int u) {
+        try {
+            f.removerUsuario(sessoes[u]);
+        } catch (RuntimeException e) {
+            registrar(e);
+        }
+    }
+
+    /**
+     * Aceita as exceções de regra de negócio, esperadas com operações sorteadas; as demais são falhas.
+     */
+    private void registrar(RuntimeException e) {
+        boolean negocio = e.getClass().getPackage().getName().endsWith(".exceptions")
+                && !(e instanceof FalhaAoSalvarDadosException) && !(e instanceof FalhaAoCarregarDadosException);
+        if (!negocio) falhas.add(Thread.currentThread().getName() + ": " + e);
+    }
+
+    /**
+     * Confere as relações entre os usuários que ficaram.
+     *
+     * @param fora Os logins removidos
+     */
+    private void conferir(Set<String> fora) {
+        Map<String, Set<String>> amigos = new HashMap<>(), fas = new HashMap<>(), comunidadesDe = new HashMap<>();
+        for (int u = 0; u < usuarios; u++) {
+            String l = login(u);
+            if (fora.contains(l)) {
+                if (existe(l)) falhas.add(l + " foi removido mas ainda existe");
+                continue;
+            }
+            amigos.put(l, conjunto(f.iterarAmigos(l)));
+            fas.put(l, conjunto(f.iterarFas(l)));
+            comunidadesDe.put(l, conjunto(f.iterarComunidades(l)));
+        }
+        for (Map.Entry<String, Set<String>> e : amigos.entrySet()) {
+            for (String a : e.getValue()) {
+                if (!amigos.containsKey(a)) falhas.add(e.getKey() + " tem como amigo " + a + ", que não existe");
+                else if (!amigos.get(a).contains(e.getKey())) {
+                    falhas.add("amizade de " + e.getKey() + " com " + a + " não é recíproca");
+                }
+            }
+        }
+        for (Map.Entry<String, Set<String>> e : fas.entrySet()) {
+            Set<String> esperados = new HashSet<>();
+            for (String v : amigos.keySet()) {
+                if (f.ehFa(v, e.getKey())) esperados.add(v);
+            }
+            if (!esperados.equals(e.getValue())) {
+                falhas.add("fãs de " + e.getKey() + ": " + e.getValue() + ", esperados " + esperados);
+            }
+        }
+        for (int c = 0; c < comunidades; c++) {
+            String nome = comunidade(c);
+            Set<String> membros;
+            try {
+                membros = conjunto(f.iterarMembrosComunidade(nome));
+            } catch (RuntimeException e) {
+                // a comunidade pode ter sumido com o dono; então ninguém pode listá-la
+                registrar(e);
+                membros = Collections.emptySet();
+            }
+            Set<String> esperados = new HashSet<>();
+            for (Map.Entry<String, Set<String>> e : comunidadesDe.entrySet()) {
+                if (e.getValue().contains(nome)) esperados.add(e.getKey());
+            }
+            if (!esperados.equals(membros)) {
+                falhas.add("membros de " + nome + ": " + membros + ", esperados " + esperados);
+            }
+        }
+    }
+
+    /**
+     * Lê todos os recados de cada caixa e confere a quantidade com a contagem das operações.
+     */
+    private void conferirRecados() {
+        for (int u = 0; u < usuarios; u++) {
+            int lidos = 0;
+            try {
+                while (true) {
+                    f.lerRecado(sessoes[u]);
+                    lidos++;
+                }
+            } catch (NaoHaRecadosException e) {
+                // a caixa esvaziou
+            }
+            if (lidos != pendentes.get(u)) {
+                falhas.add("caixa de " + login(u) + " com " + lidos + " recados, esperados " + pendentes.get(u));
+            }
+            pendentes.set(u, 0);
+        }
+    }
+
+    private boolean existe(String login) {
+        try {
+            f.getAtributoUsuario(login, "nome");
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static Set<String> conjunto(Iterator<String> it) {
+        Set<String> s = new HashSet<>();
+        while (it.hasNext()) s.add(it.next());
+        return s;
+    }
+
+    /**
+     * Registra as threads em impasse, se a JVM as encontrar, e encerra o processo.
+     */
+    private void impasse() {
+        System.out.println("FALHA: as threads não terminaram no prazo");
+        long[] ids = ManagementFactory.getThreadMXBean().findDeadlockedThreads();
+        if (ids != null) {
+            for (ThreadInfo i : ManagementFactory.getThreadMXBean().getThreadInfo(ids, true, true)) System.out.print(i);
+        }
+        System.exit(1);
+    }
+}
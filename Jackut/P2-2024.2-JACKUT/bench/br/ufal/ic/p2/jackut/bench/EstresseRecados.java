@@ -0,0 +1,291 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.Configuracao;
+import br.ufal.ic.p2.jackut.Facade;
+import br.ufal.ic.p2.jackut.exceptions.CaixaDeRecadosCheiaException;
+import br.ufal.ic.p2.jackut.exceptions.FuncaoInvalidaException;
+import br.ufal.ic.p2.jackut.exceptions.NaoHaRecadosException;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Confere o limite das caixas de recados e a entrega assíncrona: várias threads, cada uma com o seu
+ * remetente, mandam recados numerados a poucos destinatários, bem mais do que o limite das caixas, sem que
+ * ninguém leia no meio. Depois, as caixas são lidas e conferidas:
+ * <ul>
+ *   <li>os recados de cada par remetente/destinatário chegam na ordem em que foram enviados;</li>
+ *   <li>recusando ({@code REJEITAR}), cada caixa tem exatamente os recados cujo envio retornou sem erro, e
+ *   exatamente o limite deles; as recusas são lançadas para quem envia também no modo assíncrono;</li>
+ *   <li>descartando ({@code DESCARTAR_ANTIGO}), todo envio retorna sem erro, cada caixa tem o limite de
+ *   recados e, de cada par, ficam os últimos enviados;</li>
+ *   <li>um recado para quem tem o remetente como inimigo é recusado no envio.</li>
+ * </ul>
+ *
+ * <p>Metade das caixas é lida no processo que enviou, sem reinício. O processo termina então sem encerrar o
+ * sistema, como numa queda, e uma JVM nova reaplica o registro de operações e lê a outra metade, que deve
+ * passar pelas mesmas conferências, e a primeira, que deve estar vazia. A JVM nova usa metade do limite e a
+ * política de recusar: o registro deve ser reaplicado como foi gravado, sem recusar nem descartar de novo.</p>
+ *
+ * <p>Cada combinação de entrega ({@code jackut.recados.assincrono}) e política
+ * ({@code jackut.recados.transbordo}) é executada em JVMs próprias, porque o Jackut lê essas propriedades
+ * uma vez. Configuração: {@code jackut.bench.remetentes} (threads, padrão 8),
+ * {@code jackut.bench.destinatarios} (padrão 4), {@code jackut.bench.recados} (por remetente, padrão 3000)
+ * e {@code jackut.recados.limite} (padrão aqui 1000). Termina com código 1 se alguma conferência falhar.
+ * Como a {@link Bancada}, deve ser executada num diretório vazio:</p>
+ * <pre>
+ * java -cp out br.ufal.ic.p2.jackut.bench.EstresseRecados
+ * </pre>
+ */
+public class EstresseRecados {
+
+    private static final String[][] MODOS = {
+            { "false", "REJEITAR" }, { "true", "REJEITAR" },
+            { "false", "DESCARTAR_ANTIGO" }, { "true", "DESCARTAR_ANTIGO" }
+    };
+
+    private final int remetentes;
+    private final int destinatarios;
+    private final int recados;
+    private final int limite;
+    private final boolean descartar;
+    private final List<String> falhas = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * @param limite O limite das caixas durante o envio
+     * @param descartar True se o envio descartou os recados mais antigos, em vez de recusar os novos
+     */
+    private EstresseRecados(int limite, boolean descartar) {
+        this.remetentes = Math.max(1, Configuracao.inteiro("bench.remetentes", 8));
+        this.destinatarios = Math.max(2, Configuracao.inteiro("bench.destinatarios", 4));
+        this.recados = Math.max(1, Configuracao.inteiro("bench.recados", 3000));
+        this.limite = limite;
+        this.descartar = descartar;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 3 && args[0].equals("enviar")) {
+            new EstresseRecados(Integer.parseInt(args[1]), args[2].equals("DESCARTAR_ANTIGO")).enviar();
+            return;
+        }
+        if (args.length == 4 && args[0].equals("recuperar")) {
+            new EstresseRecados(Integer.parseInt(args[1]), args[2].equals("DESCARTAR_ANTIGO")).recuperar(args[3]);
+            return;
+        }
+        Bancada.exigirDiretorioVazio();
+        int limite = Math.max(1, Configuracao.inteiro("recados.limite", 1000));
+        boolean ok = true;
+        for (String[] m : MODOS) {
+            String modo = (m[0].equals("true") ? "assíncrona" : "síncrona") + ", " + m[1];
+            // a JVM do envio imprime quantos recados de cada par foram aceitos, para a da recuperação
+            List<String> envio = executar(m[0], m[1], limite, "enviar", String.valueOf(limite), m[1]);
+            String aceitos = null;
+            for (String l : envio) if (l.startsWith("aceitos ")) aceitos = l.substring("aceitos ".length());
+            List<String> recuperacao = aceitos == null ? Collections.singletonList("FALHA: o envio não terminou")
+                    : executar(m[0], "REJEITAR", Math.max(1, limite / 2), "recuperar", String.valueOf(limite), m[1],
+                               aceitos);
+            Bancada.apagarArquivos();
+            List<String> saida = new ArrayList<>(envio);
+            saida.addAll(recuperacao);
+            int n = 0;
+            for (String l : saida) {
+                if (!l.startsWith("FALHA")) continue;
+                if (n++ < 20) System.out.println(modo + ": " + l);
+            }
+            System.out.printf("entrega %s: %d falhas%n", modo, n);
+            ok &= n == 0;
+        }
+        if (!ok) System.exit(1);
+        System.out.println("OK");
+    }
+
+    /**
+     * Executa uma fase numa JVM nova, com as propriedades {@code jackut.*} desta e a configuração de recados
+     * fornecida.
+     *
+     * @param fase A fase e os seus argumentos
+     * @return As linhas impressas pela JVM; uma linha de falha é acrescentada se ela terminar com erro
+     */
+    private static List<String> executar(String assincrono, String transbordo, int limite, String... fase)
+            throws IOException, InterruptedException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        for (String a : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (a.startsWith("-X")) cmd.add(a);
+        }
+        for (String p : System.getProperties().stringPropertyNames()) {
+            if (p.startsWith("jackut.") && !p.startsWith("jackut.recados.")) {
+                cmd.add("-D" + p + "=" + System.getProperty(p));
+            }
+        }
+        if (System.getProperty("jackut.senha.iteracoes") == null) cmd.add("-Djackut.senha.iteracoes=1");
+        cmd.add("-Djackut.recados.assincrono=" + assincrono);
+        cmd.add("-Djackut.recados.transbordo=" + transbordo);
+        cmd.add("-Djackut.recados.limite=" + limite);
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(EstresseRecados.class.getName());
+        cmd.addAll(Arrays.asList(fase));
+
+        Process p = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+        List<String> linhas = new ArrayList<>();
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+            for (String l; (l = r.readLine()) != null; ) linhas.add(l);
+        }
+        if (p.waitFor() != 0) {
+            linhas.add("FALHA: a fase " + fase[0] + " terminou com código " + p.exitValue() + ": "
+                    + (linhas.isEmpty() ? "" : linhas.get(linhas.size() - 1)));
+        }
+        return linhas;
+    }
+
+    private static String remetente(int k) { return "rem" + k; }
+
+    private static String destinatario(int j) { return "dest" + j; }
+
+    /**
+     * Envia os recados, lê a primeira metade das caixas e termina sem encerrar o sistema; executado na JVM
+     * criada por {@link #executar}.
+     */
+    private void enviar() throws InterruptedException {
+        Facade f = new Facade();
+        f.zerarSistema();
+        String[] sessoes = new String[remetentes];
+        for (int k = 0; k < remetentes; k++) {
+            f.criarUsuario(remetente(k), "s", "Remetente " + k);
+            sessoes[k] = f.abrirSessao(remetente(k), "s");
+        }
+        for (int j = 0; j < destinatarios; j++) f.criarUsuario(destinatario(j), "s", "Destinatário " + j);
+
+        f.criarUsuario("desafeto", "s", "Desafeto");
+        f.adicionarInimigo(f.abrirSessao("desafeto", "s"), remetente(0));
+        try {
+            f.enviarRecado(sessoes[0], "desafeto", "recado");
+            falhas.add("o recado para um inimigo foi aceito");
+        } catch (FuncaoInvalidaException e) {
+            // esperado, nos dois modos de entrega
+        }
+
+        // aceitos[k][j]: recados de k para j cujo envio retornou sem erro
+        int[][] aceitos = new int[remetentes][destinatarios];
+        Thread[] ts = new Thread[remetentes];
+        for (int k = 0; k < remetentes; k++) {
+            int rk = k;
+            ts[k] = new Thread(() -> {
+                for (int i = 0; i < recados; i++) {
+                    int j = i % destinatarios;
+                    int seq = i / destinatarios;
+                    try {
+                        f.enviarRecado(sessoes[rk], destinatario(j), rk + " " + seq);
+                        // sem leituras no meio, uma caixa cheia não esvazia: os aceitos de cada par vêm antes
+                        // dos recusados
+                        if (aceitos[rk][j] != seq) {
+                            falhas.add("recado " + rk + " " + seq + " aceito depois de uma recusa");
+                        }
+                        aceitos[rk][j]++;
+                    } catch (CaixaDeRecadosCheiaException e) {
+                        if (descartar) falhas.add("recado " + rk + " " + seq + " recusado descartando o mais antigo");
+                    } catch (RuntimeException e) {
+                        falhas.add("recado " + rk + " " + seq + ": " + e);
+                    }
+                }
+            });
+        }
+        for (Thread t : ts) t.start();
+        for (Thread t : ts) t.join();
+        f.aguardarEntregas();
+
+        for (int j = 0; j < destinatarios / 2; j++) conferir(f, j, aceitos, "sem reinício");
+        StringBuilder sb = new StringBuilder();
+        for (int k = 0; k < remetentes; k++) {
+            for (int j = 0; j < destinatarios; j++) sb.append(sb.length() == 0 ? "" : ",").append(aceitos[k][j]);
+        }
+        for (String s : falhas) System.out.println("FALHA: " + s);
+        System.out.println("aceitos " + sb);
+        // espera algumas sincronizações do registro, que no modo assíncrono perde o último intervalo numa
+        // queda, e termina sem encerrar o sistema, que gravaria um snapshot no lugar do registro
+        Thread.sleep(5 * Configuracao.longo("log.sincronizacaoMs", 100));
+        System.exit(0);
+    }
+
+    /**
+     * Reaplica o registro deixado por {@link #enviar()} e confere as caixas; executado na JVM criada por
+     * {@link #executar}.
+     *
+     * @param lista Os recados aceitos de cada par, como impressos por {@link #enviar()}
+     */
+    private void recuperar(String lista) {
+        String[] v = lista.split(",");
+        int[][] aceitos = new int[remetentes][destinatarios];
+        for (int k = 0; k < remetentes; k++) {
+            for (int j = 0; j < destinatarios; j++) aceitos[k][j] = Integer.parseInt(v[k * destinatarios + j]);
+        }
+        Facade f = new Facade();
+        for (int j = 0; j < destinatarios; j++) {
+            if (j < destinatarios / 2) {
+                List<String> restantes = ler(f, j);
+                if (!restantes.isEmpty()) {
+                    falhas.add(destinatario(j) + " foi lido antes da queda, mas tem " + restantes.size() + " recados");
+                }
+            } else {
+                conferir(f, j, aceitos, "depois da queda");
+            }
+        }
+        f.zerarSistema();
+        f.encerrarSistema();
+        for (String s : falhas) System.out.println("FALHA: " + s);
+        System.exit(0);
+    }
+
+    private static List<String> ler(Facade f, int j) {
+        String s = f.abrirSessao(destinatario(j), "s");
+        List<String> lidos = new ArrayList<>();
+        while (true) {
+            try {
+                lidos.add(f.lerRecado(s));
+            } catch (NaoHaRecadosException e) {
+                return lidos;
+            }
+        }
+    }
+
+    /**
+     * Lê a caixa de um destinatário e confere a ordem de cada par e os recados que ficaram.
+     */
+    private void conferir(Facade f, int j, int[][] aceitos, String quando) {
+        String d = destinatario(j) + ", " + quando;
+        List<String> lidos = ler(f, j);
+        int enviados = 0, aceitosCaixa = 0;
+        for (int k = 0; k < remetentes; k++) {
+            enviados += recados / destinatarios + (j < recados % destinatarios ? 1 : 0);
+            aceitosCaixa += aceitos[k][j];
+        }
+        int esperado = Math.min(limite, enviados);
+        if (lidos.size() != esperado) falhas.add(d + ": " + lidos.size() + " recados, esperados " + esperado);
+        if (!descartar && aceitosCaixa != lidos.size()) {
+            falhas.add(d + ": " + aceitosCaixa + " envios retornaram sem erro, mas a caixa tem " + lidos.size());
+        }
+
+        List<List<Integer>> porPar = new ArrayList<>();
+        for (int k = 0; k < remetentes; k++) porPar.add(new ArrayList<>());
+        for (String l : lidos) {
+            String[] p = l.split(" ");
+            porPar.get(Integer.parseInt(p[0])).add(Integer.parseInt(p[1]));
+        }
+        for (int k = 0; k < remetentes; k++) {
+            List<Integer> seqs = porPar.get(k);
+            // o par k, j tem os recados 0..total-1; recusando ficam os primeiros, descartando, os últimos
+            int total = recados / destinatarios + (j < recados % destinatarios ? 1 : 0);
+            int primeiro = descartar ? total - seqs.size() : 0;
+            if (!descartar && seqs.size() != aceitos[k][j]) {
+                falhas.add(d + ": " + seqs.size() + " recados de " + remetente(k) + ", aceitos " + aceitos[k][j]);
+            }
+            for (int i = 0; i < seqs.size(); i++) {
+                if (seqs.get(i) != primeiro + i) {
+                    falhas.add(d + ": recados de " + remetente(k) + " fora de ordem ou faltando: " + seqs);
+                    break;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.Configuracao;
+import br.ufal.ic.p2.jackut.Facade;
+import br.ufal.ic.p2.jackut.exceptions.AtributoNaoPreenchidoException;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Confere as leituras sem travas ({@link Facade#getAtributoUsuario}, {@link Facade#ehAmigo},
+ * {@link Facade#ehFa} e {@link Facade#getMembrosComunidade}) contra escritas concorrentes: dois escritores
+ * alteram os mesmos usuários enquanto três leitores os consultam, e depois o estado final é conferido.
+ *
+ * <ul>
+ *   <li>um escritor grava, em cada usuário, um contador no perfil que só cresce; nenhum leitor pode ler um
+ *   valor menor que um já lido, nem menor que um cuja gravação já tinha retornado quando a leitura
+ *   começou;</li>
+ *   <li>o outro cria amizades, com ídolo, e põe usuários numa comunidade; uma amizade, um ídolo ou um
+ *   membro confirmado antes de uma leitura começar deve aparecer nela, e a lista de membros só cresce, no
+ *   fim;</li>
+ *   <li>no fim, e de novo depois de encerrar e abrir o sistema, cada perfil tem o último contador gravado e
+ *   cada amizade, ídolo e membro confirmado está lá.</li>
+ * </ul>
+ *
+ * <p>Roda em duas JVMs, com os usuários decodificados na carga e com a carga sob demanda
+ * ({@code jackut.usuarios.sobDemanda}); nas duas, os usuários começam recém-carregados de um snapshot e
+ * snapshots em segundo plano são gravados a todo momento ({@code jackut.snapshot.emFundo=true},
+ * {@code jackut.log.limiteCompactacao=500} e {@code jackut.log.verificacaoMs=20}, se não forem dados,
+ * também com um só processador). Configuração: {@code jackut.bench.usuarios}
+ * (padrão 100) e {@code jackut.bench.duracaoMs} (padrão 3000). Termina com código 1 se alguma conferência
+ * falhar. Como a {@link Bancada}, deve ser executada num diretório vazio:</p>
+ * <pre>
+ * java -cp out br.ufal.ic.p2.jackut.bench.EstresseVisoes
+ * </pre>
+ */
+public class EstresseVisoes {
+
+    private static final String COMUNIDADE = "visoes";
+    private static final int LEITORES = 3;
+
+    private final int usuarios;
+    private final long duracao;
+    private final List<String> falhas = Collections.synchronizedList(new ArrayList<>());
+
+    private Facade f;
+    // o último contador cuja gravação retornou, por usuário
+    private final AtomicIntegerArray gravados;
+    // amizades (e ídolos) e membros confirmados; só as posições abaixo dos contadores voláteis são lidas
+    private final int[][] amizades;
+    private volatile int amizadesConfirmadas;
+    private final List<String> membros = Collections.synchronizedList(new ArrayList<>());
+    private volatile boolean escrevendo = true;
+
+    private EstresseVisoes() {
+        this.usuarios = Math.max(4, Configuracao.inteiro("bench.usuarios", 100));
+        this.duracao = Configuracao.longo("bench.duracaoMs", 3000);
+        this.gravados = new AtomicIntegerArray(usuarios);
+        List<int[]> pares = new ArrayList<>();
+        for (int a = 0; a < usuarios; a++) {
+            for (int b = a + 1; b < usuarios; b++) pares.add(new int[] { a, b });
+        }
+        Collections.shuffle(pares, new Random(42));
+        this.amizades = pares.toArray(new int[0][]);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 1 && args[0].equals("executar")) {
+            new EstresseVisoes().executar();
+            return;
+        }
+        Bancada.exigirDiretorioVazio();
+        boolean ok = true;
+        for (String sobDemanda : new String[] { "false", "true" }) {
+            String modo = sobDemanda.equals("true") ? "carga sob demanda" : "carga completa";
+            List<String> saida = executarJvm(sobDemanda);
+            Bancada.apagarArquivos();
+            int n = 0;
+            for (String l : saida) {
+                if (l.startsWith("FALHA") && n++ < 20) System.out.println(modo + ": " + l);
+                if (l.startsWith("resultado ")) System.out.println(modo + ": " + l.substring("resultado ".length()));
+            }
+            System.out.printf("%s: %d falhas%n", modo, n);
+            ok &= n == 0;
+        }
+        if (!ok) System.exit(1);
+        System.out.println("OK");
+    }
+
+    /**
+     * Executa a conferência numa JVM nova, com as propriedades {@code jackut.*} desta.
+     *
+     * @return As linhas impressas pela JVM; uma linha de falha é acrescentada se ela terminar com erro
+     */
+    private static List<String> executarJvm(String sobDemanda) throws IOException, InterruptedException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        for (String a : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (a.startsWith("-X")) cmd.add(a);
+        }
+        Properties p = new Properties();
+        p.setProperty("jackut.senha.iteracoes", "1");
+        p.setProperty("jackut.snapshot.emFundo", "true");
+        p.setProperty("jackut.log.limiteCompactacao", "500");
+        p.setProperty("jackut.log.verificacaoMs", "20");
+        for (String n : System.getProperties().stringPropertyNames()) {
+            if (n.startsWith("jackut.")) p.setProperty(n, System.getProperty(n));
+        }
+        p.setProperty("jackut.usuarios.sobDemanda", sobDemanda);
+        for (String n : p.stringPropertyNames()) cmd.add("-D" + n + "=" + p.getProperty(n));
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(EstresseVisoes.class.getName());
+        cmd.add("executar");
+
+        Process pr = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+        List<String> linhas = new ArrayList<>();
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(pr.getInputStream()))) {
+            for (String l; (l = r.readLine()) != null; ) linhas.add(l);
+        }
+        if (pr.waitFor() != 0) {
+            linhas.add("FALHA: a JVM terminou com código " + pr.exitValue() + ": "
+                    + (linhas.isEmpty() ? "" : linhas.get(linhas.size() - 1)));
+        }
+        return linhas;
+    }
+
+    private static String login(int u) { return "v" + u; }
+
+    /**
+     * Prepara os usuários, executa escritores e leitores e confere o estado final; executado na JVM criada
+     * por {@link #executarJvm}.
+     */
+    private void executar() throws InterruptedException {
+        f = new Facade();
+        f.zerarSistema();
+        List<String[]> novos = new ArrayList<>();
+        for (int u = 0; u < usuarios; u++) novos.add(new String[] { login(u), "s", "Usuário " + u });
+        f.criarUsuarios(novos);
+        f.criarComunidade(f.abrirSessao(login(0), "s"), COMUNIDADE, "Leituras sem travas");
+        membros.add(login(0));
+        // os usuários começam recém-carregados do snapshot; sob demanda, ainda não decodificados, e cada
+        // escritor só abre a sessão de um usuário quando chega nele
+        f.encerrarSistema();
+        f = new Facade();
+
+        long fim = System.nanoTime() + duracao * 1_000_000;
+        Thread perfis = new Thread(() -> escreverPerfis(fim));
+        Thread relacoes = new Thread(() -> escreverRelacoes(fim));
+        Thread[] leitores = new Thread[LEITORES];
+        for (int i = 0; i < LEITORES; i++) {
+            long semente = i;
+            leitores[i] = new Thread(() -> ler(new Random(semente)));
+        }
+        for (Thread t : leitores) t.start();
+        perfis.start();
+        relacoes.start();
+        perfis.join();
+        relacoes.join();
+        escrevendo = false;
+        for (Thread t : leitores) t.join();
+
+        conferirFinal("no fim");
+        String armazenamento = f.getMetricasArmazenamento();
+        f.encerrarSistema();
+        f = new Facade();
+        conferirFinal("depois de reabrir");
+        f.zerarSistema();
+        f.encerrarSistema();
+
+        int contadores = 0;
+        for (int u = 0; u < usuarios; u++) contadores += gravados.get(u);
+        System.out.printf("resultado %d gravações de perfil, %d amizades, %d membros; %s%n",
+                contadores, amizadesConfirmadas, membros.size(), armazenamento);
+        for (String s : falhas) System.out.println("FALHA: " + s);
+    }
+
+    private String sessao(String[] sessoes, int u) {
+        if (sessoes[u] == null) sessoes[u] = f.abrirSessao(login(u), "s");
+        return sessoes[u];
+    }
+
+    private void escreverPerfis(long fim) {
+        String[] sessoes = new String[usuarios];
+        int[] proximo = new int[usuarios];
+        for (int i = 0; System.nanoTime() < fim; i++) {
+            // percorre os usuários de trás para a frente, na ordem contrária à do outro escritor
+            int u = usuarios - 1 - i % usuarios;
+            int v = ++proximo[u];
+            try {
+                f.editarPerfil(sessao(sessoes, u), "contador", String.valueOf(v));
+                gravados.set(u, v);
+            } catch (RuntimeException e) {
+                falhas.add("editarPerfil " + login(u) + ": " + e);
+            }
+        }
+    }
+
+    private void escreverRelacoes(long fim) {
+        String[] sessoes = new String[usuarios];
+        int proximoMembro = 1;
+        for (int i = 0; i < amizades.length && System.nanoTime() < fim; i++) {
+            int a = amizades[i][0], b = amizades[i][1];
+            try {
+                f.adicionarAmigo(sessao(sessoes, a), login(b));
+                f.adicionarAmigo(sessao(sessoes, b), login(a));
+                f.adicionarIdolo(sessao(sessoes, a), login(b));
+                amizadesConfirmadas = i + 1;
+                if (i % 10 == 0 && proximoMembro < usuarios) {
+                    f.adicionarComunidade(sessao(sessoes, proximoMembro), COMUNIDADE);
+                    membros.add(login(proximoMembro++));
+                }
+            } catch (RuntimeException e) {
+                falhas.add("amizade " + login(a) + " " + login(b) + ": " + e);
+            }
+        }
+    }
+
+    private void ler(Random r) {
+        int[] vistos = new int[usuarios];
+        List<String> ultimosMembros = Collections.emptyList();
+        while (escrevendo) {
+            try {
+                int u = r.nextInt(usuarios);
+                int antes = gravados.get(u);
+                int v = contador(login(u));
+                if (v < antes || v < vistos[u]) {
+                    falhas.add("contador de " + login(u) + " leu " + v + " depois de " + Math.max(antes, vistos[u]));
+                }
+                vistos[u] = Math.max(vistos[u], v);
+
+                int k = amizadesConfirmadas;
+                if (k > 0) {
+                    int[] p = amizades[r.nextInt(k)];
+                    String a = login(p[0]), b = login(p[1]);
+                    if (!f.ehAmigo(a, b) || !f.ehAmigo(b, a)) falhas.add("amizade " + a + " " + b + " não vista");
+                    if (!f.ehFa(a, b)) falhas.add(a + " não visto como fã de " + b);
+                }
+
+                List<String> confirmados;
+                synchronized (membros) {
+                    confirmados = new ArrayList<>(membros);
+                }
+                List<String> lidos = itens(f.getMembrosComunidade(COMUNIDADE));
+                if (lidos.size() < confirmados.size() || !lidos.subList(0, confirmados.size()).equals(confirmados)) {
+                    falhas.add("membros " + lidos + " sem os confirmados " + confirmados);
+                }
+                int n = ultimosMembros.size();
+                if (lidos.size() < n || !lidos.subList(0, n).equals(ultimosMembros)) {
+                    falhas.add("membros " + lidos + " depois de " + ultimosMembros);
+                }
+                ultimosMembros = lidos;
+            } catch (RuntimeException e) {
+                falhas.add("leitura: " + e);
+            }
+        }
+    }
+
+    private int contador(String login) {
+        try {
+            return Integer.parseInt(f.getAtributoUsuario(login, "contador"));
+        } catch (AtributoNaoPreenchidoException e) {
+            return 0;
+        }
+    }
+
+    private void conferirFinal(String quando) {
+        for (int u = 0; u < usuarios; u++) {
+            int v = contador(login(u));
+            if (v != gravados.get(u)) {
+                falhas.add(quando + ": contador de " + login(u) + " " + v + ", esperado " + gravados.get(u));
+            }
+        }
+        for (int i = 0; i < amizadesConfirmadas; i++) {
+            String a = login(amizades[i][0]), b = login(amizades[i][1]);
+            if (!f.ehAmigo(a, b) || !f.ehAmigo(b, a) || !f.ehFa(a, b)) {
+                falhas.add(quando + ": amizade ou ídolo " + a + " " + b + " perdido");
+            }
+        }
+        List<String> lidos = itens(f.getMembrosComunidade(COMUNIDADE));
+        if (!lidos.equals(membros)) falhas.add(quando + ": membros " + lidos + ", esperados " + membros);
+    }
+
+    /**
+     * @param listagem Uma listagem completa, como {@code "{a,b,c}"}
+     * @return Os itens da listagem
+     */
+    private static List<String> itens(String listagem) {
+        String meio = listagem.substring(1, listagem.length() - 1);
+        return meio.isEmpty() ? Collections.emptyList() : Arrays.asList(meio.split(","));
+    }
+}
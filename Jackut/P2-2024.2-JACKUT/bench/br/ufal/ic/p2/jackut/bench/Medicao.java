@@ -0,0 +1,79 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Resultado de um cenário: vazão, percentis de latência e bytes alocados por operação.
+ */
+public class Medicao {
+
+    private final String cenario;
+    private final long[] latencias;
+    private final long total;
+    private final long bytes;
+
+    /**
+     * @param cenario O nome do cenário
+     * @param latencias A latência de cada operação medida, em nanossegundos (o array é ordenado aqui)
+     * @param bytes O total de bytes alocados pelas operações medidas, ou -1 se a JVM não informar
+     */
+    public Medicao(String cenario, long[] latencias, long bytes) {
+        this.cenario = cenario;
+        this.latencias = latencias;
+        this.bytes = bytes;
+        long t = 0;
+        for (long l : latencias) t += l;
+        this.total = t;
+        Arrays.sort(latencias);
+    }
+
+    public String getCenario() { return cenario; }
+
+    public int getOperacoes() { return latencias.length; }
+
+    /**
+     * @return Operações por segundo, considerando só o tempo gasto dentro das operações
+     */
+    public double getVazao() {
+        return total == 0 ? 0 : latencias.length * 1e9 / total;
+    }
+
+    /**
+     * @param p O percentil, entre 0 e 100
+     * @return A latência do percentil, em nanossegundos
+     */
+    public long percentil(double p) {
+        if (latencias.length == 0) return 0;
+        int i = (int) Math.ceil(p / 100 * latencias.length) - 1;
+        return latencias[Math.max(0, Math.min(i, latencias.length - 1))];
+    }
+
+    /**
+     * @return Bytes alocados por operação, ou -1 se a JVM não informar
+     */
+    public long getBytesPorOperacao() {
+        return bytes < 0 || latencias.length == 0 ? -1 : bytes / latencias.length;
+    }
+
+    public static String cabecalho() {
+        return String.format("%-22s %8s %12s %10s %10s %10s %10s %12s",
+                "cenario", "ops", "ops/s", "p50 us", "p99 us", "p99.9 us", "max us", "bytes/op");
+    }
+
+    public static String cabecalhoCsv() {
+        return "cenario,ops,ops_s,p50_ns,p99_ns,p999_ns,max_ns,bytes_op";
+    }
+
+    public String linhaCsv() {
+        return String.format(Locale.ROOT, "%s,%d,%.1f,%d,%d,%d,%d,%d", cenario, getOperacoes(),
+                getVazao(), percentil(50), percentil(99), percentil(99.9), percentil(100), getBytesPorOperacao());
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%-22s %8d %12.0f %10.2f %10.2f %10.2f %10.2f %12d",
+                cenario, getOperacoes(), getVazao(), percentil(50) / 1e3, percentil(99) / 1e3,
+                percentil(99.9) / 1e3, percentil(100) / 1e3, getBytesPorOperacao());
+    }
+}
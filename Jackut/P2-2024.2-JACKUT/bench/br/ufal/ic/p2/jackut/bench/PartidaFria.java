@@ -0,0 +1,147 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.Configuracao;
+import br.ufal.ic.p2.jackut.Facade;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Mede o tempo de início do sistema a partir de um snapshot, com o processo recém-criado (partida a
+ * frio), em cada modo de carga dos usuários.
+ *
+ * <p>Constrói e salva uma {@link RedeSintetica} e, para cada modo, cria várias vezes uma JVM nova que só
+ * carrega o snapshot e mede três tempos, a partir do início da criação da fachada: até o construtor
+ * retornar (o sistema atende), até a primeira leitura de um usuário que ainda estava frio e até a
+ * decodificação em segundo plano terminar ({@link Facade#aguardarCarga()}). Os modos são:</p>
+ * <ul>
+ *   <li>{@code sequencial}: uma thread decodifica todos os usuários antes de o sistema atender;</li>
+ *   <li>{@code paralela}: o mesmo, com {@code jackut.bench.paralelismo} threads (padrão: uma por
+ *   processador);</li>
+ *   <li>{@code fundo}: o sistema atende assim que as comunidades e os índices são lidos, e os usuários são
+ *   decodificados em paralelo depois (o padrão do Jackut);</li>
+ *   <li>{@code sobDemanda}: o snapshot é mapeado e cada usuário só é decodificado no primeiro acesso.</li>
+ * </ul>
+ *
+ * <p>As propriedades {@code jackut.*} e as opções {@code -X} desta JVM são repassadas às medidas, e
+ * {@code jackut.bench.rodadas} (padrão 5) define quantas JVMs são criadas por modo; a tabela mostra as
+ * medianas. Como a {@link Bancada}, deve ser executada num diretório vazio:</p>
+ * <pre>
+ * java -Xmx2g -Djackut.bench.usuarios=100000 -cp out br.ufal.ic.p2.jackut.bench.PartidaFria
+ * </pre>
+ */
+public class PartidaFria {
+
+    private static final String[] MODOS = { "sequencial", "paralela", "fundo", "sobDemanda" };
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("medir")) {
+            medir(args[1]);
+            return;
+        }
+        Bancada.exigirDiretorioVazio();
+        int rodadas = Math.max(1, Configuracao.inteiro("bench.rodadas", 5));
+        int paralelismo = Math.max(1, Configuracao.inteiro("bench.paralelismo",
+                Runtime.getRuntime().availableProcessors()));
+
+        long t = System.nanoTime();
+        Bancada b = new Bancada(new RedeSintetica());
+        RedeSintetica rede = b.getRede();
+        b.encerrar();
+        // o último usuário cadastrado é o último registro do snapshot, o último a ser decodificado
+        String frio = rede.getLogin(rede.getUsuarios() - 1);
+        System.out.printf("rede: %s (%.1f s), snapshot: %d KiB, %d processadores%n", rede,
+                (System.nanoTime() - t) / 1e9, tamanhoSnapshot() / 1024, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%d JVMs por modo, medianas%n%n", rodadas);
+        System.out.printf("%-12s %12s %16s %14s%n", "modo", "atende ms", "leitura fria ms", "completa ms");
+
+        for (String modo : MODOS) {
+            List<long[]> medidas = new ArrayList<>();
+            for (int i = 0; i < rodadas; i++) medidas.add(executar(modo, paralelismo, frio));
+            System.out.printf(Locale.ROOT, "%-12s %12.1f %16.1f %14s%n", modo, mediana(medidas, 0) / 1e6,
+                    mediana(medidas, 1) / 1e6,
+                    modo.equals("sobDemanda") ? "-" : String.format(Locale.ROOT, "%.1f", mediana(medidas, 2) / 1e6));
+        }
+        Bancada.apagarArquivos();
+    }
+
+    /**
+     * Executa uma medida numa JVM nova.
+     *
+     * @return Os tempos até atender, até a primeira leitura e até a carga terminar, em nanossegundos
+     */
+    private static long[] executar(String modo, int paralelismo, String frio) throws IOException, InterruptedException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        for (String a : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (a.startsWith("-X")) cmd.add(a);
+        }
+        for (String p : System.getProperties().stringPropertyNames()) {
+            if (p.startsWith("jackut.")) cmd.add("-D" + p + "=" + System.getProperty(p));
+        }
+        // depois das repassadas: a última definição de uma propriedade é a que vale
+        switch (modo) {
+            case "sequencial":
+                cmd.add("-Djackut.carga.emFundo=false");
+                cmd.add("-Djackut.carga.paralelismo=1");
+                break;
+            case "paralela":
+                cmd.add("-Djackut.carga.emFundo=false");
+                cmd.add("-Djackut.carga.paralelismo=" + paralelismo);
+                break;
+            case "fundo":
+                cmd.add("-Djackut.carga.emFundo=true");
+                cmd.add("-Djackut.carga.paralelismo=" + paralelismo);
+                break;
+            default:
+                cmd.add("-Djackut.usuarios.sobDemanda=true");
+        }
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(PartidaFria.class.getName());
+        cmd.add("medir");
+        cmd.add(frio);
+
+        Process p = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+        String ultima = null;
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+            for (String l; (l = r.readLine()) != null; ) ultima = l;
+        }
+        if (p.waitFor() != 0 || ultima == null || !ultima.startsWith("medida ")) {
+            throw new IllegalStateException("A medida do modo " + modo + " falhou: " + ultima);
+        }
+        String[] c = ultima.split(" ");
+        return new long[] { Long.parseLong(c[1]), Long.parseLong(c[2]), Long.parseLong(c[3]) };
+    }
+
+    /**
+     * Carrega o snapshot e imprime os tempos; executado na JVM criada por {@link #executar}. O processo
+     * termina sem encerrar o sistema, que regravaria o snapshot.
+     */
+    private static void medir(String frio) {
+        long inicio = System.nanoTime();
+        Facade f = new Facade();
+        long atende = System.nanoTime() - inicio;
+        if (f.getAtributoUsuario(frio, "nome") == null) throw new IllegalStateException("Usuário não carregado.");
+        long leitura = System.nanoTime() - inicio;
+        f.aguardarCarga();
+        long completa = System.nanoTime() - inicio;
+        System.out.println("medida " + atende + " " + leitura + " " + completa);
+        System.exit(0);
+    }
+
+    private static double mediana(List<long[]> medidas, int i) {
+        long[] v = new long[medidas.size()];
+        for (int k = 0; k < v.length; k++) v[k] = medidas.get(k)[i];
+        Arrays.sort(v);
+        return v.length % 2 == 1 ? v[v.length / 2] : (v[v.length / 2 - 1] + v[v.length / 2]) / 2.0;
+    }
+
+    private static long tamanhoSnapshot() {
+        long n = 0;
+        for (File a : Objects.requireNonNull(new File(".").listFiles((d, s) -> s.startsWith("jackut.dat")))) {
+            n += a.length();
+        }
+        return n;
+    }
+}
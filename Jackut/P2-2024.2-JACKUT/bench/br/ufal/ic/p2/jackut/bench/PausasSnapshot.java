@@ -0,0 +1,213 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.Configuracao;
+import br.ufal.ic.p2.jackut.Facade;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Mede quanto os snapshots periódicos atrasam as escritas, com o snapshot gravado em segundo plano a
+ * partir de um ponto de controle ({@code -Djackut.snapshot.emFundo=true}, o padrão com mais de um
+ * processador) e com todas as travas ({@code false}), e quanto tempo leva a recuperação depois de uma
+ * queda.
+ *
+ * <p>Constrói uma {@link RedeSintetica} e, para cada modo, recarrega a rede e dispara clientes que alternam
+ * {@link Facade#editarPerfil} e {@link Facade#enviarRecado} durante o tempo pedido, com o limite de
+ * compactação baixo, para que vários snapshots sejam gravados no meio das escritas. Antes da medida, os
+ * clientes escrevem por um tempo sem medir, para que nenhum modo pague sozinho a compilação e a coleta do
+ * lixo deixado pela construção da rede, e os snapshots já estejam em andamento. A tabela mostra os
+ * percentis e a maior latência das escritas, os snapshots gravados em segundo plano durante a medida e a
+ * pausa do último ({@link Facade#getMetricasSnapshot()}), o tamanho do registro de operações deixado para
+ * trás e o tempo que uma JVM nova leva para carregar o snapshot e reproduzir esse registro, sem que o
+ * sistema tenha sido encerrado (como depois de uma queda).</p>
+ *
+ * <p>Configuração: {@code jackut.bench.clientes} (threads de escrita, padrão 4),
+ * {@code jackut.bench.duracaoMs} (padrão 5000), {@code jackut.bench.aquecimentoMs} (padrão 2000),
+ * {@code jackut.log.limiteCompactacao} (padrão 20000 nesta medida) e {@code jackut.log.verificacaoMs}
+ * (padrão 100 nesta medida), além das de escala da rede. Como a {@link Bancada}, deve ser executada num
+ * diretório vazio:</p>
+ * <pre>
+ * java -Xmx2g -Djackut.bench.usuarios=100000 -cp out br.ufal.ic.p2.jackut.bench.PausasSnapshot
+ * </pre>
+ */
+public class PausasSnapshot {
+
+    private static final String[] MODOS = { "fundo", "travado" };
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 1 && args[0].equals("recuperar")) {
+            recuperar();
+            return;
+        }
+        Bancada.exigirDiretorioVazio();
+        // antes da primeira fachada: o limite e o intervalo são lidos uma vez
+        if (System.getProperty("jackut.log.limiteCompactacao") == null) {
+            System.setProperty("jackut.log.limiteCompactacao", "20000");
+        }
+        if (System.getProperty("jackut.log.verificacaoMs") == null) {
+            System.setProperty("jackut.log.verificacaoMs", "100");
+        }
+        int clientes = Math.max(1, Configuracao.inteiro("bench.clientes", 4));
+        long duracao = Configuracao.longo("bench.duracaoMs", 5000);
+        long aquecimento = Configuracao.longo("bench.aquecimentoMs", 2000);
+
+        long t = System.nanoTime();
+        Bancada b = new Bancada(new RedeSintetica());
+        RedeSintetica rede = b.getRede();
+        System.out.printf("rede: %s (%.1f s), %d clientes, %d ms de escrita por modo, limite de compactação %s, "
+                        + "%d processadores%n%n", rede, (System.nanoTime() - t) / 1e9, clientes, duracao,
+                System.getProperty("jackut.log.limiteCompactacao"), Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-8s %11s %9s %9s %10s %9s %10s %10s %12s %11s%n", "modo", "escritas/s", "p50 us",
+                "p99 us", "p99.9 us", "max ms", "snapshots", "pausa us", "registro KiB", "recarga ms");
+        for (String modo : MODOS) {
+            System.setProperty("jackut.snapshot.emFundo", Boolean.toString(modo.equals("fundo")));
+            b.encerrar();
+            b.carregar();
+            b.reabrirSessoes();
+            b.getFacade().aguardarCarga();
+            escrever(b.getFacade(), rede, clientes, aquecimento);
+            System.out.println(medir(modo, b.getFacade(), rede, clientes, duracao));
+        }
+        b.encerrar();
+        Bancada.apagarArquivos();
+    }
+
+    private static String medir(String modo, Facade f, RedeSintetica rede, int clientes, long duracao)
+            throws IOException, InterruptedException {
+        System.gc();
+        long gravados = valor(f.getMetricasSnapshot(), "gravados");
+        long inicio = System.nanoTime();
+        long[] todas = escrever(f, rede, clientes, duracao);
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+        Medicao escritas = new Medicao(modo, todas, -1);
+
+        String metricas = aguardarSnapshots(f);
+        long registro = 0;
+        for (File a : Objects.requireNonNull(new File(".").listFiles((d, s) -> s.startsWith("jackut.log")))) {
+            registro += a.length();
+        }
+        boolean fundo = modo.equals("fundo");
+        return String.format(Locale.ROOT, "%-8s %11.0f %9.1f %9.1f %10.1f %9.1f %10s %10s %12d %11.1f",
+                modo, todas.length / segundos, escritas.percentil(50) / 1e3, escritas.percentil(99) / 1e3,
+                escritas.percentil(99.9) / 1e3, escritas.percentil(100) / 1e6,
+                fundo ? Long.toString(valor(metricas, "gravados") - gravados) : "-",
+                fundo ? Long.toString(valor(metricas, "pausaUs")) : "-",
+                registro / 1024, executarRecuperacao() / 1e6);
+    }
+
+    /**
+     * Dispara os clientes, que escrevem até o fim do tempo pedido.
+     *
+     * @return A latência de cada escrita, em nanossegundos
+     */
+    private static long[] escrever(Facade f, RedeSintetica rede, int clientes, long duracao)
+            throws InterruptedException {
+        long fim = System.nanoTime() + duracao * 1_000_000;
+        long[][] latencias = new long[clientes][];
+        Thread[] ts = new Thread[clientes];
+        for (int c = 0; c < clientes; c++) {
+            int k = c;
+            ts[c] = new Thread(() -> {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                long[] l = new long[1024];
+                int n = 0;
+                while (System.nanoTime() < fim) {
+                    int u = r.nextInt(rede.getUsuarios());
+                    long t0 = System.nanoTime();
+                    if ((n & 1) == 0) f.editarPerfil(rede.getSessao(u), "cidade", "c" + r.nextInt(1000));
+                    else {
+                        int d = r.nextInt(rede.getUsuarios() - 1);
+                        f.enviarRecado(rede.getSessao(u), rede.getLogin(d >= u ? d + 1 : d), "recado " + k);
+                    }
+                    if (n == l.length) l = Arrays.copyOf(l, n * 2);
+                    l[n++] = System.nanoTime() - t0;
+                }
+                latencias[k] = Arrays.copyOf(l, n);
+            });
+        }
+        for (Thread t : ts) t.start();
+        for (Thread t : ts) t.join();
+
+        int total = 0;
+        for (long[] l : latencias) total += l.length;
+        long[] todas = new long[total];
+        int p = 0;
+        for (long[] l : latencias) {
+            System.arraycopy(l, 0, todas, p, l.length);
+            p += l.length;
+        }
+        return todas;
+    }
+
+    /**
+     * Espera o snapshot em andamento terminar: sem escritas, um novo só começa se o registro ainda passar
+     * do limite, o que acontece no máximo uma vez.
+     *
+     * @return As métricas dos snapshots em segundo plano depois do último
+     */
+    private static String aguardarSnapshots(Facade f) throws InterruptedException {
+        long intervalo = Configuracao.longo("log.verificacaoMs", 100);
+        String antes = f.getMetricasSnapshot();
+        while (true) {
+            Thread.sleep(3 * intervalo + 200);
+            String depois = f.getMetricasSnapshot();
+            if (depois.equals(antes) && (valor(depois, "gravados") == 0 || valor(depois, "gravacaoMs") >= 0)) {
+                return depois;
+            }
+            antes = depois;
+        }
+    }
+
+    /**
+     * Mede a recuperação numa JVM nova, que carrega os arquivos deixados pela fachada atual sem que ela
+     * tenha sido encerrada.
+     *
+     * @return O tempo até o sistema atender com todos os usuários decodificados, em nanossegundos
+     */
+    private static long executarRecuperacao() throws IOException, InterruptedException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        for (String a : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (a.startsWith("-X")) cmd.add(a);
+        }
+        for (String p : System.getProperties().stringPropertyNames()) {
+            if (p.startsWith("jackut.")) cmd.add("-D" + p + "=" + System.getProperty(p));
+        }
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(PausasSnapshot.class.getName());
+        cmd.add("recuperar");
+
+        Process p = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+        String ultima = null;
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+            for (String l; (l = r.readLine()) != null; ) ultima = l;
+        }
+        if (p.waitFor() != 0 || ultima == null || !ultima.startsWith("medida ")) {
+            throw new IllegalStateException("A recuperação falhou: " + ultima);
+        }
+        return Long.parseLong(ultima.substring("medida ".length()));
+    }
+
+    /**
+     * Carrega o sistema e imprime o tempo; executado na JVM criada por {@link #executarRecuperacao()}.
+     * O processo termina sem encerrar o sistema, que regravaria o snapshot.
+     */
+    private static void recuperar() {
+        long inicio = System.nanoTime();
+        Facade f = new Facade();
+        f.aguardarCarga();
+        System.out.println("medida " + (System.nanoTime() - inicio));
+        System.exit(0);
+    }
+
+    // Lê um número de Facade#getMetricasSnapshot, no formato "nome=valor"
+    private static long valor(String metricas, String nome) {
+        for (String parte : metricas.split(" ")) {
+            if (parte.startsWith(nome + "=")) return Long.parseLong(parte.substring(nome.length() + 1));
+        }
+        throw new IllegalArgumentException(nome + " não está em " + metricas);
+    }
+}
@@ -0,0 +1,207 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.Configuracao;
+import br.ufal.ic.p2.jackut.Facade;
+import br.ufal.ic.p2.jackut.ResultadoLote;
+import java.util.*;
+
+/**
+ * Rede social sintética usada pela {@link Bancada}: usuários, amizades, ídolos e comunidades gerados
+ * de forma determinística a partir de uma semente.
+ *
+ * <p>A escala é ajustada pelas propriedades {@code jackut.bench.usuarios}, {@code jackut.bench.grau}
+ * (quantidade média de amigos por usuário), {@code jackut.bench.idolos} (ídolos por usuário),
+ * {@code jackut.bench.tamanhoComunidade} (membros por comunidade) e {@code jackut.bench.semente}.
+ * A popularidade dos ídolos segue uma distribuição concentrada nos primeiros usuários, para que
+ * {@code getFas} seja medido também sobre listas grandes.</p>
+ *
+ * <p>Com {@code -Djackut.bench.amizades=potencia}, um dos lados de cada amizade é sorteado com a mesma
+ * distribuição dos ídolos: a quantidade de amigos passa a seguir uma lei de potência, com alguns
+ * usuários com milhares de amigos e a maioria com poucos, como nas redes reais. O padrão,
+ * {@code uniforme}, sorteia os dois lados uniformemente.</p>
+ */
+public class RedeSintetica {
+
+    private final int usuarios;
+    private final int grau;
+    private final int idolos;
+    private final int tamanhoComunidade;
+    private final long semente;
+    private final boolean amizadesPotencia;
+
+    private String[] logins;
+    private String[] senhas;
+    private String[] sessoes;
+    private String[] comunidades;
+    private int[][] membros;
+    private int amizades;
+    private int falhas;
+
+    /**
+     * Cria a rede com a escala lida da configuração.
+     */
+    public RedeSintetica() {
+        this(Configuracao.inteiro("bench.usuarios", 10_000),
+             Configuracao.inteiro("bench.grau", 20),
+             Configuracao.inteiro("bench.idolos", 5),
+             Configuracao.inteiro("bench.tamanhoComunidade", 50),
+             Configuracao.longo("bench.semente", 42),
+             "potencia".equalsIgnoreCase(Configuracao.texto("bench.amizades", "uniforme")));
+    }
+
+    /**
+     * Cria a rede com a escala fornecida.
+     *
+     * @param usuarios A quantidade de usuários
+     * @param grau A quantidade média de amigos por usuário
+     * @param idolos A quantidade de ídolos de cada usuário
+     * @param tamanhoComunidade A quantidade de membros de cada comunidade
+     * @param semente A semente do gerador aleatório
+     */
+    public RedeSintetica(int usuarios, int grau, int idolos, int tamanhoComunidade, long semente) {
+        this(usuarios, grau, idolos, tamanhoComunidade, semente, false);
+    }
+
+    /**
+     * Cria a rede com a escala e a distribuição de amizades fornecidas.
+     *
+     * @param usuarios A quantidade de usuários
+     * @param grau A quantidade média de amigos por usuário
+     * @param idolos A quantidade de ídolos de cada usuário
+     * @param tamanhoComunidade A quantidade de membros de cada comunidade
+     * @param semente A semente do gerador aleatório
+     * @param amizadesPotencia True para que a quantidade de amigos siga uma lei de potência
+     */
+    public RedeSintetica(int usuarios, int grau, int idolos, int tamanhoComunidade, long semente,
+                         boolean amizadesPotencia) {
+        this.amizadesPotencia = amizadesPotencia;
+        this.usuarios = Math.max(2, usuarios);
+        this.grau = Math.max(0, Math.min(grau, this.usuarios - 1));
+        this.idolos = Math.max(0, Math.min(idolos, this.usuarios - 1));
+        this.tamanhoComunidade = Math.max(1, Math.min(tamanhoComunidade, this.usuarios));
+        this.semente = semente;
+    }
+
+    /**
+     * Zera o sistema e povoa-o com a rede, usando os comandos em lote da fachada sempre que possível.
+     *
+     * @param f A fachada a povoar
+     */
+    public void construir(Facade f) {
+        Random r = new Random(semente);
+        f.zerarSistema();
+        falhas = 0;
+
+        logins = new String[usuarios];
+        senhas = new String[usuarios];
+        List<String[]> novos = new ArrayList<>(usuarios);
+        for (int i = 0; i < usuarios; i++) {
+            logins[i] = "u" + i;
+            senhas[i] = "s" + i;
+            novos.add(new String[]{ logins[i], senhas[i], "Usuario " + i });
+        }
+        contar(f.criarUsuarios(novos));
+        reabrirSessoes(f);
+
+        // cada amizade é sorteada uma vez: o primeiro convida, o segundo aceita
+        List<List<String>> convites = new ArrayList<>(usuarios);
+        List<List<String>> aceites  = new ArrayList<>(usuarios);
+        for (int i = 0; i < usuarios; i++) {
+            convites.add(new ArrayList<>());
+            aceites.add(new ArrayList<>());
+        }
+        Set<Long> pares = new HashSet<>();
+        long alvo = (long) usuarios * grau / 2;
+        while (pares.size() < alvo) {
+            int a = r.nextInt(usuarios), b = amizadesPotencia ? idoloPopular(r) : r.nextInt(usuarios);
+            if (a == b || !pares.add((long) Math.min(a, b) * usuarios + Math.max(a, b))) continue;
+            convites.get(a).add(logins[b]);
+            aceites.get(b).add(logins[a]);
+        }
+        amizades = pares.size();
+        for (int i = 0; i < usuarios; i++) {
+            if (!convites.get(i).isEmpty()) contar(f.adicionarAmigos(sessoes[i], convites.get(i)));
+        }
+        for (int i = 0; i < usuarios; i++) {
+            if (!aceites.get(i).isEmpty()) contar(f.adicionarAmigos(sessoes[i], aceites.get(i)));
+        }
+
+        Set<Integer> escolhidos = new HashSet<>();
+        for (int i = 0; i < usuarios; i++) {
+            escolhidos.clear();
+            while (escolhidos.size() < idolos) {
+                int idolo = idoloPopular(r);
+                if (idolo != i && escolhidos.add(idolo)) f.adicionarIdolo(sessoes[i], logins[idolo]);
+            }
+        }
+
+        int n = Math.max(1, usuarios / tamanhoComunidade);
+        comunidades = new String[n];
+        membros = new int[n][];
+        for (int c = 0; c < n; c++) {
+            comunidades[c] = "c" + c;
+            int[] m = sortearDistintos(r, tamanhoComunidade);
+            membros[c] = m;
+            f.criarComunidade(sessoes[m[0]], comunidades[c], "Comunidade " + c);
+            List<String> outros = new ArrayList<>(m.length - 1);
+            for (int k = 1; k < m.length; k++) outros.add(sessoes[m[k]]);
+            if (!outros.isEmpty()) contar(f.adicionarMembros(comunidades[c], outros));
+        }
+    }
+
+    /**
+     * Abre novamente a sessão de todos os usuários da rede, como é preciso depois de uma recarga.
+     *
+     * @param f A fachada
+     */
+    public void reabrirSessoes(Facade f) {
+        sessoes = new String[usuarios];
+        for (int i = 0; i < usuarios; i++) sessoes[i] = f.abrirSessao(logins[i], senhas[i]);
+    }
+
+    /**
+     * Sorteia um usuário com probabilidade concentrada nos primeiros índices.
+     *
+     * @param r O gerador aleatório
+     * @return O índice do usuário
+     */
+    public int idoloPopular(Random r) {
+        double x = r.nextDouble();
+        return (int) (usuarios * x * x * x);
+    }
+
+    private int[] sortearDistintos(Random r, int n) {
+        Set<Integer> s = new LinkedHashSet<>();
+        while (s.size() < n) s.add(r.nextInt(usuarios));
+        int[] v = new int[n];
+        int i = 0;
+        for (int x : s) v[i++] = x;
+        return v;
+    }
+
+    private void contar(ResultadoLote r) {
+        falhas += r.getFalhas();
+    }
+
+    public int getUsuarios() { return usuarios; }
+
+    public String getLogin(int i) { return logins[i]; }
+
+    public String getSenha(int i) { return senhas[i]; }
+
+    public String getSessao(int i) { return sessoes[i]; }
+
+    public int getComunidades() { return comunidades.length; }
+
+    public String getComunidade(int c) { return comunidades[c]; }
+
+    public int[] getMembros(int c) { return membros[c]; }
+
+    @Override
+    public String toString() {
+        return String.format("usuarios=%d amizades=%d (%s) idolos/usuario=%d comunidades=%d membros/comunidade=%d"
+                        + " semente=%d falhas=%d",
+                usuarios, amizades, amizadesPotencia ? "potencia" : "uniforme", idolos, comunidades.length,
+                tamanhoComunidade, semente, falhas);
+    }
+}
@@ -0,0 +1,107 @@
+package br.ufal.ic.p2.jackut.bench;
+
+import br.ufal.ic.p2.jackut.Configuracao;
+import br.ufal.ic.p2.jackut.metricas.Instrumentacao;
+import java.util.*;
+
+/**
+ * Mede o custo da {@link Instrumentacao}: executa cada cenário em rodadas curtas alternadas com a
+ * medição desligada e ligada, sobre a mesma {@link RedeSintetica} e na mesma JVM, e compara o tempo
+ * mediano por operação das duas. O total soma o tempo por operação de todos os cenários, como numa carga
+ * em que cada um aparece com a mesma frequência.
+ *
+ * <p>Rodadas curtas e intercaladas fazem com que as variações da máquina (outros processos, o
+ * compilador, o coletor) atinjam os dois lados por igual; comparar JVMs separadas dá diferenças maiores
+ * que o custo medido. O aquecimento também alterna os lados, para que o código compilado da fachada já
+ * conte com os dois. Cada rodada é cronometrada inteira, sem relógio por operação, para que o custo da
+ * própria bancada não dilua a diferença; por isso os cenários usados devem ser os que não têm
+ * arrumação em {@link Cenario#antes(int)} e {@link Cenario#depois(int)}, como os do padrão. Pelo mesmo
+ * motivo a compactação do registro fica desligada, a menos que {@code jackut.log.limiteCompactacao}
+ * seja dado: ela grava a rede inteira em segundo plano e cai no meio de rodadas sorteadas.</p>
+ *
+ * <p>Além das propriedades de escala da rede e de {@code jackut.bench.cenarios}, usa
+ * {@code jackut.bench.operacoes} (operações por rodada, padrão 10000), {@code jackut.bench.aquecimento}
+ * (pares de rodadas descartados, padrão 20) e {@code jackut.bench.pares} (pares de rodadas
+ * desligada/ligada medidos, padrão 40). Como a {@link Bancada}, deve ser executada num diretório
+ * vazio:</p>
+ * <pre>
+ * java -Xms2g -Djackut.bench.usuarios=20000 -cp out br.ufal.ic.p2.jackut.bench.SobrecargaMetricas
+ * </pre>
+ */
+public class SobrecargaMetricas {
+
+    private static final String PADRAO = "getAtributoUsuario,ehAmigo,ehFa,getAmigos,getMembrosComunidade,"
+            + "getUsuariosComAtributo,getFasPagina,editarPerfil,enviarLerRecado,enviarLerMensagem,buscarUsuarios";
+
+    public static void main(String[] args) {
+        Bancada.exigirDiretorioVazio();
+        int operacoes   = Math.max(1, Configuracao.inteiro("bench.operacoes", 10_000));
+        int aquecimento = Math.max(0, Configuracao.inteiro("bench.aquecimento", 20));
+        int pares       = Math.max(1, Configuracao.inteiro("bench.pares", 40));
+        Set<String> filtro = new LinkedHashSet<>();
+        for (String s : Configuracao.texto("bench.cenarios", PADRAO).split(",")) {
+            if (!s.trim().isEmpty()) filtro.add(s.trim());
+        }
+        if (System.getProperty("jackut.perfil.atributosIndexados") == null) {
+            System.setProperty("jackut.perfil.atributosIndexados", "cidade");
+        }
+        if (System.getProperty("jackut.log.limiteCompactacao") == null) {
+            System.setProperty("jackut.log.limiteCompactacao", String.valueOf(Integer.MAX_VALUE));
+        }
+
+        long t = System.nanoTime();
+        Bancada b = new Bancada(new RedeSintetica());
+        Instrumentacao inst = b.getFacade().getInstrumentacao();
+        System.out.printf("rede: %s (%.1f s)%n", b.getRede(), (System.nanoTime() - t) / 1e9);
+        System.out.printf("%d pares de rodadas de %d operações, %d de aquecimento%n%n", pares, operacoes, aquecimento);
+        System.out.printf("%-24s %12s %12s %10s%n", "cenario", "sem ns/op", "com ns/op", "custo");
+
+        double somaSem = 0, somaCom = 0;
+        for (Cenario c : Cenarios.todos()) {
+            if (!filtro.contains(c.getNome())) continue;
+            int n = Math.min(operacoes, c.getLimiteOperacoes());
+            c.preparar(b, n * 2 * (aquecimento + pares));
+            System.gc();
+            int i = 0;
+            double[] sem = new double[pares], com = new double[pares];
+            for (int p = -aquecimento; p < pares; p++) {
+                // alterna a ordem dentro do par, para que nenhum dos lados fique sempre com a JVM mais quente
+                boolean ligadaPrimeiro = (p & 1) == 0;
+                for (int lado = 0; lado < 2; lado++, i += n) {
+                    boolean ligada = (lado == 0) == ligadaPrimeiro;
+                    inst.setAtiva(ligada);
+                    double porOperacao = rodada(c, i, n);
+                    if (p >= 0) (ligada ? com : sem)[p] = porOperacao;
+                }
+            }
+            double ms = mediana(sem), mc = mediana(com);
+            somaSem += ms;
+            somaCom += mc;
+            System.out.printf(Locale.ROOT, "%-24s %12.1f %12.1f %9.2f%%%n", c.getNome(), ms, mc, (mc / ms - 1) * 100);
+        }
+        inst.setAtiva(true);
+        System.out.printf(Locale.ROOT, "%-24s %12.1f %12.1f %9.2f%%%n%n", "total", somaSem, somaCom, (somaCom / somaSem - 1) * 100);
+        System.out.print(b.getFacade().getMetricas());
+        b.descartar();
+    }
+
+    /**
+     * Executa uma rodada num método próprio, para que o laço seja compilado como um método comum e não
+     * por substituição na pilha.
+     */
+    private static double rodada(Cenario c, int inicio, int n) {
+        long t0 = System.nanoTime();
+        for (int i = inicio; i < inicio + n; i++) {
+            c.antes(i);
+            c.executar(i);
+            c.depois(i);
+        }
+        return (System.nanoTime() - t0) / (double) n;
+    }
+
+    private static double mediana(double[] v) {
+        double[] c = v.clone();
+        Arrays.sort(c);
+        return c[c.length / 2];
+    }
+}
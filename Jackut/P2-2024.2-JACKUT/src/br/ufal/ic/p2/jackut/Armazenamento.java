@@ -0,0 +1,137 @@
+package br.ufal.ic.p2.jackut;
+
+import br.ufal.ic.p2.jackut.persistencia.TipoOperacao;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Onde o {@link Jackut} guarda o seu estado entre execuções, escolhido por {@code -Djackut.armazenamento}:
+ * <ul>
+ *   <li>{@code arquivo} (o padrão): o snapshot em {@code jackut.dat} e o registro de operações em
+ *   {@code jackut.log}, mantidos pelo próprio {@link Jackut};</li>
+ *   <li>{@code chaveValor}: cada usuário e cada comunidade gravados no lugar, em {@code jackut.kv}
+ *   ({@link ArmazenamentoChaveValor});</li>
+ *   <li>{@code memoria}: os mesmos registros num mapa do processo, sem disco ({@link ArmazenamentoMemoria}),
+ *   para testes e medições.</li>
+ * </ul>
+ *
+ * <p>No armazenamento em arquivo, toda alteração é gravada no registro de operações antes de retornar;
+ * periodicamente, e ao encerrar, um snapshot completo é gravado em {@code jackut.dat}, no formato de
+ * {@link br.ufal.ic.p2.jackut.persistencia.SaidaSnapshot}, e o registro é truncado. O snapshot periódico é
+ * gravado em segundo plano, a partir de um {@link PontoDeControle}. Na carga, o snapshot é lido e o
+ * restante do registro é reaplicado. O momento em que uma alteração passa a sobreviver a uma queda é escolhido por
+ * {@code -Djackut.log.durabilidade} ({@link br.ufal.ic.p2.jackut.persistencia.Durabilidade}).</p>
+ *
+ * <p>O Jackut chama {@link #registrar} logo depois de aplicar cada alteração, com as travas da operação
+ * adquiridas, de modo que o armazenamento pode ler o estado das chaves envolvidas sem outras travas.</p>
+ */
+public interface Armazenamento {
+
+    /**
+     * Carrega o estado gravado para dentro do sistema, que ainda não atende.
+     *
+     * @param inicio O instante ({@link System#nanoTime()}) em que a carga começou
+     * @throws Exception Se o estado gravado não puder ser lido
+     */
+    void carregar(long inicio) throws Exception;
+
+    /**
+     * Grava uma alteração já aplicada; deve ser chamado com as travas da operação adquiridas.
+     *
+     * @param tipo O tipo da operação
+     * @param args Os argumentos da operação, com logins no lugar de sessões
+     * @throws br.ufal.ic.p2.jackut.exceptions.FalhaAoSalvarDadosException Se a alteração não puder ser gravada
+     */
+    void registrar(TipoOperacao tipo, String... args);
+
+    /**
+     * Grava várias alterações do mesmo tipo, de uma só vez.
+     *
+     * @param tipo O tipo das operações
+     * @param args Os argumentos de cada operação
+     * @throws br.ufal.ic.p2.jackut.exceptions.FalhaAoSalvarDadosException Se as alterações não puderem ser gravadas
+     */
+    void registrarLote(TipoOperacao tipo, List<String[]> args);
+
+    /**
+     * Grava a remoção de uma conta; deve ser chamado com todas as travas adquiridas.
+     *
+     * @param login O login removido
+     * @param usuarios Os outros usuários alterados pela remoção
+     * @param comunidades As comunidades alteradas ou apagadas pela remoção
+     * @throws br.ufal.ic.p2.jackut.exceptions.FalhaAoSalvarDadosException Se a remoção não puder ser gravada
+     */
+    void registrarRemocao(String login, Collection<String> usuarios, Collection<String> comunidades);
+
+    /**
+     * Manutenção periódica (snapshots, compactação), executada numa thread de fundo.
+     */
+    void manter();
+
+    /**
+     * Grava o que estiver pendente e fecha os arquivos; deve ser chamado com todas as travas adquiridas.
+     */
+    void encerrar();
+
+    /**
+     * Põe de lado o estado gravado, que não pôde ser carregado, sem apagá-lo ({@link Quarentena}), e deixa o
+     * armazenamento pronto para gravar um sistema vazio.
+     *
+     * @return O diretório para onde os arquivos foram movidos, ou null se não havia arquivos
+     * @throws br.ufal.ic.p2.jackut.exceptions.FalhaAoCarregarDadosException Se os arquivos não puderem ser
+     *                                                                       movidos
+     */
+    java.io.File isolar();
+
+    /**
+     * @return Uma fotografia das métricas do armazenamento
+     */
+    Metricas getMetricas();
+
+    /**
+     * Gravações do armazenamento desde a abertura.
+     */
+    final class Metricas {
+        private final String armazenamento;
+        private final long lotes, registros, sincronizacoes, compactacoes, tamanho, vivos;
+
+        Metricas(String armazenamento, long lotes, long registros, long sincronizacoes, long compactacoes,
+                 long tamanho, long vivos) {
+            this.armazenamento = armazenamento;
+            this.lotes = lotes;
+            this.registros = registros;
+            this.sincronizacoes = sincronizacoes;
+            this.compactacoes = compactacoes;
+            this.tamanho = tamanho;
+            this.vivos = vivos;
+        }
+
+        /** @return O nome do armazenamento, como em {@code -Djackut.armazenamento} */
+        public String getArmazenamento() { return armazenamento; }
+
+        /** @return As gravações feitas: uma por operação, ou por lote de operações */
+        public long getLotes() { return lotes; }
+
+        /** @return Os registros gravados: as operações, no arquivo, ou as partes de usuários e comunidades */
+        public long getRegistros() { return registros; }
+
+        /** @return Os fsyncs feitos */
+        public long getSincronizacoes() { return sincronizacoes; }
+
+        /** @return Os snapshots gravados em segundo plano, no arquivo, ou as compactações */
+        public long getCompactacoes() { return compactacoes; }
+
+        /** @return Os bytes guardados, no disco ou em memória */
+        public long getTamanho() { return tamanho; }
+
+        /** @return Os bytes dos valores atuais, sem os substituídos, ou -1 se não se aplica */
+        public long getVivos() { return vivos; }
+
+        @Override
+        public String toString() {
+            return "armazenamento=" + armazenamento + " lotes=" + lotes + " registros=" + registros
+                    + " sincronizacoes=" + sincronizacoes + " compactacoes=" + compactacoes
+                    + " tamanho=" + tamanho + " vivos=" + vivos;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package br.ufal.ic.p2.jackut;
+
+import br.ufal.ic.p2.jackut.exceptions.FalhaAoCarregarDadosException;
+import br.ufal.ic.p2.jackut.persistencia.ArquivoChaveValor;
+import br.ufal.ic.p2.jackut.persistencia.Durabilidade;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Armazenamento por registros num {@link ArquivoChaveValor} ({@code jackut.kv}): cada operação acrescenta
+ * ao arquivo só os registros que alterou, e os registros substituídos são descartados pela compactação,
+ * verificada periodicamente, quando passam de {@code -Djackut.kv.limiteCompactacao} bytes (64 MiB por
+ * padrão) e do tamanho dos registros vivos.
+ *
+ * <p>A {@link Durabilidade} é a do registro de operações ({@code -Djackut.log.durabilidade} e os
+ * parâmetros do grupo): no modo em grupo, a operação só retorna depois do fsync do lote com os seus
+ * registros, ainda com as travas da operação.</p>
+ */
+final class ArmazenamentoChaveValor extends ArmazenamentoRegistros {
+
+    private static final long LIMITE_COMPACTACAO = Configuracao.longo("kv.limiteCompactacao", 64L << 20);
+
+    private final File arquivo;
+    private final Durabilidade durabilidade;
+    private ArquivoChaveValor kv;
+
+    /**
+     * @param arquivo O arquivo
+     * @param durabilidade Quando os registros são sincronizados com o disco
+     * @param repositorios O acesso ao estado do sistema
+     */
+    ArmazenamentoChaveValor(File arquivo, Durabilidade durabilidade, Repositorios repositorios) {
+        super("chaveValor", repositorios);
+        this.arquivo = arquivo;
+        this.durabilidade = durabilidade;
+    }
+
+    @Override
+    protected Map<String, byte[]> ler() throws IOException {
+        Map<String, byte[]> gravados = new HashMap<>();
+        kv = ArquivoChaveValor.abrir(arquivo, durabilidade, LIMITE_COMPACTACAO, gravados);
+        return gravados;
+    }
+
+    @Override
+    protected void gravar(Map<String, byte[]> alteracoes) {
+        long lote = kv.gravar(alteracoes);
+        if (durabilidade.isGrupo()) kv.aguardar(lote, System.nanoTime() + durabilidade.getEsperaMaximaNanos());
+    }
+
+    @Override
+    protected void limpar() {
+        kv.limpar();
+    }
+
+    @Override
+    protected long getSincronizacoes() { return kv.getSincronizacoes(); }
+
+    @Override
+    protected long getCompactacoes() { return kv.getCompactacoes(); }
+
+    @Override
+    protected long getTamanho() { return kv.getTamanho(); }
+
+    @Override
+    protected long getVivos() { return kv.getVivos(); }
+
+    @Override
+    public void manter() {
+        try { kv.compactarSeNecessario(); }
+        catch (RuntimeException e) { e.printStackTrace(); }
+    }
+
+    @Override
+    public void encerrar() {
+        kv.close();
+    }
+
+    @Override
+    public File isolar() {
+        if (kv != null) kv.close();
+        File q = Quarentena.mover(arquivo.getName());
+        try {
+            kv = ArquivoChaveValor.abrir(arquivo, durabilidade, LIMITE_COMPACTACAO, new HashMap<>());
+        } catch (IOException e) {
+            throw new FalhaAoCarregarDadosException();
+        }
+        return q;
+    }
+}
@@ -0,0 +1,67 @@
+package br.ufal.ic.p2.jackut;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Armazenamento por registros guardado num mapa do processo, sem disco: o estado sobrevive a
+ * {@link Jackut#encerrarSistema()} e é carregado por um novo {@link Jackut} no mesmo processo, mas não a
+ * um reinício. Serve para testes e para medir o custo de codificar os registros sem o custo do disco.
+ *
+ * <p>Os registros de uma operação são gravados um a um; como as chaves são gravadas com as travas da
+ * operação, um registro nunca é sobrescrito por uma versão mais antiga.</p>
+ */
+final class ArmazenamentoMemoria extends ArmazenamentoRegistros {
+
+    // Compartilhado por todos os sistemas do processo, como o diretório dos arquivos
+    private static final Map<String, byte[]> REGISTROS = new ConcurrentHashMap<>();
+
+    /**
+     * @param repositorios O acesso ao estado do sistema
+     */
+    ArmazenamentoMemoria(Repositorios repositorios) {
+        super("memoria", repositorios);
+    }
+
+    @Override
+    protected Map<String, byte[]> ler() {
+        return new HashMap<>(REGISTROS);
+    }
+
+    @Override
+    protected void gravar(Map<String, byte[]> alteracoes) {
+        for (Map.Entry<String, byte[]> e : alteracoes.entrySet()) {
+            if (e.getValue() == null) REGISTROS.remove(e.getKey());
+            else REGISTROS.put(e.getKey(), e.getValue());
+        }
+    }
+
+    @Override
+    protected void limpar() {
+        REGISTROS.clear();
+    }
+
+    @Override
+    protected long getTamanho() {
+        long n = 0;
+        for (byte[] r : REGISTROS.values()) n += r.length;
+        return n;
+    }
+
+    @Override
+    protected long getVivos() {
+        return getTamanho();
+    }
+
+    @Override
+    public void encerrar() { }
+
+    @Override
+    public File isolar() {
+        // não há arquivos: os registros ilegíveis se perdem, como se perderiam num reinício
+        REGISTROS.clear();
+        return null;
+    }
+}
@@ -0,0 +1,244 @@
+package br.ufal.ic.p2.jackut;
+
+import br.ufal.ic.p2.jackut.exceptions.FalhaAoSalvarDadosException;
+import br.ufal.ic.p2.jackut.persistencia.TipoOperacao;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Armazenamento que guarda o estado em registros independentes, um por chave, e regrava a cada
+ * alteração só os registros que ela tocou, em vez de acrescentar a operação a um registro de operações
+ * e gravar snapshots do sistema inteiro.
+ *
+ * <p>Os registros formam quatro repositórios ({@link Repositorio}): o perfil de cada usuário, os seus
+ * relacionamentos (com os seus fãs, na ordem em que chegaram), a sua caixa de recados e cada comunidade, com membros e mensagens. Cada registro é
+ * codificado no formato de {@link br.ufal.ic.p2.jackut.persistencia.SaidaSnapshot}, sem tabela de textos
+ * ({@link br.ufal.ic.p2.jackut.persistencia.SaidaSnapshot#avulsa}). Os registros de uma operação são
+ * gravados juntos, num lote ({@link #gravar(Map)}). Uma comunidade é regravada inteira a cada mensagem
+ * enviada ou lida, então o custo de uma mensagem cresce com as mensagens retidas na comunidade.</p>
+ *
+ * <p>Na carga, todos os registros são decodificados antes de o sistema atender, na ordem dos
+ * repositórios, e os outros índices reversos são refeitos a partir dos usuários ({@link Repositorios#concluirCarga()}).
+ * A carga sob demanda do armazenamento em arquivo não se aplica.</p>
+ */
+abstract class ArmazenamentoRegistros implements Armazenamento {
+
+    /**
+     * Os repositórios em que o estado é dividido; a chave de um registro é o prefixo do repositório
+     * seguido do login ou do nome da comunidade.
+     */
+    enum Repositorio {
+        USUARIOS('u'), RELACIONAMENTOS('r'), RECADOS('c'), COMUNIDADES('m');
+
+        private final char prefixo;
+
+        Repositorio(char prefixo) { this.prefixo = prefixo; }
+
+        String chave(String nome) { return prefixo + nome; }
+    }
+
+    /**
+     * Acesso do armazenamento ao estado do {@link Jackut}.
+     */
+    interface Repositorios {
+        /**
+         * Codifica o registro atual de uma chave; chamado com a trava da chave adquirida.
+         *
+         * @param r O repositório
+         * @param nome O login ou o nome da comunidade
+         * @return O registro, ou null se o usuário ou a comunidade não existe mais
+         * @throws IOException Se a codificação falhar
+         */
+        byte[] codificar(Repositorio r, String nome) throws IOException;
+
+        /**
+         * Decodifica um registro gravado, na carga; os usuários são decodificados antes das suas
+         * outras partes.
+         *
+         * @param r O repositório
+         * @param nome O login ou o nome da comunidade
+         * @param registro O registro
+         * @throws IOException Se o registro não puder ser decodificado
+         */
+        void decodificar(Repositorio r, String nome, byte[] registro) throws IOException;
+
+        /**
+         * @param login O login de um usuário, com a trava adquirida
+         * @return As comunidades de que o usuário participa
+         */
+        Collection<String> comunidadesDe(String login);
+
+        /**
+         * Refaz o que não é gravado (índices reversos, sequência das mensagens) depois de todos os
+         * registros terem sido decodificados.
+         */
+        void concluirCarga();
+    }
+
+    private final String nome;
+    private final Repositorios repositorios;
+    private final LongAdder lotes = new LongAdder();
+    private final LongAdder registros = new LongAdder();
+
+    /**
+     * @param nome O nome do armazenamento, como em {@code -Djackut.armazenamento}
+     * @param repositorios O acesso ao estado do sistema
+     */
+    ArmazenamentoRegistros(String nome, Repositorios repositorios) {
+        this.nome = nome;
+        this.repositorios = repositorios;
+    }
+
+    /**
+     * Lê todos os registros gravados.
+     *
+     * @return O registro de cada chave
+     * @throws IOException Se os registros não puderem ser lidos
+     */
+    protected abstract Map<String, byte[]> ler() throws IOException;
+
+    /**
+     * Grava os registros de uma operação juntos; chamado com as travas da operação adquiridas.
+     *
+     * @param alteracoes O novo registro de cada chave, ou null para apagá-lo
+     */
+    protected abstract void gravar(Map<String, byte[]> alteracoes);
+
+    /**
+     * Apaga todos os registros.
+     */
+    protected abstract void limpar();
+
+    /** @return Os fsyncs feitos */
+    protected long getSincronizacoes() { return 0; }
+
+    /** @return As compactações feitas */
+    protected long getCompactacoes() { return 0; }
+
+    /** @return Os bytes guardados */
+    protected abstract long getTamanho();
+
+    /** @return Os bytes dos registros atuais */
+    protected abstract long getVivos();
+
+    @Override
+    public void carregar(long inicio) throws Exception {
+        Map<String, byte[]> gravados = ler();
+        for (Repositorio r : Repositorio.values()) {
+            for (Map.Entry<String, byte[]> e : gravados.entrySet()) {
+                if (e.getKey().charAt(0) == r.prefixo) repositorios.decodificar(r, e.getKey().substring(1), e.getValue());
+            }
+        }
+        repositorios.concluirCarga();
+    }
+
+    @Override
+    public void registrar(TipoOperacao tipo, String... a) {
+        if (tipo == TipoOperacao.ZERAR_SISTEMA) {
+            limpar();
+            return;
+        }
+        Map<String, byte[]> alteracoes = new HashMap<>();
+        incluir(alteracoes, tipo, a);
+        gravarLote(alteracoes);
+    }
+
+    @Override
+    public void registrarLote(TipoOperacao tipo, List<String[]> args) {
+        if (args.isEmpty()) return;
+        Map<String, byte[]> alteracoes = new HashMap<>();
+        for (String[] a : args) incluir(alteracoes, tipo, a);
+        gravarLote(alteracoes);
+    }
+
+    @Override
+    public void registrarRemocao(String login, Collection<String> usuarios, Collection<String> comunidades) {
+        Map<String, byte[]> alteracoes = new HashMap<>();
+        incluir(alteracoes, Repositorio.USUARIOS, login);
+        incluir(alteracoes, Repositorio.RELACIONAMENTOS, login);
+        incluir(alteracoes, Repositorio.RECADOS, login);
+        for (String u : usuarios) {
+            incluir(alteracoes, Repositorio.RELACIONAMENTOS, u);
+            incluir(alteracoes, Repositorio.RECADOS, u);
+        }
+        for (String c : comunidades) incluir(alteracoes, Repositorio.COMUNIDADES, c);
+        gravarLote(alteracoes);
+    }
+
+    /**
+     * Acrescenta às alterações os registros tocados por uma operação.
+     */
+    private void incluir(Map<String, byte[]> alteracoes, TipoOperacao tipo, String[] a) {
+        switch (tipo) {
+            case CRIAR_USUARIO:
+            case CRIAR_USUARIO_CREDENCIAL:
+            case ATUALIZAR_CREDENCIAL:
+            case EDITAR_PERFIL:
+                incluir(alteracoes, Repositorio.USUARIOS, a[0]);
+                break;
+            case ADICIONAR_AMIGO:
+                incluir(alteracoes, Repositorio.RELACIONAMENTOS, a[0]);
+                incluir(alteracoes, Repositorio.RELACIONAMENTOS, a[1]);
+                break;
+            case ENVIAR_RECADO:
+                incluir(alteracoes, Repositorio.RECADOS, a[1]);
+                break;
+            case LER_RECADO:
+                incluir(alteracoes, Repositorio.RECADOS, a[0]);
+                break;
+            case CRIAR_COMUNIDADE:
+            case ADICIONAR_COMUNIDADE:
+                incluir(alteracoes, Repositorio.RELACIONAMENTOS, a[0]);
+                incluir(alteracoes, Repositorio.COMUNIDADES, a[1]);
+                break;
+            case ENVIAR_MENSAGEM:
+                incluir(alteracoes, Repositorio.COMUNIDADES, a[1]);
+                break;
+            case LER_MENSAGEM:
+                // a mensagem lida pode ter vindo de qualquer comunidade do usuário, ou da fila antiga dele
+                incluir(alteracoes, Repositorio.RECADOS, a[0]);
+                for (String c : repositorios.comunidadesDe(a[0])) incluir(alteracoes, Repositorio.COMUNIDADES, c);
+                break;
+            case ADICIONAR_IDOLO:
+                // o ídolo ganha um fã
+                incluir(alteracoes, Repositorio.RELACIONAMENTOS, a[0]);
+                incluir(alteracoes, Repositorio.RELACIONAMENTOS, a[1]);
+                break;
+            case ADICIONAR_INIMIGO:
+                incluir(alteracoes, Repositorio.RELACIONAMENTOS, a[0]);
+                break;
+            case ADICIONAR_PAQUERA:
+                // uma paquera correspondida manda um recado a cada um
+                incluir(alteracoes, Repositorio.RELACIONAMENTOS, a[0]);
+                incluir(alteracoes, Repositorio.RECADOS, a[0]);
+                incluir(alteracoes, Repositorio.RECADOS, a[1]);
+                break;
+            default:
+                registrarRemocao(a[0], Collections.emptyList(), Collections.emptyList());
+        }
+    }
+
+    private void incluir(Map<String, byte[]> alteracoes, Repositorio r, String nome) {
+        try {
+            alteracoes.put(r.chave(nome), repositorios.codificar(r, nome));
+        } catch (IOException e) {
+            throw new FalhaAoSalvarDadosException(e);
+        }
+    }
+
+    private void gravarLote(Map<String, byte[]> alteracoes) {
+        gravar(alteracoes);
+        lotes.increment();
+        registros.add(alteracoes.size());
+    }
+
+    @Override
+    public void manter() { }
+
+    @Override
+    public Metricas getMetricas() {
+        return new Metricas(nome, lotes.sum(), registros.sum(), getSincronizacoes(), getCompactacoes(),
+                getTamanho(), getVivos());
+    }
+}
@@ -0,0 +1,178 @@
+package br.ufal.ic.p2.jackut;
+
+import br.ufal.ic.p2.jackut.util.TravasPorChave;
+import br.ufal.ic.p2.jackut.util.TravasPorChave.Trava;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decodificação, em paralelo, dos usuários que ficaram frios na carga do snapshot.
+ *
+ * <p>Na carga, o {@link Jackut} lê as comunidades e os índices e só aponta o {@link MapaUsuarios} para
+ * os registros dos usuários; a partir daí o sistema já atende, e um usuário ainda frio é decodificado no
+ * primeiro acesso. Esta classe divide os registros, na ordem em que estão no arquivo, em blocos, e
+ * algumas threads vão pegando os blocos e materializando cada usuário com a trava do seu login, como
+ * faria um acesso comum. Assim, a decodificação não disputa travas com as operações por mais do que um
+ * usuário de cada vez, e nunca devolve ao mapa um usuário removido ou descartado por zerar o sistema.</p>
+ *
+ * <p>Quando todos os usuários estão materializados, o mapa solta o conteúdo do snapshot que ainda
+ * guardava ({@link MapaUsuarios#liberarSegmento()}). A quantidade de threads é
+ * {@code -Djackut.carga.paralelismo} (uma por processador por padrão); com
+ * {@code -Djackut.carga.emFundo=false}, o construtor do Jackut espera a decodificação terminar.</p>
+ */
+// as travas são adquiridas com try-with-resources só para serem liberadas no fim do bloco
+@SuppressWarnings("try")
+public final class CargaUsuarios {
+
+    // Usuários materializados por bloco; cada thread pega o próximo bloco livre
+    private static final int TAMANHO_BLOCO = 256;
+
+    private final MapaUsuarios mapa;
+    private final TravasPorChave travas;
+    private final int paralelismo;
+    private final long inicio;
+    private final CountDownLatch fim;
+    // Logins dos usuários frios, na ordem dos registros no arquivo
+    private final String[] logins;
+    private final AtomicInteger proximoBloco = new AtomicInteger();
+    private final AtomicInteger falhas = new AtomicInteger();
+    private volatile long pronto = -1;
+    private final AtomicLong concluida = new AtomicLong(-1);
+
+    /**
+     * Cria a carga.
+     *
+     * @param mapa O mapa de usuários, já apontado para o snapshot
+     * @param travas As travas por login do sistema
+     * @param paralelismo A quantidade de threads que decodificam os usuários; com 0, os usuários só são
+     *                    decodificados no primeiro acesso (modo sob demanda)
+     * @param inicio O instante ({@link System#nanoTime()}) em que a carga do sistema começou
+     */
+    CargaUsuarios(MapaUsuarios mapa, TravasPorChave travas, int paralelismo, long inicio) {
+        this.mapa = mapa;
+        this.travas = travas;
+        this.paralelismo = Math.max(0, paralelismo);
+        this.inicio = inicio;
+        this.fim = new CountDownLatch(this.paralelismo);
+        this.logins = this.paralelismo == 0 ? new String[0] : mapa.getLoginsFrios();
+    }
+
+    /**
+     * Começa a decodificar os usuários frios, sem esperar.
+     *
+     * @param executor Onde as threads de decodificação são executadas
+     */
+    void iniciar(ExecutorService executor) {
+        for (int i = 0; i < paralelismo; i++) executor.execute(this::trabalhar);
+    }
+
+    /**
+     * Marca o instante em que o sistema ficou pronto para atender.
+     */
+    void marcarPronto() {
+        pronto = System.nanoTime() - inicio;
+    }
+
+    private void trabalhar() {
+        try {
+            int blocos = (logins.length + TAMANHO_BLOCO - 1) / TAMANHO_BLOCO;
+            for (int b; (b = proximoBloco.getAndIncrement()) < blocos; ) {
+                int ate = Math.min(logins.length, (b + 1) * TAMANHO_BLOCO);
+                for (int i = b * TAMANHO_BLOCO; i < ate; i++) {
+                    try (Trava t = travas.travar(logins[i])) {
+                        mapa.get(logins[i]);
+                    } catch (RuntimeException e) {
+                        // um registro ilegível falha de novo, para quem acessar o usuário
+                        if (falhas.getAndIncrement() == 0) e.printStackTrace();
+                    }
+                }
+            }
+        } finally {
+            fim.countDown();
+            if (fim.getCount() == 0 && concluida.compareAndSet(-1, System.nanoTime() - inicio)) {
+                mapa.liberarSegmento();
+            }
+        }
+    }
+
+    /**
+     * Espera todos os usuários serem decodificados.
+     *
+     * @throws IllegalStateException Se algum registro de usuário não pôde ser decodificado
+     */
+    public void aguardar() {
+        boolean interrompida = false;
+        while (true) {
+            try {
+                fim.await();
+                break;
+            } catch (InterruptedException e) {
+                interrompida = true;
+            }
+        }
+        if (interrompida) Thread.currentThread().interrupt();
+        if (falhas.get() > 0) {
+            throw new IllegalStateException(falhas.get() + " usuários não puderam ser decodificados.");
+        }
+    }
+
+    /**
+     * @return True se todos os usuários já foram decodificados
+     */
+    public boolean isConcluida() { return fim.getCount() == 0; }
+
+    /**
+     * @return Uma fotografia do andamento da carga
+     */
+    public Metricas getMetricas() {
+        return new Metricas(pronto, concluida.get(), logins.length, mapa.getFrios(), falhas.get(), paralelismo);
+    }
+
+    /**
+     * Andamento da carga dos usuários.
+     */
+    public static final class Metricas {
+        private final long prontoNanos, concluidaNanos;
+        private final long usuarios, frios, falhas, paralelismo;
+
+        Metricas(long prontoNanos, long concluidaNanos, long usuarios, long frios, long falhas, long paralelismo) {
+            this.prontoNanos = prontoNanos;
+            this.concluidaNanos = concluidaNanos;
+            this.usuarios = usuarios;
+            this.frios = frios;
+            this.falhas = falhas;
+            this.paralelismo = paralelismo;
+        }
+
+        /** @return O tempo desde o início da carga até o sistema atender, ou -1 se ainda não atende */
+        public long getProntoNanos() { return prontoNanos; }
+
+        /** @return O tempo desde o início da carga até o último usuário ser decodificado, ou -1 */
+        public long getConcluidaNanos() { return concluidaNanos; }
+
+        /** @return Os usuários frios quando a decodificação começou */
+        public long getUsuarios() { return usuarios; }
+
+        /** @return Os usuários que continuam frios */
+        public long getFrios() { return frios; }
+
+        /** @return Os registros que não puderam ser decodificados */
+        public long getFalhas() { return falhas; }
+
+        /** @return As threads de decodificação */
+        public long getParalelismo() { return paralelismo; }
+
+        @Override
+        public String toString() {
+            return "prontoMs=" + milis(prontoNanos) + " concluidaMs=" + milis(concluidaNanos) + " usuarios=" + usuarios
+                    + " frios=" + frios + " falhas=" + falhas + " paralelismo=" + paralelismo;
+        }
+
+        private static long milis(long nanos) {
+            return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+    }
+}
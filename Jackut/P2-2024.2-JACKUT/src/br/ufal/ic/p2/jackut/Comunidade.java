@@ -1,14 +1,23 @@
 package br.ufal.ic.p2.jackut;
 
+import br.ufal.ic.p2.jackut.persistencia.EntradaSnapshot;
+import br.ufal.ic.p2.jackut.persistencia.SaidaSnapshot;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.util.LinkedHashSet;
-import java.util.Set;
+import java.util.*;
+import java.util.function.Predicate;
 
 /**
  * Representa uma comunidade dentro da rede social Jackut.
- * A comunidade possui um nome, uma descrio, um dono e um conjunto de membros.
- * O dono da comunidade  automaticamente adicionado como membro no momento da criao.
- * A classe permite adicionar novos membros  comunidade.
+ * A comunidade possui um nome, uma descrição, um dono e um conjunto de membros.
+ * O dono da comunidade é automaticamente adicionado como membro no momento da criação.
+ * A classe permite adicionar novos membros à comunidade.
+ *
+ * <p>As mensagens enviadas à comunidade ficam num único registro, compartilhado por todos os membros;
+ * cada membro guarda apenas um cursor com a posição da próxima mensagem que vai ler. Um membro novo
+ * começa no fim do registro e só lê mensagens enviadas depois de entrar. Mensagens já lidas por todos
+ * os membros são descartadas à medida que o registro cresce.</p>
  *
  * <p>Esta classe implementa a interface {@link Serializable}, o que permite que objetos
  * da classe sejam convertidos para um formato byte-stream e gravados em arquivos ou transmitidos
@@ -27,7 +36,7 @@ public class Comunidade implements Serializable {
     private String nome;
 
     /**
-     * A descrio da comunidade.
+     * A descrição da comunidade.
      */
     private String descricao;
 
@@ -38,24 +47,85 @@ public class Comunidade implements Serializable {
 
     /**
      * Conjunto de membros da comunidade.
-     * A utilizao de um {@link LinkedHashSet} garante a ordem de insero dos membros.
+     * A utilização de um {@link LinkedHashSet} garante a ordem de inserção dos membros.
      */
     private Set<String> membros = new LinkedHashSet<>();
 
+    /**
+     * Os mesmos membros, em lista, para que as páginas de {@link #getMembros(int, int)} sejam montadas
+     * por posição sem percorrer o conjunto desde o começo. Uma remoção só descarta a lista (null), que é
+     * refeita a partir do conjunto na próxima consulta; assim, remover um membro não custa o tamanho da
+     * comunidade, nem remover vários custa esse tamanho mais de uma vez.
+     */
+    private transient List<String> ordemMembros = new ArrayList<>();
+
+    /**
+     * Registro de mensagens ainda não lidas por algum membro; {@code inicio} é a posição absoluta da
+     * primeira delas.
+     */
+    private transient List<Mensagem> mensagens = new ArrayList<>();
+    private transient long inicio;
+    // Tamanho do registro, publicado para leitura sem trava pelos medidores
+    private transient volatile int retidas;
+
+    /**
+     * Posição absoluta da próxima mensagem de cada membro.
+     */
+    private transient Map<String, Long> cursores = new HashMap<>();
+
+    // Lista de membros já formatada ("{a,b,c}") para consultas sem trava, ou null se mudou desde a última
+    private transient volatile String membrosTexto;
+
+    // Tamanho do registro a partir do qual as mensagens lidas por todos são descartadas
+    private transient int limiteDescarte = DESCARTE_MINIMO;
+    private static final int DESCARTE_MINIMO = 64;
+
+    /**
+     * Mensagem publicada numa comunidade.
+     */
+    public static final class Mensagem {
+        private final long sequencia;
+        private final String autor;
+        private final String texto;
+
+        Mensagem(long sequencia, String autor, String texto) {
+            this.sequencia = sequencia;
+            this.autor = autor;
+            this.texto = texto;
+        }
+
+        /**
+         * @return a sequência global da mensagem, que ordena mensagens de comunidades diferentes
+         */
+        public long getSequencia() { return sequencia; }
+
+        /**
+         * @return o login de quem enviou a mensagem
+         */
+        public String getAutor() { return autor; }
+
+        /**
+         * @return o texto da mensagem
+         */
+        public String getTexto() { return texto; }
+    }
+
     /**
      * Construtor da classe Comunidade.
-     * Inicializa a comunidade com o nome, descrio e dono fornecidos.
-     * O dono  automaticamente adicionado como membro da comunidade.
+     * Inicializa a comunidade com o nome, descrição e dono fornecidos.
+     * O dono é automaticamente adicionado como membro da comunidade.
      *
      * @param nome o nome da comunidade
-     * @param descricao a descrio da comunidade
+     * @param descricao a descrição da comunidade
      * @param dono o login do dono da comunidade
      */
     public Comunidade(String nome, String descricao, String dono) {
         this.nome = nome;
         this.descricao = descricao;
         this.dono = dono;
-        this.membros.add(dono); // O dono  automaticamente adicionado como membro
+        this.membros.add(dono); // O dono é automaticamente adicionado como membro
+        this.ordemMembros.add(dono);
+        this.cursores.put(dono, 0L);
     }
 
     /**
@@ -68,9 +138,9 @@ public class Comunidade implements Serializable {
     }
 
     /**
-     * Retorna a descrio da comunidade.
+     * Retorna a descrição da comunidade.
      *
-     * @return a descrio da comunidade
+     * @return a descrição da comunidade
      */
     public String getDescricao() {
         return descricao;
@@ -95,11 +165,272 @@ public class Comunidade implements Serializable {
     }
 
     /**
-     * Adiciona um novo membro  comunidade.
+     * Retorna uma página dos membros da comunidade, na ordem de entrada.
+     *
+     * @param inicio a posição do primeiro membro
+     * @param limite a quantidade máxima de membros
+     * @return a página de membros
+     */
+    public Pagina getMembros(int inicio, int limite) {
+        return Pagina.de(ordemMembros(), inicio, limite);
+    }
+
+    /**
+     * Retorna a lista de membros formatada publicada, sem trava.
+     *
+     * @return a lista no formato "{a,b,c}", ou null se os membros mudaram desde que ela foi montada
+     */
+    public String getMembrosTexto() {
+        return membrosTexto;
+    }
+
+    /**
+     * Retorna a lista de membros formatada, montando e publicando uma nova se os membros mudaram;
+     * deve ser chamado com a trava da comunidade adquirida.
+     *
+     * @return a lista no formato "{a,b,c}"
+     */
+    public String atualizarMembrosTexto() {
+        String s = membrosTexto;
+        if (s == null) membrosTexto = s = "{" + String.join(",", membros) + "}";
+        return s;
+    }
+
+    /**
+     * Retorna a lista dos membros em ordem de entrada, refazendo-a se uma remoção a descartou.
+     */
+    private List<String> ordemMembros() {
+        if (ordemMembros == null) ordemMembros = new ArrayList<>(membros);
+        return ordemMembros;
+    }
+
+    /**
+     * Adiciona um novo membro à comunidade.
      *
      * @param login o login do novo membro a ser adicionado
      */
     public void adicionarMembro(String login) {
-        membros.add(login);
+        if (membros.add(login)) {
+            if (ordemMembros != null) ordemMembros.add(login);
+            cursores.put(login, getFim());
+            membrosTexto = null;
+        }
+    }
+
+    /**
+     * Prepara a comunidade para receber mais {@code n} membros de uma vez, dimensionando o conjunto e os
+     * cursores para o tamanho final em vez de deixá-los crescer (e redistribuir) a cada duplicação.
+     *
+     * @param n A quantidade de membros que ainda serão adicionados
+     */
+    public void reservarMembros(int n) {
+        int total = membros.size() + n;
+        // refazer as tabelas custa o tamanho atual; só compensa se o lote evitaria mais de um crescimento
+        if (n < membros.size() || total <= 16) return;
+        int capacidade = (int) Math.min(1L << 30, total * 4L / 3 + 1);
+        Set<String> m = new LinkedHashSet<>(capacidade);
+        m.addAll(membros);
+        membros = m;
+        Map<String, Long> c = new HashMap<>(capacidade);
+        c.putAll(cursores);
+        cursores = c;
+        if (ordemMembros != null) {
+            List<String> o = new ArrayList<>(total);
+            o.addAll(ordemMembros);
+            ordemMembros = o;
+        }
+    }
+
+    // Mensagens
+
+    /**
+     * Retorna a posição absoluta logo depois da última mensagem publicada.
+     *
+     * @return a posição do fim do registro
+     */
+    public long getFim() {
+        return inicio + mensagens.size();
+    }
+
+    /**
+     * Publica uma mensagem no registro da comunidade, em tempo constante.
+     *
+     * @param sequencia a sequência global da mensagem
+     * @param autor o login de quem enviou
+     * @param texto o texto da mensagem
+     */
+    public void publicar(long sequencia, String autor, String texto) {
+        mensagens.add(new Mensagem(sequencia, autor, texto));
+        if (mensagens.size() >= limiteDescarte) descartarLidas();
+        retidas = mensagens.size();
+    }
+
+    /**
+     * Retorna a quantidade de mensagens no registro, ainda não lidas por algum membro, sem trava.
+     *
+     * @return a quantidade publicada na última alteração do registro
+     */
+    public int getMensagensRetidas() {
+        return retidas;
+    }
+
+    /**
+     * Retorna a próxima mensagem que um membro vai ler, sem consumi-la. Mensagens cujo autor é
+     * bloqueado pelo membro são puladas e não serão lidas depois.
+     *
+     * @param login o login do membro
+     * @param bloqueado indica os autores cujas mensagens o membro não recebe
+     * @return a próxima mensagem, ou null se o membro já leu todas
+     */
+    public Mensagem proxima(String login, Predicate<String> bloqueado) {
+        Long cursor = cursores.get(login);
+        if (cursor == null) return null;
+        long c = Math.max(cursor, inicio);
+        while (c < getFim()) {
+            Mensagem m = mensagens.get((int) (c - inicio));
+            if (!bloqueado.test(m.autor)) break;
+            c++;
+        }
+        cursores.put(login, c);
+        return c < getFim() ? mensagens.get((int) (c - inicio)) : null;
+    }
+
+    /**
+     * Consome a mensagem devolvida pela última chamada a {@link #proxima(String, Predicate)}.
+     *
+     * @param login o login do membro
+     */
+    public void consumir(String login) {
+        cursores.computeIfPresent(login, (k, c) -> Math.min(c + 1, getFim()));
+    }
+
+    /**
+     * Remove um membro da comunidade, junto com o seu cursor, para que ele não impeça o descarte de mensagens.
+     * Custa tempo constante.
+     *
+     * @param login o login do membro
+     */
+    public void removerMembro(String login) {
+        if (membros.remove(login)) {
+            ordemMembros = null;
+            membrosTexto = null;
+        }
+        cursores.remove(login);
+    }
+
+    /**
+     * Retorna a sequência global da última mensagem ainda no registro.
+     *
+     * @return a sequência, ou 0 se o registro estiver vazio
+     */
+    public long getUltimaSequencia() {
+        return mensagens.isEmpty() ? 0 : mensagens.get(mensagens.size() - 1).sequencia;
+    }
+
+    /**
+     * Retorna os autores das mensagens que ainda estão no registro.
+     *
+     * @return os logins dos autores, sem repetição
+     */
+    public Set<String> getAutores() {
+        Set<String> autores = new HashSet<>();
+        for (Mensagem m : mensagens) autores.add(m.autor);
+        return autores;
+    }
+
+    /**
+     * Remove do registro as mensagens de um autor. Os cursores dos membros são ajustados para
+     * continuarem apontando para a mesma mensagem seguinte.
+     *
+     * @param autor o login do autor
+     */
+    public void removerMensagensDe(String autor) {
+        int n = mensagens.size();
+        // restantes antes de cada posição do registro antigo
+        int[] antes = new int[n + 1];
+        List<Mensagem> restantes = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            antes[i] = restantes.size();
+            Mensagem m = mensagens.get(i);
+            if (!m.autor.equals(autor)) restantes.add(m);
+        }
+        if (restantes.size() == n) return;
+        antes[n] = restantes.size();
+        cursores.replaceAll((k, c) -> inicio + antes[(int) (Math.max(c, inicio) - inicio)]);
+        mensagens = restantes;
+        retidas = restantes.size();
+    }
+
+    /**
+     * Descarta as mensagens que todos os membros já leram e ajusta o limite para o próximo descarte,
+     * de forma que o custo de percorrer os cursores seja amortizado pelas publicações.
+     */
+    private void descartarLidas() {
+        long menor = getFim();
+        for (long c : cursores.values()) menor = Math.min(menor, c);
+        if (menor > inicio) {
+            mensagens.subList(0, (int) (menor - inicio)).clear();
+            inicio = menor;
+        }
+        limiteDescarte = Math.max(DESCARTE_MINIMO, mensagens.size() * 2);
+    }
+
+    /**
+     * Grava a comunidade no formato binário de snapshot.
+     *
+     * @param out a saída do snapshot
+     * @throws IOException se a escrita falhar
+     */
+    public void escrever(SaidaSnapshot out) throws IOException {
+        out.escreverLogin(nome);
+        out.escreverTexto(descricao);
+        out.escreverLogin(dono);
+        out.escreverLogins(membros);
+        out.escreverVarint(mensagens.size());
+        for (Mensagem m : mensagens) {
+            out.escreverVarint(m.sequencia);
+            out.escreverLogin(m.autor);
+            out.escreverTexto(m.texto);
+        }
+        // cursores relativos ao início do registro, na ordem dos membros
+        for (String mb : membros) out.escreverVarint(Math.max(0, cursores.getOrDefault(mb, getFim()) - inicio));
+    }
+
+    /**
+     * Lê uma comunidade gravada por {@link #escrever(SaidaSnapshot)}.
+     *
+     * @param in a entrada do snapshot
+     * @return a comunidade lida
+     * @throws IOException se a leitura falhar
+     */
+    public static Comunidade ler(EntradaSnapshot in) throws IOException {
+        Comunidade c = new Comunidade(in.lerLogin(), in.lerTexto(), in.lerLogin());
+        c.membros.clear();
+        c.cursores.clear();
+        in.lerLogins(c.membros);
+        c.ordemMembros = new ArrayList<>(c.membros);
+        // até a versão 2 as mensagens ficavam nas filas dos usuários
+        if (in.getVersao() >= 3) {
+            int n = in.lerQuantidade();
+            for (int i = 0; i < n; i++) c.mensagens.add(new Mensagem(in.lerVarint(), in.lerLogin(), in.lerTexto()));
+            for (String mb : c.membros) c.cursores.put(mb, in.lerVarint());
+        } else {
+            for (String mb : c.membros) c.cursores.put(mb, 0L);
+        }
+        c.limiteDescarte = Math.max(DESCARTE_MINIMO, c.mensagens.size() * 2);
+        c.retidas = c.mensagens.size();
+        return c;
+    }
+
+    /**
+     * Inicializa o registro de mensagens de comunidades lidas de snapshots antigos (serialização Java).
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        mensagens = new ArrayList<>();
+        ordemMembros = new ArrayList<>(membros);
+        cursores = new HashMap<>();
+        limiteDescarte = DESCARTE_MINIMO;
+        for (String mb : membros) cursores.put(mb, 0L);
     }
 }
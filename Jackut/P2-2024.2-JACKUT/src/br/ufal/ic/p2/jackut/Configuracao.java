@@ -0,0 +1,59 @@
+package br.ufal.ic.p2.jackut;
+
+/**
+ * Leitura das configurações do Jackut a partir das propriedades do sistema ({@code -Djackut.xxx=valor}).
+ * Como a {@link Facade} precisa de um construtor sem argumentos, é por aqui que os modos de operação
+ * (durabilidade, limites, tempos) são ajustados.
+ */
+public final class Configuracao {
+
+    private static final String PREFIXO = "jackut.";
+
+    private Configuracao() { }
+
+    /**
+     * Lê uma propriedade de texto.
+     *
+     * @param chave O nome da propriedade, sem o prefixo "jackut.".
+     * @param padrao O valor usado quando a propriedade não está definida.
+     * @return O valor da propriedade.
+     */
+    public static String texto(String chave, String padrao) {
+        String v = System.getProperty(PREFIXO + chave);
+        return v == null || v.trim().isEmpty() ? padrao : v.trim();
+    }
+
+    /**
+     * Lê uma propriedade inteira.
+     *
+     * @param chave O nome da propriedade, sem o prefixo "jackut.".
+     * @param padrao O valor usado quando a propriedade não está definida ou é inválida.
+     * @return O valor da propriedade.
+     */
+    public static int inteiro(String chave, int padrao) {
+        return (int) longo(chave, padrao);
+    }
+
+    /**
+     * Lê uma propriedade inteira longa.
+     *
+     * @param chave O nome da propriedade, sem o prefixo "jackut.".
+     * @param padrao O valor usado quando a propriedade não está definida ou é inválida.
+     * @return O valor da propriedade.
+     */
+    public static long longo(String chave, long padrao) {
+        try { return Long.parseLong(texto(chave, String.valueOf(padrao))); }
+        catch (NumberFormatException e) { return padrao; }
+    }
+
+    /**
+     * Lê uma propriedade booleana.
+     *
+     * @param chave O nome da propriedade, sem o prefixo "jackut.".
+     * @param padrao O valor usado quando a propriedade não está definida.
+     * @return O valor da propriedade.
+     */
+    public static boolean booleano(String chave, boolean padrao) {
+        return Boolean.parseBoolean(texto(chave, String.valueOf(padrao)));
+    }
+}
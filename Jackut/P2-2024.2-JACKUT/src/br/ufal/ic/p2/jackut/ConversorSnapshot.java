@@ -0,0 +1,29 @@
+package br.ufal.ic.p2.jackut;
+
+import java.io.File;
+
+/**
+ * Utilitário de linha de comando que converte um {@code jackut.dat} gravado com serialização Java
+ * para o formato binário de snapshot.
+ *
+ * <p>Uso: {@code java br.ufal.ic.p2.jackut.ConversorSnapshot [origem] [destino]}. Sem argumentos,
+ * converte o {@code jackut.dat} do diretório atual no próprio lugar.</p>
+ */
+public final class ConversorSnapshot {
+
+    private ConversorSnapshot() { }
+
+    /**
+     * Executa a conversão.
+     *
+     * @param args Origem e destino, ambos opcionais.
+     * @throws Exception Se a conversão falhar.
+     */
+    public static void main(String[] args) throws Exception {
+        File origem  = new File(args.length > 0 ? args[0] : "jackut.dat");
+        File destino = args.length > 1 ? new File(args[1]) : origem;
+        long antes = origem.length();
+        Jackut.converterSnapshot(origem, destino);
+        System.out.println(origem + " (" + antes + " bytes) -> " + destino + " (" + destino.length() + " bytes)");
+    }
+}
@@ -1,296 +1,732 @@
 package br.ufal.ic.p2.jackut;
 
+import br.ufal.ic.p2.jackut.analise.RelatorioRede;
 import br.ufal.ic.p2.jackut.exceptions.*;
+import br.ufal.ic.p2.jackut.metricas.Instrumentacao;
+import br.ufal.ic.p2.jackut.metricas.Operacao;
+import java.lang.ref.Cleaner;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import java.util.function.Supplier;
 
 /**
  * A classe {@code Facade} atua como uma interface de acesso para as funcionalidades do sistema Jackut.
- * Ela abstrai a complexidade do funcionamento interno do sistema, fornecendo mtodos para gerenciar
- * usurios, amigos, comunidades e outros aspectos relacionados  rede social.
+ * Ela abstrai a complexidade do funcionamento interno do sistema, fornecendo métodos para gerenciar
+ * usuários, amigos, comunidades e outros aspectos relacionados à rede social.
  * <p>
- * Esta classe delega as chamadas aos mtodos correspondentes da classe {@link Jackut}, que gerencia
- * a lgica do sistema.
+ * Esta classe delega as chamadas aos métodos correspondentes da classe {@link Jackut}, que gerencia
+ * a lógica do sistema.
+ * </p>
+ * <p>
+ * As listagens (amigos, membros, comunidades, fãs e paqueras) também podem ser lidas por página, com
+ * {@link Pagina}, ou percorridas com um {@link Iterator} que busca uma página de cada vez; assim,
+ * listagens enormes são lidas usando memória constante.
+ * </p>
+ * <p>
+ * Como {@link Jackut} é seguro para uso concorrente, a fachada pode ser chamada por várias threads
+ * sem sincronização externa.
+ * </p>
+ * <p>
+ * Cada operação é contada, e tem a latência amostrada, pela {@link Instrumentacao} da fachada, que acompanha
+ * também usuários, comunidades, sessões ativas, recados à espera de entrega e mensagens retidas nas
+ * comunidades.
+ * O relatório sai em texto por {@link #getMetricas()} e por JMX, em
+ * {@code br.ufal.ic.p2.jackut:type=Instrumentacao}, até {@link #encerrarSistema()}
+ * ({@code -Djackut.metricas.jmx=false} dispensa o registro).
+ * </p>
+ * <p>
+ * A fachada é {@link AutoCloseable}: {@link #close()} encerra o sistema se isso ainda não tiver sido feito,
+ * liberando as tarefas em segundo plano e o registro JMX. Uma fachada abandonada sem ser encerrada tem o
+ * registro JMX retirado quando é coletada, o que deixa o {@link Jackut} livre para ser coletado também.
  * </p>
  *
  * @author [Seu Nome]
  * @version 1.0
  */
-public class Facade {
+public class Facade implements AutoCloseable {
+
+    // Retira do JMX a instrumentação das fachadas coletadas sem terem sido encerradas
+    private static final Cleaner LIMPEZA = Cleaner.create();
 
-    private Jackut jackut = new Jackut();
+    private final Jackut jackut = new Jackut();
+    private final Instrumentacao instrumentacao = new Instrumentacao();
+
+    /**
+     * Cria a fachada, carregando os dados salvos, e publica a instrumentação.
+     */
+    public Facade() {
+        // os medidores ficam no JMX: capturam o sistema, nunca a fachada, para que ela possa ser coletada
+        Jackut j = jackut;
+        instrumentacao.medidor("usuarios", j::getQuantidadeUsuarios);
+        instrumentacao.medidor("comunidades", j::getQuantidadeComunidades);
+        instrumentacao.medidor("sessoesAtivas", () -> j.getMetricasSessoes().getAtivas());
+        instrumentacao.medidor("recadosPendentes", () -> j.getMetricasRecados().getPendentes());
+        instrumentacao.medidor("mensagensRetidas", j::getMensagensRetidas);
+        if (Configuracao.booleano("metricas.jmx", true)) {
+            instrumentacao.registrarJmx();
+            LIMPEZA.register(this, instrumentacao::desregistrarJmx);
+        }
+    }
 
     /**
      * Zera o sistema, removendo todos os dados existentes.
      */
     public void zerarSistema() {
-        jackut.zerarSistema();
+        medir(Operacao.ZERAR_SISTEMA, () -> jackut.zerarSistema());
     }
 
     /**
-     * Cria um novo usurio no sistema com o login, senha e nome fornecidos.
+     * Cria um novo usuário no sistema com o login, senha e nome fornecidos.
      *
-     * @param l o login do novo usurio
-     * @param s a senha do novo usurio
-     * @param n o nome do novo usurio
+     * @param l o login do novo usuário
+     * @param s a senha do novo usuário
+     * @param n o nome do novo usuário
      */
     public void criarUsuario(String l, String s, String n) {
-        jackut.criarUsuario(l, s, n);
+        medir(Operacao.CRIAR_USUARIO, () -> jackut.criarUsuario(l, s, n));
     }
 
     /**
-     * Abre uma sesso para o usurio fornecido com login e senha.
+     * Abre uma sessão para o usuário fornecido com login e senha.
      *
-     * @param l o login do usurio
-     * @param s a senha do usurio
-     * @return uma string representando a sesso do usurio
+     * @param l o login do usuário
+     * @param s a senha do usuário
+     * @return uma string representando a sessão do usuário
      */
     public String abrirSessao(String l, String s) {
-        return jackut.abrirSessao(l, s);
+        return medir(Operacao.ABRIR_SESSAO, () -> jackut.abrirSessao(l, s));
     }
 
     /**
-     * Obtm o valor de um atributo de um usurio.
+     * Obtém o valor de um atributo de um usuário.
      *
-     * @param l o login do usurio
+     * @param l o login do usuário
      * @param a o nome do atributo a ser obtido
      * @return o valor do atributo solicitado
      */
     public String getAtributoUsuario(String l, String a) {
-        return jackut.getAtributoUsuario(l, a);
+        return medir(Operacao.GET_ATRIBUTO_USUARIO, () -> jackut.getAtributoUsuario(l, a));
     }
 
     /**
-     * Edita o perfil de um usurio.
+     * Edita o perfil de um usuário.
      *
-     * @param sid a sesso do usurio
+     * @param sid a sessão do usuário
      * @param a o atributo a ser editado
      * @param v o novo valor do atributo
      */
     public void editarPerfil(String sid, String a, String v) {
-        jackut.editarPerfil(sid, a, v);
+        medir(Operacao.EDITAR_PERFIL, () -> jackut.editarPerfil(sid, a, v));
     }
 
     /**
-     * Adiciona um amigo a um usurio.
+     * Adiciona um amigo a um usuário.
      *
-     * @param sid a sesso do usurio
+     * @param sid a sessão do usuário
      * @param a o login do amigo a ser adicionado
      */
     public void adicionarAmigo(String sid, String a) {
-        jackut.adicionarAmigo(sid, a);
+        medir(Operacao.ADICIONAR_AMIGO, () -> jackut.adicionarAmigo(sid, a));
     }
 
     /**
-     * Verifica se dois usurios so amigos.
+     * Verifica se dois usuários são amigos.
      *
-     * @param l o login do usurio
-     * @param a o login do possvel amigo
-     * @return {@code true} se forem amigos, {@code false} caso contrrio
+     * @param l o login do usuário
+     * @param a o login do possível amigo
+     * @return {@code true} se forem amigos, {@code false} caso contrário
      */
     public boolean ehAmigo(String l, String a) {
-        return jackut.ehAmigo(l, a);
+        return medir(Operacao.EH_AMIGO, () -> jackut.ehAmigo(l, a));
     }
 
     /**
-     * Obtm os amigos de um usurio.
+     * Obtém os amigos de um usuário.
      *
-     * @param l o login do usurio
-     * @return uma string com os amigos do usurio
+     * @param l o login do usuário
+     * @return uma string com os amigos do usuário
      */
     public String getAmigos(String l) {
-        return jackut.getAmigos(l);
+        return medir(Operacao.GET_AMIGOS, () -> jackut.getAmigos(l));
     }
 
     /**
-     * Envia um recado de um usurio para outro.
+     * Envia um recado de um usuário para outro.
      *
-     * @param sid a sesso do usurio que est enviando o recado
-     * @param d o destinatrio do recado
-     * @param r o contedo do recado
+     * @param sid a sessão do usuário que está enviando o recado
+     * @param d o destinatário do recado
+     * @param r o conteúdo do recado
      */
     public void enviarRecado(String sid, String d, String r) {
-        jackut.enviarRecado(sid, d, r);
+        medir(Operacao.ENVIAR_RECADO, () -> jackut.enviarRecado(sid, d, r));
     }
 
     /**
-     * L os recados de um usurio.
+     * Lê os recados de um usuário.
      *
-     * @param sid a sesso do usurio
-     * @return o contedo dos recados do usurio
+     * @param sid a sessão do usuário
+     * @return o conteúdo dos recados do usuário
      */
     public String lerRecado(String sid) {
-        return jackut.lerRecado(sid);
+        return medir(Operacao.LER_RECADO, () -> jackut.lerRecado(sid));
     }
 
     /**
      * Cria uma nova comunidade no sistema.
      *
-     * @param sid a sesso do usurio
+     * @param sid a sessão do usuário
      * @param n o nome da comunidade
-     * @param d a descrio da comunidade
+     * @param d a descrição da comunidade
      */
     public void criarComunidade(String sid, String n, String d) {
-        jackut.criarComunidade(sid, n, d);
+        medir(Operacao.CRIAR_COMUNIDADE, () -> jackut.criarComunidade(sid, n, d));
     }
 
     /**
-     * Obtm a descrio de uma comunidade.
+     * Obtém a descrição de uma comunidade.
      *
      * @param n o nome da comunidade
-     * @return a descrio da comunidade
+     * @return a descrição da comunidade
      */
     public String getDescricaoComunidade(String n) {
-        return jackut.getDescricaoComunidade(n);
+        return medir(Operacao.GET_DESCRICAO_COMUNIDADE, () -> jackut.getDescricaoComunidade(n));
     }
 
     /**
-     * Obtm o dono de uma comunidade.
+     * Obtém o dono de uma comunidade.
      *
      * @param n o nome da comunidade
      * @return o login do dono da comunidade
      */
     public String getDonoComunidade(String n) {
-        return jackut.getDonoComunidade(n);
+        return medir(Operacao.GET_DONO_COMUNIDADE, () -> jackut.getDonoComunidade(n));
     }
 
     /**
-     * Obtm os membros de uma comunidade.
+     * Obtém os membros de uma comunidade.
      *
      * @param n o nome da comunidade
      * @return uma string com os membros da comunidade
      */
     public String getMembrosComunidade(String n) {
-        return jackut.getMembrosComunidade(n);
+        return medir(Operacao.GET_MEMBROS_COMUNIDADE, () -> jackut.getMembrosComunidade(n));
     }
 
     /**
-     * Obtm as comunidades associadas a uma chave de busca.
+     * Obtém as comunidades associadas a uma chave de busca.
      *
      * @param chave a chave de busca para localizar comunidades
      * @return uma string com as comunidades encontradas
      */
     public String getComunidades(String chave) {
-        return jackut.getComunidades(chave);
+        return medir(Operacao.GET_COMUNIDADES, () -> jackut.getComunidades(chave));
     }
 
     /**
-     * Adiciona um usurio a uma comunidade.
+     * Adiciona um usuário a uma comunidade.
      *
-     * @param sid a sesso do usurio
+     * @param sid a sessão do usuário
      * @param n o nome da comunidade
      */
     public void adicionarComunidade(String sid, String n) {
-        jackut.adicionarComunidade(sid, n);
+        medir(Operacao.ADICIONAR_COMUNIDADE, () -> jackut.adicionarComunidade(sid, n));
     }
 
     /**
      * Envia uma mensagem a uma comunidade.
      *
-     * @param sid a sesso do usurio
+     * @param sid a sessão do usuário
      * @param com o nome da comunidade
-     * @param m o contedo da mensagem
+     * @param m o conteúdo da mensagem
      */
     public void enviarMensagem(String sid, String com, String m) {
-        jackut.enviarMensagem(sid, com, m);
+        medir(Operacao.ENVIAR_MENSAGEM, () -> jackut.enviarMensagem(sid, com, m));
     }
 
     /**
-     * L as mensagens de um usurio.
+     * Lê as mensagens de um usuário.
      *
-     * @param sid a sesso do usurio
-     * @return o contedo das mensagens do usurio
+     * @param sid a sessão do usuário
+     * @return o conteúdo das mensagens do usuário
      */
     public String lerMensagem(String sid) {
-        return jackut.lerMensagem(sid);
+        return medir(Operacao.LER_MENSAGEM, () -> jackut.lerMensagem(sid));
     }
 
     /**
-     * Adiciona um dolo a um usurio.
+     * Adiciona um ídolo a um usuário.
      *
-     * @param sid a sesso do usurio
-     * @param idolo o login do dolo a ser adicionado
+     * @param sid a sessão do usuário
+     * @param idolo o login do ídolo a ser adicionado
      */
     public void adicionarIdolo(String sid, String idolo) {
-        jackut.adicionarIdolo(sid, idolo);
+        medir(Operacao.ADICIONAR_IDOLO, () -> jackut.adicionarIdolo(sid, idolo));
     }
 
     /**
-     * Verifica se um usurio  f de outro.
+     * Verifica se um usuário é fã de outro.
      *
-     * @param login o login do f
-     * @param idolo o login do dolo
-     * @return {@code true} se o usurio for f do dolo, {@code false} caso contrrio
+     * @param login o login do fã
+     * @param idolo o login do ídolo
+     * @return {@code true} se o usuário for fã do ídolo, {@code false} caso contrário
      */
     public boolean ehFa(String login, String idolo) {
-        return jackut.ehFa(login, idolo);
+        return medir(Operacao.EH_FA, () -> jackut.ehFa(login, idolo));
     }
 
     /**
-     * Obtm os fs de um usurio.
+     * Obtém os fãs de um usuário.
      *
-     * @param login o login do dolo
-     * @return uma string com os fs do usurio
+     * @param login o login do ídolo
+     * @return uma string com os fãs do usuário
      */
     public String getFas(String login) {
-        Set<String> fas = jackut.getFas(login);
-        return "{" + String.join(",", fas) + "}";
+        return medir(Operacao.GET_FAS, () -> {
+                Set<String> fas = jackut.getFas(login);
+                return "{" + String.join(",", fas) + "}";
+        });
     }
 
     /**
-     * Adiciona uma paquera a um usurio.
+     * Adiciona uma paquera a um usuário.
      *
-     * @param sid a sesso do usurio
+     * @param sid a sessão do usuário
      * @param paquera o login da paquera a ser adicionada
      */
     public void adicionarPaquera(String sid, String paquera) {
-        jackut.adicionarPaquera(sid, paquera);
+        medir(Operacao.ADICIONAR_PAQUERA, () -> jackut.adicionarPaquera(sid, paquera));
     }
 
     /**
-     * Verifica se um usurio tem uma paquera.
+     * Verifica se um usuário tem uma paquera.
      *
-     * @param login o login do usurio
+     * @param login o login do usuário
      * @param paquera o login da paquera
-     * @return {@code true} se for paquera, {@code false} caso contrrio
+     * @return {@code true} se for paquera, {@code false} caso contrário
      */
     public boolean ehPaquera(String login, String paquera) {
-        return jackut.ehPaquera(login, paquera);
+        return medir(Operacao.EH_PAQUERA, () -> jackut.ehPaquera(login, paquera));
     }
 
     /**
-     * Obtm as paqueras de um usurio.
+     * Obtém as paqueras de um usuário.
      *
-     * @param login o login do usurio
-     * @return uma string com as paqueras do usurio
+     * @param login o login do usuário
+     * @return uma string com as paqueras do usuário
      */
     public String getPaqueras(String login) {
-        Set<String> ps = jackut.getPaqueras(login);
-        return "{" + String.join(",", ps) + "}";
+        return medir(Operacao.GET_PAQUERAS, () -> {
+                Set<String> ps = jackut.getPaqueras(login);
+                return "{" + String.join(",", ps) + "}";
+        });
     }
 
     /**
-     * Adiciona um inimigo a um usurio.
+     * Adiciona um inimigo a um usuário.
      *
-     * @param sid a sesso do usurio
+     * @param sid a sessão do usuário
      * @param inimigo o login do inimigo a ser adicionado
      */
     public void adicionarInimigo(String sid, String inimigo) {
-        jackut.adicionarInimigo(sid, inimigo);
+        medir(Operacao.ADICIONAR_INIMIGO, () -> jackut.adicionarInimigo(sid, inimigo));
+    }
+
+    /**
+     * Sugere amigos a um usuário: amigos de amigos e membros das mesmas comunidades, do mais para o
+     * menos indicado.
+     *
+     * @param sid a sessão do usuário
+     * @param k a quantidade máxima de sugestões
+     * @return uma string com os logins sugeridos
+     */
+    public String sugerirAmigos(String sid, int k) {
+        return medir(Operacao.SUGERIR_AMIGOS, () -> "{" + String.join(",", jackut.sugerirAmigos(sid, k)) + "}");
     }
 
     /**
-     * Remove um usurio do sistema.
+     * Remove um usuário do sistema.
      *
-     * @param sid a sesso do usurio a ser removido
+     * @param sid a sessão do usuário a ser removido
      */
     public void removerUsuario(String sid) {
-        jackut.removerUsuario(sid);
+        medir(Operacao.REMOVER_USUARIO, () -> jackut.removerUsuario(sid));
+    }
+
+    /**
+     * Cria vários usuários de uma vez.
+     *
+     * @param usuarios os usuários, cada um como {login, senha, nome}
+     * @return o resultado de cada item, na ordem fornecida
+     */
+    public ResultadoLote criarUsuarios(List<String[]> usuarios) {
+        return medir(Operacao.CRIAR_USUARIOS, () -> jackut.criarUsuarios(usuarios));
+    }
+
+    /**
+     * Adiciona vários amigos em nome de um usuário.
+     *
+     * @param sid a sessão do usuário
+     * @param amigos os logins dos amigos
+     * @return o resultado de cada item, na ordem fornecida
+     */
+    public ResultadoLote adicionarAmigos(String sid, List<String> amigos) {
+        return medir(Operacao.ADICIONAR_AMIGOS, () -> jackut.adicionarAmigos(sid, amigos));
+    }
+
+    /**
+     * Adiciona vários usuários a uma comunidade.
+     *
+     * @param comunidade o nome da comunidade
+     * @param sessoes as sessões dos usuários que vão participar
+     * @return o resultado de cada item, na ordem fornecida
+     */
+    public ResultadoLote adicionarMembros(String comunidade, List<String> sessoes) {
+        return medir(Operacao.ADICIONAR_MEMBROS, () -> jackut.adicionarMembros(comunidade, sessoes));
+    }
+
+    /**
+     * Obtém uma página dos amigos de um usuário.
+     *
+     * @param login o login do usuário
+     * @param inicio a posição do primeiro amigo
+     * @param limite a quantidade máxima de amigos, reduzida a {@link Pagina#LIMITE_MAXIMO}
+     * @return a página de amigos
+     */
+    public Pagina getAmigos(String login, int inicio, int limite) {
+        return medir(Operacao.GET_AMIGOS_PAGINA, () -> jackut.getAmigos(login, inicio, limite));
+    }
+
+    /**
+     * Obtém uma página dos membros de uma comunidade.
+     *
+     * @param nome o nome da comunidade
+     * @param inicio a posição do primeiro membro
+     * @param limite a quantidade máxima de membros, reduzida a {@link Pagina#LIMITE_MAXIMO}
+     * @return a página de membros
+     */
+    public Pagina getMembrosComunidade(String nome, int inicio, int limite) {
+        return medir(Operacao.GET_MEMBROS_COMUNIDADE_PAGINA, () -> jackut.getMembrosComunidade(nome, inicio, limite));
+    }
+
+    /**
+     * Obtém uma página das comunidades de um usuário.
+     *
+     * @param chave o login ou a sessão do usuário
+     * @param inicio a posição da primeira comunidade
+     * @param limite a quantidade máxima de comunidades, reduzida a {@link Pagina#LIMITE_MAXIMO}
+     * @return a página de comunidades
+     */
+    public Pagina getComunidades(String chave, int inicio, int limite) {
+        return medir(Operacao.GET_COMUNIDADES_PAGINA, () -> jackut.getComunidades(chave, inicio, limite));
+    }
+
+    /**
+     * Obtém uma página dos fãs de um usuário.
+     *
+     * @param login o login do ídolo
+     * @param inicio a posição do primeiro fã
+     * @param limite a quantidade máxima de fãs, reduzida a {@link Pagina#LIMITE_MAXIMO}
+     * @return a página de fãs
+     */
+    public Pagina getFas(String login, int inicio, int limite) {
+        return medir(Operacao.GET_FAS_PAGINA, () -> jackut.getFas(login, inicio, limite));
+    }
+
+    /**
+     * Obtém uma página das paqueras de um usuário.
+     *
+     * @param login o login do usuário
+     * @param inicio a posição da primeira paquera
+     * @param limite a quantidade máxima de paqueras, reduzida a {@link Pagina#LIMITE_MAXIMO}
+     * @return a página de paqueras
+     */
+    public Pagina getPaqueras(String login, int inicio, int limite) {
+        return medir(Operacao.GET_PAQUERAS_PAGINA, () -> jackut.getPaqueras(login, inicio, limite));
+    }
+
+    /**
+     * Percorre os amigos de um usuário, uma página de cada vez.
+     *
+     * @param login o login do usuário
+     * @return um iterador sobre os logins dos amigos
+     */
+    public Iterator<String> iterarAmigos(String login) {
+        return new IteradorPaginado(i -> getAmigos(login, i, IteradorPaginado.TAMANHO_PAGINA));
+    }
+
+    /**
+     * Percorre os membros de uma comunidade, uma página de cada vez.
+     *
+     * @param nome o nome da comunidade
+     * @return um iterador sobre os logins dos membros
+     */
+    public Iterator<String> iterarMembrosComunidade(String nome) {
+        return new IteradorPaginado(i -> getMembrosComunidade(nome, i, IteradorPaginado.TAMANHO_PAGINA));
+    }
+
+    /**
+     * Percorre as comunidades de um usuário, uma página de cada vez.
+     *
+     * @param chave o login ou a sessão do usuário
+     * @return um iterador sobre os nomes das comunidades
+     */
+    public Iterator<String> iterarComunidades(String chave) {
+        return new IteradorPaginado(i -> getComunidades(chave, i, IteradorPaginado.TAMANHO_PAGINA));
+    }
+
+    /**
+     * Percorre os fãs de um usuário, uma página de cada vez.
+     *
+     * @param login o login do ídolo
+     * @return um iterador sobre os logins dos fãs
+     */
+    public Iterator<String> iterarFas(String login) {
+        return new IteradorPaginado(i -> getFas(login, i, IteradorPaginado.TAMANHO_PAGINA));
+    }
+
+    /**
+     * Percorre as paqueras de um usuário, uma página de cada vez.
+     *
+     * @param login o login do usuário
+     * @return um iterador sobre os logins das paqueras
+     */
+    public Iterator<String> iterarPaqueras(String login) {
+        return new IteradorPaginado(i -> getPaqueras(login, i, IteradorPaginado.TAMANHO_PAGINA));
+    }
+
+    /**
+     * Obtém uma página dos usuários com um valor exato num atributo do perfil indexado
+     * ({@code -Djackut.perfil.atributosIndexados=cidade,estado}).
+     *
+     * @param atributo o nome do atributo
+     * @param valor o valor procurado
+     * @param inicio a posição do primeiro usuário
+     * @param limite a quantidade máxima de usuários, reduzida a {@link Pagina#LIMITE_MAXIMO}
+     * @return a página de logins
+     */
+    public Pagina getUsuariosComAtributo(String atributo, String valor, int inicio, int limite) {
+        return medir(Operacao.GET_USUARIOS_COM_ATRIBUTO,
+                () -> jackut.getUsuariosComAtributo(atributo, valor, inicio, limite));
+    }
+
+    /**
+     * Percorre os usuários com um valor exato num atributo do perfil indexado, uma página de cada vez.
+     *
+     * @param atributo o nome do atributo
+     * @param valor o valor procurado
+     * @return um iterador sobre os logins dos usuários
+     */
+    public Iterator<String> iterarUsuariosComAtributo(String atributo, String valor) {
+        return new IteradorPaginado(i -> getUsuariosComAtributo(atributo, valor, i, IteradorPaginado.TAMANHO_PAGINA));
+    }
+
+    /**
+     * Obtém o relatório da instrumentação: os medidores do sistema e, para cada operação já chamada, as
+     * chamadas, as falhas, os percentis da latência e as falhas por tipo de exceção.
+     *
+     * @return o relatório em texto, uma linha de medidores e uma linha por operação
+     */
+    public String getMetricas() {
+        return instrumentacao.getTexto();
+    }
+
+    /**
+     * Obtém a instrumentação desta fachada, para ligar ou desligar a medição ou ler os histogramas.
+     *
+     * @return a instrumentação
+     */
+    public Instrumentacao getInstrumentacao() {
+        return instrumentacao;
+    }
+
+    /**
+     * Obtém as métricas da tabela de sessões.
+     *
+     * @return uma string com as sessões ativas, abertas, expiradas e revogadas
+     */
+    public String getMetricasSessoes() {
+        return jackut.getMetricasSessoes().toString();
+    }
+
+    /**
+     * Obtém as métricas da verificação de senhas.
+     *
+     * @return uma string com o custo, as derivações, os acertos do cache, as falhas e as recusas
+     */
+    public String getMetricasAutenticacao() {
+        return jackut.getMetricasAutenticacao().toString();
+    }
+
+    /**
+     * Espera a entrega dos recados já enviados, quando a entrega de recados é assíncrona
+     * ({@code -Djackut.recados.assincrono=true}).
+     */
+    public void aguardarEntregas() {
+        medir(Operacao.AGUARDAR_ENTREGAS, () -> jackut.aguardarEntregas());
+    }
+
+    /**
+     * Obtém as sincronizações do registro de operações com o disco.
+     *
+     * @return uma string com o modo de durabilidade, as operações sincronizadas, os fsyncs, as operações
+     *         por fsync, as operações que esperaram o fsync e a espera média
+     */
+    public String getMetricasRegistro() {
+        return jackut.getMetricasRegistro().toString();
+    }
+
+    /**
+     * Obtém as gravações do armazenamento escolhido em {@code -Djackut.armazenamento}.
+     *
+     * @return uma string com o armazenamento, as gravações e os registros gravados, os fsyncs, as
+     *         compactações (ou snapshots em segundo plano, no arquivo) e os bytes guardados e vivos
+     */
+    public String getMetricasArmazenamento() {
+        return jackut.getMetricasArmazenamento().toString();
+    }
+
+    /**
+     * Obtém as métricas dos snapshots gravados em segundo plano.
+     *
+     * @return uma string com os snapshots gravados e os que falharam e, do último, a pausa com todas as
+     *         travas, o tempo até a captura e até a gravação terminarem, os usuários e as comunidades
+     *         capturados por operações, o total de faixas e o tamanho capturado
+     */
+    public String getMetricasSnapshot() {
+        return jackut.getMetricasSnapshot().toString();
+    }
+
+    /**
+     * Espera os usuários carregados do snapshot terminarem de ser decodificados em segundo plano. O
+     * sistema já atende antes disso.
+     */
+    public void aguardarCarga() {
+        medir(Operacao.AGUARDAR_CARGA, () -> jackut.aguardarCarga());
+    }
+
+    /**
+     * Obtém o andamento da carga dos usuários do snapshot.
+     *
+     * @return uma string com o tempo até o sistema atender, o tempo até a carga terminar, os usuários
+     *         decodificados, os que ainda estão frios, as falhas e as threads usadas
+     */
+    public String getMetricasCarga() {
+        return jackut.getMetricasCarga().toString();
+    }
+
+    /**
+     * Obtém as métricas da entrega assíncrona de recados.
+     *
+     * @return uma string com os recados aceitos, entregues, recusados e pendentes
+     */
+    public String getMetricasRecados() {
+        return jackut.getMetricasRecados().toString();
+    }
+
+    /**
+     * Busca usuários pelo login, pelo nome e pelos atributos do perfil. Todas as palavras da consulta
+     * precisam aparecer, sem diferença de maiúsculas nem de acentos; uma palavra terminada em {@code *}
+     * é um prefixo.
+     *
+     * @param consulta as palavras buscadas
+     * @param k a quantidade máxima de resultados
+     * @return uma string com os logins encontrados, do mais para o menos relevante
+     */
+    public String buscarUsuarios(String consulta, int k) {
+        return medir(Operacao.BUSCAR_USUARIOS, () -> "{" + String.join(",", jackut.buscarUsuarios(consulta, k)) + "}");
+    }
+
+    /**
+     * Busca comunidades pelo nome e pela descrição, com as mesmas regras de {@link #buscarUsuarios}.
+     *
+     * @param consulta as palavras buscadas
+     * @param k a quantidade máxima de resultados
+     * @return uma string com os nomes das comunidades encontradas, da mais para a menos relevante
+     */
+    public String buscarComunidades(String consulta, int k) {
+        return medir(Operacao.BUSCAR_COMUNIDADES,
+                () -> "{" + String.join(",", jackut.buscarComunidades(consulta, k)) + "}");
+    }
+
+    /**
+     * Analisa a forma da rede: distribuições de amigos e de fãs, componentes conexas da rede de amizades
+     * e sobreposição entre comunidades. Usa {@code -Djackut.analise.paralelismo} threads (por padrão, a
+     * quantidade de núcleos).
+     *
+     * @return uma string com o relatório da análise
+     */
+    public String analisarRede() {
+        return analisarRede(Configuracao.inteiro("analise.paralelismo", Runtime.getRuntime().availableProcessors()))
+                .toString();
+    }
+
+    /**
+     * Analisa a forma da rede com a quantidade de threads fornecida.
+     *
+     * @param paralelismo a quantidade de threads dos cálculos
+     * @return o relatório da análise, com os tempos de cada etapa
+     */
+    public RelatorioRede analisarRede(int paralelismo) {
+        return medir(Operacao.ANALISAR_REDE, () -> jackut.analisarRede(paralelismo));
     }
 
     /**
      * Encerra o sistema, apagando todos os dados.
      */
     public void encerrarSistema() {
-        jackut.encerrarSistema();
+        try {
+            medir(Operacao.ENCERRAR_SISTEMA, () -> jackut.encerrarSistema());
+        } finally {
+            instrumentacao.desregistrarJmx();
+        }
+    }
+
+    /**
+     * Executa uma operação do Jackut medida pela {@link Instrumentacao}: conta a chamada e a falha, se houver,
+     * e amostra a latência.
+     *
+     * @param op A operação
+     * @param acao A chamada ao Jackut
+     * @return O resultado da chamada
+     */
+    private <T> T medir(Operacao op, Supplier<T> acao) {
+        long t = instrumentacao.iniciar(op);
+        try {
+            return acao.get();
+        } catch (RuntimeException e) {
+            throw instrumentacao.falhar(op, t, e);
+        } finally {
+            instrumentacao.terminar(op, t);
+        }
+    }
+
+    /**
+     * Executa uma operação do Jackut sem resultado, medida como em {@link #medir(Operacao, Supplier)}.
+     *
+     * @param op A operação
+     * @param acao A chamada ao Jackut
+     */
+    private void medir(Operacao op, Runnable acao) {
+        long t = instrumentacao.iniciar(op);
+        try {
+            acao.run();
+        } catch (RuntimeException e) {
+            throw instrumentacao.falhar(op, t, e);
+        } finally {
+            instrumentacao.terminar(op, t);
+        }
+    }
+
+    /**
+     * Encerra o sistema, se ele ainda não tiver sido encerrado, e retira a instrumentação do JMX.
+     */
+    @Override
+    public void close() {
+        try {
+            jackut.close();
+        } finally {
+            instrumentacao.desregistrarJmx();
+        }
     }
 }
@@ -0,0 +1,49 @@
+package br.ufal.ic.p2.jackut;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.IntFunction;
+
+/**
+ * Percorre uma listagem da {@link Facade} buscando uma {@link Pagina} de cada vez, de forma que só os
+ * itens de uma página fiquem em memória. Cada página é consultada com as travas do sistema, mas nenhuma
+ * trava fica presa entre uma chamada a {@link #next()} e outra, então quem percorre pode chamar a
+ * fachada à vontade.
+ *
+ * <p>Como nas páginas, a iteração é fracamente consistente: alterações feitas durante o percurso podem
+ * fazer um item ser pulado ou repetido, mas nunca causam exceção.</p>
+ */
+class IteradorPaginado implements Iterator<String> {
+
+    /**
+     * Quantidade de itens buscada de cada vez.
+     */
+    static final int TAMANHO_PAGINA = Math.max(1, Configuracao.inteiro("pagina.tamanhoIteracao", 256));
+
+    private final IntFunction<Pagina> consulta;
+    private Pagina atual;
+    private int posicao;
+
+    /**
+     * @param consulta Devolve a página que começa na posição fornecida
+     */
+    IteradorPaginado(IntFunction<Pagina> consulta) {
+        this.consulta = consulta;
+        this.atual = consulta.apply(0);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (posicao < atual.getItens().size()) return true;
+        if (!atual.temProxima()) return false;
+        atual = consulta.apply(atual.getProximo());
+        posicao = 0;
+        return !atual.getItens().isEmpty();
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        return atual.getItens().get(posicao++);
+    }
+}
@@ -1,131 +1,487 @@
 package br.ufal.ic.p2.jackut;
 
+import br.ufal.ic.p2.jackut.analise.AnaliseRede;
+import br.ufal.ic.p2.jackut.analise.FotografiaRede;
+import br.ufal.ic.p2.jackut.analise.RelatorioRede;
+import br.ufal.ic.p2.jackut.autenticacao.Autenticador;
+import br.ufal.ic.p2.jackut.autenticacao.Credencial;
+import br.ufal.ic.p2.jackut.busca.IndiceAtributos;
+import br.ufal.ic.p2.jackut.busca.IndiceInvertido;
+import br.ufal.ic.p2.jackut.entrega.EntregaRecados;
+import br.ufal.ic.p2.jackut.entrega.PoliticaTransbordo;
 import br.ufal.ic.p2.jackut.exceptions.*;
+import br.ufal.ic.p2.jackut.persistencia.Durabilidade;
+import br.ufal.ic.p2.jackut.persistencia.EntradaSnapshot;
+import br.ufal.ic.p2.jackut.persistencia.RegistroOperacoes;
+import br.ufal.ic.p2.jackut.persistencia.SaidaSnapshot;
+import br.ufal.ic.p2.jackut.persistencia.TipoOperacao;
+import br.ufal.ic.p2.jackut.sessao.GerenciadorSessoes;
+import br.ufal.ic.p2.jackut.util.ConjuntoInteiros;
+import br.ufal.ic.p2.jackut.util.ContagemInteiros;
+import br.ufal.ic.p2.jackut.util.DicionarioLogins;
+import br.ufal.ic.p2.jackut.util.MelhoresK;
+import br.ufal.ic.p2.jackut.util.TravasPorChave;
+import br.ufal.ic.p2.jackut.util.TravasPorChave.Trava;
 import java.io.*;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 /**
- * Classe principal do sistema Jackut, que representa a rede social com funcionalidades de usurios, amizades, comunidades, recados, mensagens, fs/dolos, e mais.
+ * Classe principal do sistema Jackut, que representa a rede social com funcionalidades de usuários, amizades, comunidades, recados, mensagens, fãs/ídolos, e mais.
+ *
+ * <p>A classe é segura para uso concorrente: os mapas principais são {@link ConcurrentHashMap} e cada
+ * operação trava apenas os logins (e comunidades) que altera ou lê, através de {@link TravasPorChave}.
+ * Operações que afetam o sistema inteiro (remoção de conta, zerar, salvar) adquirem todas as travas.</p>
+ *
+ * <p>O estado é guardado entre execuções por um {@link Armazenamento}, escolhido por
+ * {@code -Djackut.armazenamento}.</p>
+ *
+ * <p>Cada instância agenda a manutenção do armazenamento e a varredura das sessões, que só são liberadas
+ * por {@link #encerrarSistema()} ou {@link #close()}. Uma instância abandonada sem ser encerrada não fica
+ * presa a essas tarefas: quando ela é coletada, a manutenção se cancela e para a varredura.</p>
  */
-public class Jackut implements Serializable {
+// as travas são adquiridas com try-with-resources só para serem liberadas no fim do bloco
+@SuppressWarnings("try")
+public class Jackut implements Serializable, AutoCloseable {
     private static final long serialVersionUID = 1L;
 
-    private Map<String, Usuario> usuarios       = new HashMap<>();
-    private Map<String, Comunidade> comunidades = new HashMap<>();
-    private transient Map<String, String> sessoes = new HashMap<>();
+    // Ids inteiros dos logins, usados nos relacionamentos; não é final para que snapshots antigos recebam um
+    private transient DicionarioLogins dicionario = new DicionarioLogins();
+
+    // Declarado como Map por compatibilidade com snapshots antigos (serialização Java); ver mapaUsuarios()
+    private Map<String, Usuario> usuarios       = new MapaUsuarios(dicionario);
+    private Map<String, Comunidade> comunidades = new ConcurrentHashMap<>();
+    private final transient GerenciadorSessoes sessoes = new GerenciadorSessoes(
+            Configuracao.longo("sessao.inatividadeMs", TimeUnit.MINUTES.toMillis(30)),
+            Configuracao.longo("sessao.maximaMs", TimeUnit.HOURS.toMillis(12)),
+            Configuracao.longo("sessao.resolucaoMs", 1000),
+            Configuracao.inteiro("sessao.compartimentos", 512));
+
+    // Índice reverso ídolo -> ids dos fãs, na ordem em que cada fã o adicionou
+    private Map<String, ConjuntoInteiros> fas   = new ConcurrentHashMap<>();
+
+    // Índices reversos usados na remoção de contas: quem tem o login como paquera ou como inimigo, e a
+    // quem o login enviou convites de amizade pendentes e recados
+    private transient Map<String, ConjuntoInteiros> paqueradoPor     = new ConcurrentHashMap<>();
+    private transient Map<String, ConjuntoInteiros> inimigoDe        = new ConcurrentHashMap<>();
+    private transient Map<String, ConjuntoInteiros> convitesEnviados = new ConcurrentHashMap<>();
+    private transient Map<String, ConjuntoInteiros> recadosEnviados  = new ConcurrentHashMap<>();
+
+    // Comunidades em cujo registro o login pode ter mensagens; refeito a partir das comunidades na carga
+    private transient Map<String, Set<String>> comunidadesComMensagens = new ConcurrentHashMap<>();
     private static final String ARQ = "jackut.dat";
+    private static final String ARQ_LOG = "jackut.log";
+
+    // Intervalo entre sincronizações em grupo do registro e quantidade de registros que dispara um snapshot
+    private static final long INTERVALO_SINCRONIZACAO = Configuracao.longo("log.sincronizacaoMs", 100);
+    private static final int  LIMITE_COMPACTACAO      = Configuracao.inteiro("log.limiteCompactacao", 50_000);
+    // Se o snapshot periódico é gravado a partir de um ponto de controle, sem parar o sistema; por padrão, só
+    // com mais de um processador: com um só, a captura disputa o processador com as operações e atrasa mais
+    // delas do que uma única pausa
+    private final transient boolean snapshotEmFundo = Configuracao.booleano("snapshot.emFundo",
+            Runtime.getRuntime().availableProcessors() > 1);
+    // Se as alterações só são confirmadas depois do fsync em grupo que as inclui, e os parâmetros do grupo
+    private final transient Durabilidade durabilidade = Durabilidade.de(Configuracao.texto("log.durabilidade", null),
+            INTERVALO_SINCRONIZACAO, Configuracao.longo("log.grupo.esperaUs", 500),
+            Configuracao.inteiro("log.grupo.lote", 32));
+
+    // Usuários materializados só no primeiro acesso, a partir do snapshot mapeado em memória
+    private static final boolean USUARIOS_SOB_DEMANDA = Configuracao.booleano("usuarios.sobDemanda", false);
+
+    // Threads que decodificam os usuários frios depois da carga, e se o sistema atende antes de elas terminarem
+    private static final int PARALELISMO_CARGA = Math.max(1, Configuracao.inteiro("carga.paralelismo",
+            Runtime.getRuntime().availableProcessors()));
+    private static final boolean CARGA_EM_FUNDO = Configuracao.booleano("carga.emFundo", true);
+    private transient CargaUsuarios carga;
+
+    // Decodifica os usuários na carga
+    private static final ExecutorService PARALELO = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "jackut-paralelo");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Sequência da última operação do registro contida neste snapshot
+    private long ultimaOperacao;
+
+    // Sequência global das mensagens de comunidade, que ordena a leitura entre comunidades
+    private transient AtomicLong sequenciaMensagens = new AtomicLong();
+    private transient RegistroOperacoes registro;
+    private transient ScheduledFuture<?> compactacao;
+    private transient volatile boolean encerrado;
+
+    // Ponto de controle sendo capturado, ou null; o último gravado em segundo plano, para as métricas
+    private transient volatile PontoDeControle pontoDeControle;
+    private transient volatile PontoDeControle ultimoPontoDeControle;
+    private final transient AtomicLong pontosGravados = new AtomicLong();
+    private final transient AtomicLong pontosFalhos = new AtomicLong();
+    // Serializa a gravação dos snapshots, em segundo plano ou não; nunca é adquirida antes das travas
+    private final transient ReentrantLock gravacao = new ReentrantLock();
+
+    private static final ScheduledExecutorService COMPACTADOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "jackut-compactacao");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Limite de recados não lidos por usuário e o que fazer com os que passam dele; desligado (0) por padrão,
+    // já que a especificação não limita a caixa de recados
+    private static final int LIMITE_RECADOS = Configuracao.inteiro("recados.limite", 0);
+    private static final PoliticaTransbordo TRANSBORDO_RECADOS =
+            PoliticaTransbordo.de(Configuracao.texto("recados.transbordo", null), PoliticaTransbordo.REJEITAR);
+
+    // Entrega assíncrona dos recados, ou null quando os recados são entregues na thread de quem envia
+    private final transient EntregaRecados entrega = Configuracao.booleano("recados.assincrono", false)
+            ? new EntregaRecados(Configuracao.inteiro("recados.faixas", Runtime.getRuntime().availableProcessors()),
+                                 Configuracao.inteiro("recados.capacidadeFaixa", 4096),
+                                 this::entregarRecado)
+            : null;
+    // Recados aceitos e ainda na fila de entrega, por destinatário; alterado só com a trava do destinatário
+    private final transient Map<String, Integer> recadosPendentes = new ConcurrentHashMap<>();
+    // Quarto argumento do registro de um recado que descartou o mais antigo da caixa do destinatário
+    private static final String DESCARTOU_ANTIGO = "descartouAntigo";
+
+    // Sugestões de amizade guardadas por login, se habilitadas, e por quanto tempo valem
+    private static final boolean CACHE_SUGESTOES = Configuracao.booleano("sugestoes.cache", true);
+    private static final long VALIDADE_SUGESTOES =
+            TimeUnit.MILLISECONDS.toNanos(Configuracao.longo("sugestoes.validadeMs", 60_000));
+    // Comunidades com mais membros que isto não contam nas sugestões
+    private static final int LIMITE_COMUNIDADE_SUGESTOES = Configuracao.inteiro("sugestoes.limiteComunidade", 1000);
+    // Quantidade mínima de sugestões calculadas, para que pedidos menores seguintes usem o cache
+    private static final int MINIMO_SUGESTOES = 10;
+    // Peso de um amigo em comum: maior que qualquer quantidade de comunidades em comum
+    private static final long PESO_AMIGO_EM_COMUM = 1L << 32;
+    private final transient Map<String, Sugestoes> sugestoes = new ConcurrentHashMap<>();
+
+    // Índices de busca de perfis e de comunidades: montados na primeira busca, com todas as travas, e
+    // atualizados a partir daí por cada alteração, com a trava da chave alterada; null até a primeira busca
+    private transient volatile IndiceInvertido buscaUsuarios;
+    private transient volatile IndiceInvertido buscaComunidades;
+
+    // Atributos do perfil com índice de valor exato (-Djackut.perfil.atributosIndexados=cidade,estado);
+    // o índice é montado e mantido como os de busca
+    private static final Set<String> ATRIBUTOS_INDEXADOS = lerAtributosIndexados();
+    private transient volatile IndiceAtributos indiceAtributos;
+
+    // Deriva e confere os hashes das senhas, fora das travas
+    private final transient Autenticador autenticador = new Autenticador();
+
+    // Itens de uma operação em lote aplicados com uma única aquisição de travas
+    private static final int TAMANHO_BLOCO = 1024;
+
+    // Prefixo que separa as chaves de comunidades das chaves de logins nas travas
+    private static final String COM = "#";
+    private final transient TravasPorChave travas = new TravasPorChave(256);
+
+    // Onde o estado é guardado entre execuções (-Djackut.armazenamento=arquivo, chaveValor ou memoria)
+    private static final String ARQ_KV = "jackut.kv";
+    private final transient Armazenamento armazenamento = criarArmazenamento();
 
     /**
      * Construtor da classe Jackut, que tenta carregar os dados previamente salvos.
      */
     public Jackut() {
-        try { carregarDados(); }
-        catch(Exception e) { reset(); }
+        long inicio = System.nanoTime();
+        travas.setObservador(this::capturarFaixa);
+        try { armazenamento.carregar(inicio); }
+        catch(Exception e) {
+            // dados ilegíveis: o sistema começa vazio e os arquivos antigos vão para a quarentena, intactos
+            e.printStackTrace();
+            reset();
+            File q = armazenamento.isolar();
+            if (q != null) System.err.println("Os dados que não puderam ser carregados foram movidos para " + q + ".");
+            carga = null;
+        }
+        // os armazenamentos por registro decodificam todos os usuários na carga
+        if (carga == null) carga = new CargaUsuarios(mapaUsuarios(), travas, 0, inicio);
+        carga.marcarPronto();
+        long verificacao = Configuracao.longo("log.verificacaoMs", 5000);
+        Manutencao manutencao = new Manutencao(this);
+        compactacao = COMPACTADOR.scheduleWithFixedDelay(manutencao, verificacao, verificacao, TimeUnit.MILLISECONDS);
+        manutencao.agendada = compactacao;
+    }
+
+    /**
+     * Manutenção periódica do armazenamento. Guarda a instância só por referência fraca, para que o
+     * executor compartilhado não a mantenha viva: se ela for coletada sem ter sido encerrada, a tarefa
+     * se cancela, para a varredura das sessões e fecha o registro de operações, que já contém tudo o que
+     * a instância alterou.
+     */
+    private static final class Manutencao implements Runnable {
+        private final WeakReference<Jackut> jackut;
+        private final GerenciadorSessoes sessoes;
+        private final RegistroOperacoes registro;
+        private volatile ScheduledFuture<?> agendada;
+
+        Manutencao(Jackut jackut) {
+            this.jackut = new WeakReference<>(jackut);
+            this.sessoes = jackut.sessoes;
+            this.registro = jackut.registro;
+        }
+
+        @Override
+        public void run() {
+            Jackut j = jackut.get();
+            if (j != null) {
+                j.armazenamento.manter();
+                return;
+            }
+            agendada.cancel(false);
+            sessoes.encerrar();
+            if (registro != null) registro.close();
+        }
     }
 
     /**
-     * Reseta os dados do sistema, limpando os usurios, comunidades e sesses.
+     * Reseta os dados do sistema, limpando os usuários, comunidades e sessões.
      */
     private void reset() {
         usuarios.clear();
         comunidades.clear();
-        sessoes.clear();
+        sessoes.limpar();
+        fas.clear();
+        paqueradoPor.clear();
+        inimigoDe.clear();
+        convitesEnviados.clear();
+        recadosEnviados.clear();
+        comunidadesComMensagens.clear();
+        sugestoes.clear();
+        buscaUsuarios = null;
+        buscaComunidades = null;
+        indiceAtributos = null;
+        autenticador.limpar();
+        dicionario.limpar();
     }
 
     /**
      * Zera o sistema, removendo todos os dados.
      */
-    public void zerarSistema() { reset(); }
+    public void zerarSistema() {
+        aguardarEntregas();
+        try (Trava t = travas.travarTodas()) {
+            reset();
+            registrar(TipoOperacao.ZERAR_SISTEMA);
+        }
+    }
 
-    // ** Usurios **
+    // ** Usuários **
 
     /**
-     * Cria um novo usurio com login, senha e nome.
+     * Cria um novo usuário com login, senha e nome.
      *
-     * @param login O login do usurio.
-     * @param senha A senha do usurio.
-     * @param nome O nome do usurio.
-     * @throws LoginInvalidoException Se o login for invlido.
-     * @throws SenhaInvalidaException Se a senha for invlida.
-     * @throws ContaComEsseNomeJaExisteException Se j existir um usurio com o mesmo login.
+     * @param login O login do usuário.
+     * @param senha A senha do usuário.
+     * @param nome O nome do usuário.
+     * @throws LoginInvalidoException Se o login for inválido.
+     * @throws SenhaInvalidaException Se a senha for inválida.
+     * @throws ContaComEsseNomeJaExisteException Se já existir um usuário com o mesmo login.
      */
     public void criarUsuario(String login, String senha, String nome) {
+        validarNovoUsuario(login, senha);
+        // o hash é derivado sem a trava; um login já usado é recusado antes, sem o custo do hash
+        if (usuarios.containsKey(login)) throw new ContaComEsseNomeJaExisteException();
+        String credencial = autenticador.gerar(senha);
+        try (Trava t = travas.travar(login)) {
+            criarUsuarioTravado(login, credencial, nome);
+            registrar(TipoOperacao.CRIAR_USUARIO_CREDENCIAL, login, credencial, nome);
+        }
+    }
+
+    /**
+     * Valida o login e a senha de um usuário a ser criado.
+     *
+     * @param login O login do usuário.
+     * @param senha A senha do usuário.
+     * @throws LoginInvalidoException Se o login for inválido.
+     * @throws SenhaInvalidaException Se a senha for inválida.
+     */
+    private static void validarNovoUsuario(String login, String senha) {
         if (login == null || login.trim().isEmpty()) throw new LoginInvalidoException();
         if (senha == null || senha.trim().isEmpty()) throw new SenhaInvalidaException();
-        if (usuarios.containsKey(login)) throw new ContaComEsseNomeJaExisteException();
-        usuarios.put(login, new Usuario(login, senha, nome == null ? "" : nome));
     }
 
     /**
-     * Abre uma sesso para um usurio com login e senha.
+     * Cria um usuário já validado; deve ser chamado com a trava do login adquirida.
      *
-     * @param login O login do usurio.
-     * @param senha A senha do usurio.
-     * @return O ID da sesso gerada.
+     * @param login O login do usuário.
+     * @param credencial O registro de {@link Credencial} da senha.
+     * @param nome O nome do usuário.
+     * @throws ContaComEsseNomeJaExisteException Se já existir um usuário com o mesmo login.
+     */
+    private void criarUsuarioTravado(String login, String credencial, String nome) {
+        Usuario u = new Usuario(dicionario, login, credencial, nome == null ? "" : nome);
+        if (usuarios.putIfAbsent(login, u) != null)
+            throw new ContaComEsseNomeJaExisteException();
+        indexarPerfil(u);
+        indexarAtributo(login, "nome", null, u.getNome());
+    }
+
+    /**
+     * Abre uma sessão para um usuário com login e senha.
+     *
+     * <p>A senha é conferida pelo {@link Autenticador}, sem a trava do login. Se o registro guardado for
+     * legado ou tiver outro custo, é trocado pelo registro refeito na verificação.</p>
+     *
+     * @param login O login do usuário.
+     * @param senha A senha do usuário.
+     * @return O ID da sessão gerada.
      * @throws LoginOuSenhaInvalidosException Se o login ou a senha estiverem incorretos.
+     * @throws AutenticacaoSobrecarregadaException Se houver verificações demais na fila.
      */
     public String abrirSessao(String login, String senha) {
         if (login == null || login.trim().isEmpty() ||
                 senha  == null || senha.trim().isEmpty())
             throw new LoginOuSenhaInvalidosException();
-        Usuario u = usuarios.get(login);
-        if (u == null || !u.verificarSenha(senha))
-            throw new LoginOuSenhaInvalidosException();
-        String sid = UUID.randomUUID().toString();
-        sessoes.put(sid, login);
-        return sid;
+        String credencial = credencial(login);
+        while (true) {
+            String nova = autenticador.verificar(login, credencial, senha);
+            if (nova == null) throw new LoginOuSenhaInvalidosException();
+            try (Trava t = travas.travar(login)) {
+                Usuario u = usuarios.get(login);
+                if (u == null) throw new LoginOuSenhaInvalidosException();
+                if (u.getCredencial().equals(credencial)) {
+                    if (!nova.equals(credencial)) {
+                        u.setCredencial(nova);
+                        registrar(TipoOperacao.ATUALIZAR_CREDENCIAL, login, nova);
+                    }
+                    autenticador.lembrar(login, nova, senha);
+                    // aberta com a trava do login, para que a remoção da conta revogue também esta sessão
+                    return sessoes.abrir(login);
+                }
+                // o registro mudou durante a verificação (outro login o refez, ou a conta foi recriada)
+                credencial = u.getCredencial();
+            }
+        }
+    }
+
+    /**
+     * Lê o registro da senha de um usuário, com a trava do login.
+     *
+     * @param login O login do usuário.
+     * @return O registro de {@link Credencial}.
+     * @throws LoginOuSenhaInvalidosException Se o usuário não estiver cadastrado.
+     */
+    private String credencial(String login) {
+        try (Trava t = travas.travar(login)) {
+            Usuario u = usuarios.get(login);
+            if (u == null) throw new LoginOuSenhaInvalidosException();
+            return u.getCredencial();
+        }
+    }
+
+    /**
+     * Retorna os contadores do autenticador (derivações, acertos do cache, falhas e recusas).
+     *
+     * @return Uma fotografia das métricas de autenticação.
+     */
+    public Autenticador.Metricas getMetricasAutenticacao() {
+        return autenticador.getMetricas();
+    }
+
+    /**
+     * Retorna os contadores da tabela de sessões (ativas, abertas, expiradas e revogadas).
+     *
+     * @return Uma fotografia das métricas de sessões.
+     */
+    public GerenciadorSessoes.Metricas getMetricasSessoes() {
+        return sessoes.getMetricas();
     }
 
     /**
-     * Retorna um atributo de um usurio, baseado no login e no nome do atributo.
+     * Retorna um atributo de um usuário, baseado no login e no nome do atributo.
      *
-     * @param login O login do usurio.
+     * @param login O login do usuário.
      * @param atr O nome do atributo a ser recuperado.
      * @return O valor do atributo.
-     * @throws UsuarioNaoCadastradoException Se o usurio no estiver cadastrado.
+     * @throws UsuarioNaoCadastradoException Se o usuário não estiver cadastrado.
      */
     public String getAtributoUsuario(String login, String atr) {
-        Usuario u = usuarios.get(login);
-        if (u == null) throw new UsuarioNaoCadastradoException();
-        return u.getAtributo(atr);
+        return visao(login).getAtributo(atr);
     }
 
     /**
-     * Edita o perfil de um usurio.
+     * Edita o perfil de um usuário.
      *
-     * @param sessao A sesso do usurio.
+     * @param sessao A sessão do usuário.
      * @param atr O atributo a ser editado.
      * @param val O novo valor do atributo.
-     * @throws UsuarioNaoCadastradoException Se o usurio no estiver cadastrado.
+     * @throws UsuarioNaoCadastradoException Se o usuário não estiver cadastrado.
      */
     public void editarPerfil(String sessao, String atr, String val) {
-        String lg = sessoes.get(sessao);
-        if (lg == null) throw new UsuarioNaoCadastradoException();
-        Usuario u = usuarios.get(lg);
-        if (u == null) throw new UsuarioNaoCadastradoException();
-        u.editarAtributo(atr, val);
+        aplicarEditarPerfil(validar(sessao), atr, val);
+    }
+
+    /**
+     * Edita o perfil do usuário com o login fornecido. Também usado na reprodução do registro de operações.
+     *
+     * @param lg O login do usuário.
+     * @param atr O atributo a ser editado.
+     * @param val O novo valor do atributo.
+     */
+    private void aplicarEditarPerfil(String lg, String atr, String val) {
+        try (Trava t = travas.travar(lg)) {
+            Usuario u = usuario(lg);
+            u.editarAtributo(atr, indexarAtributo(lg, atr, u.getValorAtributo(atr), val));
+            indexarPerfil(u);
+            registrar(TipoOperacao.EDITAR_PERFIL, lg, atr, val);
+        }
     }
 
     // ** Amigos **
 
     /**
-     * Adiciona um amigo a um usurio.
+     * Adiciona um amigo a um usuário.
      *
-     * @param sessao A sesso do usurio.
+     * @param sessao A sessão do usuário.
      * @param amigo O login do amigo a ser adicionado.
      * @throws FuncaoInvalidaException Se o amigo for inimigo.
-     * @throws UsuarioNaoPodeAdicionarASiMesmoException Se o usurio tentar adicionar a si mesmo.
-     * @throws UsuarioJaEstaAdicionadoException Se o amigo j for adicionado.
-     * @throws UsuarioJaEstaAdicionadoEsperandoException Se o amigo j tiver um convite pendente.
+     * @throws UsuarioNaoPodeAdicionarASiMesmoException Se o usuário tentar adicionar a si mesmo.
+     * @throws UsuarioJaEstaAdicionadoException Se o amigo já for adicionado.
+     * @throws UsuarioJaEstaAdicionadoEsperandoException Se o amigo já tiver um convite pendente.
      */
     public void adicionarAmigo(String sessao, String amigo) {
-        String sol = validar(sessao);
-        Usuario uSol = usuarios.get(sol);
-        Usuario uAlvo = usuarios.get(amigo);
-        if (uAlvo == null) throw new UsuarioNaoCadastradoException();
+        aplicarAdicionarAmigo(validar(sessao), amigo);
+    }
+
+    /**
+     * Adiciona um amigo (ou convite de amizade) em nome do usuário com o login fornecido. Também usado na reprodução do registro de operações.
+     *
+     * @param sol O login do usuário solicitante.
+     * @param amigo O login do amigo.
+     */
+    private void aplicarAdicionarAmigo(String sol, String amigo) {
+        try (Trava t = travas.travar(sol, amigo)) {
+            adicionarAmigoTravado(sol, amigo);
+            registrar(TipoOperacao.ADICIONAR_AMIGO, sol, amigo);
+        }
+    }
+
+    /**
+     * Adiciona um amigo (ou convite de amizade); deve ser chamado com as travas dos dois logins adquiridas.
+     *
+     * @param sol O login do usuário solicitante.
+     * @param amigo O login do amigo.
+     */
+    private void adicionarAmigoTravado(String sol, String amigo) {
+        Usuario uSol = usuario(sol);
+        Usuario uAlvo = usuario(amigo);
 
         if (uAlvo.ehInimigo(sol)) {
-            throw new FuncaoInvalidaException(uAlvo.getNome() + "  seu inimigo.");
+            throw new FuncaoInvalidaException(uAlvo.getNome() + " é seu inimigo.");
         }
         if (sol.equals(amigo)) throw new UsuarioNaoPodeAdicionarASiMesmoException();
         if (uSol.ehAmigo(amigo)) throw new UsuarioJaEstaAdicionadoException();
@@ -133,89 +489,331 @@ public class Jackut implements Serializable {
             throw new UsuarioJaEstaAdicionadoEsperandoException();
         if (uSol.temConvite(amigo)) {
             uSol.removerConvite(amigo);
+            desindexar(convitesEnviados, amigo, sol);
             uSol.confirmarAmizade(amigo);
             uAlvo.confirmarAmizade(sol);
         } else {
             uAlvo.adicionarConvite(sol);
+            indexar(convitesEnviados, sol, amigo);
+            uSol.relacoesAlteradas();
         }
     }
 
     /**
-     * Verifica se dois usurios so amigos.
+     * Verifica se dois usuários são amigos.
      *
-     * @param l O login do usurio.
+     * @param l O login do usuário.
      * @param a O login do amigo a ser verificado.
-     * @return True se os usurios forem amigos, caso contrrio, false.
-     * @throws UsuarioNaoCadastradoException Se algum dos usurios no estiver cadastrado.
+     * @return True se os usuários forem amigos, caso contrário, false.
+     * @throws UsuarioNaoCadastradoException Se algum dos usuários não estiver cadastrado.
      */
     public boolean ehAmigo(String l, String a) {
-        Usuario u = usuarios.get(l);
-        if (u == null) throw new UsuarioNaoCadastradoException();
-        return u.ehAmigo(a);
+        return visao(l).ehAmigo(a);
     }
 
     /**
-     * Retorna a lista de amigos de um usurio.
+     * Retorna a lista de amigos de um usuário.
      *
-     * @param l O login do usurio.
+     * @param l O login do usuário.
      * @return Uma string com os logins dos amigos.
-     * @throws UsuarioNaoCadastradoException Se o usurio no estiver cadastrado.
+     * @throws UsuarioNaoCadastradoException Se o usuário não estiver cadastrado.
      */
     public String getAmigos(String l) {
-        Usuario u = usuarios.get(l);
-        if (u == null) throw new UsuarioNaoCadastradoException();
-        return "{" + String.join(",", u.getAmigos()) + "}";
+        try (Trava t = travas.travar(l)) {
+            return "{" + String.join(",", usuario(l).getAmigos()) + "}";
+        }
+    }
+
+    /**
+     * Retorna uma página da lista de amigos de um usuário.
+     *
+     * @param l O login do usuário.
+     * @param inicio A posição do primeiro amigo.
+     * @param limite A quantidade máxima de amigos.
+     * @return A página de amigos.
+     * @throws UsuarioNaoCadastradoException Se o usuário não estiver cadastrado.
+     * @throws PaginaInvalidaException Se o início for negativo ou o limite não for positivo.
+     */
+    public Pagina getAmigos(String l, int inicio, int limite) {
+        try (Trava t = travas.travar(l)) {
+            return usuario(l).getAmigos(inicio, limite);
+        }
     }
 
     // ** Recados **
 
     /**
-     * Envia um recado para outro usurio.
+     * Envia um recado para outro usuário.
      *
-     * @param sessao A sesso do usurio remetente.
-     * @param dest O login do destinatrio.
+     * @param sessao A sessão do usuário remetente.
+     * @param dest O login do destinatário.
      * @param msg A mensagem a ser enviada.
-     * @throws FuncaoInvalidaException Se o destinatrio for inimigo.
-     * @throws UsuarioNaoPodeEnviarRecadoParaSiMesmoException Se o usurio tentar enviar um recado para si mesmo.
-     * @throws UsuarioNaoCadastradoException Se o destinatrio no estiver cadastrado.
+     * @throws FuncaoInvalidaException Se o destinatário for inimigo.
+     * @throws UsuarioNaoPodeEnviarRecadoParaSiMesmoException Se o usuário tentar enviar um recado para si mesmo.
+     * @throws UsuarioNaoCadastradoException Se o destinatário não estiver cadastrado.
+     * @throws CaixaDeRecadosCheiaException Se a caixa do destinatário estiver no limite e a política for recusar.
+     * No modo assíncrono, as mesmas verificações são feitas aqui, com as travas do par, antes de enfileirar;
+     * os recados ainda na fila contam para o limite da caixa.
      */
     public void enviarRecado(String sessao, String dest, String msg) {
         String sol = validar(sessao);
-        Usuario uSol = usuarios.get(sol);
-        Usuario uDest = usuarios.get(dest);
-        if (uDest == null) throw new UsuarioNaoCadastradoException();
+        if (entrega == null) {
+            aplicarEnviarRecado(sol, dest, msg);
+            return;
+        }
+        try (Trava t = travas.travar(sol, dest)) {
+            verificarRecado(sol, dest, recadosPendentes.getOrDefault(dest, 0));
+            recadosPendentes.merge(dest, 1, Integer::sum);
+        }
+        // fora das travas: com a fila cheia, quem envia espera a faixa, que precisa delas para entregar
+        entrega.enviar(sol, dest, msg);
+    }
 
+    /**
+     * Verifica se um recado pode ser enviado; deve ser chamado com as travas do par.
+     *
+     * @param sol O login do remetente.
+     * @param dest O login do destinatário.
+     * @param pendentes Os recados para o destinatário ainda na fila de entrega.
+     * @return O destinatário.
+     */
+    private Usuario verificarRecado(String sol, String dest, int pendentes) {
+        usuario(sol);
+        Usuario uDest = usuario(dest);
         if (uDest.ehInimigo(sol)) {
-            throw new FuncaoInvalidaException(uDest.getNome() + "  seu inimigo.");
+            throw new FuncaoInvalidaException(uDest.getNome() + " é seu inimigo.");
         }
         if (sol.equals(dest)) throw new UsuarioNaoPodeEnviarRecadoParaSiMesmoException();
-        uDest.receberRecado(msg);
+        if (LIMITE_RECADOS > 0 && TRANSBORDO_RECADOS == PoliticaTransbordo.REJEITAR
+                && uDest.getQuantidadeRecados() + pendentes >= LIMITE_RECADOS) {
+            throw new CaixaDeRecadosCheiaException();
+        }
+        return uDest;
+    }
+
+    /**
+     * Envia um recado em nome do usuário com o login fornecido, no modo síncrono.
+     *
+     * @param sol O login do usuário solicitante.
+     * @param dest O login do destinatário.
+     * @param msg A mensagem.
+     */
+    private void aplicarEnviarRecado(String sol, String dest, String msg) {
+        try (Trava t = travas.travar(sol, dest)) {
+            receberRecado(sol, dest, verificarRecado(sol, dest, 0), msg);
+        }
+    }
+
+    /**
+     * Entrega, na thread de uma faixa, um recado verificado em {@link #enviarRecado}. Só é recusado se o
+     * remetente ou o destinatário tiver sido removido desde o envio.
+     *
+     * @param sol O login do remetente.
+     * @param dest O login do destinatário.
+     * @param msg A mensagem.
+     */
+    private void entregarRecado(String sol, String dest, String msg) {
+        try (Trava t = travas.travar(sol, dest)) {
+            recadosPendentes.computeIfPresent(dest, (k, n) -> n == 1 ? null : n - 1);
+            usuario(sol);
+            receberRecado(sol, dest, usuario(dest), msg);
+        }
+    }
+
+    /**
+     * Põe um recado já verificado na caixa do destinatário e grava o resultado; com a caixa no limite,
+     * descarta antes o recado mais antigo e grava isso junto com o recado. Deve ser chamado com as travas
+     * do par.
+     *
+     * @param sol O login do remetente.
+     * @param dest O login do destinatário.
+     * @param uDest O destinatário.
+     * @param msg A mensagem.
+     * @throws CaixaDeRecadosCheiaException Se a caixa estiver no limite e a política for recusar.
+     */
+    private void receberRecado(String sol, String dest, Usuario uDest, String msg) {
+        boolean descartou = LIMITE_RECADOS > 0 && uDest.getQuantidadeRecados() >= LIMITE_RECADOS;
+        if (descartou) {
+            if (TRANSBORDO_RECADOS == PoliticaTransbordo.REJEITAR) throw new CaixaDeRecadosCheiaException();
+            // o índice de recados enviados pode continuar apontando para o destinatário; isso só
+            // custa uma visita a mais se o remetente for removido
+            uDest.lerRecado();
+        }
+        uDest.receberRecado(sol, msg);
+        indexar(recadosEnviados, sol, dest);
+        if (descartou) registrar(TipoOperacao.ENVIAR_RECADO, sol, dest, msg, DESCARTOU_ANTIGO);
+        else registrar(TipoOperacao.ENVIAR_RECADO, sol, dest, msg);
+    }
+
+    /**
+     * Reaplica um recado lido do registro de operações. O recado foi entregue quando foi gravado, então as
+     * recusas e o limite da caixa não são verificados de novo, e o mais antigo só é descartado se o registro
+     * disser que foi: o resultado é o mesmo ainda que o limite, a política ou os inimigos sejam outros agora.
+     *
+     * @param a Os argumentos gravados: remetente, destinatário, mensagem e, se o recado descartou o mais
+     *          antigo, {@link #DESCARTOU_ANTIGO}.
+     */
+    private void reaplicarEnviarRecado(String[] a) {
+        try (Trava t = travas.travar(a[0], a[1])) {
+            usuario(a[0]);
+            Usuario uDest = usuario(a[1]);
+            if (a.length > 3 && DESCARTOU_ANTIGO.equals(a[3])) uDest.lerRecado();
+            uDest.receberRecado(a[0], a[2]);
+            indexar(recadosEnviados, a[0], a[1]);
+            registrar(TipoOperacao.ENVIAR_RECADO, a);
+        }
+    }
+
+    /**
+     * Espera a entrega dos recados enviados até agora, no modo assíncrono; no modo síncrono, retorna
+     * imediatamente.
+     */
+    public void aguardarEntregas() {
+        if (entrega != null) entrega.aguardar();
+    }
+
+    /**
+     * Espera a decodificação dos usuários carregados do snapshot terminar (ver {@link CargaUsuarios}).
+     * O sistema atende antes disso; esperar só serve para medir a carga ou para não disputar a máquina
+     * com ela.
+     *
+     * @throws IllegalStateException Se algum usuário não pôde ser decodificado.
+     */
+    public void aguardarCarga() {
+        carga.aguardar();
+    }
+
+    /**
+     * Retorna o andamento da carga dos usuários do snapshot.
+     *
+     * @return Uma fotografia das métricas da carga.
+     */
+    public CargaUsuarios.Metricas getMetricasCarga() {
+        return carga.getMetricas();
+    }
+
+    /**
+     * Retorna os contadores da entrega assíncrona de recados.
+     *
+     * @return Uma fotografia das métricas, zerada se a entrega for síncrona.
+     */
+    public EntregaRecados.Metricas getMetricasRecados() {
+        return entrega == null ? EntregaRecados.Metricas.NENHUMA : entrega.getMetricas();
+    }
+
+    /**
+     * Retorna as sincronizações do registro de operações com o disco.
+     *
+     * @return Uma fotografia das métricas do registro.
+     */
+    public RegistroOperacoes.Metricas getMetricasRegistro() {
+        RegistroOperacoes r = registro;
+        return r == null ? RegistroOperacoes.Metricas.NENHUMA : r.getMetricas();
+    }
+
+    /**
+     * Retorna as gravações do armazenamento escolhido em {@code -Djackut.armazenamento}.
+     *
+     * @return Uma fotografia das métricas do armazenamento.
+     */
+    public Armazenamento.Metricas getMetricasArmazenamento() {
+        return armazenamento.getMetricas();
+    }
+
+    /**
+     * Retorna os snapshots gravados em segundo plano e os tempos do último.
+     *
+     * @return Uma fotografia das métricas dos pontos de controle.
+     */
+    public PontoDeControle.Metricas getMetricasSnapshot() {
+        PontoDeControle p = ultimoPontoDeControle;
+        return p == null ? PontoDeControle.Metricas.NENHUMA : p.getMetricas(pontosGravados.get(), pontosFalhos.get());
+    }
+
+    /**
+     * Retorna a quantidade de usuários cadastrados, sem travas.
+     *
+     * @return A quantidade de usuários, materializados ou não.
+     */
+    public int getQuantidadeUsuarios() {
+        return usuarios.size();
+    }
+
+    /**
+     * Retorna a quantidade de comunidades, sem travas.
+     *
+     * @return A quantidade de comunidades.
+     */
+    public int getQuantidadeComunidades() {
+        return comunidades.size();
+    }
+
+    /**
+     * Soma as mensagens guardadas nos registros das comunidades por ainda não terem sido lidas por algum
+     * membro, sem travas; o custo é proporcional à quantidade de comunidades.
+     *
+     * @return A quantidade de mensagens retidas.
+     */
+    public long getMensagensRetidas() {
+        long n = 0;
+        for (Comunidade c : comunidades.values()) n += c.getMensagensRetidas();
+        return n;
     }
 
     /**
-     * L o recado de um usurio.
+     * Lê o recado de um usuário.
      *
-     * @param sessao A sesso do usurio.
-     * @return O contedo do recado.
-     * @throws NaoHaRecadosException Se no houver recados.
-     * @throws UsuarioNaoCadastradoException Se o usurio no estiver cadastrado.
+     * @param sessao A sessão do usuário.
+     * @return O conteúdo do recado.
+     * @throws NaoHaRecadosException Se não houver recados.
+     * @throws UsuarioNaoCadastradoException Se o usuário não estiver cadastrado.
      */
     public String lerRecado(String sessao) {
         String lg = validar(sessao);
-        Usuario u = usuarios.get(lg);
-        String m = u.lerRecado();
+        // no modo assíncrono, os recados já aceitos para o usuário são entregues antes da leitura
+        if (entrega != null) entrega.aguardar(lg);
+        String m = aplicarLerRecado(lg);
         if (m == null) throw new NaoHaRecadosException();
         return m;
     }
 
-    // ** Persistncia **
+    /**
+     * Lê o próximo recado do usuário com o login fornecido. Também usado na reprodução do registro de operações.
+     *
+     * @param lg O login do usuário.
+     * @return O conteúdo lido, ou null se não houver.
+     */
+    private String aplicarLerRecado(String lg) {
+        try (Trava t = travas.travar(lg)) {
+            String m = usuario(lg).lerRecado();
+            if (m != null) registrar(TipoOperacao.LER_RECADO, lg);
+            return m;
+        }
+    }
+
+    // ** Persistência **
 
     /**
-     * Encerra o sistema, salvando os dados e limpando as sesses.
+     * Encerra o sistema, salvando os dados e limpando as sessões.
      */
     public void encerrarSistema() {
-        salvarDados();
-        sessoes.clear();
+        // entrega os recados pendentes antes de gravar o snapshot; recados enviados depois disso são
+        // entregues na thread de quem envia
+        if (entrega != null) entrega.close();
+        compactacao.cancel(false);
+        try (Trava t = travas.travarTodas()) {
+            armazenamento.encerrar();
+            sessoes.encerrar();
+        }
+        encerrado = true;
+    }
+
+    /**
+     * Encerra o sistema como {@link #encerrarSistema()}, se ele ainda não tiver sido encerrado.
+     */
+    @Override
+    public void close() {
+        if (!encerrado) encerrarSistema();
     }
 
     // ** Comunidades **
@@ -223,49 +821,77 @@ public class Jackut implements Serializable {
     /**
      * Cria uma nova comunidade.
      *
-     * @param sessao A sesso do usurio que est criando a comunidade.
+     * @param sessao A sessão do usuário que está criando a comunidade.
      * @param nome O nome da comunidade.
-     * @param desc A descrio da comunidade.
-     * @throws ComunidadeJaExisteException Se a comunidade j existir.
+     * @param desc A descrição da comunidade.
+     * @throws ComunidadeJaExisteException Se a comunidade já existir.
      */
     public void criarComunidade(String sessao, String nome, String desc) {
-        String lg = validar(sessao);
-        if (comunidades.containsKey(nome)) throw new ComunidadeJaExisteException();
-        comunidades.put(nome, new Comunidade(nome, desc, lg));
-        usuarios.get(lg).adicionarComunidadeParticipa(nome);
+        aplicarCriarComunidade(validar(sessao), nome, desc);
+    }
+
+    /**
+     * Cria uma comunidade cujo dono é o usuário com o login fornecido. Também usado na reprodução do registro de operações.
+     *
+     * @param lg O login do usuário.
+     * @param nome O nome da comunidade.
+     * @param desc A descrição da comunidade.
+     */
+    private void aplicarCriarComunidade(String lg, String nome, String desc) {
+        try (Trava t = travas.travar(lg, COM + nome)) {
+            Usuario u = usuario(lg);
+            Comunidade c = new Comunidade(nome, desc, lg);
+            if (comunidades.putIfAbsent(nome, c) != null)
+                throw new ComunidadeJaExisteException();
+            u.adicionarComunidadeParticipa(nome);
+            indexarComunidade(c);
+            registrar(TipoOperacao.CRIAR_COMUNIDADE, lg, nome, desc);
+        }
     }
 
     /**
-     * Retorna as comunidades nas quais o usurio est participando.
+     * Retorna as comunidades nas quais o usuário está participando.
      *
-     * Este mtodo verifica se a chave fornecida corresponde a uma sesso ativa. Caso a chave seja uma sesso, o login
-     * do usurio ser validado a partir da sesso. Se a chave no for uma sesso, ela  tratada como o login diretamente.
-     * O mtodo lana uma exceo se o usurio no estiver cadastrado.
+     * Este método verifica se a chave fornecida corresponde a uma sessão ativa. Caso a chave seja uma sessão, o login
+     * do usuário será validado a partir da sessão. Se a chave não for uma sessão, ela é tratada como o login diretamente.
+     * O método lança uma exceção se o usuário não estiver cadastrado.
      *
-     * @param chave A chave que pode ser o login do usurio ou uma sesso ativa.
-     * @return Uma string representando as comunidades nas quais o usurio est participando, separadas por vrgulas e
+     * @param chave A chave que pode ser o login do usuário ou uma sessão ativa.
+     * @return Uma string representando as comunidades nas quais o usuário está participando, separadas por vírgulas e
      * envolvidas por chaves (ex: "{comunidade1,comunidade2}").
-     * @throws UsuarioNaoCadastradoException Se o usurio no estiver cadastrado no sistema.
+     * @throws UsuarioNaoCadastradoException Se o usuário não estiver cadastrado no sistema.
      */
     public String getComunidades(String chave) {
-        String login;
-        if (sessoes.containsKey(chave)) {
-            login = validar(chave);
-        } else {
-            login = chave;
-            if (!usuarios.containsKey(login)) throw new UsuarioNaoCadastradoException();
+        String login = resolverLogin(chave);
+        try (Trava t = travas.travar(login)) {
+            return "{" + String.join(",", usuario(login).getComunidadesParticipando()) + "}";
+        }
+    }
+
+    /**
+     * Retorna uma página das comunidades de que um usuário participa.
+     *
+     * @param chave A chave que pode ser o login do usuário ou uma sessão ativa.
+     * @param inicio A posição da primeira comunidade.
+     * @param limite A quantidade máxima de comunidades.
+     * @return A página de comunidades, na ordem de ingresso.
+     * @throws UsuarioNaoCadastradoException Se o usuário não estiver cadastrado no sistema.
+     * @throws PaginaInvalidaException Se o início for negativo ou o limite não for positivo.
+     */
+    public Pagina getComunidades(String chave, int inicio, int limite) {
+        String login = resolverLogin(chave);
+        try (Trava t = travas.travar(login)) {
+            return usuario(login).getComunidadesParticipando(inicio, limite);
         }
-        Usuario u = usuarios.get(login);
-        return "{" + String.join(",", u.getComunidadesParticipando()) + "}";
     }
 
 
     /**
-     * Retorna a descrio de uma comunidade.
+     * Retorna a descrição de uma comunidade.
      *
      * @param nome O nome da comunidade.
-     * @return A descrio da comunidade.
-     * @throws ComunidadeNaoExisteException Se a comunidade no existir.
+     * @return A descrição da comunidade.
+     * @throws ComunidadeNaoExisteException Se a comunidade não existir.
      */
     public String getDescricaoComunidade(String nome) {
         Comunidade c = comunidades.get(nome);
@@ -278,7 +904,7 @@ public class Jackut implements Serializable {
      *
      * @param nome O nome da comunidade.
      * @return O login do dono da comunidade.
-     * @throws ComunidadeNaoExisteException Se a comunidade no existir.
+     * @throws ComunidadeNaoExisteException Se a comunidade não existir.
      */
     public String getDonoComunidade(String nome) {
         Comunidade c = comunidades.get(nome);
@@ -291,281 +917,1863 @@ public class Jackut implements Serializable {
      *
      * @param nome O nome da comunidade.
      * @return Uma string com os logins dos membros.
-     * @throws ComunidadeNaoExisteException Se a comunidade no existir.
+     * @throws ComunidadeNaoExisteException Se a comunidade não existir.
      */
     public String getMembrosComunidade(String nome) {
-        Comunidade c = comunidades.get(nome);
-        if (c == null) throw new ComunidadeNaoExisteException();
-        return "{" + String.join(",", c.getMembros()) + "}";
+        Comunidade c = nome == null ? null : comunidades.get(nome);
+        String membros = c == null ? null : c.getMembrosTexto();
+        if (membros != null) return membros;
+        try (Trava t = travas.travar(COM + nome)) {
+            return comunidade(nome).atualizarMembrosTexto();
+        }
+    }
+
+    /**
+     * Retorna uma página dos membros de uma comunidade.
+     *
+     * @param nome O nome da comunidade.
+     * @param inicio A posição do primeiro membro.
+     * @param limite A quantidade máxima de membros.
+     * @return A página de membros, na ordem de entrada.
+     * @throws ComunidadeNaoExisteException Se a comunidade não existir.
+     * @throws PaginaInvalidaException Se o início for negativo ou o limite não for positivo.
+     */
+    public Pagina getMembrosComunidade(String nome, int inicio, int limite) {
+        try (Trava t = travas.travar(COM + nome)) {
+            return comunidade(nome).getMembros(inicio, limite);
+        }
     }
 
     /**
-     * Adiciona um usurio a uma comunidade.
+     * Adiciona um usuário a uma comunidade.
      *
-     * @param sessao A sesso do usurio que deseja participar.
+     * @param sessao A sessão do usuário que deseja participar.
      * @param nome O nome da comunidade.
-     * @throws ComunidadeNaoExisteException Se a comunidade no existir.
-     * @throws UsuarioJaEstaNaComunidadeException Se o usurio j for membro da comunidade.
+     * @throws ComunidadeNaoExisteException Se a comunidade não existir.
+     * @throws UsuarioJaEstaNaComunidadeException Se o usuário já for membro da comunidade.
      */
     public void adicionarComunidade(String sessao, String nome) {
-        String lg = validar(sessao);
-        Comunidade c = comunidades.get(nome);
-        if (c == null) throw new ComunidadeNaoExisteException();
+        aplicarAdicionarComunidade(validar(sessao), nome);
+    }
+
+    /**
+     * Adiciona o usuário com o login fornecido a uma comunidade. Também usado na reprodução do registro de operações.
+     *
+     * @param lg O login do usuário.
+     * @param nome O nome da comunidade.
+     */
+    private void aplicarAdicionarComunidade(String lg, String nome) {
+        try (Trava t = travas.travar(lg, COM + nome)) {
+            adicionarComunidadeTravado(lg, comunidade(nome));
+            registrar(TipoOperacao.ADICIONAR_COMUNIDADE, lg, nome);
+        }
+    }
+
+    /**
+     * Adiciona um usuário a uma comunidade; deve ser chamado com as travas do login e da comunidade adquiridas.
+     *
+     * @param lg O login do usuário.
+     * @param c A comunidade.
+     */
+    private void adicionarComunidadeTravado(String lg, Comunidade c) {
+        Usuario u = usuario(lg);
         if (c.getMembros().contains(lg)) throw new UsuarioJaEstaNaComunidadeException();
         c.adicionarMembro(lg);
-        usuarios.get(lg).adicionarComunidadeParticipa(nome);
+        u.adicionarComunidadeParticipa(c.getNome());
     }
 
     // ** Mensagens em comunidade **
 
     /**
-     * Envia uma mensagem para todos os membros de uma comunidade, exceto inimigos.
+     * Envia uma mensagem para todos os membros de uma comunidade, exceto inimigos. A mensagem é
+     * publicada uma única vez no registro da comunidade; cada membro a lê a partir do seu cursor.
      *
-     * @param sessao A sesso do usurio que est enviando a mensagem.
+     * @param sessao A sessão do usuário que está enviando a mensagem.
      * @param com O nome da comunidade.
      * @param msg A mensagem a ser enviada.
-     * @throws ComunidadeNaoExisteException Se a comunidade no existir.
-     * @throws FuncaoInvalidaException Se o usurio for inimigo de algum membro da comunidade.
+     * @throws ComunidadeNaoExisteException Se a comunidade não existir.
+     * @throws FuncaoInvalidaException Se o usuário for inimigo de algum membro da comunidade.
      */
     public void enviarMensagem(String sessao, String com, String msg) {
-        String lg = validar(sessao);
-        Comunidade c = comunidades.get(com);
-        if (c == null) throw new ComunidadeNaoExisteException();
-        for (String mb : c.getMembros()) {
-            Usuario u = usuarios.get(mb);
-            if (!u.ehInimigo(lg)) u.receberMensagem(msg);
+        aplicarEnviarMensagem(validar(sessao), com, msg, 0);
+    }
+
+    /**
+     * Envia uma mensagem à comunidade em nome do usuário com o login fornecido. Também usado na reprodução do registro de operações.
+     *
+     * @param lg O login do usuário.
+     * @param com O nome da comunidade.
+     * @param msg A mensagem.
+     * @param seq A sequência gravada no registro de operações, ou 0 para usar a próxima.
+     */
+    private void aplicarEnviarMensagem(String lg, String com, String msg, long seq) {
+        try (Trava t = travas.travar(COM + com)) {
+            Comunidade c = comunidade(com);
+            // a sequência é tirada com a trava da comunidade, para que a ordem no registro da comunidade
+            // e a ordem global coincidam
+            long s = seq;
+            if (seq > 0) sequenciaMensagens.accumulateAndGet(seq, Math::max);
+            else s = sequenciaMensagens.incrementAndGet();
+            c.publicar(s, lg, msg);
+            comunidadesComMensagens.computeIfAbsent(lg, k -> ConcurrentHashMap.newKeySet()).add(com);
+            registrar(TipoOperacao.ENVIAR_MENSAGEM, lg, com, msg, Long.toString(s));
         }
     }
 
     /**
-     * L a mensagem recebida por um usurio.
+     * Lê a mensagem recebida por um usuário.
      *
-     * @param sessao A sesso do usurio.
-     * @return O contedo da mensagem.
-     * @throws NaoHaMensagensException Se no houver mensagens.
-     * @throws UsuarioNaoCadastradoException Se o usurio no estiver cadastrado.
+     * @param sessao A sessão do usuário.
+     * @return O conteúdo da mensagem.
+     * @throws NaoHaMensagensException Se não houver mensagens.
+     * @throws UsuarioNaoCadastradoException Se o usuário não estiver cadastrado.
      */
     public String lerMensagem(String sessao) {
-        String lg = validar(sessao);
-        Usuario u = usuarios.get(lg);
-        String m  = u.lerMensagem();
+        String m = aplicarLerMensagem(validar(sessao));
         if (m == null) throw new NaoHaMensagensException();
         return m;
     }
 
-    // ** Fs/dolos **
-
     /**
-     * Adiciona um dolo a um usurio.
+     * Lê a próxima mensagem do usuário com o login fornecido. Também usado na reprodução do registro de operações.
+     *
+     * <p>As mensagens vêm dos registros das comunidades de que o usuário participa, na ordem global de
+     * envio; mensagens de autores que o usuário tem como inimigos são puladas.</p>
      *
-     * @param sessao A sesso do usurio.
-     * @param idolo O login do dolo.
-     * @throws FuncaoInvalidaException Se o dolo for inimigo.
-     * @throws UsuarioNaoPodeSerFaDeSiMesmoException Se o usurio tentar ser f de si mesmo.
-     * @throws UsuarioJaEstaIdoloException Se o usurio j for dolo do outro.
-     * @throws UsuarioNaoCadastradoException Se o dolo no estiver cadastrado.
+     * @param lg O login do usuário.
+     * @return O conteúdo lido, ou null se não houver.
      */
-    public void adicionarIdolo(String sessao, String idolo) {
-        String sol = validar(sessao);
-        Usuario uSol = usuarios.get(sol);
-        Usuario uId  = usuarios.get(idolo);
-        if (uId == null) throw new UsuarioNaoCadastradoException();
-
-        if (uId.ehInimigo(sol)) {
-            throw new FuncaoInvalidaException(uId.getNome() + "  seu inimigo.");
+    private String aplicarLerMensagem(String lg) {
+        while (true) {
+            String[] chaves;
+            try (Trava t = travas.travar(lg)) {
+                chaves = chavesComunidades(usuario(lg), lg);
+            }
+            // a leitura trava o usuário e todas as suas comunidades; se as comunidades dele mudaram
+            // enquanto as chaves eram coletadas, tenta de novo
+            try (Trava t = travas.travar(chaves)) {
+                Usuario u = usuario(lg);
+                if (!mesmasComunidades(u, chaves)) continue;
+                String m = u.lerMensagem();
+                if (m == null) m = lerMensagemComunidades(u);
+                if (m != null) registrar(TipoOperacao.LER_MENSAGEM, lg);
+                return m;
+            }
         }
-        if (sol.equals(idolo)) throw new UsuarioNaoPodeSerFaDeSiMesmoException();
-        if (uSol.ehIdolo(idolo)) throw new UsuarioJaEstaIdoloException();
-        uSol.adicionarIdolo(idolo);
     }
 
     /**
-     * Verifica se um usurio  f de outro.
+     * Consome a mensagem mais antiga, pela sequência global, entre as comunidades do usuário; deve ser
+     * chamado com as travas do usuário e dessas comunidades adquiridas.
      *
-     * @param chave A chave de sesso ou o login do usurio.
-     * @param idolo O login do dolo.
-     * @return True se o usurio for f do dolo, caso contrrio, false.
-     * @throws UsuarioNaoCadastradoException Se algum dos usurios no estiver cadastrado.
+     * @param u O usuário.
+     * @return O conteúdo lido, ou null se não houver.
      */
-    public boolean ehFa(String chave, String idolo) {
-        String login;
-        if (sessoes.containsKey(chave)) {
-            login = validar(chave);
-        } else {
-            login = chave;
-            if (!usuarios.containsKey(login)) throw new UsuarioNaoCadastradoException();
+    private String lerMensagemComunidades(Usuario u) {
+        Comunidade escolhida = null;
+        Comunidade.Mensagem proxima = null;
+        for (String nome : u.getComunidadesParticipando()) {
+            Comunidade c = comunidades.get(nome);
+            if (c == null) continue;
+            Comunidade.Mensagem m = c.proxima(u.getLogin(), u::ehInimigo);
+            if (m != null && (proxima == null || m.getSequencia() < proxima.getSequencia())) {
+                escolhida = c;
+                proxima = m;
+            }
         }
-        return usuarios.get(login).ehIdolo(idolo);
+        if (escolhida == null) return null;
+        escolhida.consumir(u.getLogin());
+        return proxima.getTexto();
     }
 
     /**
-     * Retorna a lista de fs de um dolo.
+     * Monta as chaves de trava de um usuário e das comunidades de que participa.
      *
-     * @param login O login do dolo.
-     * @return O conjunto de fs do dolo.
-     * @throws UsuarioNaoCadastradoException Se o dolo no estiver cadastrado.
+     * @param u O usuário.
+     * @param lg O login do usuário.
+     * @return As chaves das comunidades seguidas do login.
      */
-    public Set<String> getFas(String login) {
-        if (!usuarios.containsKey(login)) throw new UsuarioNaoCadastradoException();
-        Set<String> fas = new LinkedHashSet<>();
-        for (Usuario u : usuarios.values()) {
-            if (u.ehIdolo(login)) fas.add(u.getLogin());
-        }
-        return fas;
+    private static String[] chavesComunidades(Usuario u, String lg) {
+        Set<String> cs = u.getComunidadesParticipando();
+        String[] chaves = new String[cs.size() + 1];
+        int i = 0;
+        for (String c : cs) chaves[i++] = COM + c;
+        chaves[i] = lg;
+        return chaves;
     }
 
-    // ** Paqueras **
-
     /**
-     * Adiciona uma paquera para o usurio.
+     * Confere que as chaves montadas por {@link #chavesComunidades} ainda correspondem exatamente às
+     * comunidades de que o usuário participa.
      *
-     * @param sessao A sesso do usurio.
-     * @param p O login da pessoa a ser adicionada como paquera.
-     * @throws FuncaoInvalidaException Se a pessoa for inimiga.
-     * @throws UsuarioNaoPodeSerPaqueraDeSiMesmoException Se o usurio tentar ser paquera de si mesmo.
-     * @throws UsuarioJaEstaPaqueraException Se j existe um relacionamento de paquera.
-     * @throws UsuarioNaoCadastradoException Se a pessoa no estiver cadastrada.
+     * @param u O usuário, com a trava do login adquirida.
+     * @param chaves As chaves das comunidades seguidas do login.
+     * @return true se o usuário participa de todas essas comunidades e de nenhuma outra.
      */
-    public void adicionarPaquera(String sessao, String p) {
-        String sol = validar(sessao);
-        Usuario uSol = usuarios.get(sol);
-        Usuario up   = usuarios.get(p);
-        if (up == null) throw new UsuarioNaoCadastradoException();
-
-        if (up.ehInimigo(sol)) {
-            throw new FuncaoInvalidaException(up.getNome() + "  seu inimigo.");
-        }
-        if (sol.equals(p)) throw new UsuarioNaoPodeSerPaqueraDeSiMesmoException();
-        if (uSol.ehPaquera(p)) throw new UsuarioJaEstaPaqueraException();
-        uSol.adicionarPaquera(p);
-        if (up.ehPaquera(sol)) {
-            uSol.receberRecado(up.getNome() + "  seu paquera - Recado do Jackut.");
-            up.receberRecado(uSol.getNome() + "  seu paquera - Recado do Jackut.");
+    private static boolean mesmasComunidades(Usuario u, String[] chaves) {
+        Set<String> cs = u.getComunidadesParticipando();
+        if (cs.size() != chaves.length - 1) return false;
+        for (int i = 0; i < chaves.length - 1; i++) {
+            if (!cs.contains(chaves[i].substring(COM.length()))) return false;
         }
+        return true;
     }
 
+    // ** Fãs/ídolos **
+
     /**
-     * Verifica se um usurio  paquera de outro.
+     * Adiciona um ídolo a um usuário.
      *
-     * @param chave A chave de sesso ou o login do usurio.
-     * @param p O login da pessoa a ser verificada.
-     * @return True se os usurios forem paqueras, caso contrrio, false.
-     * @throws UsuarioNaoCadastradoException Se o usurio no estiver cadastrado.
+     * @param sessao A sessão do usuário.
+     * @param idolo O login do ídolo.
+     * @throws FuncaoInvalidaException Se o ídolo for inimigo.
+     * @throws UsuarioNaoPodeSerFaDeSiMesmoException Se o usuário tentar ser fã de si mesmo.
+     * @throws UsuarioJaEstaIdoloException Se o usuário já for ídolo do outro.
+     * @throws UsuarioNaoCadastradoException Se o ídolo não estiver cadastrado.
+     */
+    public void adicionarIdolo(String sessao, String idolo) {
+        aplicarAdicionarIdolo(validar(sessao), idolo);
+    }
+
+    /**
+     * Adiciona um ídolo ao usuário com o login fornecido. Também usado na reprodução do registro de operações.
+     *
+     * @param sol O login do usuário solicitante.
+     * @param idolo O login do ídolo.
+     */
+    private void aplicarAdicionarIdolo(String sol, String idolo) {
+        try (Trava t = travas.travar(sol, idolo)) {
+            Usuario uSol = usuario(sol);
+            Usuario uId  = usuario(idolo);
+
+            if (uId.ehInimigo(sol)) {
+                throw new FuncaoInvalidaException(uId.getNome() + " é seu inimigo.");
+            }
+            if (sol.equals(idolo)) throw new UsuarioNaoPodeSerFaDeSiMesmoException();
+            if (uSol.ehIdolo(idolo)) throw new UsuarioJaEstaIdoloException();
+            uSol.adicionarIdolo(idolo);
+            indexar(fas, idolo, sol);
+            registrar(TipoOperacao.ADICIONAR_IDOLO, sol, idolo);
+        }
+    }
+
+    /**
+     * Verifica se um usuário é fã de outro.
+     *
+     * @param chave A chave de sessão ou o login do usuário.
+     * @param idolo O login do ídolo.
+     * @return True se o usuário for fã do ídolo, caso contrário, false.
+     * @throws UsuarioNaoCadastradoException Se algum dos usuários não estiver cadastrado.
+     */
+    public boolean ehFa(String chave, String idolo) {
+        return visao(resolverLogin(chave)).ehIdolo(idolo);
+    }
+
+    /**
+     * Retorna a lista de fãs de um ídolo, consultando o índice reverso de fãs.
+     *
+     * @param login O login do ídolo.
+     * @return Uma cópia do conjunto de fãs do ídolo, na ordem em que se tornaram fãs.
+     * @throws UsuarioNaoCadastradoException Se o ídolo não estiver cadastrado.
+     */
+    public Set<String> getFas(String login) {
+        try (Trava t = travas.travar(login)) {
+            usuario(login);
+            ConjuntoInteiros f = fas.get(login);
+            Set<String> r = new LinkedHashSet<>();
+            if (f != null) for (int i = 0; i < f.tamanho(); i++) r.add(dicionario.login(f.get(i)));
+            return r;
+        }
+    }
+
+    /**
+     * Retorna uma página dos fãs de um ídolo, traduzindo para logins só os fãs da página.
+     *
+     * @param login O login do ídolo.
+     * @param inicio A posição do primeiro fã.
+     * @param limite A quantidade máxima de fãs.
+     * @return A página de fãs, na ordem em que se tornaram fãs.
+     * @throws UsuarioNaoCadastradoException Se o ídolo não estiver cadastrado.
+     * @throws PaginaInvalidaException Se o início for negativo ou o limite não for positivo.
+     */
+    public Pagina getFas(String login, int inicio, int limite) {
+        try (Trava t = travas.travar(login)) {
+            usuario(login);
+            return Pagina.de(fas.get(login), dicionario, inicio, limite);
+        }
+    }
+
+    // ** Paqueras **
+
+    /**
+     * Adiciona uma paquera para o usuário.
+     *
+     * @param sessao A sessão do usuário.
+     * @param p O login da pessoa a ser adicionada como paquera.
+     * @throws FuncaoInvalidaException Se a pessoa for inimiga.
+     * @throws UsuarioNaoPodeSerPaqueraDeSiMesmoException Se o usuário tentar ser paquera de si mesmo.
+     * @throws UsuarioJaEstaPaqueraException Se já existe um relacionamento de paquera.
+     * @throws UsuarioNaoCadastradoException Se a pessoa não estiver cadastrada.
+     */
+    public void adicionarPaquera(String sessao, String p) {
+        aplicarAdicionarPaquera(validar(sessao), p);
+    }
+
+    /**
+     * Adiciona uma paquera ao usuário com o login fornecido. Também usado na reprodução do registro de operações.
+     *
+     * @param sol O login do usuário solicitante.
+     * @param p O login da paquera.
+     */
+    private void aplicarAdicionarPaquera(String sol, String p) {
+        try (Trava t = travas.travar(sol, p)) {
+            Usuario uSol = usuario(sol);
+            Usuario up   = usuario(p);
+
+            if (up.ehInimigo(sol)) {
+                throw new FuncaoInvalidaException(up.getNome() + " é seu inimigo.");
+            }
+            if (sol.equals(p)) throw new UsuarioNaoPodeSerPaqueraDeSiMesmoException();
+            if (uSol.ehPaquera(p)) throw new UsuarioJaEstaPaqueraException();
+            uSol.adicionarPaquera(p);
+            indexar(paqueradoPor, p, sol);
+            if (up.ehPaquera(sol)) {
+                // o recado do Jackut fala do outro usuário e é atribuído a ele, para sumir se ele sair
+                uSol.receberRecado(p, up.getNome() + " é seu paquera - Recado do Jackut.");
+                indexar(recadosEnviados, p, sol);
+                up.receberRecado(sol, uSol.getNome() + " é seu paquera - Recado do Jackut.");
+                indexar(recadosEnviados, sol, p);
+            }
+            registrar(TipoOperacao.ADICIONAR_PAQUERA, sol, p);
+        }
+    }
+
+    /**
+     * Verifica se um usuário é paquera de outro.
+     *
+     * @param chave A chave de sessão ou o login do usuário.
+     * @param p O login da pessoa a ser verificada.
+     * @return True se os usuários forem paqueras, caso contrário, false.
+     * @throws UsuarioNaoCadastradoException Se o usuário não estiver cadastrado.
      */
     public boolean ehPaquera(String chave, String p) {
-        String login;
-        if (sessoes.containsKey(chave)) {
-            login = validar(chave);
-        } else {
-            login = chave;
-            if (!usuarios.containsKey(login)) throw new UsuarioNaoCadastradoException();
+        String login = resolverLogin(chave);
+        try (Trava t = travas.travar(login)) {
+            return usuario(login).ehPaquera(p);
         }
-        return usuarios.get(login).ehPaquera(p);
     }
 
     /**
-     * Retorna a lista de paqueras de um usurio.
+     * Retorna a lista de paqueras de um usuário.
      *
-     * @param chave A chave de sesso ou o login do usurio.
-     * @return O conjunto de paqueras do usurio.
-     * @throws UsuarioNaoCadastradoException Se o usurio no estiver cadastrado.
+     * @param chave A chave de sessão ou o login do usuário.
+     * @return Uma cópia do conjunto de paqueras do usuário.
+     * @throws UsuarioNaoCadastradoException Se o usuário não estiver cadastrado.
      */
     public Set<String> getPaqueras(String chave) {
-        String login;
-        if (sessoes.containsKey(chave)) {
-            login = validar(chave);
-        } else {
-            login = chave;
-            if (!usuarios.containsKey(login)) throw new UsuarioNaoCadastradoException();
+        String login = resolverLogin(chave);
+        try (Trava t = travas.travar(login)) {
+            return usuario(login).getPaqueras();
+        }
+    }
+
+    /**
+     * Retorna uma página das paqueras de um usuário.
+     *
+     * @param chave A chave de sessão ou o login do usuário.
+     * @param inicio A posição da primeira paquera.
+     * @param limite A quantidade máxima de paqueras.
+     * @return A página de paqueras.
+     * @throws UsuarioNaoCadastradoException Se o usuário não estiver cadastrado.
+     * @throws PaginaInvalidaException Se o início for negativo ou o limite não for positivo.
+     */
+    public Pagina getPaqueras(String chave, int inicio, int limite) {
+        String login = resolverLogin(chave);
+        try (Trava t = travas.travar(login)) {
+            return usuario(login).getPaqueras(inicio, limite);
         }
-        return usuarios.get(login).getPaqueras();
     }
 
     // ** Inimizades **
 
     /**
-     * Adiciona um inimigo a um usurio.
+     * Adiciona um inimigo a um usuário.
      *
-     * @param sessao A sesso do usurio.
+     * @param sessao A sessão do usuário.
      * @param inimigo O login do inimigo.
-     * @throws UsuarioNaoPodeSerInimigoDeSiMesmoException Se o usurio tentar ser inimigo de si mesmo.
-     * @throws UsuarioNaoCadastradoException Se o inimigo no estiver cadastrado.
-     * @throws UsuarioJaEstaInimigoException Se j existe uma inimigo.
+     * @throws UsuarioNaoPodeSerInimigoDeSiMesmoException Se o usuário tentar ser inimigo de si mesmo.
+     * @throws UsuarioNaoCadastradoException Se o inimigo não estiver cadastrado.
+     * @throws UsuarioJaEstaInimigoException Se já existe uma inimigo.
      */
     public void adicionarInimigo(String sessao, String inimigo) {
+        aplicarAdicionarInimigo(validar(sessao), inimigo);
+    }
+
+    /**
+     * Adiciona um inimigo ao usuário com o login fornecido. Também usado na reprodução do registro de operações.
+     *
+     * @param sol O login do usuário solicitante.
+     * @param inimigo O login do inimigo.
+     */
+    private void aplicarAdicionarInimigo(String sol, String inimigo) {
+        try (Trava t = travas.travar(sol, inimigo)) {
+            Usuario uSol = usuario(sol);
+            Usuario uInimigo = usuario(inimigo);
+            if (sol.equals(inimigo)) throw new UsuarioNaoPodeSerInimigoDeSiMesmoException();
+            if (uSol.ehInimigo(inimigo)) throw new UsuarioJaEstaInimigoException();
+            uSol.adicionarInimigo(inimigo);
+            indexar(inimigoDe, inimigo, sol);
+            uInimigo.relacoesAlteradas();
+            registrar(TipoOperacao.ADICIONAR_INIMIGO, sol, inimigo);
+        }
+    }
+
+    // ** Sugestões de amizade **
+
+    /**
+     * Sugere amigos ao usuário da sessão. Os candidatos são os amigos dos seus amigos e os membros das
+     * suas comunidades, ordenados pela quantidade de amigos em comum, depois pela de comunidades em comum
+     * e por fim pelo login. Ficam de fora o próprio usuário, os seus amigos, quem ele tem como inimigo ou
+     * o tem como inimigo e quem tem convite de amizade pendente com ele, em qualquer sentido.
+     *
+     * <p>Os amigos dos amigos são lidos das visões imutáveis (ver {@link #visao}), sem trava na maior
+     * parte dos casos; as pontuações ficam num {@link ContagemInteiros} e só as {@code k} melhores são
+     * mantidas, num {@link MelhoresK}. Comunidades com mais de {@code -Djackut.sugestoes.limiteComunidade}
+     * membros (1000 por padrão) não contam.</p>
+     *
+     * <p>O resultado é guardado por login ({@code -Djackut.sugestoes.cache}, habilitado por padrão) e vale
+     * até que mudem as amizades, convites, inimigos ou comunidades do próprio usuário, ou até passar
+     * {@code -Djackut.sugestoes.validadeMs} (1 minuto por padrão), que limita o atraso em refletir
+     * mudanças mais distantes, como novas amizades dos seus amigos.</p>
+     *
+     * @param sessao A sessão do usuário.
+     * @param k A quantidade máxima de sugestões, reduzida a {@link Pagina#LIMITE_MAXIMO}.
+     * @return Os logins sugeridos, do mais para o menos indicado.
+     * @throws QuantidadeDeSugestoesInvalidaException Se k não for positivo.
+     */
+    public List<String> sugerirAmigos(String sessao, int k) {
+        String lg = validar(sessao);
+        if (k <= 0) throw new QuantidadeDeSugestoesInvalidaException();
+        k = Math.min(k, Pagina.LIMITE_MAXIMO);
+        if (CACHE_SUGESTOES) {
+            Sugestoes s = sugestoes.get(lg);
+            if (s != null && s.servem(mapaUsuarios().getCarregado(lg), k)) return s.primeiras(k);
+        }
+        Sugestoes s = calcularSugestoes(lg, Math.max(k, MINIMO_SUGESTOES));
+        if (CACHE_SUGESTOES) sugestoes.put(lg, s);
+        return s.primeiras(k);
+    }
+
+    /**
+     * Calcula as sugestões de amizade de um usuário. Só os relacionamentos do próprio usuário são lidos
+     * com a sua trava; os dos amigos e os membros das comunidades são lidos depois, um a um.
+     *
+     * @param lg O login do usuário.
+     * @param k A quantidade máxima de sugestões.
+     * @return As sugestões.
+     */
+    private Sugestoes calcularSugestoes(String lg, int k) {
+        Usuario u;
+        int versao;
+        int[] amigos;
+        String[] nomesComunidades;
+        ContagemInteiros pontos;
+        try (Trava t = travas.travar(lg)) {
+            u = usuario(lg);
+            versao = u.getVersaoRelacoes();
+            amigos = u.getIdsAmigos();
+            nomesComunidades = u.getComunidadesParticipando().toArray(new String[0]);
+            pontos = new ContagemInteiros(amigos.length * 16);
+            // membros de comunidades podem ainda não ter id; o próprio usuário recebe um para ser excluído
+            pontos.excluir(dicionario.id(lg));
+            for (int id : amigos) pontos.excluir(id);
+            for (int id : u.getIdsInimigos()) pontos.excluir(id);
+            for (int id : u.getIdsConvitesPendentes()) pontos.excluir(id);
+            excluir(pontos, inimigoDe.get(lg));
+            excluir(pontos, convitesEnviados.get(lg));
+        }
+
+        for (int id : amigos) {
+            Usuario.Visao v;
+            try {
+                v = visao(dicionario.login(id));
+            } catch (UsuarioNaoCadastradoException e) {
+                continue; // removido depois que os amigos foram lidos
+            }
+            for (int i = 0; i < v.getQuantidadeAmigos(); i++) pontos.somar(v.getIdAmigo(i), PESO_AMIGO_EM_COMUM);
+        }
+        for (String nome : nomesComunidades) {
+            try (Trava t = travas.travar(COM + nome)) {
+                Comunidade c = comunidades.get(nome);
+                if (c == null || c.getMembros().size() > LIMITE_COMUNIDADE_SUGESTOES) continue;
+                for (String m : c.getMembros()) pontos.somar(dicionario.id(m), 1);
+            }
+        }
+
+        MelhoresK melhores = new MelhoresK(k, (a, b) -> dicionario.login(a).compareTo(dicionario.login(b)));
+        for (int p = 0; p < pontos.posicoes(); p++) {
+            long v = pontos.valorEm(p);
+            if (v > 0) melhores.oferecer(pontos.chaveEm(p), v);
+        }
+        int[] ids = melhores.extrair();
+        List<String> logins = new ArrayList<>(ids.length);
+        for (int id : ids) logins.add(dicionario.login(id));
+        return new Sugestoes(u, versao, k, logins);
+    }
+
+    /**
+     * Exclui das sugestões os ids de um conjunto de um índice reverso.
+     *
+     * @param pontos As pontuações.
+     * @param ids Os ids, ou null.
+     */
+    private static void excluir(ContagemInteiros pontos, ConjuntoInteiros ids) {
+        if (ids == null) return;
+        for (int i = 0; i < ids.tamanho(); i++) pontos.excluir(ids.get(i));
+    }
+
+    /**
+     * Sugestões calculadas para um usuário, com a versão dos relacionamentos em que se basearam.
+     */
+    private static final class Sugestoes {
+        private final Usuario usuario;
+        private final int versao;
+        private final int k;
+        private final long calculadasEm = System.nanoTime();
+        private final List<String> logins;
+
+        Sugestoes(Usuario usuario, int versao, int k, List<String> logins) {
+            this.usuario = usuario;
+            this.versao = versao;
+            this.k = k;
+            this.logins = Collections.unmodifiableList(logins);
+        }
+
+        /**
+         * Verifica se as sugestões ainda valem para o usuário e atendem a um pedido de {@code k} sugestões.
+         *
+         * @param u O usuário materializado, ou null.
+         * @param k A quantidade pedida.
+         * @return True se as sugestões puderem ser devolvidas.
+         */
+        boolean servem(Usuario u, int k) {
+            return u == usuario && u.getVersaoRelacoes() == versao
+                    && System.nanoTime() - calculadasEm < VALIDADE_SUGESTOES
+                    && (k <= this.k || logins.size() < this.k);
+        }
+
+        List<String> primeiras(int k) {
+            return logins.size() <= k ? logins : logins.subList(0, k);
+        }
+    }
+
+    // ** Busca **
+
+    /**
+     * Busca usuários pelo login, pelo nome e pelos valores dos atributos do perfil. A consulta é quebrada
+     * em palavras, sem diferença entre maiúsculas e minúsculas nem entre letras com e sem acento; todas as
+     * palavras precisam aparecer no perfil, e uma palavra terminada em {@code *} casa com qualquer palavra
+     * que comece com ela. Os resultados são ordenados por relevância (ver {@link IndiceInvertido}).
+     *
+     * <p>O índice é montado na primeira busca, com todas as travas (e, com usuários sob demanda,
+     * materializando todos os usuários); a partir daí, cada alteração de perfil o atualiza.</p>
+     *
+     * @param consulta As palavras buscadas.
+     * @param k A quantidade máxima de resultados, reduzida a {@link Pagina#LIMITE_MAXIMO}.
+     * @return Os logins encontrados, do mais para o menos relevante.
+     * @throws QuantidadeDeResultadosInvalidaException Se k não for positivo.
+     */
+    public List<String> buscarUsuarios(String consulta, int k) {
+        if (k <= 0) throw new QuantidadeDeResultadosInvalidaException();
+        IndiceInvertido i = buscaUsuarios;
+        if (i == null) i = construirIndicesBusca()[0];
+        return i.buscar(consulta, Math.min(k, Pagina.LIMITE_MAXIMO));
+    }
+
+    /**
+     * Busca comunidades pelo nome e pela descrição, com as mesmas regras de {@link #buscarUsuarios}.
+     *
+     * @param consulta As palavras buscadas.
+     * @param k A quantidade máxima de resultados, reduzida a {@link Pagina#LIMITE_MAXIMO}.
+     * @return Os nomes das comunidades encontradas, da mais para a menos relevante.
+     * @throws QuantidadeDeResultadosInvalidaException Se k não for positivo.
+     */
+    public List<String> buscarComunidades(String consulta, int k) {
+        if (k <= 0) throw new QuantidadeDeResultadosInvalidaException();
+        IndiceInvertido i = buscaComunidades;
+        if (i == null) i = construirIndicesBusca()[1];
+        return i.buscar(consulta, Math.min(k, Pagina.LIMITE_MAXIMO));
+    }
+
+    /**
+     * Monta os índices de busca, se ainda não existirem, com todas as travas adquiridas.
+     *
+     * @return Os índices de usuários e de comunidades.
+     */
+    private IndiceInvertido[] construirIndicesBusca() {
+        try (Trava t = travas.travarTodas()) {
+            if (buscaUsuarios == null) {
+                // em ordem alfabética, que é a ordem dos empates nas buscas
+                IndiceInvertido iu = new IndiceInvertido(), ic = new IndiceInvertido();
+                List<Usuario> us = new ArrayList<>(usuarios.values());
+                us.sort(Comparator.comparing(Usuario::getLogin));
+                for (Usuario u : us) iu.atualizar(u.getLogin(), u.getTextosPerfil());
+                for (Comunidade c : new TreeMap<>(comunidades).values()) ic.atualizar(c.getNome(), Arrays.asList(c.getNome(), c.getDescricao()));
+                buscaComunidades = ic;
+                buscaUsuarios = iu;
+            }
+            return new IndiceInvertido[] { buscaUsuarios, buscaComunidades };
+        }
+    }
+
+    /**
+     * Atualiza o perfil de um usuário no índice de busca, se ele já existir; deve ser chamado com a trava
+     * do login adquirida.
+     *
+     * @param u O usuário.
+     */
+    private void indexarPerfil(Usuario u) {
+        IndiceInvertido i = buscaUsuarios;
+        if (i != null) i.atualizar(u.getLogin(), u.getTextosPerfil());
+    }
+
+    /**
+     * Acrescenta uma comunidade ao índice de busca, se ele já existir; deve ser chamado com a trava da
+     * comunidade adquirida.
+     *
+     * @param c A comunidade.
+     */
+    private void indexarComunidade(Comunidade c) {
+        IndiceInvertido i = buscaComunidades;
+        if (i != null) i.atualizar(c.getNome(), Arrays.asList(c.getNome(), c.getDescricao()));
+    }
+
+    // ** Índices de atributos **
+
+    /**
+     * Retorna uma página dos usuários com um valor exato num atributo indexado
+     * ({@code -Djackut.perfil.atributosIndexados}, uma lista separada por vírgulas), sem percorrer os
+     * demais usuários: o custo é o da página.
+     *
+     * <p>O índice é montado na primeira consulta, com todas as travas (e, com usuários sob demanda,
+     * materializando todos os usuários); a partir daí, cada edição de perfil o atualiza.</p>
+     *
+     * @param atributo O nome do atributo.
+     * @param valor O valor procurado, comparado exatamente.
+     * @param inicio A posição do primeiro usuário.
+     * @param limite A quantidade máxima de usuários.
+     * @return A página de logins, na ordem em que os usuários receberam o valor (os que já o tinham
+     * quando o índice foi montado vêm antes, em ordem alfabética).
+     * @throws AtributoNaoIndexadoException Se o atributo não for indexado.
+     * @throws PaginaInvalidaException Se o início for negativo ou o limite não for positivo.
+     */
+    public Pagina getUsuariosComAtributo(String atributo, String valor, int inicio, int limite) {
+        if (!ATRIBUTOS_INDEXADOS.contains(atributo)) throw new AtributoNaoIndexadoException();
+        IndiceAtributos i = indiceAtributos;
+        if (i == null) i = construirIndiceAtributos();
+        return i.consultar(atributo, valor, ids -> Pagina.de(ids, dicionario, inicio, limite));
+    }
+
+    /**
+     * Monta o índice de atributos, se ainda não existir, com todas as travas adquiridas. Os perfis passam
+     * a usar as instâncias dos valores guardadas no índice.
+     *
+     * @return O índice.
+     */
+    private IndiceAtributos construirIndiceAtributos() {
+        try (Trava t = travas.travarTodas()) {
+            if (indiceAtributos == null) {
+                IndiceAtributos i = new IndiceAtributos(ATRIBUTOS_INDEXADOS);
+                List<Usuario> us = new ArrayList<>(usuarios.values());
+                us.sort(Comparator.comparing(Usuario::getLogin));
+                for (Usuario u : us) {
+                    for (String a : ATRIBUTOS_INDEXADOS) {
+                        String v = u.getValorAtributo(a);
+                        if (v == null) continue;
+                        String unico = i.atualizar(a, dicionario.id(u.getLogin()), null, v);
+                        if (unico != v) u.editarAtributo(a, unico);
+                    }
+                }
+                indiceAtributos = i;
+            }
+            return indiceAtributos;
+        }
+    }
+
+    /**
+     * Troca o valor de um atributo de um usuário no índice de atributos, se ele já existir e indexar o
+     * atributo; deve ser chamado com a trava do login adquirida.
+     *
+     * @param lg O login do usuário.
+     * @param atr O nome do atributo.
+     * @param antigo O valor anterior, ou null.
+     * @param novo O novo valor, ou null.
+     * @return O valor a guardar no perfil: a instância guardada no índice, se houver.
+     */
+    private String indexarAtributo(String lg, String atr, String antigo, String novo) {
+        IndiceAtributos i = indiceAtributos;
+        if (i == null || !i.indexa(atr)) return novo;
+        return i.atualizar(atr, dicionario.id(lg), antigo, novo);
+    }
+
+    /**
+     * @return Os nomes dos atributos indexados, lidos de {@code -Djackut.perfil.atributosIndexados}.
+     */
+    private static Set<String> lerAtributosIndexados() {
+        Set<String> r = new LinkedHashSet<>();
+        for (String a : Configuracao.texto("perfil.atributosIndexados", "").split(",")) {
+            if (!a.trim().isEmpty()) r.add(a.trim());
+        }
+        return Collections.unmodifiableSet(r);
+    }
+
+    // ** Análise da rede **
+
+    /**
+     * Analisa a forma da rede (distribuições de amigos e fãs, componentes conexas, sobreposição entre
+     * comunidades) com {@link AnaliseRede}.
+     *
+     * <p>A fotografia da rede é montada com todas as travas, mas só junta as visões imutáveis dos usuários
+     * e copia as listas de membros das comunidades; os cálculos são feitos depois, sem travas, enquanto o
+     * sistema continua atendendo normalmente.</p>
+     *
+     * @param paralelismo A quantidade de threads dos cálculos.
+     * @return O relatório da análise.
+     */
+    public RelatorioRede analisarRede(int paralelismo) {
+        FotografiaRede f;
+        try (Trava t = travas.travarTodas()) {
+            f = fotografarRede();
+        }
+        return AnaliseRede.analisar(f, paralelismo);
+    }
+
+    /**
+     * Monta a fotografia da rede; deve ser chamado com todas as travas adquiridas.
+     *
+     * @return A fotografia.
+     */
+    private FotografiaRede fotografarRede() {
+        long inicio = System.nanoTime();
+        int n = usuarios.size(), i = 0;
+        int[] ids = new int[n], nFas = new int[n];
+        Usuario.Visao[] visoes = new Usuario.Visao[n];
+        for (Map.Entry<String, Usuario> e : usuarios.entrySet()) {
+            ids[i] = dicionario.id(e.getKey());
+            visoes[i] = e.getValue().atualizarVisao();
+            ConjuntoInteiros f = fas.get(e.getKey());
+            nFas[i++] = f == null ? 0 : f.tamanho();
+        }
+        String[] nomes = new String[comunidades.size()];
+        String[][] membros = new String[nomes.length][];
+        int c = 0;
+        for (Comunidade com : comunidades.values()) {
+            nomes[c] = com.getNome();
+            membros[c++] = com.getMembros().toArray(new String[0]);
+        }
+        return new FotografiaRede(dicionario, Arrays.copyOf(ids, i), Arrays.copyOf(visoes, i),
+                Arrays.copyOf(nFas, i), Arrays.copyOf(nomes, c), Arrays.copyOf(membros, c),
+                System.nanoTime() - inicio);
+    }
+
+    // ** Operações em lote **
+
+    /**
+     * Cria vários usuários. Os itens são validados antes de qualquer alteração e aplicados em blocos:
+     * os hashes das senhas de cada bloco são derivados em paralelo pelo {@link Autenticador}, sem travas;
+     * depois, o bloco adquire as travas de todos os seus logins de uma vez e grava suas operações num
+     * único registro de lote. O estado final é o mesmo de chamar {@link #criarUsuario} para cada item, na
+     * ordem.
+     *
+     * @param itens Os usuários, cada um como {login, senha, nome}.
+     * @return O resultado de cada item.
+     */
+    public ResultadoLote criarUsuarios(List<String[]> itens) {
+        ResultadoLote r = new ResultadoLote(itens.size());
+        for (int i = 0; i < itens.size(); i++) {
+            String[] it = itens.get(i);
+            try { validarNovoUsuario(it[0], it[1]); }
+            catch (RuntimeException e) { r.falhar(i, e); }
+        }
+        for (int de = 0; de < itens.size(); de += TAMANHO_BLOCO) {
+            int ate = Math.min(itens.size(), de + TAMANHO_BLOCO);
+            List<String> chaves = new ArrayList<>(ate - de);
+            List<String> senhas = new ArrayList<>(ate - de);
+            for (int i = de; i < ate; i++) {
+                if (!r.ok(i)) continue;
+                // logins já usados falham abaixo, com a trava; não vale derivar o hash deles
+                if (usuarios.containsKey(itens.get(i)[0])) r.falhar(i, new ContaComEsseNomeJaExisteException());
+                else {
+                    chaves.add(itens.get(i)[0]);
+                    senhas.add(itens.get(i)[1]);
+                }
+            }
+            Iterator<String> credenciais = autenticador.gerarTodos(senhas).iterator();
+            List<String[]> feitos = new ArrayList<>(chaves.size());
+            try (Trava t = travas.travar(chaves.toArray(new String[0]))) {
+                for (int i = de; i < ate; i++) {
+                    if (!r.ok(i)) continue;
+                    String[] it = itens.get(i);
+                    String credencial = credenciais.next();
+                    try {
+                        criarUsuarioTravado(it[0], credencial, it[2]);
+                        feitos.add(new String[] {it[0], credencial, it[2]});
+                    } catch (RuntimeException e) { r.falhar(i, e); }
+                }
+                registrarLote(TipoOperacao.CRIAR_USUARIO_CREDENCIAL, feitos);
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Adiciona vários amigos (ou convites de amizade) em nome de um usuário, validando a sessão uma única
+     * vez. O estado final é o mesmo de chamar {@link #adicionarAmigo} para cada amigo, na ordem.
+     *
+     * @param sessao A sessão do usuário.
+     * @param amigos Os logins dos amigos.
+     * @return O resultado de cada item.
+     * @throws UsuarioNaoCadastradoException Se a sessão não for válida.
+     */
+    public ResultadoLote adicionarAmigos(String sessao, List<String> amigos) {
         String sol = validar(sessao);
-        Usuario uSol = usuarios.get(sol);
-        Usuario ui   = usuarios.get(inimigo);
-        if (ui == null) throw new UsuarioNaoCadastradoException();
-        if (sol.equals(inimigo)) throw new UsuarioNaoPodeSerInimigoDeSiMesmoException();
-        if (uSol.ehInimigo(inimigo)) throw new UsuarioJaEstaInimigoException();
-        uSol.adicionarInimigo(inimigo);
+        ResultadoLote r = new ResultadoLote(amigos.size());
+        for (int i = 0; i < amigos.size(); i++) {
+            if (amigos.get(i) == null) r.falhar(i, new UsuarioNaoCadastradoException());
+        }
+        for (int de = 0; de < amigos.size(); de += TAMANHO_BLOCO) {
+            int ate = Math.min(amigos.size(), de + TAMANHO_BLOCO);
+            List<String> chaves = new ArrayList<>(ate - de + 1);
+            chaves.add(sol);
+            for (int i = de; i < ate; i++) if (r.ok(i)) chaves.add(amigos.get(i));
+            List<String[]> feitos = new ArrayList<>(chaves.size());
+            try (Trava t = travas.travar(chaves.toArray(new String[0]))) {
+                // os convites enviados por sol crescem até o tamanho do lote; reservá-los evita as realocações
+                if (de == 0) convitesEnviados.computeIfAbsent(sol, k -> new ConjuntoInteiros()).reservar(amigos.size());
+                for (int i = de; i < ate; i++) {
+                    if (!r.ok(i)) continue;
+                    try {
+                        adicionarAmigoTravado(sol, amigos.get(i));
+                        feitos.add(new String[] {sol, amigos.get(i)});
+                    } catch (RuntimeException e) { r.falhar(i, e); }
+                }
+                registrarLote(TipoOperacao.ADICIONAR_AMIGO, feitos);
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Adiciona vários usuários, identificados pelas suas sessões, a uma comunidade. As sessões são
+     * validadas antes de qualquer alteração. O estado final é o mesmo de chamar
+     * {@link #adicionarComunidade} para cada sessão, na ordem.
+     *
+     * @param nome O nome da comunidade.
+     * @param sessoesMembros As sessões dos usuários.
+     * @return O resultado de cada item.
+     * @throws ComunidadeNaoExisteException Se a comunidade não existir.
+     */
+    public ResultadoLote adicionarMembros(String nome, List<String> sessoesMembros) {
+        ResultadoLote r = new ResultadoLote(sessoesMembros.size());
+        String[] logins = new String[sessoesMembros.size()];
+        for (int i = 0; i < logins.length; i++) {
+            try { logins[i] = validar(sessoesMembros.get(i)); }
+            catch (RuntimeException e) { r.falhar(i, e); }
+        }
+        for (int de = 0; de < logins.length; de += TAMANHO_BLOCO) {
+            int ate = Math.min(logins.length, de + TAMANHO_BLOCO);
+            List<String> chaves = new ArrayList<>(ate - de + 1);
+            chaves.add(COM + nome);
+            for (int i = de; i < ate; i++) if (r.ok(i)) chaves.add(logins[i]);
+            List<String[]> feitos = new ArrayList<>(chaves.size());
+            try (Trava t = travas.travar(chaves.toArray(new String[0]))) {
+                Comunidade c = comunidade(nome);
+                if (de == 0) c.reservarMembros(logins.length);
+                for (int i = de; i < ate; i++) {
+                    if (!r.ok(i)) continue;
+                    try {
+                        adicionarComunidadeTravado(logins[i], c);
+                        feitos.add(new String[] {logins[i], nome});
+                    } catch (RuntimeException e) { r.falhar(i, e); }
+                }
+                registrarLote(TipoOperacao.ADICIONAR_COMUNIDADE, feitos);
+            }
+        }
+        return r;
     }
 
-    // ** Remoo de conta **
+    // ** Remoção de conta **
 
     /**
-     * Remove um usurio do sistema, excluindo-o juntamente com suas sesses e dados.
+     * Remove um usuário do sistema, excluindo-o juntamente com suas sessões e dados.
      *
-     * @param sessao A sesso do usurio a ser removido.
-     * @throws UsuarioNaoCadastradoException Se o usurio no estiver cadastrado.
+     * @param sessao A sessão do usuário a ser removido.
+     * @throws UsuarioNaoCadastradoException Se o usuário não estiver cadastrado.
      */
     public void removerUsuario(String sessao) {
-        String lg = validar(sessao);
+        // recados pendentes de e para o usuário não podem ser entregues a uma conta recriada com o mesmo login
+        aguardarEntregas();
+        try (Trava t = travas.travarTodas()) {
+            String lg = validar(sessao);
+            Set<String> alterados = new HashSet<>(), comunidadesAlteradas = new HashSet<>();
+            removerUsuarioTravado(lg, alterados, comunidadesAlteradas);
+            armazenamento.registrarRemocao(lg, alterados, comunidadesAlteradas);
+        }
+    }
 
-        // 1) remove usurio e suas sesses
-        usuarios.remove(lg);
-        sessoes.entrySet().removeIf(e -> e.getValue().equals(lg));
+    /**
+     * Remove um usuário do sistema; deve ser chamado com todas as travas adquiridas.
+     *
+     * <p>Só são visitados os usuários e as comunidades ligados ao removido, encontrados pelos seus
+     * próprios relacionamentos e pelos índices reversos; o custo é proporcional a essas ligações, e não
+     * à quantidade de usuários do sistema.</p>
+     *
+     * @param lg O login do usuário a ser removido.
+     * @param alterados Recebe os logins dos outros usuários alterados.
+     * @param comunidadesAlteradas Recebe os nomes das comunidades alteradas ou apagadas.
+     */
+    private void removerUsuarioTravado(String lg, Set<String> alterados, Set<String> comunidadesAlteradas) {
+
+        // 1) remove usuário e suas sessões; as sugestões guardadas podem citá-lo
+        Usuario removido = usuarios.remove(lg);
+        sessoes.revogar(lg);
+        autenticador.esquecer(lg);
+        sugestoes.clear();
+        IndiceInvertido iu = buscaUsuarios, ic = buscaComunidades;
+        if (iu != null) iu.remover(lg);
+        for (String a : ATRIBUTOS_INDEXADOS) indexarAtributo(lg, a, removido.getValorAtributo(a), null);
+
+        // 2) amizades e convites pendentes, nos dois sentidos
+        for (String a : removido.getAmigos()) usuarios.get(a).removerAmigo(lg);
+        alterados.addAll(removido.getAmigos());
+        for (String de : removido.getConvitesPendentes()) desindexar(convitesEnviados, de, lg);
+        paraCada(convitesEnviados.remove(lg), alterados, u -> u.removerConvite(lg));
+
+        // 3) ídolos e fãs, paqueras e inimigos: deixa as listas dos outros e some das listas que o citam
+        for (String idolo : removido.getIdolos()) desindexar(fas, idolo, lg);
+        alterados.addAll(removido.getIdolos());
+        paraCada(fas.remove(lg), alterados, u -> u.removerIdolo(lg));
+        for (String p : removido.getPaqueras()) desindexar(paqueradoPor, p, lg);
+        paraCada(paqueradoPor.remove(lg), alterados, u -> u.removerPaquera(lg));
+        for (String i : removido.getInimigos()) desindexar(inimigoDe, i, lg);
+        paraCada(inimigoDe.remove(lg), alterados, u -> u.removerInimigo(lg));
+
+        // 4) os recados recebidos somem com o usuário; os enviados e ainda não lidos são apagados
+        for (String r : removido.getRemetentesRecados()) desindexar(recadosEnviados, r, lg);
+        paraCada(recadosEnviados.remove(lg), alterados, u -> u.removerRecadosDe(lg));
 
-        // 2) remove comunidades de que era dono
-        comunidades.entrySet().removeIf(en -> en.getValue().getDono().equals(lg));
+        // 5) comunidades de que era dono somem para todos os membros; nas demais, deixa de ser membro
+        for (String nome : removido.getComunidadesParticipando()) {
+            Comunidade c = comunidades.get(nome);
+            if (c == null) continue;
+            comunidadesAlteradas.add(nome);
+            if (!c.getDono().equals(lg)) {
+                c.removerMembro(lg);
+                continue;
+            }
+            comunidades.remove(nome);
+            if (ic != null) ic.remover(nome);
+            for (String m : c.getMembros()) {
+                Usuario u = m.equals(lg) ? null : usuarios.get(m);
+                if (u == null) continue;
+                u.removerComunidadeParticipa(nome);
+                alterados.add(m);
+            }
+        }
+
+        // 6) mensagens enviadas às comunidades que continuam existindo
+        Set<String> comMensagens = comunidadesComMensagens.remove(lg);
+        if (comMensagens != null) {
+            for (String nome : comMensagens) {
+                Comunidade c = comunidades.get(nome);
+                if (c == null) continue;
+                c.removerMensagensDe(lg);
+                comunidadesAlteradas.add(nome);
+            }
+        }
+    }
+
+    /**
+     * Aplica uma ação a cada usuário de um conjunto de ids, ignorando os que já não existem.
+     *
+     * @param ids Os ids dos usuários, ou null.
+     * @param alterados Recebe os logins dos usuários aos quais a ação foi aplicada.
+     * @param acao A ação.
+     */
+    private void paraCada(ConjuntoInteiros ids, Set<String> alterados, Consumer<Usuario> acao) {
+        if (ids == null) return;
+        for (int i = 0; i < ids.tamanho(); i++) {
+            Usuario u = usuarios.get(dicionario.login(ids.get(i)));
+            if (u == null) continue;
+            acao.accept(u);
+            alterados.add(u.getLogin());
+        }
+    }
+
+    // ** Índices reversos **
+
+    /**
+     * Acrescenta um login ao conjunto de um alvo num índice reverso; deve ser chamado com a trava do alvo adquirida.
+     *
+     * @param indice O índice.
+     * @param alvo O login usado como chave.
+     * @param origem O login acrescentado.
+     */
+    private void indexar(Map<String, ConjuntoInteiros> indice, String alvo, String origem) {
+        indice.computeIfAbsent(alvo, k -> new ConjuntoInteiros()).adicionar(dicionario.id(origem));
+    }
+
+    /**
+     * Retira um login do conjunto de um alvo num índice reverso; deve ser chamado com a trava do alvo adquirida.
+     *
+     * @param indice O índice.
+     * @param alvo O login usado como chave.
+     * @param origem O login retirado.
+     */
+    private void desindexar(Map<String, ConjuntoInteiros> indice, String alvo, String origem) {
+        ConjuntoInteiros c = indice.get(alvo);
+        if (c != null) c.remover(dicionario.id(origem));
+    }
 
-        // 3) limpa membros e histrico de comunidadesParticipando
-        Collection<String> existentes = comunidades.keySet();
+    /**
+     * Reconstrói os índices reversos de paqueras, inimigos, convites e recados a partir dos usuários,
+     * para snapshots gravados antes de esses índices existirem e para os armazenamentos por registro,
+     * que não os gravam. Os recados cujo remetente não é conhecido (snapshots anteriores à versão 4)
+     * ficam fora do índice.
+     */
+    private void reconstruirIndicesRemocao() {
+        paqueradoPor     = new ConcurrentHashMap<>();
+        inimigoDe        = new ConcurrentHashMap<>();
+        convitesEnviados = new ConcurrentHashMap<>();
+        recadosEnviados  = new ConcurrentHashMap<>();
         for (Usuario u : usuarios.values()) {
-            u.getAmigos().remove(lg);
-            u.getPaqueras().remove(lg);
-            u.limparRecados();
-            u.limparMensagens();
-            u.limparComunidadesParticipando(existentes);
+            String lg = u.getLogin();
+            for (String p : u.getPaqueras()) indexar(paqueradoPor, p, lg);
+            for (String i : u.getInimigos()) indexar(inimigoDe, i, lg);
+            for (String de : u.getConvitesPendentes()) indexar(convitesEnviados, de, lg);
+            for (String r : u.getRemetentesRecados()) indexar(recadosEnviados, r, lg);
+        }
+    }
+
+    /**
+     * Refaz o índice de comunidades com mensagens de cada autor a partir dos registros das comunidades.
+     */
+    private void indexarMensagens() {
+        comunidadesComMensagens.clear();
+        for (Comunidade c : comunidades.values()) {
+            for (String autor : c.getAutores())
+                comunidadesComMensagens.computeIfAbsent(autor, k -> ConcurrentHashMap.newKeySet()).add(c.getNome());
         }
     }
 
     /**
-     * Valida a sesso de um usurio.
+     * Valida a sessão de um usuário.
      *
-     * @param sessao A sesso a ser validada.
-     * @return O login do usurio.
-     * @throws UsuarioNaoCadastradoException Se a sesso no for vlida.
+     * @param sessao A sessão a ser validada.
+     * @return O login do usuário.
+     * @throws UsuarioNaoCadastradoException Se a sessão não for válida.
      */
     private String validar(String sessao) {
-        String lg = sessoes.get(sessao);
+        String lg = sessoes.validar(sessao);
         if (lg == null) throw new UsuarioNaoCadastradoException();
         return lg;
     }
 
     /**
-     * Salva os dados do sistema no arquivo.
+     * Resolve uma chave que pode ser uma sessão ativa ou o login de um usuário.
+     *
+     * @param chave A chave de sessão ou o login do usuário.
+     * @return O login do usuário.
+     * @throws UsuarioNaoCadastradoException Se o usuário não estiver cadastrado.
+     */
+    private String resolverLogin(String chave) {
+        String lg = sessoes.validar(chave);
+        if (lg != null) return lg;
+        if (chave == null || !usuarios.containsKey(chave)) throw new UsuarioNaoCadastradoException();
+        return chave;
+    }
+
+    /**
+     * Busca um usuário pelo login; deve ser chamado com a trava do login adquirida.
+     *
+     * @param login O login do usuário.
+     * @return O usuário.
+     * @throws UsuarioNaoCadastradoException Se o usuário não estiver cadastrado.
+     */
+    private Usuario usuario(String login) {
+        Usuario u = login == null ? null : usuarios.get(login);
+        if (u == null) throw new UsuarioNaoCadastradoException();
+        return u;
+    }
+
+    /**
+     * Retorna a visão imutável de um usuário. Se o usuário já estiver materializado e a visão publicada
+     * estiver em dia, nenhuma trava é adquirida; caso contrário, a visão é montada com a trava do login.
+     *
+     * @param login O login do usuário.
+     * @return A visão do usuário.
+     * @throws UsuarioNaoCadastradoException Se o usuário não estiver cadastrado.
+     */
+    private Usuario.Visao visao(String login) {
+        Usuario u = login == null ? null : mapaUsuarios().getCarregado(login);
+        Usuario.Visao v = u == null ? null : u.getVisao();
+        if (v != null) return v;
+        try (Trava t = travas.travar(login)) {
+            return usuario(login).atualizarVisao();
+        }
+    }
+
+    /**
+     * Busca uma comunidade pelo nome; deve ser chamado com a trava da comunidade adquirida.
+     *
+     * @param nome O nome da comunidade.
+     * @return A comunidade.
+     * @throws ComunidadeNaoExisteException Se a comunidade não existir.
+     */
+    private Comunidade comunidade(String nome) {
+        Comunidade c = nome == null ? null : comunidades.get(nome);
+        if (c == null) throw new ComunidadeNaoExisteException();
+        return c;
+    }
+
+    // ** Registro de operações **
+
+    /**
+     * Grava uma operação no armazenamento; deve ser chamado com as travas da operação adquiridas, logo
+     * depois de a alteração ter sido aplicada. Durante a reprodução do registro não há o que gravar. No
+     * modo de durabilidade em grupo, espera o fsync com as travas: uma operação seguinte sobre as mesmas
+     * chaves nunca é confirmada antes desta.
+     *
+     * @param tipo O tipo da operação.
+     * @param args Os argumentos da operação.
+     */
+    private void registrar(TipoOperacao tipo, String... args) {
+        armazenamento.registrar(tipo, args);
+    }
+
+    /**
+     * Grava várias operações do mesmo tipo no armazenamento, de uma só vez.
+     *
+     * @param tipo O tipo das operações.
+     * @param args Os argumentos de cada operação.
+     */
+    private void registrarLote(TipoOperacao tipo, List<String[]> args) {
+        armazenamento.registrarLote(tipo, args);
+    }
+
+    /**
+     * Cria o armazenamento escolhido em {@code -Djackut.armazenamento}: {@code chaveValor}, {@code memoria}
+     * ou, por padrão, {@code arquivo}.
+     *
+     * @return O armazenamento, ainda não carregado.
+     */
+    private Armazenamento criarArmazenamento() {
+        switch (Configuracao.texto("armazenamento", "arquivo").trim().toLowerCase(Locale.ROOT)) {
+            case "chavevalor": return new ArmazenamentoChaveValor(new File(ARQ_KV), durabilidade, repositorios());
+            case "memoria":    return new ArmazenamentoMemoria(repositorios());
+            default:           return new Arquivo();
+        }
+    }
+
+    /**
+     * O armazenamento em arquivo: o snapshot em {@code jackut.dat}, gravado por {@link #salvarDados()} e
+     * {@link #gravarEmFundo()}, e o {@link RegistroOperacoes} em {@code jackut.log}.
+     */
+    private final class Arquivo implements Armazenamento {
+        private final AtomicLong lotes = new AtomicLong();
+        private final AtomicLong operacoes = new AtomicLong();
+
+        @Override
+        public void carregar(long inicio) throws Exception {
+            carregarDados(inicio);
+        }
+
+        @Override
+        public void registrar(TipoOperacao tipo, String... args) {
+            if (registro == null) return;
+            registro.registrar(tipo, args);
+            lotes.incrementAndGet();
+            operacoes.incrementAndGet();
+        }
+
+        @Override
+        public void registrarLote(TipoOperacao tipo, List<String[]> args) {
+            if (registro == null || args.isEmpty()) return;
+            registro.registrarLote(tipo, args);
+            lotes.incrementAndGet();
+            operacoes.addAndGet(args.size());
+        }
+
+        @Override
+        public void registrarRemocao(String login, Collection<String> usuarios, Collection<String> comunidades) {
+            registrar(TipoOperacao.REMOVER_USUARIO, login);
+        }
+
+        @Override
+        public void manter() {
+            compactarSeNecessario();
+        }
+
+        @Override
+        public void encerrar() {
+            salvarDados();
+            registro.close();
+        }
+
+        @Override
+        public File isolar() {
+            if (registro != null) registro.close();
+            File q = Quarentena.mover(ARQ, ARQ_LOG);
+            registro = abrirRegistro((tp, a) -> { });
+            return q;
+        }
+
+        @Override
+        public Metricas getMetricas() {
+            long tamanho = 0;
+            File[] fs = new File(".").listFiles((d, n) -> n.startsWith(ARQ) || n.startsWith(ARQ_LOG));
+            if (fs != null) for (File f : fs) tamanho += f.length();
+            return new Metricas("arquivo", lotes.get(), operacoes.get(), getMetricasRegistro().getSincronizacoes(),
+                    pontosGravados.get(), tamanho, -1);
+        }
+    }
+
+    /**
+     * Dá aos armazenamentos por registro acesso aos usuários e às comunidades: cada parte é codificada
+     * e decodificada no formato de snapshot, sem tabela de textos.
+     *
+     * @return O acesso ao estado do sistema.
+     */
+    private ArmazenamentoRegistros.Repositorios repositorios() {
+        return new ArmazenamentoRegistros.Repositorios() {
+            @Override
+            public byte[] codificar(ArmazenamentoRegistros.Repositorio r, String nome) throws IOException {
+                Comunidade c = null;
+                Usuario u = null;
+                if (r == ArmazenamentoRegistros.Repositorio.COMUNIDADES) c = comunidades.get(nome);
+                else u = usuarios.get(nome);
+                if (c == null && u == null) return null;
+                ByteArrayOutputStream b = new ByteArrayOutputStream(256);
+                try (SaidaSnapshot out = SaidaSnapshot.avulsa(b)) {
+                    switch (r) {
+                        case USUARIOS:        u.escreverPerfil(out); break;
+                        case RELACIONAMENTOS:
+                            u.escreverRelacoes(out);
+                            // os fãs vão junto, na ordem em que chegaram, que não se refaz a partir dos ídolos
+                            ConjuntoInteiros f = fas.get(nome);
+                            out.escreverVarint(f == null ? 0 : f.tamanho());
+                            if (f != null) for (int i = 0; i < f.tamanho(); i++) out.escreverLogin(dicionario.login(f.get(i)));
+                            break;
+                        case RECADOS:         u.escreverRecados(out); break;
+                        default:              c.escrever(out);
+                    }
+                }
+                return b.toByteArray();
+            }
+
+            @Override
+            public void decodificar(ArmazenamentoRegistros.Repositorio r, String nome, byte[] gravado)
+                    throws IOException {
+                EntradaSnapshot in = new EntradaSnapshot(ByteBuffer.wrap(gravado));
+                if (r == ArmazenamentoRegistros.Repositorio.USUARIOS) {
+                    Usuario u = Usuario.lerPerfil(in, dicionario);
+                    usuarios.put(u.getLogin(), u);
+                    return;
+                }
+                if (r == ArmazenamentoRegistros.Repositorio.COMUNIDADES) {
+                    Comunidade c = Comunidade.ler(in);
+                    comunidades.put(c.getNome(), c);
+                    return;
+                }
+                Usuario u = usuarios.get(nome);
+                if (u == null) throw new IOException("Registro de um usuário inexistente: " + nome);
+                if (r != ArmazenamentoRegistros.Repositorio.RELACIONAMENTOS) {
+                    u.lerRecados(in);
+                    return;
+                }
+                u.lerRelacoes(in);
+                int n = in.lerQuantidade();
+                if (n == 0) return;
+                ConjuntoInteiros f = new ConjuntoInteiros();
+                for (int i = 0; i < n; i++) f.adicionar(dicionario.id(in.lerLogin()));
+                fas.put(nome, f);
+            }
+
+            @Override
+            public Collection<String> comunidadesDe(String login) {
+                Usuario u = usuarios.get(login);
+                return u == null ? Collections.emptySet() : u.getComunidadesParticipando();
+            }
+
+            @Override
+            public void concluirCarga() {
+                reconstruirIndicesRemocao();
+                indexarMensagens();
+                // a sequência só precisa passar das mensagens ainda retidas
+                long s = 0;
+                for (Comunidade c : comunidades.values()) s = Math.max(s, c.getUltimaSequencia());
+                sequenciaMensagens.set(s);
+            }
+        };
+    }
+
+    /**
+     * Reaplica uma operação lida do registro durante a carga dos dados, ignorando só as que encontram o
+     * efeito já presente ou o alvo já ausente. Qualquer outra falha interrompe a carga, em vez de perder a
+     * operação em silêncio.
+     *
+     * @param tipo O tipo da operação.
+     * @param a Os argumentos gravados.
+     */
+    private void reaplicar(TipoOperacao tipo, String[] a) {
+        try {
+            aplicar(tipo, a);
+        } catch (ContaComEsseNomeJaExisteException | ComunidadeJaExisteException | UsuarioJaEstaAdicionadoException
+                 | UsuarioJaEstaAdicionadoEsperandoException | UsuarioJaEstaNaComunidadeException
+                 | UsuarioJaEstaIdoloException | UsuarioJaEstaPaqueraException | UsuarioJaEstaInimigoException
+                 | UsuarioNaoCadastradoException | ComunidadeNaoExisteException
+                 | NaoHaRecadosException | NaoHaMensagensException e) {
+            // a operação já não se aplica ao estado atual
+        }
+    }
+
+    /**
+     * Aplica uma operação lida do registro.
+     *
+     * @param tipo O tipo da operação.
+     * @param a Os argumentos gravados.
+     */
+    private void aplicar(TipoOperacao tipo, String[] a) {
+        switch (tipo) {
+            case ZERAR_SISTEMA:        reset(); break;
+            case CRIAR_USUARIO:        criarUsuarioTravado(a[0], Credencial.legada(a[1]), a[2]); break;
+            case CRIAR_USUARIO_CREDENCIAL: criarUsuarioTravado(a[0], a[1], a[2]); break;
+            case ATUALIZAR_CREDENCIAL: usuario(a[0]).setCredencial(a[1]); break;
+            case EDITAR_PERFIL:        aplicarEditarPerfil(a[0], a[1], a[2]); break;
+            case ADICIONAR_AMIGO:      aplicarAdicionarAmigo(a[0], a[1]); break;
+            case ENVIAR_RECADO:        reaplicarEnviarRecado(a); break;
+            case LER_RECADO:           aplicarLerRecado(a[0]); break;
+            case CRIAR_COMUNIDADE:     aplicarCriarComunidade(a[0], a[1], a[2]); break;
+            case ADICIONAR_COMUNIDADE: aplicarAdicionarComunidade(a[0], a[1]); break;
+            case ENVIAR_MENSAGEM:      aplicarEnviarMensagem(a[0], a[1], a[2], a.length > 3 ? Long.parseLong(a[3]) : 0); break;
+            case LER_MENSAGEM:         aplicarLerMensagem(a[0]); break;
+            case ADICIONAR_IDOLO:      aplicarAdicionarIdolo(a[0], a[1]); break;
+            case ADICIONAR_PAQUERA:    aplicarAdicionarPaquera(a[0], a[1]); break;
+            case ADICIONAR_INIMIGO:    aplicarAdicionarInimigo(a[0], a[1]); break;
+            case REMOVER_USUARIO:      removerUsuarioTravado(a[0], new HashSet<>(), new HashSet<>()); break;
+        }
+    }
+
+    /**
+     * Grava um snapshot e descarta o registro quando ele passa do limite configurado: em segundo plano
+     * ({@link #gravarEmFundo()}) ou, com {@code -Djackut.snapshot.emFundo=false} (o padrão com um só
+     * processador), com todas as travas.
+     * Executado periodicamente em uma thread de fundo.
+     */
+    private void compactarSeNecessario() {
+        if (registro.getRegistros() < LIMITE_COMPACTACAO) return;
+        try {
+            if (snapshotEmFundo) {
+                gravarEmFundo();
+                return;
+            }
+            try (Trava t = travas.travarTodas()) {
+                // o sistema pode ter sido encerrado enquanto as travas eram adquiridas
+                if (!compactacao.isCancelled()) salvarDados();
+            }
+        } catch (RuntimeException e) { e.printStackTrace(); }
+    }
+
+    /**
+     * Grava um snapshot sem parar o sistema. Numa pausa com todas as travas, separa o registro de
+     * operações e fixa o {@link PontoDeControle}, preparado antes; depois captura o que nenhuma operação
+     * tocou, em rajadas curtas com todas as travas, e grava o snapshot a partir das cópias, sem travas. O registro
+     * separado só é apagado depois de o snapshot estar no lugar. Se um snapshot mais recente foi gravado
+     * nesse meio tempo (pelo encerramento do sistema), este é descartado.
+     *
+     * @throws FalhaAoSalvarDadosException Se o snapshot não puder ser gravado.
+     */
+    private void gravarEmFundo() {
+        // a tabela de textos é montada antes da pausa; só precisa começar pela do snapshot mapeado
+        List<String> prefixo = mapaUsuarios().getTabela();
+        PontoDeControle p;
+        try {
+            p = new PontoDeControle(montarTabela(prefixo), mapaUsuarios(), comunidades,
+                    List.of(fas, paqueradoPor, inimigoDe, convitesEnviados, recadosEnviados), dicionario, travas, COM);
+        } catch (IOException e) {
+            throw new FalhaAoSalvarDadosException(e);
+        }
+        long inicio = System.nanoTime();
+        try (Trava t = travas.travarTodas()) {
+            // o sistema foi encerrado, ou o snapshot mapeado mudou: tenta de novo na próxima verificação
+            if (compactacao.isCancelled() || mapaUsuarios().getTabela() != prefixo) return;
+            p.fotografar(registro.rotacionar(), sequenciaMensagens.get(), inicio);
+            pontoDeControle = p;
+        }
+        p.varrer();
+        pontoDeControle = null;
+        ultimoPontoDeControle = p;
+
+        gravacao.lock();
+        try {
+            if (p.getFalha() != null || p.getUltimaOperacao() <= ultimaOperacao) {
+                pontosFalhos.incrementAndGet();
+                if (p.getFalha() != null) throw new FalhaAoSalvarDadosException(p.getFalha());
+                return;
+            }
+            gravarSnapshot(p.getUltimaOperacao(), p.getSequenciaMensagens(), p.getTabela(), p);
+            registro.descartarAnteriores(p.getUltimaOperacao());
+            p.marcarGravado();
+            pontosGravados.incrementAndGet();
+        } catch (RuntimeException e) {
+            pontosFalhos.incrementAndGet();
+            throw e;
+        } finally {
+            gravacao.unlock();
+        }
+    }
+
+    /**
+     * Observador das travas: captura o que a chave de uma trava recém-adquirida protege, se houver um ponto
+     * de controle sendo capturado.
+     *
+     * @param indice O índice da trava.
+     * @param chave A chave travada, ou null se a trava foi adquirida sem chave.
+     */
+    private void capturarFaixa(int indice, String chave) {
+        PontoDeControle p = pontoDeControle;
+        if (p != null) p.capturar(indice, chave);
+    }
+
+    /**
+     * Salva os dados do sistema no arquivo e trunca o registro de operações; deve ser chamado com
+     * todas as travas adquiridas. O snapshot é gravado em um arquivo temporário e depois renomeado,
+     * para que uma queda no meio da gravação não corrompa o snapshot anterior.
      */
     private void salvarDados() {
-        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(ARQ))) {
-            out.writeObject(this);
-        } catch(Exception e) { e.printStackTrace(); }
+        gravacao.lock();
+        try {
+            gravarSnapshot(registro.getSequencia(), sequenciaMensagens.get(), montarTabela(mapaUsuarios().getTabela()),
+                    estadoAtual());
+            registro.truncar();
+            if (USUARIOS_SOB_DEMANDA) {
+                // os usuários passam a ser lidos do novo arquivo e os materializados voltam a ser frios
+                try { remapearUsuarios(); }
+                catch (IOException e) { throw new FalhaAoSalvarDadosException(e); }
+            }
+        } finally {
+            gravacao.unlock();
+        }
     }
 
     /**
-     * Carrega os dados do sistema a partir do arquivo.
+     * Grava um snapshot em um arquivo temporário e o renomeia para {@code jackut.dat}; deve ser chamado
+     * com a trava de gravação adquirida.
+     *
+     * @param ultima A sequência da última operação contida no snapshot.
+     * @param mensagens A sequência das mensagens de comunidade.
+     * @param tabela A tabela de textos.
+     * @param secoes De onde vêm as comunidades, os índices e os usuários.
+     * @throws FalhaAoSalvarDadosException Se a escrita falhar.
+     */
+    private void gravarSnapshot(long ultima, long mensagens, Collection<String> tabela, SecoesSnapshot secoes) {
+        File tmp = new File(ARQ + ".tmp");
+        try (FileOutputStream f = new FileOutputStream(tmp);
+             SaidaSnapshot out = new SaidaSnapshot(f)) {
+            escreverSnapshot(out, ultima, mensagens, tabela, secoes);
+            out.flush();
+            f.getFD().sync();
+        } catch (IOException e) {
+            throw new FalhaAoSalvarDadosException(e);
+        }
+        try {
+            Files.move(tmp.toPath(), new File(ARQ).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new FalhaAoSalvarDadosException(e);
+        }
+        ultimaOperacao = ultima;
+    }
+
+    /**
+     * Carrega os dados do sistema: lê o snapshot, se existir, e reaplica as operações do registro
+     * posteriores a ele. Os usuários que o snapshot deixou frios são decodificados em paralelo pela
+     * {@link CargaUsuarios}, que só começa depois da reprodução do registro (a reprodução não adquire
+     * travas); o sistema atende sem esperar por ela, a menos que {@code -Djackut.carga.emFundo=false}.
+     *
+     * @param inicio O instante em que a carga começou.
+     * @throws Exception Se houver falha ao carregar os dados.
+     */
+    private void carregarDados(long inicio) throws Exception {
+        carregarSnapshot();
+        indexarMensagens();
+        registro = abrirRegistro(this::reaplicar);
+        carga = new CargaUsuarios(mapaUsuarios(), travas, USUARIOS_SOB_DEMANDA ? 0 : PARALELISMO_CARGA, inicio);
+        carga.iniciar(PARALELO);
+        if (!CARGA_EM_FUNDO) carga.aguardar();
+    }
+
+    /**
+     * Abre o registro de operações, reaplicando as operações posteriores ao snapshot carregado.
+     *
+     * @param aplicador Quem reaplica as operações lidas.
+     * @return O registro aberto.
+     * @throws FalhaAoCarregarDadosException Se o registro não puder ser lido.
+     */
+    private RegistroOperacoes abrirRegistro(RegistroOperacoes.Aplicador aplicador) {
+        try {
+            return RegistroOperacoes.abrir(new File(ARQ_LOG), ultimaOperacao, durabilidade, aplicador);
+        } catch (IOException e) {
+            throw new FalhaAoCarregarDadosException();
+        }
+    }
+
+    /**
+     * Carrega o último snapshot gravado em arquivo. Snapshots no formato antigo (serialização Java)
+     * continuam sendo lidos e passam para o formato binário no próximo salvamento.
      *
      * @throws Exception Se houver falha ao carregar os dados.
      */
-    private void carregarDados() throws Exception {
+    private void carregarSnapshot() throws Exception {
         File f = new File(ARQ);
         if (!f.exists()) return;
-        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(f))) {
+        if (EntradaSnapshot.ehSnapshotBinario(f)) {
+            if (f.length() <= Integer.MAX_VALUE) {
+                ByteBuffer mapa = abrirArquivo(f);
+                lerSnapshot(new EntradaSnapshot(mapa.duplicate()), mapa);
+                return;
+            }
+            try (EntradaSnapshot in = new EntradaSnapshot(new FileInputStream(f))) {
+                lerSnapshot(in, null);
+            }
+            return;
+        }
+        Jackut p = lerSnapshotLegado(f, dicionario);
+        // arquivos antigos trazem HashMaps; os dados são copiados para os mapas concorrentes
+        this.usuarios.putAll(p.usuarios);
+        this.comunidades.putAll(p.comunidades);
+        this.fas.putAll(p.fas);
+        this.paqueradoPor.putAll(p.paqueradoPor);
+        this.inimigoDe.putAll(p.inimigoDe);
+        this.convitesEnviados.putAll(p.convitesEnviados);
+        this.ultimaOperacao = p.ultimaOperacao;
+    }
+
+    /**
+     * As seções de um snapshot que dependem do estado: o estado vivo do sistema, gravado com todas as
+     * travas ({@link #estadoAtual()}), ou um {@link PontoDeControle} já capturado.
+     */
+    interface SecoesSnapshot {
+        /**
+         * Grava a quantidade de comunidades e cada comunidade.
+         *
+         * @param out A saída do snapshot, com a tabela de textos já gravada.
+         * @throws IOException Se a escrita falhar.
+         */
+        void escreverComunidades(SaidaSnapshot out) throws IOException;
+
+        /**
+         * Grava os índices reversos (fãs, paqueras, inimigos, convites e recados enviados), nessa ordem,
+         * no formato de {@link Jackut#escreverIndice}.
+         *
+         * @param out A saída do snapshot, com a tabela de textos já gravada.
+         * @throws IOException Se a escrita falhar.
+         */
+        void escreverIndices(SaidaSnapshot out) throws IOException;
+
+        /**
+         * Grava a seção de usuários, no formato de {@link MapaUsuarios#escrever}.
+         *
+         * @param out A saída do snapshot, com a tabela de textos já gravada.
+         * @throws IOException Se a escrita falhar.
+         */
+        void escreverUsuarios(SaidaSnapshot out) throws IOException;
+    }
+
+    /**
+     * Retorna as seções do estado vivo do sistema; devem ser gravadas com todas as travas adquiridas.
+     *
+     * @return As seções.
+     */
+    private SecoesSnapshot estadoAtual() {
+        return new SecoesSnapshot() {
+            @Override
+            public void escreverComunidades(SaidaSnapshot out) throws IOException {
+                out.escreverVarint(comunidades.size());
+                for (Comunidade c : comunidades.values()) c.escrever(out);
+            }
+
+            @Override
+            public void escreverIndices(SaidaSnapshot out) throws IOException {
+                escreverIndice(out, fas);
+                escreverIndice(out, paqueradoPor);
+                escreverIndice(out, inimigoDe);
+                escreverIndice(out, convitesEnviados);
+                escreverIndice(out, recadosEnviados);
+            }
+
+            @Override
+            public void escreverUsuarios(SaidaSnapshot out) throws IOException {
+                mapaUsuarios().escrever(out);
+            }
+        };
+    }
+
+    /**
+     * Monta a tabela de textos de um novo snapshot: a do snapshot mapeado vem primeiro, para que os
+     * usuários frios sejam copiados sem recodificação, seguida dos logins e dos nomes das comunidades.
+     *
+     * @param prefixo A tabela do snapshot mapeado.
+     * @return A tabela.
+     */
+    private Collection<String> montarTabela(List<String> prefixo) {
+        Set<String> tabela = new LinkedHashSet<>(prefixo);
+        tabela.addAll(usuarios.keySet());
+        tabela.addAll(comunidades.keySet());
+        return tabela;
+    }
+
+    /**
+     * Grava um snapshot no formato binário: a sequência da última operação, a sequência das mensagens de
+     * comunidade, a tabela de textos, as comunidades, os índices reversos (fãs, paqueras, inimigos,
+     * convites e recados enviados) e, por último, a seção de usuários.
+     *
+     * @param out A saída do snapshot.
+     * @param ultima A sequência da última operação contida no snapshot.
+     * @param mensagens A sequência das mensagens de comunidade.
+     * @param tabela A tabela de textos.
+     * @param secoes De onde vêm as comunidades, os índices e os usuários.
+     * @throws IOException Se a escrita falhar.
+     */
+    private void escreverSnapshot(SaidaSnapshot out, long ultima, long mensagens, Collection<String> tabela,
+                                  SecoesSnapshot secoes) throws IOException {
+        out.escreverVarint(ultima);
+        out.escreverVarint(mensagens);
+        out.escreverTabela(tabela);
+        secoes.escreverComunidades(out);
+        secoes.escreverIndices(out);
+        secoes.escreverUsuarios(out);
+    }
+
+    /**
+     * Lê o estado do sistema gravado por {@link #escreverSnapshot}.
+     *
+     * @param in A entrada do snapshot.
+     * @param mapa O snapshot inteiro em memória, quando os usuários ficam frios até serem decodificados
+     *             pela {@link CargaUsuarios} ou no primeiro acesso, ou null para decodificar todos agora.
+     * @throws IOException Se a leitura falhar.
+     */
+    private void lerSnapshot(EntradaSnapshot in, ByteBuffer mapa) throws IOException {
+        ultimaOperacao = in.lerVarint();
+        if (in.getVersao() == 1) {
+            lerUsuarios(in, in.lerQuantidade());
+            lerComunidades(in);
+            lerIndice(in, fas);
+        } else {
+            if (in.getVersao() >= 3) sequenciaMensagens.set(in.lerVarint());
+            in.lerTabela();
+            lerComunidades(in);
+            lerIndice(in, fas);
+            if (in.getVersao() >= 4) {
+                lerIndice(in, paqueradoPor);
+                lerIndice(in, inimigoDe);
+                lerIndice(in, convitesEnviados);
+                lerIndice(in, recadosEnviados);
+            }
+            // a versão 6 gravava a quantidade de arquivos de fragmento, que não são mais lidos
+            if (in.getVersao() == 6 && in.lerQuantidade() != 0) {
+                throw new IOException("Snapshot com os usuários em arquivos de fragmento, não mais suportados.");
+            }
+            int n = in.lerQuantidade();
+            if (mapa == null) lerUsuarios(in, n);
+            else mapaUsuarios().mapear(mapa, in.getVersao(), in.getTabela());
+        }
+        // até a versão 3 só o índice de fãs era gravado; no modo sob demanda, isto materializa todos os usuários
+        if (in.getVersao() < 4) reconstruirIndicesRemocao();
+    }
+
+    /**
+     * Lê e decodifica uma sequência de usuários do snapshot.
+     *
+     * @param in A entrada do snapshot.
+     * @param n A quantidade de usuários.
+     * @throws IOException Se a leitura falhar.
+     */
+    private void lerUsuarios(EntradaSnapshot in, int n) throws IOException {
+        for (int i = 0; i < n; i++) {
+            Usuario u = Usuario.ler(in, dicionario);
+            usuarios.put(u.getLogin(), u);
+        }
+    }
+
+    /**
+     * Lê a seção de comunidades do snapshot.
+     *
+     * @param in A entrada do snapshot.
+     * @throws IOException Se a leitura falhar.
+     */
+    private void lerComunidades(EntradaSnapshot in) throws IOException {
+        int n = in.lerQuantidade();
+        for (int i = 0; i < n; i++) {
+            Comunidade c = Comunidade.ler(in);
+            comunidades.put(c.getNome(), c);
+        }
+    }
+
+    /**
+     * Grava um índice reverso no snapshot: a quantidade de alvos e, para cada um, o login e os logins do conjunto.
+     *
+     * @param out A saída do snapshot.
+     * @param indice O índice.
+     * @throws IOException Se a escrita falhar.
+     */
+    private void escreverIndice(SaidaSnapshot out, Map<String, ConjuntoInteiros> indice) throws IOException {
+        out.escreverVarint(indice.size());
+        for (Map.Entry<String, ConjuntoInteiros> e : indice.entrySet()) {
+            ConjuntoInteiros c = e.getValue();
+            out.escreverLogin(e.getKey());
+            out.escreverVarint(c.tamanho());
+            for (int i = 0; i < c.tamanho(); i++) out.escreverLogin(dicionario.login(c.get(i)));
+        }
+    }
+
+    /**
+     * Lê uma seção gravada por {@link #escreverIndice(SaidaSnapshot, Map)}.
+     *
+     * @param in A entrada do snapshot.
+     * @param indice O índice que recebe os conjuntos lidos.
+     * @throws IOException Se a leitura falhar.
+     */
+    private void lerIndice(EntradaSnapshot in, Map<String, ConjuntoInteiros> indice) throws IOException {
+        int n = in.lerQuantidade();
+        for (int i = 0; i < n; i++) {
+            String alvo = in.lerLogin();
+            ConjuntoInteiros c = new ConjuntoInteiros();
+            int m = in.lerQuantidade();
+            for (int j = 0; j < m; j++) c.adicionar(dicionario.id(in.lerLogin()));
+            indice.put(alvo, c);
+        }
+    }
+
+    // ** Usuários sob demanda **
+
+    /**
+     * Retorna o mapa de usuários com o tipo concreto. O campo é declarado como {@code Map} para que
+     * snapshots antigos, gravados com serialização Java, continuem podendo ser lidos.
+     *
+     * @return O mapa de usuários.
+     */
+    private MapaUsuarios mapaUsuarios() {
+        return (MapaUsuarios) usuarios;
+    }
+
+    /**
+     * Traz um arquivo de snapshot inteiro para a memória: mapeado, no modo sob demanda, em que os usuários
+     * frios são lidos do arquivo durante toda a execução, ou lido para o heap, em que o arquivo só é usado
+     * até a {@link CargaUsuarios} terminar e não fica preso ao processo.
+     *
+     * @param f O arquivo.
+     * @return O conteúdo do arquivo.
+     * @throws IOException Se o arquivo não puder ser lido.
+     */
+    private static ByteBuffer abrirArquivo(File f) throws IOException {
+        return USUARIOS_SOB_DEMANDA ? mapearArquivo(f) : ByteBuffer.wrap(Files.readAllBytes(f.toPath()));
+    }
+
+    /**
+     * Mapeia um arquivo inteiro em memória, somente para leitura.
+     *
+     * @param f O arquivo.
+     * @return O buffer mapeado.
+     * @throws IOException Se o arquivo não puder ser mapeado.
+     */
+    private static ByteBuffer mapearArquivo(File f) throws IOException {
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+    }
+
+    /**
+     * Passa a ler os usuários frios do snapshot recém-gravado.
+     *
+     * @throws IOException Se o arquivo não puder ser mapeado.
+     */
+    private void remapearUsuarios() throws IOException {
+        ByteBuffer mapa = mapearArquivo(new File(ARQ));
+        EntradaSnapshot in = new EntradaSnapshot(mapa.duplicate());
+        in.lerVarint();
+        in.lerVarint();
+        in.lerTabela();
+        mapaUsuarios().mapear(mapa, in.getVersao(), in.getTabela());
+    }
+
+    /**
+     * Lê um snapshot no formato antigo, gravado com serialização Java do objeto {@code Jackut} inteiro.
+     *
+     * @param arquivo O arquivo do snapshot.
+     * @param d O dicionário de logins ao qual os usuários lidos são vinculados.
+     * @return O objeto lido, com os índices reversos reconstruídos.
+     * @throws IOException Se a leitura falhar.
+     * @throws ClassNotFoundException Se o arquivo referenciar classes desconhecidas.
+     */
+    static Jackut lerSnapshotLegado(File arquivo, DicionarioLogins d) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(arquivo)))) {
             Jackut p = (Jackut) in.readObject();
-            this.usuarios    = p.usuarios;
-            this.comunidades = p.comunidades;
+            p.dicionario = d;
+            p.sequenciaMensagens = new AtomicLong();
+            for (Usuario u : p.usuarios.values()) u.vincular(d);
+            // o índice gravado (quando existe) guarda logins; é refeito com ids a partir dos ídolos
+            p.fas = reconstruirFas(p.usuarios, d);
+            p.reconstruirIndicesRemocao();
+            return p;
+        }
+    }
+
+    /**
+     * Converte um snapshot no formato antigo (serialização Java) para o formato binário. O resultado é
+     * gravado num arquivo temporário na pasta do destino e só então movido sobre ele, de modo que uma queda
+     * no meio da conversão nunca deixa o destino (que pode ser a própria origem) pela metade.
+     *
+     * @param origem O snapshot no formato antigo.
+     * @param destino O arquivo a ser gravado no formato binário (pode ser o próprio arquivo de origem).
+     * @throws IOException Se a leitura ou a escrita falharem.
+     * @throws ClassNotFoundException Se o arquivo de origem referenciar classes desconhecidas.
+     */
+    static void converterSnapshot(File origem, File destino) throws IOException, ClassNotFoundException {
+        DicionarioLogins d = new DicionarioLogins();
+        Jackut p = lerSnapshotLegado(origem, d);
+        MapaUsuarios m = new MapaUsuarios(d);
+        m.putAll(p.usuarios);
+        p.usuarios = m;
+        File tmp = new File(destino.getAbsoluteFile().getParentFile(), destino.getName() + ".tmp");
+        try (FileOutputStream f = new FileOutputStream(tmp);
+             SaidaSnapshot out = new SaidaSnapshot(f)) {
+            p.escreverSnapshot(out, p.ultimaOperacao, p.sequenciaMensagens.get(),
+                    p.montarTabela(p.mapaUsuarios().getTabela()), p.estadoAtual());
+            out.flush();
+            f.getFD().sync();
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp.toPath());
+            throw e;
+        }
+        Files.move(tmp.toPath(), destino.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reconstrói o índice reverso de fãs a partir dos ídolos de cada usuário.
+     *
+     * @param us Os usuários do sistema.
+     * @param d O dicionário de logins do sistema.
+     * @return O índice ídolo -> ids dos fãs.
+     */
+    private static Map<String, ConjuntoInteiros> reconstruirFas(Map<String, Usuario> us, DicionarioLogins d) {
+        Map<String, ConjuntoInteiros> idx = new ConcurrentHashMap<>();
+        for (Usuario u : us.values()) {
+            int id = d.id(u.getLogin());
+            for (String idolo : u.getIdolos())
+                idx.computeIfAbsent(idolo, k -> new ConjuntoInteiros()).adicionar(id);
         }
+        return idx;
     }
 
 }
@@ -0,0 +1,354 @@
+package br.ufal.ic.p2.jackut;
+
+import br.ufal.ic.p2.jackut.persistencia.EntradaSnapshot;
+import br.ufal.ic.p2.jackut.persistencia.SaidaSnapshot;
+import br.ufal.ic.p2.jackut.util.DicionarioLogins;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Mapa login -> {@link Usuario} usado pelo {@link Jackut}.
+ *
+ * <p>No modo sob demanda, os usuários não são decodificados na carga do snapshot: o mapa guarda só a
+ * posição de cada registro no arquivo mapeado em memória e o {@code Usuario} é materializado no
+ * primeiro acesso ({@link #get(Object)}). Ao salvar, os usuários materializados são regravados e os
+ * que continuam frios são copiados byte a byte do arquivo anterior, sem decodificação. Depois de
+ * salvar, o mapa passa a apontar para o novo arquivo e descarta os usuários materializados, que
+ * voltam a ser frios. Registros gravados numa versão anterior do formato são decodificados e regravados.</p>
+ *
+ * <p>Fora do modo sob demanda, a carga também só aponta o mapa para os registros, e o {@link Jackut} já
+ * atende enquanto a {@link CargaUsuarios} decodifica os usuários frios em paralelo; quando ela termina,
+ * o snapshot é solto ({@link #liberarSegmento()}).</p>
+ *
+ * <p>O mapa deve ser usado com a trava do login adquirida (ver {@link Jackut}); a materialização de
+ * um mesmo login nunca acontece duas vezes, mas não é coordenada com a remoção desse login.</p>
+ */
+public class MapaUsuarios extends AbstractMap<String, Usuario> {
+
+    // Versão do formato em que o registro de usuário mudou pela última vez; registros gravados a partir
+    // dela são copiados sem decodificação
+    private static final int VERSAO_REGISTRO = 5;
+
+    private final DicionarioLogins dicionario;
+    private final ConcurrentHashMap<String, Usuario> carregados = new ConcurrentHashMap<>();
+    private final AtomicInteger frios = new AtomicInteger();
+    private volatile Segmento segmento;
+
+    /**
+     * Cria um mapa vazio.
+     *
+     * @param dicionario O dicionário de logins ao qual os usuários materializados são vinculados
+     */
+    public MapaUsuarios(DicionarioLogins dicionario) {
+        this.dicionario = dicionario;
+    }
+
+    /**
+     * Registros de usuários de um snapshot mapeado em memória.
+     */
+    private static final class Segmento {
+        final ByteBuffer mapa;
+        final int versao;
+        final List<String> tabela;
+        final Map<String, Integer> indices;
+        final int[] inicios;
+        final int[] tamanhos;
+
+        Segmento(ByteBuffer mapa, int versao, List<String> tabela, Map<String, Integer> indices,
+                 int[] inicios, int[] tamanhos) {
+            this.mapa = mapa;
+            this.versao = versao;
+            this.tabela = tabela;
+            this.indices = indices;
+            this.inicios = inicios;
+            this.tamanhos = tamanhos;
+        }
+
+        /**
+         * @param i O número do registro
+         * @return O registro, num buffer limitado a ele
+         */
+        ByteBuffer registro(int i) {
+            ByteBuffer b = mapa.duplicate();
+            b.position(inicios[i]);
+            b.limit(inicios[i] + tamanhos[i]);
+            return b;
+        }
+    }
+
+    /**
+     * Passa a servir os usuários a partir da seção de usuários de um snapshot mapeado em memória,
+     * descartando o conteúdo atual. A seção é a gravada por {@link #escrever(SaidaSnapshot)} e termina
+     * no fim do arquivo.
+     *
+     * @param mapa O snapshot inteiro mapeado em memória
+     * @param versao A versão do snapshot
+     * @param tabela A tabela de textos do snapshot
+     * @throws IOException Se o índice não puder ser lido
+     */
+    public void mapear(ByteBuffer mapa, int versao, List<String> tabela) throws IOException {
+        ByteBuffer b = mapa.duplicate();
+        b.position((int) mapa.getLong(mapa.limit() - 8));
+        EntradaSnapshot in = new EntradaSnapshot(b, versao, tabela);
+        int n = in.lerQuantidade();
+        Map<String, Integer> indices = new ConcurrentHashMap<>(n * 4 / 3 + 1);
+        int[] inicios  = new int[n];
+        int[] tamanhos = new int[n];
+        int pos = (int) mapa.getLong(mapa.limit() - 16);
+        for (int i = 0; i < n; i++) {
+            indices.put(in.lerLogin(), i);
+            inicios[i]  = pos;
+            tamanhos[i] = in.lerQuantidade();
+            pos += tamanhos[i];
+        }
+        carregados.clear();
+        segmento = new Segmento(mapa, versao, tabela, indices, inicios, tamanhos);
+        frios.set(n);
+    }
+
+    /**
+     * @return A tabela de textos do snapshot mapeado, que um novo snapshot deve manter como prefixo
+     * de sua tabela para poder copiar os registros frios sem decodificá-los
+     */
+    public List<String> getTabela() {
+        Segmento s = segmento;
+        return s == null ? Collections.emptyList() : s.tabela;
+    }
+
+    /**
+     * @return A quantidade de usuários ainda não materializados
+     */
+    public int getFrios() { return frios.get(); }
+
+    /**
+     * @return Os logins dos usuários do snapshot mapeado, na ordem dos registros
+     */
+    public String[] getLoginsFrios() {
+        Segmento s = segmento;
+        if (s == null) return new String[0];
+        String[] logins = new String[s.inicios.length];
+        for (Map.Entry<String, Integer> e : s.indices.entrySet()) logins[e.getValue()] = e.getKey();
+        // logins removidos desde a carga deixam posições vazias
+        int n = 0;
+        for (String l : logins) if (l != null) logins[n++] = l;
+        return Arrays.copyOf(logins, n);
+    }
+
+    /**
+     * Percorre os logins de todos os usuários, frios ou não, sem copiá-los. Não deve haver cadastros nem
+     * remoções ao mesmo tempo.
+     *
+     * @param acao O que fazer com cada login
+     */
+    void paraCadaLogin(Consumer<String> acao) {
+        carregados.keySet().forEach(acao);
+        Segmento s = segmento;
+        if (s == null) return;
+        for (String login : s.indices.keySet()) if (!carregados.containsKey(login)) acao.accept(login);
+    }
+
+    /**
+     * Solta o snapshot mapeado se não houver mais usuários frios, para que a memória que ele ocupa possa
+     * ser liberada.
+     */
+    public void liberarSegmento() {
+        if (frios.get() == 0) segmento = null;
+    }
+
+    /**
+     * Grava a seção de usuários do snapshot: a quantidade, os registros, o índice (login e tamanho
+     * de cada registro) e, por fim, as posições do primeiro registro e do índice, com 8 bytes cada.
+     * Deve ser a última seção do arquivo.
+     *
+     * @param out A saída do snapshot, com a tabela de textos já gravada
+     * @throws IOException Se a escrita falhar
+     */
+    public void escrever(SaidaSnapshot out) throws IOException {
+        // registros de uma versão anterior do formato não podem ser copiados: são decodificados e regravados
+        if (segmento != null && segmento.versao < VERSAO_REGISTRO) carregarTodos();
+        Segmento s = segmento;
+        List<String> logins = new ArrayList<>(carregados.keySet());
+        List<Integer> tamanhos = new ArrayList<>(size());
+        int quentes = logins.size();
+        if (s != null) {
+            for (String login : s.indices.keySet()) if (!carregados.containsKey(login)) logins.add(login);
+        }
+        out.escreverVarint(logins.size());
+        long inicioRegistros = out.posicao();
+        for (int i = 0; i < quentes; i++) {
+            Usuario u = carregados.get(logins.get(i));
+            long p = out.posicao();
+            u.escrever(out);
+            tamanhos.add((int) (out.posicao() - p));
+        }
+        for (int j = quentes; j < logins.size(); j++) {
+            int i = s.indices.get(logins.get(j));
+            out.escreverBytes(s.mapa, s.inicios[i], s.tamanhos[i]);
+            tamanhos.add(s.tamanhos[i]);
+        }
+        escreverIndice(out, logins, tamanhos, inicioRegistros);
+    }
+
+    /**
+     * Termina a seção de usuários, logo depois dos registros: grava o índice (login e
+     * tamanho de cada registro, na ordem dos registros) e as posições do primeiro registro e do índice.
+     *
+     * @param out A saída do snapshot
+     * @param logins Os logins dos registros gravados
+     * @param tamanhos O tamanho de cada registro
+     * @param inicioRegistros A posição do primeiro registro
+     * @throws IOException Se a escrita falhar
+     */
+    static void escreverIndice(SaidaSnapshot out, List<String> logins, List<Integer> tamanhos,
+                               long inicioRegistros) throws IOException {
+        long inicioIndice = out.posicao();
+        out.escreverVarint(logins.size());
+        for (int i = 0; i < logins.size(); i++) {
+            out.escreverLogin(logins.get(i));
+            out.escreverVarint(tamanhos.get(i));
+        }
+        out.escreverLongFixo(inicioRegistros);
+        out.escreverLongFixo(inicioIndice);
+    }
+
+    /**
+     * Retorna o registro de um usuário frio como está no snapshot mapeado, sem decodificá-lo, para ser
+     * copiado para outro snapshot que tenha a tabela de textos deste como prefixo. Deve ser chamado com a
+     * trava do login.
+     *
+     * @param login O login do usuário
+     * @return O registro, num buffer limitado a ele, ou null se o usuário não estiver frio ou se o
+     * registro for de uma versão anterior do formato, que precisa ser decodificado e regravado
+     */
+    ByteBuffer getRegistroFrio(String login) {
+        if (carregados.containsKey(login)) return null;
+        Segmento s = segmento;
+        Integer i = s == null || s.versao < VERSAO_REGISTRO ? null : s.indices.get(login);
+        return i == null ? null : s.registro(i);
+    }
+
+    /**
+     * Materializa todos os usuários frios.
+     */
+    private void carregarTodos() {
+        Segmento s = segmento;
+        if (s == null) return;
+        for (String login : s.indices.keySet()) get(login);
+    }
+
+    /**
+     * Decodifica um usuário frio do snapshot mapeado.
+     *
+     * @param login O login do usuário
+     * @return O usuário, ou null se o login não estiver no snapshot
+     */
+    private Usuario materializar(String login) {
+        Segmento s = segmento;
+        Integer i = s == null ? null : s.indices.get(login);
+        if (i == null) return null;
+        try {
+            Usuario u = Usuario.ler(new EntradaSnapshot(s.registro(i), s.versao, s.tabela), dicionario);
+            frios.decrementAndGet();
+            return u;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Usuario get(Object login) {
+        Usuario u = carregados.get(login);
+        if (u != null || segmento == null || !(login instanceof String)) return u;
+        return carregados.computeIfAbsent((String) login, this::materializar);
+    }
+
+    /**
+     * Retorna um usuário já materializado, sem decodificar usuários frios. Pode ser chamado sem a
+     * trava do login: o usuário devolvido pode ter sido removido ou descartado por uma gravação logo
+     * depois, mas nunca é decodificado de um arquivo já substituído.
+     *
+     * @param login O login do usuário
+     * @return O usuário, ou null se não estiver cadastrado ou ainda estiver frio
+     */
+    public Usuario getCarregado(String login) {
+        return carregados.get(login);
+    }
+
+    @Override
+    public boolean containsKey(Object login) {
+        if (carregados.containsKey(login)) return true;
+        Segmento s = segmento;
+        return s != null && s.indices.containsKey(login);
+    }
+
+    @Override
+    public Usuario put(String login, Usuario u) {
+        Usuario antigo = get(login);
+        carregados.put(login, u);
+        return antigo;
+    }
+
+    @Override
+    public Usuario putIfAbsent(String login, Usuario u) {
+        Usuario antigo = get(login);
+        return antigo != null ? antigo : carregados.putIfAbsent(login, u);
+    }
+
+    @Override
+    public Usuario remove(Object login) {
+        Usuario u = get(login); // materializa se estiver frio, para devolver o usuário removido
+        carregados.remove(login);
+        Segmento s = segmento;
+        if (s != null) s.indices.remove(login);
+        return u;
+    }
+
+    @Override
+    public int size() { return carregados.size() + frios.get(); }
+
+    @Override
+    public void clear() {
+        carregados.clear();
+        segmento = null;
+        frios.set(0);
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                Segmento s = segmento;
+                if (s == null) return carregados.keySet().iterator();
+                Set<String> todos = new LinkedHashSet<>(carregados.keySet());
+                todos.addAll(s.indices.keySet());
+                return todos.iterator();
+            }
+
+            @Override
+            public int size() { return MapaUsuarios.this.size(); }
+
+            @Override
+            public boolean contains(Object o) { return containsKey(o); }
+        };
+    }
+
+    @Override
+    public Set<Entry<String, Usuario>> entrySet() {
+        return new AbstractSet<Entry<String, Usuario>>() {
+            @Override
+            public Iterator<Entry<String, Usuario>> iterator() {
+                carregarTodos();
+                return carregados.entrySet().iterator();
+            }
+
+            @Override
+            public int size() { return MapaUsuarios.this.size(); }
+        };
+    }
+}
@@ -0,0 +1,128 @@
+package br.ufal.ic.p2.jackut;
+
+import br.ufal.ic.p2.jackut.exceptions.PaginaInvalidaException;
+import br.ufal.ic.p2.jackut.util.ConjuntoInteiros;
+import br.ufal.ic.p2.jackut.util.DicionarioLogins;
+import java.util.*;
+
+/**
+ * Uma página de uma listagem da {@link Facade} (amigos, fãs, paqueras, comunidades ou membros).
+ *
+ * <p>A página guarda só os itens pedidos, de forma que listar um ídolo com milhões de fãs ou uma
+ * comunidade enorme aloca memória proporcional ao tamanho da página, e não ao da listagem. A próxima
+ * página começa em {@link #getProximo()}; as posições são as da listagem no momento da consulta, então
+ * inserções e remoções entre uma página e outra podem fazer um item ser pulado ou repetido.</p>
+ *
+ * <p>O {@link #toString()} usa o mesmo formato das listagens completas, por exemplo {@code "{a,b,c}"}.</p>
+ */
+public class Pagina {
+
+    /**
+     * Maior quantidade de itens de uma página; pedidos maiores são reduzidos a este limite.
+     */
+    public static final int LIMITE_MAXIMO = Math.max(1, Configuracao.inteiro("pagina.limiteMaximo", 1000));
+
+    private final List<String> itens;
+    private final int inicio;
+    private final int total;
+
+    private Pagina(List<String> itens, int inicio, int total) {
+        this.itens = Collections.unmodifiableList(itens);
+        this.inicio = inicio;
+        this.total = total;
+    }
+
+    /**
+     * Monta uma página de um conjunto de ids, traduzindo para logins só os ids da página.
+     *
+     * @param ids O conjunto de ids, ou null se a listagem estiver vazia.
+     * @param dicionario O dicionário que traduz os ids.
+     * @param inicio A posição do primeiro item.
+     * @param limite A quantidade máxima de itens.
+     * @return A página.
+     */
+    static Pagina de(ConjuntoInteiros ids, DicionarioLogins dicionario, int inicio, int limite) {
+        int total = ids == null ? 0 : ids.tamanho();
+        int de = Math.min(validarInicio(inicio), total);
+        int ate = Math.min(total, de + validarLimite(limite));
+        List<String> itens = new ArrayList<>(ate - de);
+        for (int i = de; i < ate; i++) itens.add(dicionario.login(ids.get(i)));
+        return new Pagina(itens, de, total);
+    }
+
+    /**
+     * Monta uma página de uma lista com acesso por posição.
+     *
+     * @param lista A lista.
+     * @param inicio A posição do primeiro item.
+     * @param limite A quantidade máxima de itens.
+     * @return A página.
+     */
+    static Pagina de(List<String> lista, int inicio, int limite) {
+        int total = lista.size();
+        int de = Math.min(validarInicio(inicio), total);
+        int ate = Math.min(total, de + validarLimite(limite));
+        return new Pagina(new ArrayList<>(lista.subList(de, ate)), de, total);
+    }
+
+    /**
+     * Monta uma página de uma coleção sem acesso por posição, percorrendo-a até o início da página.
+     *
+     * @param colecao A coleção.
+     * @param inicio A posição do primeiro item.
+     * @param limite A quantidade máxima de itens.
+     * @return A página.
+     */
+    static Pagina de(Collection<String> colecao, int inicio, int limite) {
+        int total = colecao.size();
+        int de = Math.min(validarInicio(inicio), total);
+        int ate = Math.min(total, de + validarLimite(limite));
+        List<String> itens = new ArrayList<>(ate - de);
+        Iterator<String> it = colecao.iterator();
+        for (int i = 0; i < ate; i++) {
+            String s = it.next();
+            if (i >= de) itens.add(s);
+        }
+        return new Pagina(itens, de, total);
+    }
+
+    private static int validarInicio(int inicio) {
+        if (inicio < 0) throw new PaginaInvalidaException();
+        return inicio;
+    }
+
+    private static int validarLimite(int limite) {
+        if (limite <= 0) throw new PaginaInvalidaException();
+        return Math.min(limite, LIMITE_MAXIMO);
+    }
+
+    /**
+     * @return Os itens da página, na ordem da listagem.
+     */
+    public List<String> getItens() { return itens; }
+
+    /**
+     * @return A posição do primeiro item da página.
+     */
+    public int getInicio() { return inicio; }
+
+    /**
+     * @return A quantidade de itens da listagem inteira no momento da consulta.
+     */
+    public int getTotal() { return total; }
+
+    /**
+     * @return True se houver itens depois desta página.
+     */
+    public boolean temProxima() { return inicio + itens.size() < total; }
+
+    /**
+     * @return A posição do primeiro item da próxima página, ou -1 se esta for a última.
+     */
+    public int getProximo() { return temProxima() ? inicio + itens.size() : -1; }
+
+    @Override
+    public String toString() {
+        return "{" + String.join(",", itens) + "}";
+    }
+}
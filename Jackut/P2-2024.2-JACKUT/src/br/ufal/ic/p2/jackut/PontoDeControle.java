@@ -0,0 +1,445 @@
+package br.ufal.ic.p2.jackut;
+
+import br.ufal.ic.p2.jackut.persistencia.SaidaSnapshot;
+import br.ufal.ic.p2.jackut.util.ConjuntoInteiros;
+import br.ufal.ic.p2.jackut.util.DicionarioLogins;
+import br.ufal.ic.p2.jackut.util.TravasPorChave;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fotografia do estado do {@link Jackut} num ponto do registro de operações, capturada aos poucos,
+ * enquanto o sistema continua atendendo, para que o snapshot seja gravado em segundo plano.
+ *
+ * <p>O ponto de controle é preparado sem travas, com a tabela de textos, e fixado numa pausa curta, com
+ * todas as travas ({@link #fotografar}): guarda a sequência da última operação e a das mensagens, e divide
+ * os logins e as comunidades pela trava de {@link TravasPorChave} que os protege (a faixa da trava). A
+ * partir daí, cada usuário (com as suas entradas nos índices reversos) e cada comunidade é serializado
+ * uma única vez, em memória, na primeira vez que alguém adquire a trava pela sua chave: a operação que vai
+ * alterá-lo espera a cópia, que tem o estado do instante da pausa, porque nada mudou desde então sem
+ * passar pela trava da chave. Uma operação paga só a cópia das chaves que trava, e não a da faixa
+ * inteira, que com milhares de usuários por trava seria uma espera de milissegundos.</p>
+ *
+ * <p>O que ninguém tocou é capturado por uma varredura de fundo ({@link #varrer()}), em rajadas curtas com
+ * todas as travas ({@code -Djackut.snapshot.rajadaUs}, padrão 1000), separadas por intervalos sem travas
+ * ({@code -Djackut.snapshot.intervaloRajadasUs}, padrão 2000). Segurar uma trava por chave enquanto as
+ * operações continuam seria pior: com poucos processadores, a varredura perde o processador segurando
+ * alguma trava, e as operações que precisam dela esperam a sua vez de novo; numa rajada, as operações
+ * esperam paradas, e no máximo o tempo da rajada. Operações que adquirem todas as travas (remover uma
+ * conta, zerar) capturam tudo o que falta.</p>
+ *
+ * <p>Depois disso o ponto de controle não depende mais do estado vivo, e o snapshot é gravado a partir
+ * das cópias, sem travas ({@link Jackut.SecoesSnapshot}), no mesmo formato de {@link SaidaSnapshot}.
+ * Enquanto não é gravado, o ponto de controle ocupa no heap aproximadamente o tamanho do snapshot.</p>
+ *
+ * <p>Na mesma pausa o registro de operações é separado
+ * ({@link br.ufal.ic.p2.jackut.persistencia.RegistroOperacoes#rotacionar()}), e a parte separada só é
+ * apagada depois que o snapshot é gravado: uma queda no meio da gravação reaplica o registro inteiro sobre
+ * o snapshot anterior. Com {@code -Djackut.snapshot.emFundo=false}, o padrão com um só processador, o Jackut
+ * não usa pontos de controle e grava o snapshot periódico com todas as travas.</p>
+ */
+// as travas são adquiridas com try-with-resources só para serem liberadas no fim do bloco
+@SuppressWarnings("try")
+public final class PontoDeControle implements Jackut.SecoesSnapshot {
+
+    private final Collection<String> tabela;
+    // Saída sem destino que só guarda a tabela de textos, compartilhada pelas saídas das faixas
+    private final SaidaSnapshot principal;
+
+    private final MapaUsuarios usuarios;
+    private final Map<String, Comunidade> comunidades;
+    private final List<Map<String, ConjuntoInteiros>> indices;
+    private final DicionarioLogins dicionario;
+    private final TravasPorChave travas;
+    private final String prefixoComunidades;
+    private final Faixa[] faixas;
+
+    private static final long RAJADA = TimeUnit.MICROSECONDS.toNanos(
+            Math.max(1, Configuracao.longo("snapshot.rajadaUs", 1000)));
+    private static final long INTERVALO_RAJADAS = TimeUnit.MICROSECONDS.toNanos(
+            Math.max(0, Configuracao.longo("snapshot.intervaloRajadasUs", 2000)));
+
+    // Thread da varredura: o que é capturado por outras threads foi tocado por alguma operação
+    private final Thread varredor;
+    private final AtomicInteger capturadasPorOperacoes = new AtomicInteger();
+    private final AtomicReference<Exception> falha = new AtomicReference<>();
+
+    // Definidos na pausa, por fotografar
+    private long ultimaOperacao;
+    private long sequenciaMensagens;
+    private long inicio;
+    private long pausaNanos = -1;
+    private volatile long capturaNanos = -1, gravacaoNanos = -1;
+
+    /**
+     * Prepara o ponto de controle, sem travas, pela thread que vai fazer a varredura. A tabela de textos
+     * pode ter sido montada sem travas: um login que não esteja nela é gravado por extenso.
+     *
+     * @param tabela A tabela de textos do snapshot, que começa pela tabela do snapshot mapeado
+     * @param usuarios Os usuários do sistema
+     * @param comunidades As comunidades do sistema
+     * @param indices Os índices reversos, na ordem em que são gravados
+     * @param dicionario O dicionário de logins dos índices
+     * @param travas As travas do sistema
+     * @param prefixoComunidades O prefixo das chaves de comunidades nas travas
+     * @throws IOException Se a tabela de textos não puder ser codificada
+     */
+    PontoDeControle(Collection<String> tabela, MapaUsuarios usuarios, Map<String, Comunidade> comunidades,
+                    List<Map<String, ConjuntoInteiros>> indices, DicionarioLogins dicionario, TravasPorChave travas,
+                    String prefixoComunidades) throws IOException {
+        this.tabela = tabela;
+        this.usuarios = usuarios;
+        this.comunidades = comunidades;
+        this.indices = indices;
+        this.dicionario = dicionario;
+        this.travas = travas;
+        this.prefixoComunidades = prefixoComunidades;
+        this.varredor = Thread.currentThread();
+        principal = new SaidaSnapshot(OutputStream.nullOutputStream());
+        principal.escreverTabela(tabela);
+        faixas = new Faixa[travas.getQuantidade()];
+        for (int i = 0; i < faixas.length; i++) faixas[i] = new Faixa(1 + indices.size());
+    }
+
+    /**
+     * Fixa o ponto de controle no estado atual: divide os logins e as comunidades pelas travas. Deve ser
+     * chamado na pausa, com todas as travas adquiridas.
+     *
+     * @param ultimaOperacao A sequência da última operação registrada
+     * @param sequenciaMensagens A sequência das mensagens de comunidade
+     * @param inicio O instante ({@link System#nanoTime()}) em que a pausa começou
+     */
+    void fotografar(long ultimaOperacao, long sequenciaMensagens, long inicio) {
+        this.ultimaOperacao = ultimaOperacao;
+        this.sequenciaMensagens = sequenciaMensagens;
+        this.inicio = inicio;
+        usuarios.paraCadaLogin(login -> faixas[travas.indice(login)].usuarios.add(login));
+        for (String nome : comunidades.keySet()) faixas[travas.indice(prefixoComunidades + nome)].comunidades.add(nome);
+        pausaNanos = System.nanoTime() - inicio;
+    }
+
+    /**
+     * O estado protegido por uma trava: os logins e as comunidades no instante da pausa e as cópias
+     * serializadas, numa única saída, na ordem em que foram feitas. Os índices reversos são indexados pelo
+     * login do alvo, que é sempre um usuário cadastrado, e vão junto com o usuário.
+     */
+    private static final class Faixa {
+        final List<String> usuarios = new ArrayList<>();
+        final List<String> comunidades = new ArrayList<>();
+        // Quais usuários e comunidades já foram copiados, nas posições das listas acima
+        boolean[] usuariosCopiados, comunidadesCopiadas;
+        boolean capturada;
+        // Próximo item a copiar pela varredura: as comunidades e depois os usuários
+        int proximo;
+
+        ByteArrayOutputStream bytes;
+        SaidaSnapshot saida;
+        byte[] dados;
+        // Seções: comunidades, cada índice e usuários. Cada trecho ocupa três posições: a seção, o início
+        // e o fim nos dados; os logins são os dos trechos de usuários, na mesma ordem
+        int[] trechos = new int[24];
+        int quantidadeTrechos;
+        final int[] quantidades;
+        final List<String> logins = new ArrayList<>();
+
+        Faixa(int secoes) {
+            quantidades = new int[secoes];
+        }
+    }
+
+    /**
+     * Captura o que a trava de uma chave protege e ainda não foi capturado; deve ser chamado com a trava
+     * adquirida. Com uma chave, copia só o usuário de mesmo login e a comunidade de mesmo nome (sem o
+     * prefixo); sem chave, copia tudo o que falta na faixa e a fecha. Uma falha não é lançada para quem
+     * adquiriu a trava: fica guardada e impede a gravação. As travas adquiridas pela varredura são
+     * ignoradas: ela copia por conta própria.
+     *
+     * @param indice O índice da trava
+     * @param chave A chave pela qual a trava foi adquirida, ou null se qualquer chave dela pode mudar
+     */
+    void capturar(int indice, String chave) {
+        Faixa f = faixas[indice];
+        if (f.capturada || Thread.currentThread() == varredor) return;
+        try {
+            abrir(f);
+            if (chave == null) {
+                for (int i = 0; i < f.comunidades.size(); i++) copiarComunidade(f, i);
+                for (int i = 0; i < f.usuarios.size(); i++) copiarUsuario(f, i);
+                fechar(f);
+                return;
+            }
+            int i = f.usuarios.indexOf(chave);
+            if (i >= 0) copiarUsuario(f, i);
+            if (chave.startsWith(prefixoComunidades)) {
+                i = f.comunidades.indexOf(chave.substring(prefixoComunidades.length()));
+                if (i >= 0) copiarComunidade(f, i);
+            }
+        } catch (IOException | RuntimeException e) {
+            f.capturada = true;
+            falha.compareAndSet(null, e);
+        }
+    }
+
+    /**
+     * Copia o próximo item da faixa que ainda não foi copiado, ou a fecha se não falta nenhum; deve ser
+     * chamado com a trava da faixa adquirida.
+     *
+     * @return True se a faixa está fechada
+     */
+    private boolean copiarProximo(Faixa f) {
+        if (f.capturada) return true;
+        try {
+            abrir(f);
+            int comunidadesNaFaixa = f.comunidades.size();
+            while (f.proximo < comunidadesNaFaixa + f.usuarios.size()) {
+                int i = f.proximo++;
+                if (i < comunidadesNaFaixa ? f.comunidadesCopiadas[i] : f.usuariosCopiados[i - comunidadesNaFaixa]) {
+                    continue;
+                }
+                if (i < comunidadesNaFaixa) copiarComunidade(f, i);
+                else copiarUsuario(f, i - comunidadesNaFaixa);
+                return false;
+            }
+            fechar(f);
+        } catch (IOException | RuntimeException e) {
+            f.capturada = true;
+            falha.compareAndSet(null, e);
+        }
+        return true;
+    }
+
+    private void abrir(Faixa f) throws IOException {
+        if (f.saida != null) return;
+        f.usuariosCopiados = new boolean[f.usuarios.size()];
+        f.comunidadesCopiadas = new boolean[f.comunidades.size()];
+        f.bytes = new ByteArrayOutputStream(256);
+        f.saida = SaidaSnapshot.copia(f.bytes, principal);
+    }
+
+    private static void fechar(Faixa f) throws IOException {
+        f.saida.close();
+        f.dados = f.bytes.toByteArray();
+        f.saida = null;
+        f.bytes = null;
+        f.capturada = true;
+    }
+
+    private void copiarComunidade(Faixa f, int i) throws IOException {
+        if (f.comunidadesCopiadas[i]) return;
+        f.comunidadesCopiadas[i] = true;
+        contar();
+        Comunidade c = comunidades.get(f.comunidades.get(i));
+        if (c == null) return;
+        int inicio = (int) f.saida.posicao();
+        c.escrever(f.saida);
+        trecho(f, 0, inicio);
+    }
+
+    private void copiarUsuario(Faixa f, int i) throws IOException {
+        if (f.usuariosCopiados[i]) return;
+        f.usuariosCopiados[i] = true;
+        contar();
+        SaidaSnapshot out = f.saida;
+        String login = f.usuarios.get(i);
+        for (int k = 0; k < indices.size(); k++) {
+            ConjuntoInteiros c = indices.get(k).get(login);
+            if (c == null) continue;
+            int inicio = (int) out.posicao();
+            out.escreverLogin(login);
+            out.escreverVarint(c.tamanho());
+            for (int j = 0; j < c.tamanho(); j++) out.escreverLogin(dicionario.login(c.get(j)));
+            trecho(f, k + 1, inicio);
+        }
+        int inicio = (int) out.posicao();
+        // um usuário frio é copiado como está no snapshot anterior, cuja tabela é prefixo desta
+        ByteBuffer frio = usuarios.getRegistroFrio(login);
+        if (frio != null) out.escreverBytes(frio, frio.position(), frio.remaining());
+        else {
+            Usuario u = usuarios.get(login);
+            if (u == null) return;
+            u.escrever(out);
+        }
+        trecho(f, f.quantidades.length, inicio);
+        f.logins.add(login);
+    }
+
+    private void contar() {
+        if (Thread.currentThread() != varredor) capturadasPorOperacoes.incrementAndGet();
+    }
+
+    // Registra o trecho que vai de inicio até a posição atual da saída da faixa
+    private static void trecho(Faixa f, int secao, int inicio) {
+        if (f.quantidadeTrechos + 3 > f.trechos.length) f.trechos = Arrays.copyOf(f.trechos, f.trechos.length * 2);
+        f.trechos[f.quantidadeTrechos++] = secao;
+        f.trechos[f.quantidadeTrechos++] = inicio;
+        f.trechos[f.quantidadeTrechos++] = (int) f.saida.posicao();
+        if (secao < f.quantidades.length) f.quantidades[secao]++;
+    }
+
+    /**
+     * Captura o que nenhuma operação capturou, pela thread que preparou o ponto de controle: em cada
+     * rajada, adquire todas as travas e copia, faixa por faixa, até esgotar o tempo da rajada. Deve ser
+     * chamado depois da pausa, sem travas.
+     */
+    void varrer() {
+        int i = 0;
+        while (i < faixas.length) {
+            if (INTERVALO_RAJADAS > 0) LockSupport.parkNanos(INTERVALO_RAJADAS);
+            try (TravasPorChave.Trava t = travas.travarTodas()) {
+                long limite = System.nanoTime() + RAJADA;
+                while (i < faixas.length && System.nanoTime() < limite) {
+                    if (copiarProximo(faixas[i])) i++;
+                }
+            }
+        }
+        capturaNanos = System.nanoTime() - inicio;
+    }
+
+    /**
+     * Marca o fim da gravação do snapshot.
+     */
+    void marcarGravado() {
+        gravacaoNanos = System.nanoTime() - inicio;
+    }
+
+    /**
+     * @return A primeira falha de captura, ou null se todas as faixas foram capturadas
+     */
+    Exception getFalha() { return falha.get(); }
+
+    /** @return A sequência da última operação contida no ponto de controle */
+    long getUltimaOperacao() { return ultimaOperacao; }
+
+    /** @return A sequência das mensagens de comunidade no ponto de controle */
+    long getSequenciaMensagens() { return sequenciaMensagens; }
+
+    /** @return A tabela de textos do snapshot */
+    Collection<String> getTabela() { return tabela; }
+
+    @Override
+    public void escreverComunidades(SaidaSnapshot out) throws IOException {
+        escreverSecao(out, 0);
+    }
+
+    @Override
+    public void escreverIndices(SaidaSnapshot out) throws IOException {
+        for (int k = 0; k < indices.size(); k++) escreverSecao(out, k + 1);
+    }
+
+    // Grava a quantidade de itens de uma seção e os trechos dela em todas as faixas
+    private void escreverSecao(SaidaSnapshot out, int s) throws IOException {
+        int n = 0;
+        for (Faixa f : faixas) n += f.quantidades[s];
+        out.escreverVarint(n);
+        for (Faixa f : faixas) {
+            ByteBuffer dados = ByteBuffer.wrap(f.dados);
+            for (int t = 0; t < f.quantidadeTrechos; t += 3) {
+                if (f.trechos[t] == s) out.escreverBytes(dados, f.trechos[t + 1], f.trechos[t + 2] - f.trechos[t + 1]);
+            }
+        }
+    }
+
+    @Override
+    public void escreverUsuarios(SaidaSnapshot out) throws IOException {
+        List<String> logins = new ArrayList<>();
+        List<Integer> tamanhos = new ArrayList<>();
+        for (Faixa f : faixas) logins.addAll(f.logins);
+        out.escreverVarint(logins.size());
+        long inicioRegistros = out.posicao();
+        for (Faixa f : faixas) {
+            ByteBuffer dados = ByteBuffer.wrap(f.dados);
+            for (int t = 0; t < f.quantidadeTrechos; t += 3) {
+                if (f.trechos[t] != f.quantidades.length) continue;
+                int tamanho = f.trechos[t + 2] - f.trechos[t + 1];
+                out.escreverBytes(dados, f.trechos[t + 1], tamanho);
+                tamanhos.add(tamanho);
+            }
+        }
+        MapaUsuarios.escreverIndice(out, logins, tamanhos, inicioRegistros);
+    }
+
+    /**
+     * @param gravados Os snapshots gravados em segundo plano até agora
+     * @param falhas Os que falharam
+     * @return Uma fotografia das métricas deste ponto de controle
+     */
+    Metricas getMetricas(long gravados, long falhas) {
+        long bytes = 0;
+        for (Faixa f : faixas) if (f.dados != null) bytes += f.dados.length;
+        return new Metricas(gravados, falhas, pausaNanos, capturaNanos, gravacaoNanos,
+                capturadasPorOperacoes.get(), faixas.length, bytes);
+    }
+
+    /**
+     * Snapshots gravados em segundo plano e os tempos do último.
+     */
+    public static final class Metricas {
+        /**
+         * Nenhum snapshot gravado em segundo plano.
+         */
+        public static final Metricas NENHUMA = new Metricas(0, 0, -1, -1, -1, 0, 0, 0);
+
+        private final long gravados, falhas;
+        private final long pausaNanos, capturaNanos, gravacaoNanos;
+        private final int capturadasPorOperacoes, faixas;
+        private final long bytes;
+
+        Metricas(long gravados, long falhas, long pausaNanos, long capturaNanos, long gravacaoNanos,
+                 int capturadasPorOperacoes, int faixas, long bytes) {
+            this.gravados = gravados;
+            this.falhas = falhas;
+            this.pausaNanos = pausaNanos;
+            this.capturaNanos = capturaNanos;
+            this.gravacaoNanos = gravacaoNanos;
+            this.capturadasPorOperacoes = capturadasPorOperacoes;
+            this.faixas = faixas;
+            this.bytes = bytes;
+        }
+
+        /** @return Os snapshots gravados em segundo plano */
+        public long getGravados() { return gravados; }
+
+        /** @return Os snapshots em segundo plano que falharam ou foram descartados */
+        public long getFalhas() { return falhas; }
+
+        /** @return Quanto durou a pausa com todas as travas, no último snapshot */
+        public long getPausaNanos() { return pausaNanos; }
+
+        /** @return O tempo desde o início da pausa até todas as faixas estarem capturadas, ou -1 */
+        public long getCapturaNanos() { return capturaNanos; }
+
+        /** @return O tempo desde o início da pausa até o snapshot estar gravado, ou -1 */
+        public long getGravacaoNanos() { return gravacaoNanos; }
+
+        /** @return Os usuários e as comunidades capturados por operações, e não pela varredura */
+        public int getCapturadasPorOperacoes() { return capturadasPorOperacoes; }
+
+        /** @return As faixas capturadas, uma por trava */
+        public int getFaixas() { return faixas; }
+
+        /** @return O tamanho das cópias capturadas */
+        public long getBytes() { return bytes; }
+
+        @Override
+        public String toString() {
+            return "gravados=" + gravados + " falhas=" + falhas + " pausaUs=" + micros(pausaNanos)
+                    + " capturaMs=" + milis(capturaNanos) + " gravacaoMs=" + milis(gravacaoNanos)
+                    + " capturadasPorOperacoes=" + capturadasPorOperacoes + " faixas=" + faixas + " bytes=" + bytes;
+        }
+
+        private static long micros(long nanos) {
+            return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMicros(nanos);
+        }
+
+        private static long milis(long nanos) {
+            return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+    }
+}
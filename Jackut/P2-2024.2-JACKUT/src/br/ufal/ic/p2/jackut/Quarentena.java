@@ -0,0 +1,45 @@
+package br.ufal.ic.p2.jackut;
+
+import br.ufal.ic.p2.jackut.exceptions.FalhaAoCarregarDadosException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Guarda os arquivos de um estado que não pôde ser carregado em {@code jackut.quarentena/<instante>/}, para
+ * que o sistema possa começar vazio sem apagar nada: o registro de operações é a única cópia das operações
+ * confirmadas desde o último snapshot, e o motivo da falha pode ser passageiro ou um erro do próprio Jackut.
+ */
+final class Quarentena {
+
+    static final String DIRETORIO = "jackut.quarentena";
+
+    private Quarentena() { }
+
+    /**
+     * Move para a quarentena os arquivos do diretório atual cujo nome começa com um dos prefixos.
+     *
+     * @param prefixos Os prefixos dos arquivos do armazenamento
+     * @return O diretório da quarentena, ou null se não havia arquivos
+     * @throws FalhaAoCarregarDadosException Se algum arquivo não puder ser movido; nesse caso o sistema não
+     *                                       deve começar, para não gravar por cima dele
+     */
+    static File mover(String... prefixos) {
+        File[] fs = new File(".").listFiles((d, n) -> {
+            for (String p : prefixos) if (n.startsWith(p)) return true;
+            return false;
+        });
+        if (fs == null || fs.length == 0) return null;
+        File destino = new File(DIRETORIO, new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date()));
+        try {
+            Files.createDirectories(destino.toPath());
+            for (File f : fs) Files.move(f.toPath(), new File(destino, f.getName()).toPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new FalhaAoCarregarDadosException();
+        }
+        return destino;
+    }
+}
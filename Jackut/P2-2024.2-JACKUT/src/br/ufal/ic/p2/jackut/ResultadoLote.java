@@ -0,0 +1,84 @@
+package br.ufal.ic.p2.jackut;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Resultado de uma operação em lote da {@link Facade}: para cada item, na ordem em que foi fornecido,
+ * indica se a operação foi aplicada ou qual exceção impediu a aplicação. A exceção é a mesma que a
+ * operação individual correspondente lançaria.
+ */
+public class ResultadoLote {
+
+    private final RuntimeException[] erros;
+    private int falhas;
+
+    /**
+     * Cria o resultado de um lote em que todos os itens são, inicialmente, bem-sucedidos.
+     *
+     * @param quantidade A quantidade de itens do lote.
+     */
+    ResultadoLote(int quantidade) {
+        this.erros = new RuntimeException[quantidade];
+    }
+
+    /**
+     * Registra a falha de um item.
+     *
+     * @param i A posição do item.
+     * @param e A exceção que impediu a aplicação do item.
+     */
+    void falhar(int i, RuntimeException e) {
+        if (erros[i] == null) falhas++;
+        erros[i] = e;
+    }
+
+    /**
+     * @return A quantidade de itens do lote.
+     */
+    public int getQuantidade() { return erros.length; }
+
+    /**
+     * @return A quantidade de itens aplicados.
+     */
+    public int getSucessos() { return erros.length - falhas; }
+
+    /**
+     * @return A quantidade de itens que falharam.
+     */
+    public int getFalhas() { return falhas; }
+
+    /**
+     * Verifica se um item foi aplicado.
+     *
+     * @param i A posição do item.
+     * @return True se o item foi aplicado, false caso contrário.
+     */
+    public boolean ok(int i) { return erros[i] == null; }
+
+    /**
+     * Retorna a exceção que impediu a aplicação de um item.
+     *
+     * @param i A posição do item.
+     * @return A exceção, ou null se o item foi aplicado.
+     */
+    public RuntimeException getErro(int i) { return erros[i]; }
+
+    /**
+     * @return As posições dos itens que falharam, em ordem crescente.
+     */
+    public List<Integer> getPosicoesComFalha() {
+        List<Integer> r = new ArrayList<>(falhas);
+        for (int i = 0; i < erros.length; i++) if (erros[i] != null) r.add(i);
+        return r;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{sucessos=").append(getSucessos()).append(",falhas=").append(falhas);
+        for (int i = 0; i < erros.length; i++) {
+            if (erros[i] != null) sb.append(',').append(i).append(':').append(erros[i].getMessage());
+        }
+        return sb.append('}').toString();
+    }
+}
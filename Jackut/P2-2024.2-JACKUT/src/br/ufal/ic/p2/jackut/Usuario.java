@@ -1,86 +1,148 @@
 package br.ufal.ic.p2.jackut;
 
+import br.ufal.ic.p2.jackut.autenticacao.Credencial;
 import br.ufal.ic.p2.jackut.exceptions.AtributoNaoPreenchidoException;
-import java.io.Serializable;
+import br.ufal.ic.p2.jackut.persistencia.EntradaSnapshot;
+import br.ufal.ic.p2.jackut.persistencia.SaidaSnapshot;
+import br.ufal.ic.p2.jackut.util.ConjuntoInteiros;
+import br.ufal.ic.p2.jackut.util.DicionarioLogins;
+import java.io.*;
 import java.util.*;
 
 /**
- * Classe que representa um usurio na rede social Jackut.
- * Contm informaes de login, senha, nome, amigos, recados, atributos, convites pendentes,
- * fs, dolos, paqueras, inimigos e comunidades participando.
+ * Classe que representa um usuário na rede social Jackut.
+ * Contém informações de login, senha, nome, amigos, recados, atributos, convites pendentes,
+ * fãs, ídolos, paqueras, inimigos e comunidades participando.
  *
- * A classe fornece mtodos para gerenciar e acessar essas informaes.
+ * A classe fornece métodos para gerenciar e acessar essas informações.
+ *
+ * <p>Amigos, convites, ídolos, paqueras e inimigos são guardados como ids do {@link DicionarioLogins}
+ * do sistema, em {@link ConjuntoInteiros}; os métodos públicos continuam recebendo e devolvendo logins,
+ * na ordem de inserção.</p>
+ *
+ * <p>Cada recado guarda também o id do remetente, para que a remoção de uma conta apague só os
+ * recados enviados por ela.</p>
+ *
+ * <p>As consultas mais frequentes (atributos, amizade e ídolos) podem ser respondidas sem trava por uma
+ * {@link Visao} imutável do usuário. Toda alteração desses dados descarta a visão publicada, e a próxima
+ * consulta monta outra, com a trava do login, por {@link #atualizarVisao()}.</p>
  */
 public class Usuario implements Serializable {
     private static final long serialVersionUID = 1L;
 
     private String login;
+    // Registro de Credencial, nunca a senha por extenso
     private String senha;
     private String nome;
 
-    private List<String> amigos          = new ArrayList<>();
+    private transient DicionarioLogins dicionario;
+
+    private transient ConjuntoInteiros amigos            = new ConjuntoInteiros();
     private Queue<String> recados        = new LinkedList<>();
+    // Id do remetente de cada recado, na mesma ordem de recados (-1 quando desconhecido)
+    private transient Queue<Integer> remetentes = new ArrayDeque<>();
     private Map<String,String> atributos = new HashMap<>();
-    private Set<String> convitesPendentes = new HashSet<>();
+    private transient ConjuntoInteiros convitesPendentes = new ConjuntoInteiros();
 
-    private Set<String> idolos    = new LinkedHashSet<>();
-    private Set<String> paqueras  = new LinkedHashSet<>();
-    private Set<String> inimigos  = new LinkedHashSet<>();
+    private transient ConjuntoInteiros idolos   = new ConjuntoInteiros();
+    private transient ConjuntoInteiros paqueras = new ConjuntoInteiros();
+    private transient ConjuntoInteiros inimigos = new ConjuntoInteiros();
     private Queue<String> mensagens = new LinkedList<>();
 
-    // Histrico de comunidades na ordem de ingresso
+    // Histórico de comunidades na ordem de ingresso
     private Set<String> comunidadesParticipando = new LinkedHashSet<>();
 
+    // Visão imutável publicada para as consultas sem trava, ou null se algum dado mudou desde a última
+    private transient volatile Visao visao;
+
+    // Incrementada a cada mudança de amizades, convites, inimigos ou comunidades; valida as sugestões guardadas
+    private transient volatile int versaoRelacoes;
+
+    // Relacionamentos lidos de um snapshot antigo (serialização Java), até o usuário ser vinculado a um dicionário
+    private transient Map<String, Collection<String>> legado;
+
+    // Campos gravados pela serialização Java, com os tipos das versões anteriores da classe
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("login", String.class),
+        new ObjectStreamField("senha", String.class),
+        new ObjectStreamField("nome", String.class),
+        new ObjectStreamField("amigos", List.class),
+        new ObjectStreamField("recados", Queue.class),
+        new ObjectStreamField("atributos", Map.class),
+        new ObjectStreamField("convitesPendentes", Set.class),
+        new ObjectStreamField("idolos", Set.class),
+        new ObjectStreamField("paqueras", Set.class),
+        new ObjectStreamField("inimigos", Set.class),
+        new ObjectStreamField("mensagens", Queue.class),
+        new ObjectStreamField("comunidadesParticipando", Set.class),
+    };
+
     /**
-     * Constri um novo usurio com as informaes fornecidas.
+     * Constrói um novo usuário com as informações fornecidas.
      *
-     * @param login Login do usurio
-     * @param senha Senha do usurio
-     * @param nome Nome do usurio
+     * @param dicionario Dicionário de logins do sistema
+     * @param login Login do usuário
+     * @param credencial Registro de {@link Credencial} da senha do usuário
+     * @param nome Nome do usuário
      */
-    public Usuario(String login, String senha, String nome) {
+    public Usuario(DicionarioLogins dicionario, String login, String credencial, String nome) {
+        this.dicionario = dicionario;
         this.login = login;
-        this.senha = senha;
+        this.senha = credencial;
         this.nome  = nome;
     }
 
     /**
-     * @return O login do usurio
+     * @return O login do usuário
      */
     public String getLogin() { return login; }
 
     /**
      *
-     * @return O nome do usurio
+     * @return O nome do usuário
      */
     public String getNome()  { return nome; }
 
     /**
-     * Verifica se a senha fornecida corresponde  senha do usurio.
+     * Verifica se a senha fornecida corresponde à senha do usuário. Deriva o hash na thread atual; o
+     * Jackut verifica as senhas pelo {@link br.ufal.ic.p2.jackut.autenticacao.Autenticador}.
      *
      * @param s Senha a ser verificada
-     * @return True se a senha for vlida, false caso contrrio
+     * @return True se a senha for válida, false caso contrário
+     */
+    public boolean verificarSenha(String s) { return Credencial.verificar(s, senha); }
+
+    /**
+     * @return O registro de {@link Credencial} da senha do usuário
+     */
+    public String getCredencial() { return senha; }
+
+    /**
+     * Troca o registro da senha do usuário, por exemplo ao refazer um registro legado no login.
+     *
+     * @param credencial O novo registro de {@link Credencial}
      */
-    public boolean verificarSenha(String s) { return this.senha.equals(s); }
+    public void setCredencial(String credencial) { this.senha = credencial; }
 
     // Perfil
 
     /**
-     * Edita um atributo do usurio.
+     * Edita um atributo do usuário.
      *
      * @param atributo O nome do atributo a ser editado
-     * @param valor O valor a ser atribudo ao atributo
+     * @param valor O valor a ser atribuído ao atributo
      */
     public void editarAtributo(String atributo, String valor) {
         if ("nome".equals(atributo)) this.nome = valor;
         else atributos.put(atributo, valor);
+        visao = null;
     }
 
     /**
      *
      * @param atributo O nome do atributo
      * @return O valor do atributo
-     * @throws AtributoNaoPreenchidoException Se o atributo no estiver preenchido
+     * @throws AtributoNaoPreenchidoException Se o atributo não estiver preenchido
      */
     public String getAtributo(String atributo) {
         if ("nome".equals(atributo)) return nome;
@@ -88,180 +150,711 @@ public class Usuario implements Serializable {
         throw new AtributoNaoPreenchidoException();
     }
 
+    /**
+     * @param atributo O nome do atributo
+     * @return O valor do atributo, ou null se ele não estiver preenchido
+     */
+    public String getValorAtributo(String atributo) {
+        return "nome".equals(atributo) ? nome : atributos.get(atributo);
+    }
+
+    /**
+     * Retorna os textos do perfil usados na busca de usuários.
+     *
+     * @return O login, o nome e os valores dos atributos
+     */
+    public List<String> getTextosPerfil() {
+        List<String> textos = new ArrayList<>(atributos.size() + 2);
+        textos.add(login);
+        textos.add(nome);
+        textos.addAll(atributos.values());
+        return textos;
+    }
+
     // Amigos
 
     /**
-     * Verifica se o usurio  amigo de outro usurio.
+     * Verifica se o usuário é amigo de outro usuário.
      *
      * @param a Login do amigo
-     * @return True se forem amigos, false caso contrrio
+     * @return True se forem amigos, false caso contrário
      */
-    public boolean ehAmigo(String a) { return amigos.contains(a); }
+    public boolean ehAmigo(String a) { return contem(amigos, a); }
 
     /**
-     * Confirma uma amizade com outro usurio.
+     * Confirma uma amizade com outro usuário.
      *
      * @param a Login do amigo
      */
     public void confirmarAmizade(String a) {
-        if (!amigos.contains(a)) amigos.add(a);
+        amigos.adicionar(dicionario.id(a));
+        visao = null;
+        versaoRelacoes++;
     }
 
     /**
-     * Retorna a lista de amigos do usurio.
+     * Desfaz a amizade com outro usuário, se existir.
      *
-     * @return Lista de amigos
+     * @param a Login do amigo
      */
-    public List<String> getAmigos() { return amigos; }
+    public void removerAmigo(String a) {
+        remover(amigos, a);
+        visao = null;
+        versaoRelacoes++;
+    }
+
+    /**
+     * Retorna a lista de amigos do usuário.
+     *
+     * @return Uma cópia da lista de amigos, na ordem em que as amizades foram confirmadas
+     */
+    public List<String> getAmigos() { return logins(amigos, new ArrayList<>(amigos.tamanho())); }
+
+    /**
+     * Retorna uma página da lista de amigos do usuário.
+     *
+     * @param inicio A posição do primeiro amigo
+     * @param limite A quantidade máxima de amigos
+     * @return A página, na ordem em que as amizades foram confirmadas
+     */
+    public Pagina getAmigos(int inicio, int limite) { return Pagina.de(amigos, dicionario, inicio, limite); }
+
+    /**
+     * Retorna os usuários que enviaram convites de amizade ainda não aceitos.
+     *
+     * @return Os logins de quem enviou os convites, na ordem de envio
+     */
+    public List<String> getConvitesPendentes() {
+        return logins(convitesPendentes, new ArrayList<>(convitesPendentes.tamanho()));
+    }
 
     /**
      * Adiciona um convite pendente de amizade.
      *
-     * @param de Login do usurio que enviou o convite
+     * @param de Login do usuário que enviou o convite
      */
-    public void adicionarConvite(String de) { convitesPendentes.add(de); }
+    public void adicionarConvite(String de) {
+        convitesPendentes.adicionar(dicionario.id(de));
+        versaoRelacoes++;
+    }
 
     /**
-     * Verifica se h um convite pendente de amizade.
+     * Verifica se há um convite pendente de amizade.
      *
-     * @param de Login do usurio que enviou o convite
-     * @return True se houver convite pendente, false caso contrrio
+     * @param de Login do usuário que enviou o convite
+     * @return True se houver convite pendente, false caso contrário
      */
-    public boolean temConvite(String de)    { return convitesPendentes.contains(de); }
+    public boolean temConvite(String de)    { return contem(convitesPendentes, de); }
 
     /**
      * Remove um convite pendente de amizade.
      *
-     * @param de Login do usurio que enviou o convite
+     * @param de Login do usuário que enviou o convite
      */
-    public void removerConvite(String de)   { convitesPendentes.remove(de); }
+    public void removerConvite(String de) {
+        remover(convitesPendentes, de);
+        versaoRelacoes++;
+    }
 
     // Recados privados
 
     /**
      * Recebe um recado privado.
      *
+     * @param remetente Login de quem enviou o recado
      * @param msg O recado a ser recebido
      */
-    public void receberRecado(String msg) { recados.add(msg); }
+    public void receberRecado(String remetente, String msg) {
+        remetentes.add(dicionario.id(remetente));
+        recados.add(msg);
+    }
 
     /**
-     * L o prximo recado privado.
-     *
-     * @return O recado lido, ou null se no houver recados
+     * @return A quantidade de recados ainda não lidos
      */
-    public String lerRecado()             { return recados.poll(); }
+    public int getQuantidadeRecados() { return recados.size(); }
 
     /**
-     * Limpa todos os recados privados.
+     * Lê o próximo recado privado.
+     *
+     * @return O recado lido, ou null se não houver recados
      */
-    public void limparRecados()           { recados.clear(); }
+    public String lerRecado() {
+        remetentes.poll();
+        return recados.poll();
+    }
 
-    // Mensagens de comunidade
+    /**
+     * Retorna os remetentes dos recados ainda não lidos, quando conhecidos.
+     *
+     * @return Os logins dos remetentes, sem repetição
+     */
+    public Set<String> getRemetentesRecados() {
+        Set<String> r = new HashSet<>();
+        for (int id : remetentes) if (id >= 0) r.add(dicionario.login(id));
+        return r;
+    }
 
     /**
-     * Recebe uma mensagem de comunidade.
+     * Remove os recados ainda não lidos enviados por um usuário.
      *
-     * @param msg A mensagem a ser recebida
+     * @param remetente Login do remetente
      */
-    public void receberMensagem(String msg) { mensagens.add(msg); }
+    public void removerRecadosDe(String remetente) {
+        int id = dicionario.buscar(remetente);
+        if (id < 0 || !remetentes.contains(id)) return;
+        Iterator<String> r = recados.iterator();
+        for (Iterator<Integer> i = remetentes.iterator(); i.hasNext(); ) {
+            r.next();
+            if (i.next() == id) {
+                i.remove();
+                r.remove();
+            }
+        }
+    }
+
+    // Mensagens de comunidade recebidas antes do registro compartilhado de cada comunidade (ver Comunidade)
 
     /**
-     * L a prxima mensagem de comunidade.
+     * Lê a próxima mensagem de comunidade entregue na fila do usuário, no formato anterior ao
+     * registro compartilhado das comunidades.
      *
-     * @return A mensagem lida, ou null se no houver mensagens
+     * @return A mensagem lida, ou null se não houver mensagens
      */
     public String lerMensagem()              { return mensagens.poll(); }
 
+    // Fãs/ídolos
+
     /**
-     * Limpa todas as mensagens de comunidade.
+     * Adiciona um ídolo ao usuário.
+     *
+     * @param idolo O login do ídolo
      */
-    public void limparMensagens()            { mensagens.clear(); }
+    public void adicionarIdolo(String idolo) {
+        idolos.adicionar(dicionario.id(idolo));
+        visao = null;
+    }
 
-    // Fs/dolos
+    /**
+     * Verifica se o usuário é ídolo de outro usuário.
+     *
+     * @param idolo O login do ídolo
+     * @return True se for ídolo, false caso contrário
+     */
+    public boolean ehIdolo(String idolo)     { return contem(idolos, idolo); }
 
     /**
-     * Adiciona um dolo ao usurio.
+     * Remove um ídolo do usuário.
      *
-     * @param idolo O login do dolo
+     * @param idolo O login do ídolo
      */
-    public void adicionarIdolo(String idolo) { idolos.add(idolo); }
+    public void removerIdolo(String idolo) {
+        remover(idolos, idolo);
+        visao = null;
+    }
 
     /**
-     * Verifica se o usurio  dolo de outro usurio.
+     * Retorna o conjunto de ídolos do usuário.
      *
-     * @param idolo O login do dolo
-     * @return True se for dolo, false caso contrrio
+     * @return Uma cópia do conjunto de ídolos, na ordem em que foram adicionados
      */
-    public boolean ehIdolo(String idolo)     { return idolos.contains(idolo); }
+    public Set<String> getIdolos()           { return logins(idolos, new LinkedHashSet<>()); }
 
     // Paqueras
 
     /**
-     * Adiciona uma paquera ao usurio.
+     * Adiciona uma paquera ao usuário.
      *
      * @param p O login da paquera
      */
-    public void adicionarPaquera(String p) { paqueras.add(p); }
+    public void adicionarPaquera(String p) { paqueras.adicionar(dicionario.id(p)); }
 
     /**
-     * Verifica se o usurio tem uma paquera.
+     * Verifica se o usuário tem uma paquera.
      *
      * @param p O login da paquera
-     * @return True se for paquera, false caso contrrio
+     * @return True se for paquera, false caso contrário
      */
-    public boolean ehPaquera(String p)     { return paqueras.contains(p); }
+    public boolean ehPaquera(String p)     { return contem(paqueras, p); }
 
     /**
-     * Retorna o conjunto de paqueras do usurio.
+     * Remove uma paquera do usuário, se existir.
      *
-     * @return O conjunto de paqueras
+     * @param p O login da paquera
      */
-    public Set<String> getPaqueras()       { return paqueras; }
+    public void removerPaquera(String p)   { remover(paqueras, p); }
+
+    /**
+     * Retorna o conjunto de paqueras do usuário.
+     *
+     * @return Uma cópia do conjunto de paqueras, na ordem em que foram adicionadas
+     */
+    public Set<String> getPaqueras()       { return logins(paqueras, new LinkedHashSet<>()); }
+
+    /**
+     * Retorna uma página das paqueras do usuário.
+     *
+     * @param inicio A posição da primeira paquera
+     * @param limite A quantidade máxima de paqueras
+     * @return A página, na ordem em que as paqueras foram adicionadas
+     */
+    public Pagina getPaqueras(int inicio, int limite) { return Pagina.de(paqueras, dicionario, inicio, limite); }
 
     // Inimizades
 
     /**
-     * Adiciona um inimigo ao usurio.
+     * Adiciona um inimigo ao usuário.
      *
      * @param inimigo O login do inimigo
      */
-    public void adicionarInimigo(String inimigo) { inimigos.add(inimigo); }
+    public void adicionarInimigo(String inimigo) {
+        inimigos.adicionar(dicionario.id(inimigo));
+        versaoRelacoes++;
+    }
+
+    /**
+     * Verifica se o usuário tem um inimigo.
+     *
+     * @param i O login do inimigo
+     * @return True se for inimigo, false caso contrário
+     */
+    public boolean ehInimigo(String i)            { return contem(inimigos, i); }
 
     /**
-     * Verifica se o usurio tem um inimigo.
+     * Remove um inimigo do usuário, se existir.
      *
      * @param i O login do inimigo
-     * @return True se for inimigo, false caso contrrio
      */
-    public boolean ehInimigo(String i)            { return inimigos.contains(i); }
+    public void removerInimigo(String i) {
+        remover(inimigos, i);
+        versaoRelacoes++;
+    }
+
+    /**
+     * Retorna o conjunto de inimigos do usuário.
+     *
+     * @return Uma cópia do conjunto de inimigos, na ordem em que foram adicionados
+     */
+    public Set<String> getInimigos()              { return logins(inimigos, new LinkedHashSet<>()); }
 
     // Comunidades
 
     /**
-     * Adiciona o usurio a uma comunidade.
+     * Adiciona o usuário a uma comunidade.
      *
      * @param nomeComunidade O nome da comunidade
      */
     public void adicionarComunidadeParticipa(String nomeComunidade) {
         comunidadesParticipando.add(nomeComunidade);
+        versaoRelacoes++;
     }
 
     /**
-     * Retorna as comunidades que o usurio participa.
+     * Retorna as comunidades que o usuário participa.
      *
-     * @return O conjunto de comunidades que o usurio participa
+     * @return O conjunto de comunidades que o usuário participa
      */
     public Set<String> getComunidadesParticipando() {
         return comunidadesParticipando;
     }
 
     /**
-     * Limpa as comunidades nas quais o usurio participa, mantendo apenas as que esto presentes na coleo fornecida.
+     * Retorna uma página das comunidades que o usuário participa. O histórico não tem acesso por
+     * posição, então o custo de montar a página cresce com o seu início; a memória usada, não.
+     *
+     * @param inicio A posição da primeira comunidade
+     * @param limite A quantidade máxima de comunidades
+     * @return A página, na ordem de ingresso
+     */
+    public Pagina getComunidadesParticipando(int inicio, int limite) {
+        return Pagina.de(comunidadesParticipando, inicio, limite);
+    }
+
+    /**
+     * Remove uma comunidade do histórico de comunidades do usuário.
+     *
+     * @param nomeComunidade O nome da comunidade
+     */
+    public void removerComunidadeParticipa(String nomeComunidade) {
+        comunidadesParticipando.remove(nomeComunidade);
+        versaoRelacoes++;
+    }
+
+    // Sugestões de amizade
+
+    /**
+     * Retorna a versão dos relacionamentos, sem trava. A versão muda a cada alteração de amizades,
+     * convites recebidos, inimigos ou comunidades do usuário, e também quando o sistema avisa por
+     * {@link #relacoesAlteradas()} de uma alteração guardada em outro usuário.
+     *
+     * @return A versão atual
+     */
+    public int getVersaoRelacoes() { return versaoRelacoes; }
+
+    /**
+     * Avisa que um relacionamento do usuário guardado em outro usuário mudou (um convite que ele enviou,
+     * alguém que o adicionou como inimigo); deve ser chamado com a trava do login adquirida.
+     */
+    public void relacoesAlteradas() { versaoRelacoes++; }
+
+    /**
+     * @return Os ids dos amigos, em ordem crescente; deve ser chamado com a trava do login adquirida
+     */
+    public int[] getIdsAmigos() { return amigos.copiaOrdenada(); }
+
+    /**
+     * @return Os ids dos inimigos, em ordem crescente; deve ser chamado com a trava do login adquirida
+     */
+    public int[] getIdsInimigos() { return inimigos.copiaOrdenada(); }
+
+    /**
+     * @return Os ids de quem enviou convites pendentes, em ordem crescente; deve ser chamado com a trava
+     *         do login adquirida
+     */
+    public int[] getIdsConvitesPendentes() { return convitesPendentes.copiaOrdenada(); }
+
+    // Visão para consultas sem trava
+
+    /**
+     * Retorna a visão publicada, sem trava.
+     *
+     * @return A visão, ou null se o usuário foi alterado desde que ela foi montada
+     */
+    public Visao getVisao() { return visao; }
+
+    /**
+     * Retorna a visão publicada, montando e publicando uma nova se o usuário foi alterado; deve ser
+     * chamado com a trava do login adquirida.
+     *
+     * @return A visão, em dia com o estado atual do usuário
+     */
+    public Visao atualizarVisao() {
+        Visao v = visao;
+        if (v == null) visao = v = new Visao(this);
+        return v;
+    }
+
+    /**
+     * Fotografia imutável dos dados do usuário mais consultados, que pode ser lida por várias threads
+     * sem trava.
+     */
+    public static final class Visao {
+        private final DicionarioLogins dicionario;
+        private final String nome;
+        private final Map<String, String> atributos;
+        private final int[] amigos;
+        private final int[] idolos;
+
+        private Visao(Usuario u) {
+            this.dicionario = u.dicionario;
+            this.nome = u.nome;
+            this.atributos = Collections.unmodifiableMap(new HashMap<>(u.atributos));
+            this.amigos = u.amigos.copiaOrdenada();
+            this.idolos = u.idolos.copiaOrdenada();
+        }
+
+        /**
+         * @param atributo O nome do atributo
+         * @return O valor do atributo
+         * @throws AtributoNaoPreenchidoException Se o atributo não estiver preenchido
+         */
+        public String getAtributo(String atributo) {
+            if ("nome".equals(atributo)) return nome;
+            if (atributos.containsKey(atributo)) return atributos.get(atributo);
+            throw new AtributoNaoPreenchidoException();
+        }
+
+        /**
+         * @param a Login do amigo
+         * @return True se forem amigos, false caso contrário
+         */
+        public boolean ehAmigo(String a) { return contem(amigos, a); }
+
+        /**
+         * @param idolo O login do ídolo
+         * @return True se for ídolo, false caso contrário
+         */
+        public boolean ehIdolo(String idolo) { return contem(idolos, idolo); }
+
+        /**
+         * @return A quantidade de amigos
+         */
+        public int getQuantidadeAmigos() { return amigos.length; }
+
+        /**
+         * @param i A posição, de 0 a {@code getQuantidadeAmigos() - 1}
+         * @return O id do amigo na posição, em ordem crescente de id
+         */
+        public int getIdAmigo(int i) { return amigos[i]; }
+
+        private boolean contem(int[] ordenados, String login) {
+            int id = dicionario.buscar(login);
+            return id >= 0 && Arrays.binarySearch(ordenados, id) >= 0;
+        }
+    }
+
+    // Ids de logins
+
+    /**
+     * Verifica se um conjunto de ids contém o id de um login; logins sem id não estão em conjunto algum.
+     */
+    private boolean contem(ConjuntoInteiros c, String login) {
+        int id = dicionario.buscar(login);
+        return id >= 0 && c.contem(id);
+    }
+
+    /**
+     * Remove o id de um login de um conjunto de ids.
+     */
+    private void remover(ConjuntoInteiros c, String login) {
+        int id = dicionario.buscar(login);
+        if (id >= 0) c.remover(id);
+    }
+
+    /**
+     * Converte um conjunto de ids nos logins correspondentes, na ordem de inserção.
+     */
+    private <C extends Collection<String>> C logins(ConjuntoInteiros c, C destino) {
+        for (int i = 0; i < c.tamanho(); i++) destino.add(dicionario.login(c.get(i)));
+        return destino;
+    }
+
+    // Snapshot binário
+
+    /**
+     * Grava o usuário no formato binário de snapshot.
      *
-     * @param existentes Coleo de comunidades existentes a serem mantidas
+     * @param out A saída do snapshot
+     * @throws IOException Se a escrita falhar
      */
-    public void limparComunidadesParticipando(Collection<String> existentes) {
-        comunidadesParticipando.retainAll(existentes);
+    public void escrever(SaidaSnapshot out) throws IOException {
+        out.escreverLogin(login);
+        out.escreverTexto(senha);
+        out.escreverTexto(nome);
+        escreverIds(out, amigos);
+        out.escreverTextos(recados);
+        out.escreverVarint(atributos.size());
+        for (Map.Entry<String, String> e : atributos.entrySet()) {
+            out.escreverTexto(e.getKey());
+            out.escreverTexto(e.getValue());
+        }
+        escreverIds(out, convitesPendentes);
+        escreverIds(out, idolos);
+        escreverIds(out, paqueras);
+        escreverIds(out, inimigos);
+        out.escreverTextos(mensagens);
+        out.escreverLogins(comunidadesParticipando);
+        out.escreverVarint(remetentes.size());
+        for (int id : remetentes) out.escreverLogin(id < 0 ? null : dicionario.login(id));
+    }
+
+    /**
+     * Lê um usuário gravado por {@link #escrever(SaidaSnapshot)}.
+     *
+     * @param in A entrada do snapshot
+     * @param dicionario Dicionário de logins do sistema
+     * @return O usuário lido
+     * @throws IOException Se a leitura falhar
+     */
+    public static Usuario ler(EntradaSnapshot in, DicionarioLogins dicionario) throws IOException {
+        String login = in.lerLogin();
+        String senha = in.lerTexto();
+        // até a versão 4 a senha era gravada por extenso
+        if (in.getVersao() < 5) senha = Credencial.legada(senha);
+        Usuario u = new Usuario(dicionario, login, senha, in.lerTexto());
+        u.lerIds(in, u.amigos);
+        in.lerTextos(u.recados);
+        int n = in.lerQuantidade();
+        for (int i = 0; i < n; i++) u.atributos.put(in.lerTexto(), in.lerTexto());
+        u.lerIds(in, u.convitesPendentes);
+        u.lerIds(in, u.idolos);
+        u.lerIds(in, u.paqueras);
+        u.lerIds(in, u.inimigos);
+        in.lerTextos(u.mensagens);
+        in.lerLogins(u.comunidadesParticipando);
+        // até a versão 3 o remetente dos recados não era gravado
+        if (in.getVersao() >= 4) {
+            int m = in.lerQuantidade();
+            for (int i = 0; i < m; i++) {
+                String r = in.lerLogin();
+                u.remetentes.add(r == null ? -1 : dicionario.id(r));
+            }
+        } else {
+            for (int i = 0; i < u.recados.size(); i++) u.remetentes.add(-1);
+        }
+        return u;
+    }
+
+    // Registros separados, usados pelos armazenamentos que gravam cada alteração no lugar
+
+    /**
+     * Grava o perfil do usuário (login, credencial, nome e atributos), a parte alterada pela edição do
+     * perfil e pela troca da credencial.
+     *
+     * @param out A saída do registro
+     * @throws IOException Se a escrita falhar
+     */
+    public void escreverPerfil(SaidaSnapshot out) throws IOException {
+        out.escreverLogin(login);
+        out.escreverTexto(senha);
+        out.escreverTexto(nome);
+        out.escreverVarint(atributos.size());
+        for (Map.Entry<String, String> e : atributos.entrySet()) {
+            out.escreverTexto(e.getKey());
+            out.escreverTexto(e.getValue());
+        }
+    }
+
+    /**
+     * Lê um perfil gravado por {@link #escreverPerfil(SaidaSnapshot)}, criando o usuário sem
+     * relacionamentos nem recados.
+     *
+     * @param in A entrada do registro
+     * @param dicionario Dicionário de logins do sistema
+     * @return O usuário lido
+     * @throws IOException Se a leitura falhar
+     */
+    public static Usuario lerPerfil(EntradaSnapshot in, DicionarioLogins dicionario) throws IOException {
+        Usuario u = new Usuario(dicionario, in.lerLogin(), in.lerTexto(), in.lerTexto());
+        int n = in.lerQuantidade();
+        for (int i = 0; i < n; i++) u.atributos.put(in.lerTexto(), in.lerTexto());
+        return u;
+    }
+
+    /**
+     * Grava os relacionamentos do usuário: amigos, convites, ídolos, paqueras, inimigos e comunidades.
+     *
+     * @param out A saída do registro
+     * @throws IOException Se a escrita falhar
+     */
+    public void escreverRelacoes(SaidaSnapshot out) throws IOException {
+        escreverIds(out, amigos);
+        escreverIds(out, convitesPendentes);
+        escreverIds(out, idolos);
+        escreverIds(out, paqueras);
+        escreverIds(out, inimigos);
+        out.escreverLogins(comunidadesParticipando);
+    }
+
+    /**
+     * Lê, para este usuário, os relacionamentos gravados por {@link #escreverRelacoes(SaidaSnapshot)}.
+     *
+     * @param in A entrada do registro
+     * @throws IOException Se a leitura falhar
+     */
+    public void lerRelacoes(EntradaSnapshot in) throws IOException {
+        lerIds(in, amigos);
+        lerIds(in, convitesPendentes);
+        lerIds(in, idolos);
+        lerIds(in, paqueras);
+        lerIds(in, inimigos);
+        in.lerLogins(comunidadesParticipando);
+    }
+
+    /**
+     * Grava a caixa de entrada do usuário: os recados não lidos, com os remetentes, e as mensagens de
+     * paqueras ainda não lidas.
+     *
+     * @param out A saída do registro
+     * @throws IOException Se a escrita falhar
+     */
+    public void escreverRecados(SaidaSnapshot out) throws IOException {
+        out.escreverTextos(recados);
+        out.escreverVarint(remetentes.size());
+        for (int id : remetentes) out.escreverLogin(id < 0 ? null : dicionario.login(id));
+        out.escreverTextos(mensagens);
+    }
+
+    /**
+     * Lê, para este usuário, a caixa de entrada gravada por {@link #escreverRecados(SaidaSnapshot)}.
+     *
+     * @param in A entrada do registro
+     * @throws IOException Se a leitura falhar
+     */
+    public void lerRecados(EntradaSnapshot in) throws IOException {
+        in.lerTextos(recados);
+        int m = in.lerQuantidade();
+        for (int i = 0; i < m; i++) {
+            String r = in.lerLogin();
+            remetentes.add(r == null ? -1 : dicionario.id(r));
+        }
+        in.lerTextos(mensagens);
+    }
+
+    /**
+     * Grava um conjunto de ids no mesmo formato de {@link SaidaSnapshot#escreverLogins(Collection)}.
+     */
+    private void escreverIds(SaidaSnapshot out, ConjuntoInteiros c) throws IOException {
+        out.escreverVarint(c.tamanho());
+        for (int i = 0; i < c.tamanho(); i++) out.escreverLogin(dicionario.login(c.get(i)));
+    }
+
+    /**
+     * Lê logins gravados por {@link SaidaSnapshot#escreverLogins(Collection)} para um conjunto de ids.
+     */
+    private void lerIds(EntradaSnapshot in, ConjuntoInteiros destino) throws IOException {
+        int n = in.lerQuantidade();
+        for (int i = 0; i < n; i++) destino.adicionar(dicionario.id(in.lerLogin()));
+    }
+
+    // Serialização Java (snapshots antigos)
+
+    /**
+     * Vincula um usuário lido de um snapshot antigo ao dicionário de logins do sistema, convertendo
+     * seus relacionamentos em ids.
+     *
+     * @param d Dicionário de logins do sistema
+     */
+    public void vincular(DicionarioLogins d) {
+        this.dicionario = d;
+        if (legado == null) return;
+        for (String a : legado.get("amigos"))            confirmarAmizade(a);
+        for (String c : legado.get("convitesPendentes")) adicionarConvite(c);
+        for (String i : legado.get("idolos"))            adicionarIdolo(i);
+        for (String p : legado.get("paqueras"))          adicionarPaquera(p);
+        for (String i : legado.get("inimigos"))          adicionarInimigo(i);
+        legado = null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField f = in.readFields();
+        login = (String) f.get("login", null);
+        senha = Credencial.legada((String) f.get("senha", null));
+        nome  = (String) f.get("nome", null);
+        recados   = (Queue<String>) f.get("recados", new LinkedList<>());
+        atributos = (Map<String, String>) f.get("atributos", new HashMap<>());
+        mensagens = (Queue<String>) f.get("mensagens", new LinkedList<>());
+        comunidadesParticipando = (Set<String>) f.get("comunidadesParticipando", new LinkedHashSet<>());
+        remetentes = new ArrayDeque<>();
+        for (int i = 0; i < recados.size(); i++) remetentes.add(-1);
+
+        amigos = new ConjuntoInteiros();
+        convitesPendentes = new ConjuntoInteiros();
+        idolos = new ConjuntoInteiros();
+        paqueras = new ConjuntoInteiros();
+        inimigos = new ConjuntoInteiros();
+        legado = new HashMap<>();
+        for (String campo : new String[] {"amigos", "convitesPendentes", "idolos", "paqueras", "inimigos"}) {
+            Collection<String> c = (Collection<String>) f.get(campo, null);
+            legado.put(campo, c == null ? Collections.emptyList() : c);
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField f = out.putFields();
+        f.put("login", login);
+        f.put("senha", senha);
+        f.put("nome", nome);
+        f.put("amigos", getAmigos());
+        f.put("recados", recados);
+        f.put("atributos", atributos);
+        f.put("convitesPendentes", logins(convitesPendentes, new HashSet<>()));
+        f.put("idolos", getIdolos());
+        f.put("paqueras", getPaqueras());
+        f.put("inimigos", logins(inimigos, new LinkedHashSet<>()));
+        f.put("mensagens", mensagens);
+        f.put("comunidadesParticipando", comunidadesParticipando);
+        out.writeFields();
     }
 }
@@ -0,0 +1,238 @@
+package br.ufal.ic.p2.jackut.analise;
+
+import br.ufal.ic.p2.jackut.Configuracao;
+import br.ufal.ic.p2.jackut.Usuario;
+import br.ufal.ic.p2.jackut.util.DicionarioLogins;
+import br.ufal.ic.p2.jackut.util.MelhoresK;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Análise da forma da rede, para planejamento de capacidade, calculada sobre uma {@link FotografiaRede}
+ * sem adquirir travas do sistema.
+ *
+ * <p>Os cálculos usam streams paralelos executados num {@link ForkJoinPool} próprio, com a quantidade de
+ * threads pedida, o que permite medir o ganho com 1..N núcleos:</p>
+ * <ul>
+ *   <li>distribuições da quantidade de amigos e de fãs ({@link EstatisticasGrau});</li>
+ *   <li>componentes conexas da rede de amizades, com union-find sem travas: cada thread une as pontas das
+ *   amizades dos seus usuários com compare-and-set, sempre ligando a raiz de maior índice à de menor;</li>
+ *   <li>sobreposição entre comunidades: cada comunidade vira um bitset sobre os usuários que participam
+ *   de alguma comunidade, e cada par é comparado pela contagem de bits da interseção. Com mais de
+ *   {@code -Djackut.analise.limiteComunidades} comunidades (2048 por padrão), só as maiores são comparadas.</li>
+ * </ul>
+ */
+public final class AnaliseRede {
+
+    private static final int LIMITE_COMUNIDADES = Math.max(2, Configuracao.inteiro("analise.limiteComunidades", 2048));
+    private static final int MAIORES_SOBREPOSICOES = 10;
+
+    private AnaliseRede() { }
+
+    /**
+     * Analisa a rede.
+     *
+     * @param f A fotografia da rede
+     * @param paralelismo A quantidade de threads dos cálculos (no mínimo 1)
+     * @return O relatório
+     */
+    public static RelatorioRede analisar(FotografiaRede f, int paralelismo) {
+        int p = Math.max(1, paralelismo);
+        ForkJoinPool pool = new ForkJoinPool(p);
+        try {
+            return pool.submit(() -> calcular(f, p)).join();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static RelatorioRede calcular(FotografiaRede f, int paralelismo) {
+        long inicio = System.nanoTime();
+        int n = f.getQuantidadeUsuarios();
+        int[] posicao = posicoes(f);
+
+        int[] grausAmigos = new int[n], grausFas = new int[n];
+        IntStream.range(0, n).parallel().forEach(u -> {
+            grausAmigos[u] = f.getVisao(u).getQuantidadeAmigos();
+            grausFas[u] = f.getFas(u);
+        });
+        EstatisticasGrau amigos = new EstatisticasGrau(grausAmigos);
+        EstatisticasGrau fas = new EstatisticasGrau(grausFas);
+
+        // ** componentes conexas **
+        AtomicIntegerArray pai = new AtomicIntegerArray(n);
+        IntStream.range(0, n).parallel().forEach(u -> pai.set(u, u));
+        IntStream.range(0, n).parallel().forEach(u -> {
+            Usuario.Visao v = f.getVisao(u);
+            for (int k = 0; k < v.getQuantidadeAmigos(); k++) {
+                int w = posicao(posicao, v.getIdAmigo(k));
+                if (w > u) unir(pai, u, w);
+            }
+        });
+        int[] raiz = new int[n];
+        IntStream.range(0, n).parallel().forEach(u -> raiz[u] = encontrar(pai, u));
+        int[] tamanho = new int[n];
+        int componentes = 0, maior = 0, isolados = 0;
+        for (int u = 0; u < n; u++) {
+            if (raiz[u] == u) componentes++;
+            maior = Math.max(maior, ++tamanho[raiz[u]]);
+            if (grausAmigos[u] == 0) isolados++;
+        }
+
+        RelatorioRede.Sobreposicao sobreposicao = sobreposicao(f, posicao);
+        return new RelatorioRede(paralelismo, f.getDuracaoNanos(), System.nanoTime() - inicio, amigos, fas,
+                componentes, maior, isolados, sobreposicao);
+    }
+
+    /**
+     * @return Um array id -> posição do usuário na fotografia, com -1 para ids que não são de usuários
+     */
+    private static int[] posicoes(FotografiaRede f) {
+        int n = f.getQuantidadeUsuarios();
+        int maiorId = IntStream.range(0, n).parallel().map(f::getIdUsuario).max().orElse(-1);
+        int[] posicao = new int[maiorId + 1];
+        Arrays.fill(posicao, -1);
+        IntStream.range(0, n).parallel().forEach(u -> posicao[f.getIdUsuario(u)] = u);
+        return posicao;
+    }
+
+    private static int posicao(int[] posicao, int id) {
+        return id >= 0 && id < posicao.length ? posicao[id] : -1;
+    }
+
+    // ** union-find sem travas **
+
+    /**
+     * Encontra a raiz de um elemento, encurtando o caminho pela metade com compare-and-set.
+     */
+    private static int encontrar(AtomicIntegerArray pai, int x) {
+        while (true) {
+            int p = pai.get(x);
+            if (p == x) return x;
+            int avo = pai.get(p);
+            if (p != avo) pai.compareAndSet(x, p, avo);
+            x = avo;
+        }
+    }
+
+    /**
+     * Une os conjuntos de dois elementos, ligando a raiz de maior índice à de menor; se outra thread mudar
+     * a raiz no meio tempo, tenta de novo.
+     */
+    private static void unir(AtomicIntegerArray pai, int a, int b) {
+        while (true) {
+            a = encontrar(pai, a);
+            b = encontrar(pai, b);
+            if (a == b) return;
+            if (a < b) {
+                int t = a;
+                a = b;
+                b = t;
+            }
+            if (pai.compareAndSet(a, a, b)) return;
+        }
+    }
+
+    // ** sobreposição entre comunidades **
+
+    private static RelatorioRede.Sobreposicao sobreposicao(FotografiaRede f, int[] posicao) {
+        int total = f.getQuantidadeComunidades();
+        Integer[] ordem = new Integer[total];
+        for (int c = 0; c < total; c++) ordem[c] = c;
+        if (total > LIMITE_COMUNIDADES) {
+            Arrays.sort(ordem, (a, b) -> Integer.compare(f.getMembros(b).length, f.getMembros(a).length));
+        }
+        int s = Math.min(total, LIMITE_COMUNIDADES);
+        DicionarioLogins d = f.getDicionario();
+
+        // membros como posições de usuários, em paralelo; depois, cada usuário recebe um bit, na ordem em
+        // que aparece, para que os bits de cada comunidade fiquem próximos
+        int[][] membros = new int[s][];
+        IntStream.range(0, s).parallel().forEach(i -> membros[i] = Arrays.stream(f.getMembros(ordem[i]))
+                .mapToInt(m -> posicao(posicao, d.buscar(m))).filter(u -> u >= 0).toArray());
+        int[] bit = new int[f.getQuantidadeUsuarios()];
+        Arrays.fill(bit, -1);
+        int bits = 0;
+        for (int[] ms : membros) {
+            for (int k = 0; k < ms.length; k++) {
+                if (bit[ms[k]] < 0) bit[ms[k]] = bits++;
+                ms[k] = bit[ms[k]];
+            }
+        }
+
+        // cada bitset cobre só as palavras entre o menor e o maior bit da comunidade
+        int[] base = new int[s];
+        long[][] palavras = new long[s][];
+        IntStream.range(0, s).parallel().forEach(i -> {
+            int[] ms = membros[i];
+            int de = Integer.MAX_VALUE, ate = -1;
+            for (int b : ms) {
+                de = Math.min(de, b >>> 6);
+                ate = Math.max(ate, b >>> 6);
+            }
+            base[i] = ate < 0 ? 0 : de;
+            long[] w = new long[ate < 0 ? 0 : ate - de + 1];
+            for (int b : ms) w[(b >>> 6) - base[i]] |= 1L << b;
+            palavras[i] = w;
+        });
+        int[] cardinalidade = new int[s];
+        IntStream.range(0, s).parallel().forEach(i -> cardinalidade[i] = Arrays.stream(palavras[i]).mapToInt(Long::bitCount).sum());
+
+        List<Linha> linhas = IntStream.range(0, s).parallel()
+                .mapToObj(i -> linha(i, base, palavras, cardinalidade))
+                .collect(Collectors.toList());
+
+        long pares = 0;
+        double somaJaccard = 0;
+        List<long[]> candidatos = new ArrayList<>();
+        for (Linha l : linhas) {
+            pares += l.pares;
+            somaJaccard += l.somaJaccard;
+            candidatos.addAll(l.melhores);
+        }
+        candidatos.sort((a, b) -> a[0] != b[0] ? Long.compare(b[0], a[0])
+                : a[1] != b[1] ? Long.compare(a[1], b[1]) : Long.compare(a[2], b[2]));
+        List<String> maiores = new ArrayList<>();
+        for (long[] c : candidatos.subList(0, Math.min(MAIORES_SOBREPOSICOES, candidatos.size()))) {
+            maiores.add(f.getComunidade(ordem[(int) c[1]]) + "/" + f.getComunidade(ordem[(int) c[2]]) + "=" + c[0]);
+        }
+        return new RelatorioRede.Sobreposicao(total, s, pares, pares == 0 ? 0 : somaJaccard / pares, maiores);
+    }
+
+    /**
+     * Compara a comunidade {@code i} com as seguintes.
+     */
+    private static Linha linha(int i, int[] base, long[][] palavras, int[] cardinalidade) {
+        Linha l = new Linha();
+        MelhoresK melhores = new MelhoresK(MAIORES_SOBREPOSICOES);
+        for (int j = i + 1; j < palavras.length; j++) {
+            int comum = intersecao(i, j, base, palavras);
+            if (comum == 0) continue;
+            l.pares++;
+            l.somaJaccard += (double) comum / (cardinalidade[i] + cardinalidade[j] - comum);
+            melhores.oferecer(j, comum);
+        }
+        for (int j : melhores.extrair()) l.melhores.add(new long[]{ intersecao(i, j, base, palavras), i, j });
+        return l;
+    }
+
+    private static int intersecao(int i, int j, int[] base, long[][] palavras) {
+        long[] a = palavras[i], b = palavras[j];
+        int de = Math.max(base[i], base[j]), ate = Math.min(base[i] + a.length, base[j] + b.length);
+        int comum = 0;
+        for (int w = de; w < ate; w++) comum += Long.bitCount(a[w - base[i]] & b[w - base[j]]);
+        return comum;
+    }
+
+    /**
+     * Totais da comparação de uma comunidade com as seguintes.
+     */
+    private static final class Linha {
+        long pares;
+        double somaJaccard;
+        final List<long[]> melhores = new ArrayList<>();
+    }
+}
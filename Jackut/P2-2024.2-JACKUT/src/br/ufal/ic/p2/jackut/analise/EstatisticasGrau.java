@@ -0,0 +1,99 @@
+package br.ufal.ic.p2.jackut.analise;
+
+import java.util.stream.IntStream;
+
+/**
+ * Distribuição de uma quantidade por usuário (amigos, fãs): média, percentis e um histograma com
+ * faixas em potências de 2 ({@code 0}, {@code 1}, {@code 2-3}, {@code 4-7}, ...).
+ */
+public final class EstatisticasGrau {
+
+    private final int quantidade;
+    private final long total;
+    private final int maximo;
+    private final int p50, p90, p99;
+    private final long[] histograma;
+
+    /**
+     * Calcula a distribuição; deve ser chamado dentro do {@link java.util.concurrent.ForkJoinPool} da
+     * análise, que executa a contagem em paralelo.
+     *
+     * @param graus O valor de cada usuário
+     */
+    EstatisticasGrau(int[] graus) {
+        this.quantidade = graus.length;
+        this.maximo = IntStream.of(graus).parallel().max().orElse(0);
+        // contagem por valor, em paralelo; os percentis saem da contagem acumulada
+        long[] contagem = IntStream.range(0, graus.length).parallel().collect(
+                () -> new long[maximo + 1], (c, i) -> c[graus[i]]++, EstatisticasGrau::somar);
+        long soma = 0;
+        long[] faixas = new long[faixa(maximo) + 1];
+        for (int g = 0; g <= maximo; g++) {
+            soma += contagem[g] * g;
+            faixas[faixa(g)] += contagem[g];
+        }
+        this.total = soma;
+        this.histograma = faixas;
+        this.p50 = percentil(contagem, 0.50);
+        this.p90 = percentil(contagem, 0.90);
+        this.p99 = percentil(contagem, 0.99);
+    }
+
+    private static void somar(long[] a, long[] b) {
+        for (int i = 0; i < a.length; i++) a[i] += b[i];
+    }
+
+    private int percentil(long[] contagem, double p) {
+        long alvo = (long) Math.ceil(p * quantidade), acumulado = 0;
+        for (int g = 0; g < contagem.length; g++) {
+            acumulado += contagem[g];
+            if (acumulado >= alvo && acumulado > 0) return g;
+        }
+        return 0;
+    }
+
+    /**
+     * @return A faixa do histograma de um valor: 0 para 0, e 1 + o expoente da maior potência de 2 até ele
+     */
+    private static int faixa(int g) {
+        return g == 0 ? 0 : 32 - Integer.numberOfLeadingZeros(g);
+    }
+
+    /** @return A quantidade de usuários */
+    public int getQuantidade() { return quantidade; }
+
+    /** @return A soma dos valores de todos os usuários */
+    public long getTotal() { return total; }
+
+    /** @return A média por usuário */
+    public double getMedia() { return quantidade == 0 ? 0 : (double) total / quantidade; }
+
+    /** @return O maior valor */
+    public int getMaximo() { return maximo; }
+
+    /** @return A mediana */
+    public int getP50() { return p50; }
+
+    /** @return O percentil 90 */
+    public int getP90() { return p90; }
+
+    /** @return O percentil 99 */
+    public int getP99() { return p99; }
+
+    /**
+     * @return A quantidade de usuários em cada faixa: {@code 0}, {@code 1}, {@code 2-3}, {@code 4-7}, ...
+     */
+    public long[] getHistograma() { return histograma.clone(); }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(String.format("media=%.2f p50=%d p90=%d p99=%d max=%d histograma={",
+                getMedia(), p50, p90, p99, maximo));
+        for (int f = 0; f < histograma.length; f++) {
+            if (f > 0) sb.append(',');
+            int de = f == 0 ? 0 : 1 << (f - 1), ate = f == 0 ? 0 : (1 << f) - 1;
+            sb.append(de == ate ? String.valueOf(de) : de + "-" + ate).append(':').append(histograma[f]);
+        }
+        return sb.append('}').toString();
+    }
+}
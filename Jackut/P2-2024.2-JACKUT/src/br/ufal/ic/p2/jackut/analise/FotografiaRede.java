@@ -0,0 +1,61 @@
+package br.ufal.ic.p2.jackut.analise;
+
+import br.ufal.ic.p2.jackut.Usuario;
+import br.ufal.ic.p2.jackut.util.DicionarioLogins;
+
+/**
+ * Fotografia consistente da rede para a {@link AnaliseRede}: as visões imutáveis dos usuários
+ * ({@link Usuario.Visao}, de onde vêm as amizades), a quantidade de fãs de cada um e os membros de cada
+ * comunidade.
+ *
+ * <p>A fotografia é montada com todas as travas do sistema, mas só guarda referências às visões, que já
+ * são imutáveis, e cópias das listas de membros; todo o restante do trabalho é feito depois, sem travas.</p>
+ */
+public final class FotografiaRede {
+
+    private final DicionarioLogins dicionario;
+    private final int[] usuarios;
+    private final Usuario.Visao[] visoes;
+    private final int[] fas;
+    private final String[] comunidades;
+    private final String[][] membros;
+    private final long duracaoNanos;
+
+    /**
+     * @param dicionario O dicionário de logins do sistema
+     * @param usuarios Os ids dos usuários
+     * @param visoes A visão de cada usuário, na ordem de {@code usuarios}
+     * @param fas A quantidade de fãs de cada usuário, na ordem de {@code usuarios}
+     * @param comunidades Os nomes das comunidades
+     * @param membros Os logins dos membros de cada comunidade, na ordem de {@code comunidades}
+     * @param duracaoNanos O tempo gasto para montar a fotografia
+     */
+    public FotografiaRede(DicionarioLogins dicionario, int[] usuarios, Usuario.Visao[] visoes, int[] fas,
+                          String[] comunidades, String[][] membros, long duracaoNanos) {
+        this.dicionario = dicionario;
+        this.usuarios = usuarios;
+        this.visoes = visoes;
+        this.fas = fas;
+        this.comunidades = comunidades;
+        this.membros = membros;
+        this.duracaoNanos = duracaoNanos;
+    }
+
+    DicionarioLogins getDicionario() { return dicionario; }
+
+    int getQuantidadeUsuarios() { return usuarios.length; }
+
+    int getIdUsuario(int i) { return usuarios[i]; }
+
+    Usuario.Visao getVisao(int i) { return visoes[i]; }
+
+    int getFas(int i) { return fas[i]; }
+
+    int getQuantidadeComunidades() { return comunidades.length; }
+
+    String getComunidade(int c) { return comunidades[c]; }
+
+    String[] getMembros(int c) { return membros[c]; }
+
+    long getDuracaoNanos() { return duracaoNanos; }
+}
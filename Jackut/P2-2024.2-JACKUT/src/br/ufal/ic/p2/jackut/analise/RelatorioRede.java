@@ -0,0 +1,120 @@
+package br.ufal.ic.p2.jackut.analise;
+
+import java.util.List;
+
+/**
+ * Resultado de uma {@link AnaliseRede}: distribuições de amigos e de fãs, componentes conexas da rede
+ * de amizades e sobreposição entre comunidades, com os tempos de cada etapa.
+ */
+public final class RelatorioRede {
+
+    private final int paralelismo;
+    private final long capturaNanos;
+    private final long calculoNanos;
+    private final EstatisticasGrau amigos;
+    private final EstatisticasGrau fas;
+    private final int componentes;
+    private final int maiorComponente;
+    private final int isolados;
+    private final Sobreposicao sobreposicao;
+
+    RelatorioRede(int paralelismo, long capturaNanos, long calculoNanos, EstatisticasGrau amigos,
+                  EstatisticasGrau fas, int componentes, int maiorComponente, int isolados,
+                  Sobreposicao sobreposicao) {
+        this.paralelismo = paralelismo;
+        this.capturaNanos = capturaNanos;
+        this.calculoNanos = calculoNanos;
+        this.amigos = amigos;
+        this.fas = fas;
+        this.componentes = componentes;
+        this.maiorComponente = maiorComponente;
+        this.isolados = isolados;
+        this.sobreposicao = sobreposicao;
+    }
+
+    /** @return A quantidade de threads usada nos cálculos */
+    public int getParalelismo() { return paralelismo; }
+
+    /** @return O tempo com as travas do sistema adquiridas, montando a fotografia */
+    public long getCapturaNanos() { return capturaNanos; }
+
+    /** @return O tempo dos cálculos, sem travas */
+    public long getCalculoNanos() { return calculoNanos; }
+
+    /** @return A quantidade de usuários */
+    public int getUsuarios() { return amigos.getQuantidade(); }
+
+    /** @return A quantidade de amizades */
+    public long getAmizades() { return amigos.getTotal() / 2; }
+
+    /** @return A distribuição da quantidade de amigos */
+    public EstatisticasGrau getAmigos() { return amigos; }
+
+    /** @return A distribuição da quantidade de fãs */
+    public EstatisticasGrau getFas() { return fas; }
+
+    /** @return A quantidade de componentes conexas da rede de amizades, contando os usuários sem amigos */
+    public int getComponentes() { return componentes; }
+
+    /** @return A quantidade de usuários da maior componente */
+    public int getMaiorComponente() { return maiorComponente; }
+
+    /** @return A quantidade de usuários sem amigos */
+    public int getIsolados() { return isolados; }
+
+    /** @return A sobreposição entre comunidades */
+    public Sobreposicao getSobreposicao() { return sobreposicao; }
+
+    @Override
+    public String toString() {
+        return String.format("paralelismo=%d captura=%.1fms calculo=%.1fms%n", paralelismo,
+                        capturaNanos / 1e6, calculoNanos / 1e6)
+                + "usuarios=" + getUsuarios() + " amizades=" + getAmizades() + "\n"
+                + "amigos: " + amigos + "\n"
+                + "fas: " + fas + "\n"
+                + "componentes=" + componentes + " maior=" + maiorComponente + " isolados=" + isolados + "\n"
+                + "comunidades: " + sobreposicao;
+    }
+
+    /**
+     * Sobreposição entre os membros das comunidades, comparadas duas a duas.
+     */
+    public static final class Sobreposicao {
+        private final int comunidades;
+        private final int analisadas;
+        private final long pares;
+        private final double jaccardMedio;
+        private final List<String> maiores;
+
+        Sobreposicao(int comunidades, int analisadas, long pares, double jaccardMedio, List<String> maiores) {
+            this.comunidades = comunidades;
+            this.analisadas = analisadas;
+            this.pares = pares;
+            this.jaccardMedio = jaccardMedio;
+            this.maiores = List.copyOf(maiores);
+        }
+
+        /** @return A quantidade de comunidades do sistema */
+        public int getComunidades() { return comunidades; }
+
+        /** @return A quantidade de comunidades comparadas (as maiores, se houver comunidades demais) */
+        public int getAnalisadas() { return analisadas; }
+
+        /** @return A quantidade de pares de comunidades com algum membro em comum */
+        public long getPares() { return pares; }
+
+        /** @return O índice de Jaccard médio dos pares com algum membro em comum */
+        public double getJaccardMedio() { return jaccardMedio; }
+
+        /**
+         * @return Os pares com mais membros em comum, no formato {@code "a/b=membros"}, do maior para o menor
+         */
+        public List<String> getMaiores() { return maiores; }
+
+        @Override
+        public String toString() {
+            return String.format("total=%d analisadas=%d paresComMembrosEmComum=%d jaccardMedio=%.4f maiores={%s}",
+                    comunidades, analisadas, pares, jaccardMedio, String.join(",", maiores));
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package br.ufal.ic.p2.jackut.autenticacao;
+
+import br.ufal.ic.p2.jackut.Configuracao;
+import br.ufal.ic.p2.jackut.exceptions.AutenticacaoSobrecarregadaException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Geração e verificação de {@linkplain Credencial credenciais} fora das threads que atendem as
+ * requisições.
+ *
+ * <p>O custo do PBKDF2 vem de {@code -Djackut.senha.iteracoes}. O padrão, {@link #ITERACOES_PADRAO}, é a
+ * recomendação atual da OWASP para PBKDF2-HMAC-SHA256; só os testes e as bancadas devem baixá-lo. Uma
+ * credencial gerada com outro custo é refeita com o custo atual no próximo login bem-sucedido, então trocar
+ * o valor não invalida as senhas já cadastradas.</p>
+ *
+ * <p>Mesmo assim o PBKDF2 é caro. Para que uma rajada de logins não ocupe todos os núcleos, toda
+ * derivação roda num pool próprio, compartilhado pelas instâncias, de {@code -Djackut.autenticacao.threads}
+ * threads (metade dos núcleos por padrão) com fila de {@code -Djackut.autenticacao.fila} tarefas (1024);
+ * com a fila cheia, o pedido é recusado na hora com {@link AutenticacaoSobrecarregadaException}, em vez
+ * de esperar. Quem pede espera só o resultado, sem gastar processador.</p>
+ *
+ * <p>Um login bem-sucedido é lembrado por {@code -Djackut.autenticacao.cacheValidadeMs} (5 minutos): o
+ * cache guarda o registro e um HMAC-SHA256 da senha com uma chave aleatória desta instância, e um novo
+ * login com a mesma senha e o mesmo registro é aceito sem o PBKDF2. Falhas nunca são lembradas, então
+ * tentar adivinhar uma senha continua custando uma derivação por tentativa. O cache guarda até
+ * {@code -Djackut.autenticacao.cacheLimite} logins (100000) e pode ser desligado com
+ * {@code -Djackut.autenticacao.cache=false}.</p>
+ */
+public class Autenticador {
+
+    /**
+     * O custo usado quando {@code jackut.senha.iteracoes} não é informado, a recomendação atual da OWASP
+     * para PBKDF2-HMAC-SHA256.
+     */
+    public static final int ITERACOES_PADRAO = 600_000;
+
+    private static final int THREADS = Math.max(1, Configuracao.inteiro("autenticacao.threads",
+            Runtime.getRuntime().availableProcessors() / 2));
+    private static final int FILA = Math.max(1, Configuracao.inteiro("autenticacao.fila", 1024));
+    // Tarefas em que um lote de senhas é dividido, por thread do pool: mais de uma, para que as threads
+    // se equilibrem quando algumas fatias demoram mais
+    private static final int FATIAS_POR_THREAD = 4;
+    private static final ThreadPoolExecutor POOL = new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(FILA), new ThreadFactory() {
+                private int n;
+                @Override
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "jackut-senhas-" + n++);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private final int iteracoes;
+    private final boolean usarCache;
+    private final long validade;
+    private final int limiteCache;
+    private final Map<String, Lembranca> cache = new ConcurrentHashMap<>();
+    private final ThreadLocal<Mac> macs;
+    // lotes grandes não ocupam a fila inteira: no máximo isto de tarefas de lote pendentes
+    private final Semaphore vagasLote = new Semaphore(Math.max(1, Math.min(FILA / 2, 2 * THREADS)));
+
+    private final AtomicLong derivacoes = new AtomicLong();
+    private final AtomicLong acertosCache = new AtomicLong();
+    private final AtomicLong falhas = new AtomicLong();
+    private final AtomicLong recusadas = new AtomicLong();
+    private final AtomicLong atualizadas = new AtomicLong();
+
+    /**
+     * Cria um autenticador com o custo e o cache lidos da configuração.
+     */
+    public Autenticador() {
+        this(Math.max(1, Configuracao.inteiro("senha.iteracoes", ITERACOES_PADRAO)));
+    }
+
+    /**
+     * @param iteracoes O custo das credenciais geradas
+     */
+    public Autenticador(int iteracoes) {
+        this.iteracoes = iteracoes;
+        this.usarCache = Configuracao.booleano("autenticacao.cache", true);
+        this.validade = TimeUnit.MILLISECONDS.toNanos(Configuracao.longo("autenticacao.cacheValidadeMs", 300_000));
+        this.limiteCache = Math.max(1, Configuracao.inteiro("autenticacao.cacheLimite", 100_000));
+        byte[] chave = new byte[32];
+        new SecureRandom().nextBytes(chave);
+        SecretKeySpec k = new SecretKeySpec(chave, "HmacSHA256");
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac m = Mac.getInstance("HmacSHA256");
+                m.init(k);
+                return m;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HmacSHA256 indisponível", e);
+            }
+        });
+    }
+
+    /**
+     * @return O custo das credenciais geradas
+     */
+    public int getIteracoes() { return iteracoes; }
+
+    /**
+     * Gera a credencial de uma senha no pool.
+     *
+     * @param senha A senha
+     * @return O registro
+     * @throws AutenticacaoSobrecarregadaException Se a fila do pool estiver cheia
+     */
+    public String gerar(String senha) {
+        return esperar(enviar(() -> gerarContando(senha)));
+    }
+
+    /**
+     * Gera as credenciais de várias senhas no pool, em paralelo, sem ocupar a fila inteira: o lote espera
+     * por vagas em vez de ser recusado. As senhas são divididas em algumas fatias por thread do pool, cada
+     * uma derivada numa tarefa só, para que a troca de threads seja paga por fatia e não por senha.
+     *
+     * @param senhas As senhas
+     * @return Os registros, na ordem das senhas
+     */
+    public List<String> gerarTodos(List<String> senhas) {
+        int fatia = Math.max(1, (senhas.size() + FATIAS_POR_THREAD * THREADS - 1) / (FATIAS_POR_THREAD * THREADS));
+        List<Future<String[]>> fs = new ArrayList<>(senhas.size() / fatia + 1);
+        for (int de = 0; de < senhas.size(); de += fatia) {
+            List<String> parte = senhas.subList(de, Math.min(senhas.size(), de + fatia));
+            vagasLote.acquireUninterruptibly();
+            try {
+                fs.add(enviar(() -> {
+                    try {
+                        String[] r = new String[parte.size()];
+                        for (int i = 0; i < r.length; i++) r[i] = gerarContando(parte.get(i));
+                        return r;
+                    } finally {
+                        vagasLote.release();
+                    }
+                }));
+            } catch (RuntimeException e) {
+                vagasLote.release();
+                throw e;
+            }
+        }
+        List<String> r = new ArrayList<>(senhas.size());
+        for (Future<String[]> f : fs) Collections.addAll(r, esperar(f));
+        return r;
+    }
+
+    /**
+     * Confere a senha de um login com o registro guardado, pelo cache ou no pool. Se a senha conferir e o
+     * registro for legado ou tiver outro custo, um novo registro, com o custo atual, é gerado na mesma
+     * tarefa.
+     *
+     * @param login O login, chave do cache
+     * @param registro O registro guardado
+     * @param senha A senha informada
+     * @return Null se a senha não conferir; senão, o registro a guardar: o mesmo, ou um novo
+     * @throws AutenticacaoSobrecarregadaException Se a fila do pool estiver cheia
+     */
+    public String verificar(String login, String registro, String senha) {
+        if (usarCache && lembrado(login, registro, senha)) {
+            acertosCache.incrementAndGet();
+            return registro;
+        }
+        String r = esperar(enviar(() -> {
+            derivacoes.incrementAndGet();
+            if (!Credencial.verificar(senha, registro)) return null;
+            if (!Credencial.precisaAtualizar(registro, iteracoes)) return registro;
+            atualizadas.incrementAndGet();
+            return gerarContando(senha);
+        }));
+        if (r == null) falhas.incrementAndGet();
+        return r;
+    }
+
+    /**
+     * Lembra um login bem-sucedido, para que o próximo com a mesma senha e o mesmo registro dispense o
+     * PBKDF2.
+     *
+     * @param login O login
+     * @param registro O registro guardado depois do login
+     * @param senha A senha que conferiu
+     */
+    public void lembrar(String login, String registro, String senha) {
+        if (!usarCache) return;
+        if (cache.size() >= limiteCache && !cache.containsKey(login)) {
+            // descarta um qualquer; o custo de errar é só uma derivação a mais
+            Iterator<String> it = cache.keySet().iterator();
+            if (it.hasNext()) cache.remove(it.next());
+        }
+        cache.put(login, new Lembranca(registro, resumo(login, senha), System.nanoTime() + validade));
+    }
+
+    /**
+     * Esquece o login lembrado de um usuário.
+     *
+     * @param login O login
+     */
+    public void esquecer(String login) { cache.remove(login); }
+
+    /**
+     * Esquece todos os logins lembrados.
+     */
+    public void limpar() { cache.clear(); }
+
+    /**
+     * @return Os contadores desde a criação do autenticador
+     */
+    public Metricas getMetricas() {
+        return new Metricas(iteracoes, derivacoes.get(), acertosCache.get(), falhas.get(), recusadas.get(),
+                atualizadas.get(), POOL.getQueue().size());
+    }
+
+    private boolean lembrado(String login, String registro, String senha) {
+        Lembranca l = cache.get(login);
+        if (l == null) return false;
+        if (System.nanoTime() - l.expiraEm > 0) {
+            cache.remove(login, l);
+            return false;
+        }
+        return l.registro.equals(registro) && MessageDigest.isEqual(l.resumo, resumo(login, senha));
+    }
+
+    private byte[] resumo(String login, String senha) {
+        Mac m = macs.get();
+        m.update(login.getBytes(StandardCharsets.UTF_8));
+        m.update((byte) 0);
+        return m.doFinal(senha.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String gerarContando(String senha) {
+        derivacoes.incrementAndGet();
+        return Credencial.gerar(senha, iteracoes);
+    }
+
+    private <T> Future<T> enviar(Callable<T> tarefa) {
+        try {
+            return POOL.submit(tarefa);
+        } catch (RejectedExecutionException e) {
+            recusadas.incrementAndGet();
+            throw new AutenticacaoSobrecarregadaException();
+        }
+    }
+
+    /**
+     * Espera o resultado de uma tarefa do pool; uma interrupção não cancela a espera (a tarefa já está
+     * em andamento) e é restaurada no fim.
+     */
+    private static <T> T esperar(Future<T> f) {
+        boolean interrompida = false;
+        try {
+            while (true) {
+                try {
+                    return f.get();
+                } catch (InterruptedException e) {
+                    interrompida = true;
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        } finally {
+            if (interrompida) Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Um login bem-sucedido lembrado pelo cache.
+     */
+    private static final class Lembranca {
+        final String registro;
+        final byte[] resumo;
+        final long expiraEm;
+
+        Lembranca(String registro, byte[] resumo, long expiraEm) {
+            this.registro = registro;
+            this.resumo = resumo;
+            this.expiraEm = expiraEm;
+        }
+    }
+
+    /**
+     * Contadores do autenticador.
+     */
+    public static final class Metricas {
+        private final long iteracoes, derivacoes, acertosCache, falhas, recusadas, atualizadas, fila;
+
+        Metricas(long iteracoes, long derivacoes, long acertosCache, long falhas, long recusadas, long atualizadas,
+                 long fila) {
+            this.iteracoes = iteracoes;
+            this.derivacoes = derivacoes;
+            this.acertosCache = acertosCache;
+            this.falhas = falhas;
+            this.recusadas = recusadas;
+            this.atualizadas = atualizadas;
+            this.fila = fila;
+        }
+
+        /** @return O custo das credenciais geradas */
+        public long getIteracoes() { return iteracoes; }
+
+        /** @return As derivações PBKDF2 feitas no pool (gerações e verificações) */
+        public long getDerivacoes() { return derivacoes; }
+
+        /** @return Os logins aceitos pelo cache, sem derivação */
+        public long getAcertosCache() { return acertosCache; }
+
+        /** @return As verificações em que a senha não conferiu */
+        public long getFalhas() { return falhas; }
+
+        /** @return Os pedidos recusados com a fila cheia */
+        public long getRecusadas() { return recusadas; }
+
+        /** @return Os registros refeitos no login (legados ou de outro custo) */
+        public long getAtualizadas() { return atualizadas; }
+
+        /** @return As tarefas na fila do pool no momento */
+        public long getFila() { return fila; }
+
+        @Override
+        public String toString() {
+            return "iteracoes=" + iteracoes + " derivacoes=" + derivacoes + " acertosCache=" + acertosCache
+                    + " falhas=" + falhas + " recusadas=" + recusadas + " atualizadas=" + atualizadas + " fila=" + fila;
+        }
+    }
+}
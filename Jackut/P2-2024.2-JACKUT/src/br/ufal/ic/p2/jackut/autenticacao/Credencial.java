@@ -0,0 +1,122 @@
+package br.ufal.ic.p2.jackut.autenticacao;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Registros de credencial: o que o Jackut guarda no lugar da senha, em memória, no snapshot e no
+ * registro de operações.
+ *
+ * <p>Um registro é {@code $pbkdf2-sha256$<iterações>$<sal>$<hash>}, com sal aleatório de 16 bytes e
+ * hash PBKDF2-HMAC-SHA256 de 32 bytes, ambos em Base64. Senhas lidas de arquivos anteriores ao hash
+ * viram registros {@code $texto$<senha>}, que continuam sendo aceitos até o próximo login do usuário,
+ * quando são trocados por um hash ({@link #precisaAtualizar}).</p>
+ *
+ * <p>Derivar um hash é caro de propósito (ver {@link Autenticador}); os demais métodos são baratos.</p>
+ */
+public final class Credencial {
+
+    private static final String PBKDF2 = "$pbkdf2-sha256$";
+    private static final String TEXTO = "$texto$";
+    private static final int BYTES_SAL = 16;
+    private static final int BITS_HASH = 256;
+    private static final SecureRandom ALEATORIO = new SecureRandom();
+    // Procurar o provedor custa quase tanto quanto uma derivação barata; a fábrica não é thread-safe,
+    // então cada thread (as do Autenticador, em especial) guarda a sua
+    private static final ThreadLocal<SecretKeyFactory> FABRICA = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2WithHmacSHA256 indisponível", e);
+        }
+    });
+
+    private Credencial() { }
+
+    /**
+     * Gera o registro de uma senha, com um sal novo.
+     *
+     * @param senha A senha
+     * @param iteracoes O custo: a quantidade de iterações do PBKDF2, positiva
+     * @return O registro
+     */
+    public static String gerar(String senha, int iteracoes) {
+        byte[] sal = new byte[BYTES_SAL];
+        ALEATORIO.nextBytes(sal);
+        Base64.Encoder b64 = Base64.getEncoder().withoutPadding();
+        return PBKDF2 + iteracoes + "$" + b64.encodeToString(sal) + "$" + b64.encodeToString(derivar(senha, sal, iteracoes));
+    }
+
+    /**
+     * Converte uma senha gravada por extenso por uma versão anterior num registro.
+     *
+     * @param senha A senha lida, ou null
+     * @return O registro legado, ou null
+     */
+    public static String legada(String senha) {
+        return senha == null ? null : TEXTO + senha;
+    }
+
+    /**
+     * Confere uma senha com um registro, em tempo que não depende de onde os dois diferem.
+     *
+     * @param senha A senha informada
+     * @param registro O registro guardado
+     * @return True se a senha confere; false também se o registro for inválido
+     */
+    public static boolean verificar(String senha, String registro) {
+        if (senha == null || registro == null) return false;
+        if (registro.startsWith(TEXTO)) {
+            return MessageDigest.isEqual(registro.substring(TEXTO.length()).getBytes(StandardCharsets.UTF_8),
+                    senha.getBytes(StandardCharsets.UTF_8));
+        }
+        String[] partes = partes(registro);
+        if (partes == null) return false;
+        try {
+            Base64.Decoder b64 = Base64.getDecoder();
+            byte[] esperado = b64.decode(partes[2]);
+            return MessageDigest.isEqual(esperado, derivar(senha, b64.decode(partes[1]), Integer.parseInt(partes[0])));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Verifica se um registro deve ser refeito no próximo login: se for legado ou tiver custo diferente
+     * do atual.
+     *
+     * @param registro O registro guardado
+     * @param iteracoes O custo atual
+     * @return True se o registro deve ser refeito
+     */
+    public static boolean precisaAtualizar(String registro, int iteracoes) {
+        String[] partes = partes(registro);
+        return partes == null || !partes[0].equals(Integer.toString(iteracoes));
+    }
+
+    /**
+     * @return As iterações, o sal e o hash de um registro PBKDF2, ou null se ele não for um
+     */
+    private static String[] partes(String registro) {
+        if (registro == null || !registro.startsWith(PBKDF2)) return null;
+        String[] p = registro.substring(PBKDF2.length()).split("\\$");
+        if (p.length != 3 || p[0].isEmpty() || p[0].length() > 9 || !p[0].chars().allMatch(Character::isDigit)) return null;
+        return p;
+    }
+
+    private static byte[] derivar(String senha, byte[] sal, int iteracoes) {
+        PBEKeySpec spec = new PBEKeySpec(senha.toCharArray(), sal, Math.max(1, iteracoes), BITS_HASH);
+        try {
+            return FABRICA.get().generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2WithHmacSHA256 falhou", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package br.ufal.ic.p2.jackut.busca;
+
+import br.ufal.ic.p2.jackut.util.ConjuntoInteiros;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Índices secundários de atributos do perfil escolhidos, para buscas por valor exato: para cada atributo
+ * indexado, cada valor aponta para o conjunto dos ids dos usuários com esse valor, na ordem em que o
+ * receberam. Uma consulta custa o tamanho da página pedida, e não a quantidade de usuários.
+ *
+ * <p>O índice guarda uma única instância de cada valor e a devolve em {@link #atualizar}, para que quem
+ * chama a use também no perfil: milhares de usuários com {@code cidade=Maceió} compartilham uma só
+ * string.</p>
+ *
+ * <p>Cada conjunto é sincronizado nele mesmo, então usuários diferentes podem ser atualizados em
+ * paralelo; as atualizações de um mesmo usuário devem ser serializadas por quem chama (no Jackut, pela
+ * trava do login). Um conjunto que fica vazio sai do índice e não recebe mais ids.</p>
+ */
+public class IndiceAtributos {
+
+    private final Map<String, Map<String, Valor>> atributos = new ConcurrentHashMap<>();
+
+    /**
+     * @param atributos Os nomes dos atributos indexados
+     */
+    public IndiceAtributos(Collection<String> atributos) {
+        for (String a : atributos) this.atributos.put(a, new ConcurrentHashMap<>());
+    }
+
+    /**
+     * @param atributo O nome do atributo
+     * @return True se o atributo for indexado
+     */
+    public boolean indexa(String atributo) { return atributo != null && atributos.containsKey(atributo); }
+
+    /**
+     * Troca o valor de um atributo indexado de um usuário.
+     *
+     * @param atributo O nome do atributo, indexado
+     * @param id O id do usuário
+     * @param antigo O valor anterior, ou null se o atributo não estava preenchido
+     * @param novo O novo valor, ou null para só retirar o anterior
+     * @return A instância do novo valor guardada no índice, ou null se {@code novo} for null
+     */
+    public String atualizar(String atributo, int id, String antigo, String novo) {
+        Map<String, Valor> valores = atributos.get(atributo);
+        if (antigo != null && !antigo.equals(novo)) retirar(valores, antigo, id);
+        if (novo == null) return null;
+        while (true) {
+            Valor v = valores.computeIfAbsent(novo, Valor::new);
+            synchronized (v) {
+                if (v.descartado) continue;
+                v.ids.adicionar(id);
+                return v.valor;
+            }
+        }
+    }
+
+    /**
+     * Consulta os usuários com um valor, com o conjunto travado.
+     *
+     * @param atributo O nome do atributo, indexado
+     * @param valor O valor
+     * @param consulta Recebe os ids dos usuários, na ordem em que receberam o valor, ou null se não houver
+     *                 nenhum; não deve guardar o conjunto
+     * @return O resultado da consulta
+     */
+    public <T> T consultar(String atributo, String valor, Function<ConjuntoInteiros, T> consulta) {
+        Valor v = valor == null ? null : atributos.get(atributo).get(valor);
+        if (v == null) return consulta.apply(null);
+        synchronized (v) {
+            return consulta.apply(v.descartado ? null : v.ids);
+        }
+    }
+
+    private static void retirar(Map<String, Valor> valores, String valor, int id) {
+        Valor v = valores.get(valor);
+        if (v == null) return;
+        synchronized (v) {
+            v.ids.remover(id);
+            if (v.ids.tamanho() == 0) {
+                v.descartado = true;
+                valores.remove(valor, v);
+            }
+        }
+    }
+
+    /**
+     * Um valor de um atributo e os usuários que o têm.
+     */
+    private static final class Valor {
+        final String valor;
+        final ConjuntoInteiros ids = new ConjuntoInteiros();
+        boolean descartado;
+
+        Valor(String valor) { this.valor = valor; }
+    }
+}
@@ -0,0 +1,333 @@
+package br.ufal.ic.p2.jackut.busca;
+
+import br.ufal.ic.p2.jackut.Configuracao;
+import br.ufal.ic.p2.jackut.util.DicionarioLogins;
+import br.ufal.ic.p2.jackut.util.MelhoresK;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Índice invertido em memória de documentos de texto identificados por uma chave (o login de um
+ * usuário, o nome de uma comunidade).
+ *
+ * <p>Cada termo ({@link Tokenizador}) aponta para a lista ordenada dos ids dos documentos que o contêm;
+ * os termos ficam num mapa ordenado, então os termos com um prefixo formam um intervalo contíguo. Cada
+ * documento guarda, num array imutável, os seus termos distintos em ordem.</p>
+ *
+ * <p>Uma consulta exige todos os seus termos; um termo terminado em {@code *} casa com as palavras que
+ * começam com ele, até {@code -Djackut.busca.limiteExpansoes} palavras (1000 por padrão), em ordem
+ * alfabética. Cada termo da consulta soma à pontuação o idf, {@code ln(1 + N / df)}, da palavra mais
+ * rara do documento que casa com ele. A frequência da palavra no documento não conta: em perfis e
+ * descrições curtos, uma repetição ("música, música") não indica relevância. Empates são desfeitos
+ * pela ordem em que os documentos entraram no índice.</p>
+ *
+ * <p>A consulta não percorre todos os documentos que casam: percorre os do termo da consulta com menos
+ * documentos, palavra por palavra, da mais rara para a mais comum, e para assim que nenhum documento
+ * restante puder superar o pior dos {@code k} melhores ({@link MelhoresK}). A maior pontuação possível
+ * de um documento ainda não lido é o peso da palavra sendo percorrida mais o maior peso de cada um dos
+ * outros termos.</p>
+ *
+ * <p>Consultas não travam e podem ocorrer junto com atualizações. Atualizações de documentos diferentes
+ * podem ser concorrentes, mas as de um mesmo documento devem ser serializadas por quem chama (no
+ * Jackut, pela trava da chave).</p>
+ */
+public class IndiceInvertido {
+
+    private static final int LIMITE_EXPANSOES = Math.max(1, Configuracao.inteiro("busca.limiteExpansoes", 1000));
+    // Pontuações são somadas em ponto fixo, para caberem no long do MelhoresK e serem comparadas sem erro
+    private static final double ESCALA = 1e6;
+    private static final int LOTE = 256;
+
+    private final DicionarioLogins chaves = new DicionarioLogins();
+    private final ConcurrentSkipListMap<String, Postagens> termos = new ConcurrentSkipListMap<>();
+    private final Map<String, Documento> documentos = new ConcurrentHashMap<>();
+
+    /**
+     * Indexa um documento, substituindo a versão anterior, se houver. Só os termos que mudaram são
+     * acrescentados ou retirados das listas.
+     *
+     * @param chave A chave do documento
+     * @param textos Os textos do documento
+     */
+    public void atualizar(String chave, Collection<String> textos) {
+        int id = chaves.id(chave);
+        SortedSet<String> distintos = new TreeSet<>();
+        for (String texto : textos) distintos.addAll(Tokenizador.termos(texto));
+        Documento antigo = documentos.get(chave);
+        String[] ts = new String[distintos.size()];
+        int i = 0;
+        for (String t : distintos) {
+            int p = antigo == null ? -1 : antigo.posicao(t);
+            ts[i++] = p < 0 ? adicionar(t, id) : antigo.termos[p];
+        }
+        Documento novo = new Documento(ts);
+        documentos.put(chave, novo);
+        if (antigo != null) {
+            for (String t : antigo.termos) if (novo.posicao(t) < 0) retirar(t, id);
+        }
+    }
+
+    /**
+     * Retira um documento do índice.
+     *
+     * @param chave A chave do documento
+     */
+    public void remover(String chave) {
+        Documento antigo = documentos.remove(chave);
+        if (antigo == null) return;
+        int id = chaves.buscar(chave);
+        for (String t : antigo.termos) retirar(t, id);
+    }
+
+    /**
+     * Esvazia o índice.
+     */
+    public void limpar() {
+        documentos.clear();
+        termos.clear();
+    }
+
+    /**
+     * @return A quantidade de documentos indexados
+     */
+    public int getQuantidadeDocumentos() { return documentos.size(); }
+
+    /**
+     * Busca os documentos que contêm todos os termos da consulta.
+     *
+     * @param consulta A consulta; termos terminados em {@code *} são prefixos
+     * @param k A quantidade máxima de resultados, positiva
+     * @return As chaves dos documentos, da maior para a menor pontuação; vazia se a consulta não tiver termos
+     */
+    public List<String> buscar(String consulta, int k) {
+        List<String> ts = new ArrayList<>();
+        List<Boolean> prefixos = new ArrayList<>();
+        Tokenizador.consulta(consulta, ts, prefixos);
+        if (ts.isEmpty()) return Collections.emptyList();
+
+        double n = Math.max(1, documentos.size());
+        Termo[] q = new Termo[ts.size()];
+        int maisRaro = 0;
+        for (int i = 0; i < q.length; i++) {
+            q[i] = new Termo(ts.get(i), prefixos.get(i));
+            for (Map.Entry<String, Postagens> e : expandir(q[i].termo, q[i].prefixo)) {
+                q[i].acrescentar(new Expansao(e.getKey(), e.getValue(), n));
+            }
+            if (q[i].df == 0) return Collections.emptyList();
+            if (q[i].df < q[maisRaro].df) maisRaro = i;
+        }
+        long outros = 0;
+        for (int i = 0; i < q.length; i++) if (i != maisRaro) outros += q[i].pesoMaximo;
+
+        // cada documento é lido só na palavra mais rara que ele tem do termo mais raro
+        Expansao[] fluxos = q[maisRaro].expansoes.toArray(new Expansao[0]);
+        Arrays.sort(fluxos, Expansao::antes);
+        MelhoresK melhores = new MelhoresK(k);
+        int[] lote = new int[LOTE];
+        for (Expansao x : fluxos) {
+            long limite = x.peso + outros;
+            if (melhores.estaCheio() && melhores.getPiorValor() > limite) break;
+            int ultimo = -1, lidos;
+            lendo:
+            while ((lidos = x.postagens.ler(ultimo, lote)) > 0) {
+                for (int i = 0; i < lidos; i++) {
+                    ultimo = lote[i];
+                    // os ids crescem, então nem um empate com o pior selecionado entra mais
+                    if (melhores.estaCheio() && melhores.getPiorValor() == limite && melhores.getPiorChave() < ultimo) {
+                        break lendo;
+                    }
+                    long pontos = pontuar(ultimo, q, maisRaro, x);
+                    if (pontos > 0) melhores.oferecer(ultimo, pontos);
+                }
+            }
+        }
+
+        int[] ids = melhores.extrair();
+        List<String> r = new ArrayList<>(ids.length);
+        for (int id : ids) r.add(chaves.login(id));
+        return r;
+    }
+
+    /**
+     * Pontua um documento lido na palavra {@code fluxo} do termo mais raro.
+     *
+     * @return A pontuação, ou 0 se o documento não casar com todos os termos ou tiver uma palavra do
+     * termo mais raro percorrida antes de {@code fluxo} (e, portanto, já tiver sido pontuado)
+     */
+    private long pontuar(int id, Termo[] q, int maisRaro, Expansao fluxo) {
+        Documento d = documentos.get(chaves.login(id));
+        if (d == null) return 0;
+        long pontos = 0;
+        for (int t = 0; t < q.length; t++) {
+            long melhor = 0;
+            int p = d.posicao(q[t].termo);
+            if (p < 0) p = -p - 1;
+            for (int i = p; i < d.termos.length && (i == p || q[t].prefixo) && d.termos[i].startsWith(q[t].termo); i++) {
+                Expansao x = q[t].expansao(d.termos[i]);
+                if (x == null) continue;
+                if (t == maisRaro && x != fluxo && x.antes(fluxo) < 0) return 0;
+                melhor = Math.max(melhor, x.peso);
+            }
+            if (melhor == 0) return 0;
+            pontos += melhor;
+        }
+        return pontos;
+    }
+
+    /**
+     * @return Os termos do índice iguais ao termo, ou que começam com ele se for prefixo
+     */
+    private Iterable<Map.Entry<String, Postagens>> expandir(String termo, boolean prefixo) {
+        if (!prefixo) {
+            Postagens p = termos.get(termo);
+            return p == null ? Collections.emptyList() : List.of(Map.entry(termo, p));
+        }
+        List<Map.Entry<String, Postagens>> r = new ArrayList<>();
+        for (Map.Entry<String, Postagens> e : termos.tailMap(termo).entrySet()) {
+            if (!e.getKey().startsWith(termo) || r.size() == LIMITE_EXPANSOES) break;
+            r.add(e);
+        }
+        return r;
+    }
+
+    /**
+     * Acrescenta um documento à lista de um termo.
+     *
+     * @return A instância do termo guardada no índice, compartilhada pelos documentos
+     */
+    private String adicionar(String termo, int id) {
+        while (true) {
+            Postagens p = termos.computeIfAbsent(termo, Postagens::new);
+            synchronized (p) {
+                if (p.descartada) continue;
+                p.adicionar(id);
+                return p.termo;
+            }
+        }
+    }
+
+    /**
+     * Retira um documento da lista de um termo; a lista que fica vazia sai do índice.
+     */
+    private void retirar(String termo, int id) {
+        Postagens p = termos.get(termo);
+        if (p == null) return;
+        synchronized (p) {
+            p.remover(id);
+            if (p.tamanho() == 0) {
+                p.descartada = true;
+                termos.remove(termo, p);
+            }
+        }
+    }
+
+    /**
+     * Ids ordenados dos documentos que contêm um termo. As alterações são sincronizadas na própria
+     * lista; uma lista descartada (que ficou vazia e saiu do índice) não recebe mais documentos.
+     */
+    private static final class Postagens {
+        final String termo;
+        private int[] ids = new int[2];
+        private volatile int tamanho;
+        boolean descartada;
+
+        Postagens(String termo) { this.termo = termo; }
+
+        int tamanho() { return tamanho; }
+
+        /**
+         * Copia os próximos ids da lista, sem copiar a lista inteira.
+         *
+         * @param depoisDe O último id lido, ou -1 no começo
+         * @param destino Recebe os ids
+         * @return A quantidade de ids copiados; 0 no fim da lista
+         */
+        synchronized int ler(int depoisDe, int[] destino) {
+            int p = Arrays.binarySearch(ids, 0, tamanho, depoisDe);
+            p = p < 0 ? -p - 1 : p + 1;
+            int lidos = Math.min(destino.length, tamanho - p);
+            System.arraycopy(ids, p, destino, 0, lidos);
+            return lidos;
+        }
+
+        void adicionar(int id) {
+            int p = Arrays.binarySearch(ids, 0, tamanho, id);
+            if (p >= 0) return;
+            p = -p - 1;
+            if (tamanho == ids.length) ids = Arrays.copyOf(ids, tamanho * 2);
+            System.arraycopy(ids, p, ids, p + 1, tamanho - p);
+            ids[p] = id;
+            tamanho++;
+        }
+
+        void remover(int id) {
+            int p = Arrays.binarySearch(ids, 0, tamanho, id);
+            if (p < 0) return;
+            System.arraycopy(ids, p + 1, ids, p, tamanho - p - 1);
+            tamanho--;
+        }
+    }
+
+    /**
+     * Termos distintos de um documento, em ordem. Imutável.
+     */
+    private static final class Documento {
+        final String[] termos;
+
+        Documento(String[] termos) { this.termos = termos; }
+
+        int posicao(String termo) { return Arrays.binarySearch(termos, termo); }
+    }
+
+    /**
+     * Um termo da consulta e as palavras do índice que casam com ele.
+     */
+    private static final class Termo {
+        final String termo;
+        final boolean prefixo;
+        final List<Expansao> expansoes = new ArrayList<>();
+        private final Map<String, Expansao> porPalavra = new HashMap<>();
+        long df;
+        long pesoMaximo;
+
+        Termo(String termo, boolean prefixo) {
+            this.termo = termo;
+            this.prefixo = prefixo;
+        }
+
+        void acrescentar(Expansao x) {
+            expansoes.add(x);
+            if (prefixo) porPalavra.put(x.palavra, x);
+            df += x.postagens.tamanho();
+            pesoMaximo = Math.max(pesoMaximo, x.peso);
+        }
+
+        Expansao expansao(String palavra) {
+            if (prefixo) return porPalavra.get(palavra);
+            return expansoes.get(0).palavra.equals(palavra) ? expansoes.get(0) : null;
+        }
+    }
+
+    /**
+     * Uma palavra do índice que casa com um termo da consulta, com o seu peso no momento da consulta.
+     */
+    private static final class Expansao {
+        final String palavra;
+        final Postagens postagens;
+        final long peso;
+
+        Expansao(String palavra, Postagens postagens, double n) {
+            this.palavra = palavra;
+            this.postagens = postagens;
+            this.peso = Math.max(1, Math.round(Math.log(1 + n / Math.max(1, postagens.tamanho())) * ESCALA));
+        }
+
+        /**
+         * Ordem de percurso: maior peso primeiro e, no empate, a palavra em ordem alfabética.
+         */
+        int antes(Expansao o) {
+            return peso != o.peso ? Long.compare(o.peso, peso) : palavra.compareTo(o.palavra);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package br.ufal.ic.p2.jackut.busca;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Quebra textos em termos para o {@link IndiceInvertido}: letras e dígitos consecutivos formam um termo,
+ * em minúsculas e sem acentos, de forma que "São João", "sao joao" e "SAO JOÃO" geram os mesmos termos.
+ *
+ * <p>Os caracteres do ISO-8859-1 são convertidos por uma tabela; os demais passam pela decomposição
+ * Unicode ({@link Normalizer.Form#NFD}) e perdem as marcas de acento.</p>
+ */
+public final class Tokenizador {
+
+    // Caractere sem acento e em minúsculas para cada caractere do ISO-8859-1; 0 para separadores
+    private static final char[] LATIN1 = new char[256];
+
+    static {
+        for (char c = 0; c < 256; c++) {
+            if (!Character.isLetterOrDigit(c)) continue;
+            String base = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+            LATIN1[c] = Character.toLowerCase(base.charAt(0));
+        }
+        // letras sem decomposição
+        LATIN1['ß'] = 's';
+        LATIN1['Æ'] = LATIN1['æ'] = 'a';
+        LATIN1['Ø'] = LATIN1['ø'] = 'o';
+        LATIN1['Ð'] = LATIN1['ð'] = 'd';
+        LATIN1['Þ'] = LATIN1['þ'] = 't';
+        LATIN1['ª'] = 'a';
+        LATIN1['º'] = 'o';
+    }
+
+    private Tokenizador() { }
+
+    /**
+     * Quebra um texto em termos.
+     *
+     * @param texto O texto, ou null
+     * @return Os termos, na ordem do texto e com repetições
+     */
+    public static List<String> termos(String texto) {
+        List<String> termos = new ArrayList<>();
+        quebrar(texto, termos, null);
+        return termos;
+    }
+
+    /**
+     * Quebra uma consulta em termos; um termo seguido de {@code *} é marcado como prefixo.
+     *
+     * @param consulta A consulta
+     * @param termos Recebe os termos
+     * @param prefixos Recebe, para cada termo, se ele deve ser tratado como prefixo
+     */
+    static void consulta(String consulta, List<String> termos, List<Boolean> prefixos) {
+        quebrar(consulta, termos, prefixos);
+    }
+
+    private static void quebrar(String texto, List<String> termos, List<Boolean> prefixos) {
+        if (texto == null) return;
+        StringBuilder atual = new StringBuilder();
+        for (int i = 0, n = texto.length(); i <= n; i++) {
+            char c = i < n ? normalizar(texto.charAt(i)) : 0;
+            if (c != 0) {
+                atual.append(c);
+                continue;
+            }
+            if (atual.length() == 0) continue;
+            termos.add(atual.toString());
+            if (prefixos != null) prefixos.add(i < n && texto.charAt(i) == '*');
+            atual.setLength(0);
+        }
+    }
+
+    /**
+     * @return O caractere sem acento e em minúsculas, ou 0 se não for letra nem dígito
+     */
+    private static char normalizar(char c) {
+        if (c < 256) return LATIN1[c];
+        if (!Character.isLetterOrDigit(c)) return 0;
+        String base = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+        return Character.toLowerCase(base.charAt(0));
+    }
+}
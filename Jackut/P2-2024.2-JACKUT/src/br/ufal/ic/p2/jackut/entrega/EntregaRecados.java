@@ -0,0 +1,260 @@
+package br.ufal.ic.p2.jackut.entrega;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Estágio de entrega assíncrona de recados.
+ *
+ * <p>O remetente verifica o recado e o enfileira; a entrega (inserção na caixa de recados e gravação no
+ * registro de operações) é feita por uma das faixas de entrega, cada uma com a sua thread e a sua fila
+ * limitada. A faixa é escolhida pelo destinatário, então os recados para um mesmo destinatário, e em
+ * particular os de um mesmo par remetente/destinatário, são entregues na ordem em que foram enviados.</p>
+ *
+ * <p>Quando a fila de uma faixa enche, quem envia espera até haver espaço; isso limita a memória
+ * ocupada por recados pendentes durante rajadas. As recusas (inimigo, caixa de recados cheia) são
+ * lançadas para quem envia, antes de enfileirar; a entrega só descarta, e conta nas métricas, os recados
+ * cujo remetente ou destinatário foi removido enquanto eles esperavam na fila.</p>
+ *
+ * <p>O leitor de uma caixa de recados espera a entrega dos recados já aceitos para ele
+ * ({@link #aguardar(String)}), então um recado confirmado ao remetente é sempre visto na próxima leitura.
+ * Com durabilidade em grupo, o recado é sincronizado na entrega, não no envio.</p>
+ */
+public class EntregaRecados implements Closeable {
+
+    /**
+     * Aplica um recado; é chamado pela thread da faixa.
+     */
+    public interface Entregador {
+        /**
+         * Entrega um recado, lançando uma exceção se ele for recusado.
+         *
+         * @param remetente O login de quem enviou
+         * @param destinatario O login do destinatário
+         * @param texto O recado
+         */
+        void entregar(String remetente, String destinatario, String texto);
+    }
+
+    private static final Runnable PARAR = () -> { };
+
+    private final Entregador entregador;
+    private final Faixa[] faixas;
+    private final Thread[] threads;
+    private boolean fechada;
+    // Enfileirar usa a trava de leitura; fechar usa a de escrita, para que nada entre na fila depois de PARAR
+    private final ReadWriteLock estado = new ReentrantReadWriteLock();
+
+    private final AtomicLong aceitos = new AtomicLong();
+    private final AtomicLong entregues = new AtomicLong();
+    private final AtomicLong recusados = new AtomicLong();
+
+    /**
+     * Cria o estágio e inicia as threads das faixas.
+     *
+     * @param faixas A quantidade de faixas de entrega
+     * @param capacidade A quantidade máxima de recados pendentes em cada faixa
+     * @param entregador Quem aplica cada recado
+     */
+    public EntregaRecados(int faixas, int capacidade, Entregador entregador) {
+        this.entregador = entregador;
+        this.faixas = new Faixa[Math.max(1, faixas)];
+        this.threads = new Thread[this.faixas.length];
+        for (int i = 0; i < this.faixas.length; i++) {
+            this.faixas[i] = new Faixa(Math.max(1, capacidade));
+            threads[i] = new Thread(this.faixas[i], "jackut-entrega-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+    }
+
+    /**
+     * Enfileira um recado para entrega. Depois de {@link #close()}, o recado é entregue na própria
+     * thread de quem envia, e uma recusa é lançada para ele.
+     *
+     * @param remetente O login de quem enviou
+     * @param destinatario O login do destinatário
+     * @param texto O recado
+     */
+    public void enviar(String remetente, String destinatario, String texto) {
+        estado.readLock().lock();
+        try {
+            if (!fechada) {
+                aceitos.incrementAndGet();
+                faixa(destinatario).colocar(() -> {
+                    try {
+                        entregador.entregar(remetente, destinatario, texto);
+                        entregues.incrementAndGet();
+                    } catch (RuntimeException e) {
+                        recusados.incrementAndGet();
+                    }
+                });
+                return;
+            }
+        } finally {
+            estado.readLock().unlock();
+        }
+        entregador.entregar(remetente, destinatario, texto);
+    }
+
+    /**
+     * Espera a entrega de todos os recados enfileirados antes desta chamada. Não deve ser chamado com
+     * travas que a entrega precise adquirir.
+     */
+    public void aguardar() {
+        aguardar(faixas);
+    }
+
+    /**
+     * Espera a entrega dos recados para um destinatário enfileirados antes desta chamada; só a faixa
+     * do destinatário é aguardada. Não deve ser chamado com travas que a entrega precise adquirir.
+     *
+     * @param destinatario O login do destinatário
+     */
+    public void aguardar(String destinatario) {
+        aguardar(faixa(destinatario));
+    }
+
+    private void aguardar(Faixa... alvo) {
+        CountDownLatch fim = new CountDownLatch(alvo.length);
+        estado.readLock().lock();
+        try {
+            if (fechada) return;
+            for (Faixa f : alvo) f.colocar(fim::countDown);
+        } finally {
+            estado.readLock().unlock();
+        }
+        boolean interrompida = false;
+        while (true) {
+            try {
+                fim.await();
+                break;
+            } catch (InterruptedException e) {
+                interrompida = true;
+            }
+        }
+        if (interrompida) Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Entrega os recados pendentes e encerra as threads das faixas, esperando que terminem. Como
+     * {@link #aguardar()}, não deve ser chamado com travas que a entrega precise adquirir.
+     */
+    @Override
+    public void close() {
+        estado.writeLock().lock();
+        try {
+            if (fechada) return;
+            fechada = true;
+            // as faixas entregam o que já está na fila antes de chegar a PARAR
+            for (Faixa f : faixas) f.colocar(PARAR);
+        } finally {
+            estado.writeLock().unlock();
+        }
+        boolean interrompida = false;
+        for (Thread t : threads) {
+            while (t.isAlive()) {
+                try {
+                    t.join();
+                } catch (InterruptedException e) {
+                    interrompida = true;
+                }
+            }
+        }
+        if (interrompida) Thread.currentThread().interrupt();
+    }
+
+    /**
+     * @return Uma fotografia dos contadores de entrega
+     */
+    public Metricas getMetricas() {
+        long e = entregues.get(), r = recusados.get();
+        return new Metricas(aceitos.get(), e, r);
+    }
+
+    private Faixa faixa(String destinatario) {
+        return faixas[(destinatario.hashCode() & 0x7fffffff) % faixas.length];
+    }
+
+    /**
+     * Uma fila limitada de entregas, consumida por uma única thread.
+     */
+    private static final class Faixa implements Runnable {
+        private final BlockingQueue<Runnable> fila;
+
+        Faixa(int capacidade) {
+            this.fila = new ArrayBlockingQueue<>(capacidade);
+        }
+
+        /**
+         * Enfileira uma tarefa, esperando por espaço; uma interrupção durante a espera não descarta a tarefa.
+         */
+        void colocar(Runnable tarefa) {
+            boolean interrompida = false;
+            while (true) {
+                try {
+                    fila.put(tarefa);
+                    break;
+                } catch (InterruptedException e) {
+                    interrompida = true;
+                }
+            }
+            if (interrompida) Thread.currentThread().interrupt();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable tarefa;
+                try {
+                    tarefa = fila.take();
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                if (tarefa == PARAR) return;
+                tarefa.run();
+            }
+        }
+    }
+
+    /**
+     * Fotografia dos contadores de entrega.
+     */
+    public static final class Metricas {
+        /**
+         * Métricas de um sistema sem entrega assíncrona.
+         */
+        public static final Metricas NENHUMA = new Metricas(0, 0, 0);
+
+        private final long aceitos, entregues, recusados;
+
+        Metricas(long aceitos, long entregues, long recusados) {
+            this.aceitos = aceitos;
+            this.entregues = entregues;
+            this.recusados = recusados;
+        }
+
+        /** @return Os recados enfileirados desde a criação do estágio */
+        public long getAceitos() { return aceitos; }
+
+        /** @return Os recados entregues */
+        public long getEntregues() { return entregues; }
+
+        /** @return Os recados descartados na entrega */
+        public long getRecusados() { return recusados; }
+
+        /** @return Os recados ainda na fila */
+        public long getPendentes() { return Math.max(0, aceitos - entregues - recusados); }
+
+        @Override
+        public String toString() {
+            return "aceitos=" + aceitos + " entregues=" + entregues + " recusados=" + recusados
+                    + " pendentes=" + getPendentes();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package br.ufal.ic.p2.jackut.entrega;
+
+/**
+ * O que acontece com um recado enviado a uma caixa de recados que já está no limite
+ * ({@code -Djackut.recados.limite} recados não lidos; 0, o padrão, deixa a caixa sem limite), escolhido por
+ * {@code -Djackut.recados.transbordo}.
+ */
+public enum PoliticaTransbordo {
+    /** O recado novo é recusado. */
+    REJEITAR,
+    /** O recado mais antigo da caixa é descartado para dar lugar ao novo. */
+    DESCARTAR_ANTIGO;
+
+    /**
+     * Converte o nome de uma política, sem diferenciar maiúsculas de minúsculas.
+     *
+     * @param nome O nome da política
+     * @param padrao A política usada quando o nome é nulo ou desconhecido
+     * @return A política
+     */
+    public static PoliticaTransbordo de(String nome, PoliticaTransbordo padrao) {
+        if (nome == null) return padrao;
+        for (PoliticaTransbordo p : values()) if (p.name().equalsIgnoreCase(nome.trim())) return p;
+        return padrao;
+    }
+}
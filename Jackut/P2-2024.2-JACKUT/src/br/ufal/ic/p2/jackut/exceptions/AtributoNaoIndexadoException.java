@@ -0,0 +1,15 @@
+package br.ufal.ic.p2.jackut.exceptions;
+
+/**
+ * Exceção lançada quando uma consulta por valor usa um atributo do perfil sem índice secundário.
+ */
+public class AtributoNaoIndexadoException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Construtor da exceção, com uma mensagem padrão.
+     */
+    public AtributoNaoIndexadoException() {
+        super("Atributo não indexado.");
+    }
+}
@@ -1,16 +1,16 @@
 package br.ufal.ic.p2.jackut.exceptions;
 
 /**
- * Exceo lanada quando um atributo requerido no foi preenchido.
- * Esta exceo  utilizada quando o usurio tenta acessar um atributo que no foi definido.
+ * Exceção lançada quando um atributo requerido não foi preenchido.
+ * Esta exceção é utilizada quando o usuário tenta acessar um atributo que não foi definido.
  */
 public class AtributoNaoPreenchidoException extends RuntimeException {
     private static final long serialVersionUID = 1L;
 
     /**
-     * Construtor da exceo, com uma mensagem padro.
+     * Construtor da exceção, com uma mensagem padrão.
      */
     public AtributoNaoPreenchidoException() {
-        super("Atributo no preenchido.");
+        super("Atributo não preenchido.");
     }
 }
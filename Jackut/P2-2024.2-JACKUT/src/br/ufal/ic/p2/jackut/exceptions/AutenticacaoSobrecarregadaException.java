@@ -0,0 +1,15 @@
+package br.ufal.ic.p2.jackut.exceptions;
+
+/**
+ * Exceção lançada quando a fila de verificação de senhas está cheia e o pedido não pode ser atendido.
+ */
+public class AutenticacaoSobrecarregadaException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Construtor da exceção, com uma mensagem padrão.
+     */
+    public AutenticacaoSobrecarregadaException() {
+        super("Muitas autenticações em andamento; tente novamente.");
+    }
+}
@@ -0,0 +1,16 @@
+package br.ufal.ic.p2.jackut.exceptions;
+
+/**
+ * Exceção lançada quando o destinatário de um recado já tem a quantidade máxima de recados não lidos
+ * e a política de transbordo é recusar os novos.
+ */
+public class CaixaDeRecadosCheiaException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Construtor da exceção, com uma mensagem padrão.
+     */
+    public CaixaDeRecadosCheiaException() {
+        super("Caixa de recados cheia.");
+    }
+}
@@ -2,6 +2,6 @@ package br.ufal.ic.p2.jackut.exceptions;
 
 public class ComunidadeJaExisteException extends RuntimeException {
     public ComunidadeJaExisteException() {
-        super("Comunidade com esse nome j existe.");
+        super("Comunidade com esse nome já existe.");
     }
 }
\ No newline at end of file
@@ -2,6 +2,6 @@ package br.ufal.ic.p2.jackut.exceptions;
 
 public class ComunidadeNaoExisteException extends RuntimeException {
     public ComunidadeNaoExisteException() {
-        super("Comunidade no existe.");
+        super("Comunidade não existe.");
     }
 }
\ No newline at end of file
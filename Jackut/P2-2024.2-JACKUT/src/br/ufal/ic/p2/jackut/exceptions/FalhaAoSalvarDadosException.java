@@ -0,0 +1,18 @@
+package br.ufal.ic.p2.jackut.exceptions;
+
+/**
+ * Exceção lançada quando o sistema não consegue gravar seus dados em disco,
+ * seja no registro de operações ou no snapshot.
+ */
+public class FalhaAoSalvarDadosException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Construtor da exceção, com uma mensagem padrão.
+     *
+     * @param causa A falha de entrada/saída original.
+     */
+    public FalhaAoSalvarDadosException(Throwable causa) {
+        super("Falha ao salvar dados do sistema.", causa);
+    }
+}
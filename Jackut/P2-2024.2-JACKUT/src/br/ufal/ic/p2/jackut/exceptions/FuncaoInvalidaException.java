@@ -3,6 +3,6 @@ package br.ufal.ic.p2.jackut.exceptions;
 
 public class FuncaoInvalidaException extends RuntimeException {
     public FuncaoInvalidaException(String detalhe) {
-        super("Funo invlida: " + detalhe);
+        super("Função inválida: " + detalhe);
     }
 }
@@ -1,16 +1,16 @@
 package br.ufal.ic.p2.jackut.exceptions;
 
 /**
- * Exceo lanada quando um login invlido  fornecido.
- * Esta exceo ocorre quando o login fornecido para a criao de conta ou para o acesso ao sistema  invlido.
+ * Exceção lançada quando um login inválido é fornecido.
+ * Esta exceção ocorre quando o login fornecido para a criação de conta ou para o acesso ao sistema é inválido.
  */
 public class LoginInvalidoException extends RuntimeException {
     private static final long serialVersionUID = 1L;
 
     /**
-     * Construtor da exceo, com uma mensagem padro.
+     * Construtor da exceção, com uma mensagem padrão.
      */
     public LoginInvalidoException() {
-        super("Login invlido.");
+        super("Login inválido.");
     }
 }
@@ -1,16 +1,16 @@
 package br.ufal.ic.p2.jackut.exceptions;
 
 /**
- * Exceo lanada quando o login ou a senha fornecidos so invlidos.
- * Essa exceo  usada quando um usurio tenta fazer login com credenciais incorretas.
+ * Exceção lançada quando o login ou a senha fornecidos são inválidos.
+ * Essa exceção é usada quando um usuário tenta fazer login com credenciais incorretas.
  */
 public class LoginOuSenhaInvalidosException extends RuntimeException {
     private static final long serialVersionUID = 1L;
 
     /**
-     * Construtor da exceo, com uma mensagem padro.
+     * Construtor da exceção, com uma mensagem padrão.
      */
     public LoginOuSenhaInvalidosException() {
-        super("Login ou senha invlidos.");
+        super("Login ou senha inválidos.");
     }
 }
@@ -2,6 +2,6 @@ package br.ufal.ic.p2.jackut.exceptions;
 
 public class NaoHaMensagensException extends RuntimeException {
     public NaoHaMensagensException() {
-        super("No h mensagens.");
+        super("Não há mensagens.");
     }
 }
@@ -1,16 +1,16 @@
 package br.ufal.ic.p2.jackut.exceptions;
 
 /**
- * Exceo lanada quando no h recados para serem lidos.
- * Esta exceo  utilizada quando o usurio tenta ler um recado, mas sua fila de recados est vazia.
+ * Exceção lançada quando não há recados para serem lidos.
+ * Esta exceção é utilizada quando o usuário tenta ler um recado, mas sua fila de recados está vazia.
  */
 public class NaoHaRecadosException extends RuntimeException {
     private static final long serialVersionUID = 1L;
 
     /**
-     * Construtor da exceo, com uma mensagem padro.
+     * Construtor da exceção, com uma mensagem padrão.
      */
     public NaoHaRecadosException() {
-        super("No h recados.");
+        super("Não há recados.");
     }
 }
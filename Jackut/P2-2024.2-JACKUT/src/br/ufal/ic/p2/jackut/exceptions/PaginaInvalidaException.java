@@ -0,0 +1,15 @@
+package br.ufal.ic.p2.jackut.exceptions;
+
+/**
+ * Exceção lançada quando uma listagem paginada é pedida com início negativo ou limite não positivo.
+ */
+public class PaginaInvalidaException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Construtor da exceção, com uma mensagem padrão.
+     */
+    public PaginaInvalidaException() {
+        super("Página inválida.");
+    }
+}
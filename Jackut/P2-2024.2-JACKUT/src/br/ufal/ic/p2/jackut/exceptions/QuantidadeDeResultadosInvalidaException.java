@@ -0,0 +1,15 @@
+package br.ufal.ic.p2.jackut.exceptions;
+
+/**
+ * Exceção lançada quando uma busca é pedida com uma quantidade de resultados não positiva.
+ */
+public class QuantidadeDeResultadosInvalidaException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Construtor da exceção, com uma mensagem padrão.
+     */
+    public QuantidadeDeResultadosInvalidaException() {
+        super("Quantidade de resultados inválida.");
+    }
+}
@@ -0,0 +1,15 @@
+package br.ufal.ic.p2.jackut.exceptions;
+
+/**
+ * Exceção lançada quando sugestões de amizade são pedidas com uma quantidade não positiva.
+ */
+public class QuantidadeDeSugestoesInvalidaException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Construtor da exceção, com uma mensagem padrão.
+     */
+    public QuantidadeDeSugestoesInvalidaException() {
+        super("Quantidade de sugestões inválida.");
+    }
+}
@@ -1,16 +1,16 @@
 package br.ufal.ic.p2.jackut.exceptions;
 
 /**
- * Exceo lanada quando uma senha invlida  fornecida.
- * Esta exceo ocorre quando a senha fornecida para o login ou criao de conta  invlida.
+ * Exceção lançada quando uma senha inválida é fornecida.
+ * Esta exceção ocorre quando a senha fornecida para o login ou criação de conta é inválida.
  */
 public class SenhaInvalidaException extends RuntimeException {
     private static final long serialVersionUID = 1L;
 
     /**
-     * Construtor da exceo, com uma mensagem padro.
+     * Construtor da exceção, com uma mensagem padrão.
      */
     public SenhaInvalidaException() {
-        super("Senha invlida.");
+        super("Senha inválida.");
     }
 }
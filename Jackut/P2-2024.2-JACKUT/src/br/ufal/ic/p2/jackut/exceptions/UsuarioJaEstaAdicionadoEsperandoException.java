@@ -1,16 +1,16 @@
 package br.ufal.ic.p2.jackut.exceptions;
 
 /**
- * Exceo lanada quando um usurio j est adicionado como amigo e est aguardando a aceitao do convite.
- * Essa exceo  usada quando h uma tentativa de adicionar um usurio que j foi convidado, mas o convite ainda est pendente.
+ * Exceção lançada quando um usuário já está adicionado como amigo e está aguardando a aceitação do convite.
+ * Essa exceção é usada quando há uma tentativa de adicionar um usuário que já foi convidado, mas o convite ainda está pendente.
  */
 public class UsuarioJaEstaAdicionadoEsperandoException extends RuntimeException {
     private static final long serialVersionUID = 1L;
 
     /**
-     * Construtor da exceo, com uma mensagem padro.
+     * Construtor da exceção, com uma mensagem padrão.
      */
     public UsuarioJaEstaAdicionadoEsperandoException() {
-        super("Usurio j est adicionado como amigo, esperando aceitao do convite.");
+        super("Usuário já está adicionado como amigo, esperando aceitação do convite.");
     }
 }
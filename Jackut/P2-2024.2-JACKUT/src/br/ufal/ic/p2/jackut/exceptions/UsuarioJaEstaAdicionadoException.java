@@ -1,16 +1,16 @@
 package br.ufal.ic.p2.jackut.exceptions;
 
 /**
- * Exceo lanada quando um usurio j est adicionado como amigo.
- * Esta exceo ocorre quando h uma tentativa de adicionar um usurio que j foi adicionado  lista de amigos.
+ * Exceção lançada quando um usuário já está adicionado como amigo.
+ * Esta exceção ocorre quando há uma tentativa de adicionar um usuário que já foi adicionado à lista de amigos.
  */
 public class UsuarioJaEstaAdicionadoException extends RuntimeException {
     private static final long serialVersionUID = 1L;
 
     /**
-     * Construtor da exceo, com uma mensagem padro.
+     * Construtor da exceção, com uma mensagem padrão.
      */
     public UsuarioJaEstaAdicionadoException() {
-        super("Usurio j est adicionado como amigo.");
+        super("Usuário já está adicionado como amigo.");
     }
 }
@@ -3,6 +3,6 @@ package br.ufal.ic.p2.jackut.exceptions;
 
 public class UsuarioJaEstaIdoloException extends RuntimeException {
     public UsuarioJaEstaIdoloException() {
-        super("Usurio j est adicionado como dolo.");
+        super("Usuário já está adicionado como ídolo.");
     }
 }
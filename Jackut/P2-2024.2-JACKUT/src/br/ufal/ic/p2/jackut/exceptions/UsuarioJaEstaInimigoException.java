@@ -3,6 +3,6 @@ package br.ufal.ic.p2.jackut.exceptions;
 
 public class UsuarioJaEstaInimigoException extends RuntimeException {
     public UsuarioJaEstaInimigoException() {
-        super("Usurio j est adicionado como inimigo.");
+        super("Usuário já está adicionado como inimigo.");
     }
 }
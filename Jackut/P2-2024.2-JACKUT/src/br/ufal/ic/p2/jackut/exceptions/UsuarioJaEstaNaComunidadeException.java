@@ -2,6 +2,6 @@ package br.ufal.ic.p2.jackut.exceptions;
 
 public class UsuarioJaEstaNaComunidadeException extends RuntimeException {
     public UsuarioJaEstaNaComunidadeException() {
-        super("Usuario j faz parte dessa comunidade."); // Com acento
+        super("Usuario já faz parte dessa comunidade."); // Com acento
     }
 }
\ No newline at end of file
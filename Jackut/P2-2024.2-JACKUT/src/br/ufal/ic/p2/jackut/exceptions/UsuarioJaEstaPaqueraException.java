@@ -3,6 +3,6 @@ package br.ufal.ic.p2.jackut.exceptions;
 
 public class UsuarioJaEstaPaqueraException extends RuntimeException {
     public UsuarioJaEstaPaqueraException() {
-        super("Usurio j est adicionado como paquera.");
+        super("Usuário já está adicionado como paquera.");
     }
 }
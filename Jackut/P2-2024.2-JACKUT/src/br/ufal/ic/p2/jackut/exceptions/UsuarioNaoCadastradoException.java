@@ -1,16 +1,16 @@
 package br.ufal.ic.p2.jackut.exceptions;
 
 /**
- * Exceo lanada quando um usurio no est cadastrado no sistema.
- * Essa exceo  usada quando um usurio tenta realizar uma ao (como login ou edio de perfil) e o login fornecido no corresponde a um usurio registrado.
+ * Exceção lançada quando um usuário não está cadastrado no sistema.
+ * Essa exceção é usada quando um usuário tenta realizar uma ação (como login ou edição de perfil) e o login fornecido não corresponde a um usuário registrado.
  */
 public class UsuarioNaoCadastradoException extends RuntimeException {
     private static final long serialVersionUID = 1L;
 
     /**
-     * Construtor da exceo, com uma mensagem padro.
+     * Construtor da exceção, com uma mensagem padrão.
      */
     public UsuarioNaoCadastradoException() {
-        super("Usurio no cadastrado.");
+        super("Usuário não cadastrado.");
     }
 }
@@ -1,16 +1,16 @@
 package br.ufal.ic.p2.jackut.exceptions;
 
 /**
- * Exceo lanada quando um usurio tenta adicionar a si mesmo como amigo.
- * Esta exceo ocorre quando um usurio tenta enviar um convite de amizade para si prprio, o que no  permitido.
+ * Exceção lançada quando um usuário tenta adicionar a si mesmo como amigo.
+ * Esta exceção ocorre quando um usuário tenta enviar um convite de amizade para si próprio, o que não é permitido.
  */
 public class UsuarioNaoPodeAdicionarASiMesmoException extends RuntimeException {
     private static final long serialVersionUID = 1L;
 
     /**
-     * Construtor da exceo, com uma mensagem padro.
+     * Construtor da exceção, com uma mensagem padrão.
      */
     public UsuarioNaoPodeAdicionarASiMesmoException() {
-        super("Usurio no pode adicionar a si mesmo como amigo.");
+        super("Usuário não pode adicionar a si mesmo como amigo.");
     }
 }
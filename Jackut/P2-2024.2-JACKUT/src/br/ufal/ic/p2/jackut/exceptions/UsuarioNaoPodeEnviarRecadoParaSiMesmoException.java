@@ -1,16 +1,16 @@
 package br.ufal.ic.p2.jackut.exceptions;
 
 /**
- * Exceo lanada quando um usurio tenta enviar um recado para si mesmo.
- * Esta exceo  usada quando um usurio tenta enviar um recado para o prprio login, o que no  permitido.
+ * Exceção lançada quando um usuário tenta enviar um recado para si mesmo.
+ * Esta exceção é usada quando um usuário tenta enviar um recado para o próprio login, o que não é permitido.
  */
 public class UsuarioNaoPodeEnviarRecadoParaSiMesmoException extends RuntimeException {
     private static final long serialVersionUID = 1L;
 
     /**
-     * Construtor da exceo, com uma mensagem padro.
+     * Construtor da exceção, com uma mensagem padrão.
      */
     public UsuarioNaoPodeEnviarRecadoParaSiMesmoException() {
-        super("Usurio no pode enviar recado para si mesmo.");
+        super("Usuário não pode enviar recado para si mesmo.");
     }
 }
@@ -3,6 +3,6 @@ package br.ufal.ic.p2.jackut.exceptions;
 
 public class UsuarioNaoPodeSerFaDeSiMesmoException extends RuntimeException {
     public UsuarioNaoPodeSerFaDeSiMesmoException() {
-        super("Usurio no pode ser f de si mesmo.");
+        super("Usuário não pode ser fã de si mesmo.");
     }
 }
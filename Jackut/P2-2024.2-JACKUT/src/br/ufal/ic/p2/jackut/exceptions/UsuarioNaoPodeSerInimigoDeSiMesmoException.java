@@ -3,6 +3,6 @@ package br.ufal.ic.p2.jackut.exceptions;
 
 public class UsuarioNaoPodeSerInimigoDeSiMesmoException extends RuntimeException {
     public UsuarioNaoPodeSerInimigoDeSiMesmoException() {
-        super("Usurio no pode ser inimigo de si mesmo.");
+        super("Usuário não pode ser inimigo de si mesmo.");
     }
 }
@@ -3,6 +3,6 @@ package br.ufal.ic.p2.jackut.exceptions;
 
 public class UsuarioNaoPodeSerPaqueraDeSiMesmoException extends RuntimeException {
     public UsuarioNaoPodeSerPaqueraDeSiMesmoException() {
-        super("Usurio no pode ser paquera de si mesmo.");
+        super("Usuário não pode ser paquera de si mesmo.");
     }
 }
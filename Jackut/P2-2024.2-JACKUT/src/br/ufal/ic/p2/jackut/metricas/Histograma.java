@@ -0,0 +1,114 @@
+package br.ufal.ic.p2.jackut.metricas;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma de latências em nanossegundos, com faixas log-lineares como as do HdrHistogram: cada
+ * potência de dois é dividida em {@value #SUBFAIXAS} faixas iguais, então o valor de qualquer percentil
+ * tem erro relativo de no máximo 1/{@value #SUBFAIXAS} (cerca de 3%). Valores abaixo de
+ * {@code 2 * SUBFAIXAS} são exatos, e valores acima de {@link #MAXIMO} (cerca de 18 minutos) caem na
+ * última faixa.
+ *
+ * <p>Registrar um valor é um cálculo de índice com {@link Long#numberOfLeadingZeros} e um incremento
+ * atômico, sem alocação e sem trava; os percentis são calculados na leitura, percorrendo as faixas. Uma
+ * leitura concorrente com registros vê cada faixa num instante diferente, o que basta para
+ * monitoramento.</p>
+ */
+public class Histograma {
+
+    private static final int BITS_SUBFAIXA = 5;
+    private static final int SUBFAIXAS = 1 << BITS_SUBFAIXA;
+
+    /**
+     * Maior valor distinguido pelo histograma, em nanossegundos.
+     */
+    public static final long MAXIMO = (1L << 40) - 1;
+
+    private static final int FAIXAS = indice(MAXIMO) + 1;
+
+    private final AtomicLongArray faixas = new AtomicLongArray(FAIXAS);
+    private final AtomicLong maximo = new AtomicLong();
+
+    /**
+     * Registra um valor.
+     *
+     * @param nanos O valor, em nanossegundos; negativos contam como 0
+     */
+    public void registrar(long nanos) {
+        registrar(nanos, 1);
+    }
+
+    /**
+     * Registra um valor amostrado, que representa {@code peso} valores.
+     *
+     * @param nanos O valor, em nanossegundos; negativos contam como 0
+     * @param peso Quantos valores a amostra representa
+     */
+    public void registrar(long nanos, int peso) {
+        long v = Math.max(0, nanos);
+        faixas.getAndAdd(indice(Math.min(v, MAXIMO)), peso);
+        long m = maximo.get();
+        while (v > m && !maximo.compareAndSet(m, v)) m = maximo.get();
+    }
+
+    /**
+     * @return A quantidade de valores registrados, somando os pesos
+     */
+    public long getContagem() {
+        long n = 0;
+        for (int i = 0; i < FAIXAS; i++) n += faixas.get(i);
+        return n;
+    }
+
+    /**
+     * @return O maior valor registrado, exato (numa amostra, o maior valor amostrado), ou 0 se nenhum foi
+     */
+    public long getMaximo() { return maximo.get(); }
+
+    /**
+     * Calcula um percentil: o maior valor da faixa em que ele cai, limitado ao máximo registrado.
+     *
+     * @param p O percentil, entre 0 e 100
+     * @return O valor do percentil, em nanossegundos, ou 0 se nenhum valor foi registrado
+     */
+    public long percentil(double p) {
+        long[] copia = new long[FAIXAS];
+        long n = 0;
+        for (int i = 0; i < FAIXAS; i++) n += copia[i] = faixas.get(i);
+        if (n == 0) return 0;
+        long alvo = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, p)) / 100 * n));
+        long acumulado = 0;
+        for (int i = 0; i < FAIXAS; i++) {
+            acumulado += copia[i];
+            if (acumulado >= alvo) return Math.min(limiteSuperior(i), maximo.get());
+        }
+        return maximo.get();
+    }
+
+    /**
+     * Descarta os valores registrados.
+     */
+    public void zerar() {
+        for (int i = 0; i < FAIXAS; i++) faixas.set(i, 0);
+        maximo.set(0);
+    }
+
+    /**
+     * Índice da faixa de um valor entre 0 e {@link #MAXIMO}: valores menores que {@code 2 * SUBFAIXAS} são
+     * o próprio índice; os demais são deslocados até sobrarem {@code BITS_SUBFAIXA + 1} bits, e o
+     * deslocamento escolhe o grupo de {@code SUBFAIXAS} faixas.
+     */
+    private static int indice(long v) {
+        if (v < 2 * SUBFAIXAS) return (int) v;
+        int deslocamento = 63 - Long.numberOfLeadingZeros(v) - BITS_SUBFAIXA;
+        return deslocamento * SUBFAIXAS + (int) (v >>> deslocamento);
+    }
+
+    private static long limiteSuperior(int i) {
+        if (i < 2 * SUBFAIXAS) return i;
+        int deslocamento = i / SUBFAIXAS - 1;
+        long m = i % SUBFAIXAS + SUBFAIXAS;
+        return ((m + 1) << deslocamento) - 1;
+    }
+}
@@ -0,0 +1,438 @@
+package br.ufal.ic.p2.jackut.metricas;
+
+import br.ufal.ic.p2.jackut.Configuracao;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Contadores e histogramas de latência das operações da {@link br.ufal.ic.p2.jackut.Facade}, e medidores
+ * do estado do sistema, expostos em texto ({@link #getTexto()}) e por JMX ({@link InstrumentacaoMXBean}).
+ *
+ * <p>Cada operação da fachada chama {@link #iniciar} antes de delegar ao Jackut, {@link #falhar} se ele
+ * lançar uma exceção e {@link #terminar} no fim. O caminho comum não aloca, não trava e não usa
+ * instruções atômicas, para que a medição possa ficar ligada em produção mesmo nas consultas de
+ * dezenas de nanossegundos:</p>
+ * <ul>
+ *   <li>chamadas e falhas são contadas num array de cada thread, escrito só por ela (com escrita
+ *   {@linkplain VarHandle#setOpaque opaca}) e somado na leitura do relatório; os de threads encerradas
+ *   são acumulados e descartados. Para não pagar a busca no {@link ThreadLocal} a cada chamada, a
+ *   thread toma, na primeira, uma posição de uma tabela indexada pelo seu id e passa a contar num bloco
+ *   dela; só as que encontram a posição tomada por outra thread viva ficam com um array próprio;</li>
+ *   <li>a latência é amostrada: ler o relógio duas vezes custa dezenas de nanossegundos, então cada
+ *   operação é cronometrada em cerca de uma de cada {@code n} chamadas, a intervalos sorteados em cada
+ *   thread, com {@code n} ajustado pela média das amostras para que o relógio custe cerca de 0,5% do
+ *   tempo da operação (operações de 40 µs ou mais são todas cronometradas). Cada amostra entra no
+ *   {@link Histograma} com peso {@code n}, e os percentis valem para todas as chamadas. Nas consultas
+ *   de dezenas de nanossegundos, como {@code ehAmigo}, o intervalo chega a milhares de chamadas;</li>
+ *   <li>as falhas por tipo de exceção ficam num mapa que só cria um contador na primeira falha de cada
+ *   tipo.</li>
+ * </ul>
+ *
+ * <p>A medição começa ligada ({@code -Djackut.metricas=false} a desliga) e pode ser ligada e desligada
+ * em funcionamento por {@link #setAtiva}; desligada, cada operação custa só a leitura de um campo
+ * volátil. Os medidores são lidos só quando o relatório é montado.</p>
+ */
+public class Instrumentacao implements InstrumentacaoMXBean {
+
+    // Valores de iniciar() que não são instantes: medição desligada e chamada fora da amostra
+    private static final long DESLIGADA = Long.MIN_VALUE;
+    private static final long SEM_AMOSTRA = Long.MIN_VALUE + 1;
+
+    // Custo de uma amostra (dois relógios e o histograma, fora do cache quando a consulta percorre
+    // muitos usuários), 200 ns, vezes 200: o intervalo de amostragem de uma operação é este orçamento
+    // dividido pela sua latência média, para que as amostras custem cerca de 0,5% do tempo dela,
+    // arredondado para baixo a uma potência de dois para que o sorteio seja uma máscara
+    private static final long ORCAMENTO = 200 * 200;
+    private static final int INTERVALO_MAXIMO = 4096;
+
+    private static final Operacao[] OPERACOES = Operacao.values();
+    private static final int N = OPERACOES.length;
+
+    // Campos de cada operação no array de uma thread, juntos para caírem na mesma linha de cache: as
+    // chamadas, as falhas e as chamadas que faltam até a próxima amostra, que só a thread lê
+    private static final int CHAMADAS = 0, FALHAS = 1, RESTANTES = 2;
+    private static final int CAMPOS = 4;
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final AtomicInteger INSTANCIAS = new AtomicInteger();
+    // Posições da tabela de contadores por id de thread e o tamanho do bloco de cada uma, o mesmo do
+    // array de uma thread
+    private static final int FAIXAS = 64;
+    private static final int POR_FAIXA = N * CAMPOS;
+
+    private volatile boolean ativa = Configuracao.booleano("metricas", true);
+
+    private final ThreadLocal<long[]> locais = ThreadLocal.withInitial(this::novosContadores);
+    // Blocos de contadores das threads donas de uma posição da tabela, um a cada POR_FAIXA, o id da
+    // dona de cada posição (0 se livre) e a dona. Só a dona escreve no seu bloco; a posição é tomada e
+    // liberada sob this, e só depois de a dona terminar, então quem lê um id desatualizado nunca acha o
+    // próprio
+    private final long[] faixas = new long[FAIXAS * POR_FAIXA];
+    private final long[] idsDonas = new long[FAIXAS];
+    private final Thread[] donas = new Thread[FAIXAS];
+    private final Queue<Contadores> contadores = new ConcurrentLinkedQueue<>();
+    // Chamadas e falhas das threads encerradas (posições 0..N-1 e N..2N-1) e as descontadas por
+    // zerar(); protegidas por this
+    private final long[] encerradas = new long[2 * N];
+    private final long[] descontados = new long[2 * N];
+
+    private final Histograma[] latencias = new Histograma[N];
+    // Intervalo de amostragem menos 1 (uma máscara de bits) e média móvel das amostras de cada operação;
+    // escritos sem sincronização por quem registra uma amostra, pois uma atualização perdida só atrasa o
+    // ajuste
+    private final int[] mascaras = new int[N];
+    private final long[] medias = new long[N];
+    private final List<Map<Class<?>, LongAdder>> falhasPorTipo = new ArrayList<>(N);
+    private final Map<String, LongSupplier> medidores = new LinkedHashMap<>();
+    private ObjectName nomeJmx;
+
+    /**
+     * Cria a instrumentação, com todos os contadores zerados e sem medidores.
+     */
+    public Instrumentacao() {
+        for (int i = 0; i < N; i++) {
+            latencias[i] = new Histograma();
+            falhasPorTipo.add(new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * Acrescenta um medidor ao relatório; deve ser chamado antes de a instrumentação ser publicada.
+     *
+     * @param nome O nome do medidor
+     * @param valor Lê o valor atual, chamado a cada relatório
+     */
+    public void medidor(String nome, LongSupplier valor) {
+        medidores.put(nome, valor);
+    }
+
+    // ** Caminho das operações **
+
+    /**
+     * Marca o início de uma operação e a conta, lendo o relógio se a chamada for a sorteada para a
+     * amostra.
+     *
+     * @param op A operação
+     * @return O valor a passar para {@link #terminar} e {@link #falhar}
+     */
+    public long iniciar(Operacao op) {
+        if (!ativa) return DESLIGADA;
+        int o = op.ordinal();
+        int p = bloco();
+        return p < 0 ? contar(locais.get(), o * CAMPOS, o) : contar(faixas, p + o * CAMPOS, o);
+    }
+
+    /**
+     * Conta uma chamada nos campos de uma operação que começam em {@code b} e decide se ela é amostrada.
+     */
+    private long contar(long[] c, int b, int o) {
+        LONGS.setOpaque(c, b + CHAMADAS, (long) LONGS.getOpaque(c, b + CHAMADAS) + 1);
+        if (--c[b + RESTANTES] > 0) return SEM_AMOSTRA;
+        return sortear(c, b, o);
+    }
+
+    /**
+     * Sorteia a distância até a próxima amostra e lê o relógio para esta; fora do caminho comum, para que
+     * ele seja curto o bastante para ser todo embutido na fachada.
+     */
+    private long sortear(long[] c, int b, int o) {
+        // a próxima amostra fica a uma distância sorteada entre n/2 + 1 e n/2 + n, com média de cerca de
+        // n, para que uma carga periódica não seja sempre amostrada no mesmo ponto do ciclo
+        int m = mascaras[o];
+        c[b + RESTANTES] = (m + 1) / 2 + 1 + (ThreadLocalRandom.current().nextInt() & m);
+        return System.nanoTime();
+    }
+
+    /**
+     * Conta a falha de uma operação.
+     *
+     * @param op A operação
+     * @param inicio O valor devolvido por {@link #iniciar}
+     * @param e A exceção lançada
+     * @return A própria exceção, para ser relançada
+     */
+    public RuntimeException falhar(Operacao op, long inicio, RuntimeException e) {
+        if (inicio == DESLIGADA) return e;
+        int p = bloco();
+        long[] c = p < 0 ? locais.get() : faixas;
+        int i = Math.max(p, 0) + op.ordinal() * CAMPOS + FALHAS;
+        LONGS.setOpaque(c, i, (long) LONGS.getOpaque(c, i) + 1);
+        falhasPorTipo.get(op.ordinal()).computeIfAbsent(e.getClass(), k -> new LongAdder()).increment();
+        return e;
+    }
+
+    /**
+     * Marca o fim de uma operação, com ou sem falha, registrando a latência se ela estiver na amostra.
+     *
+     * @param op A operação
+     * @param inicio O valor devolvido por {@link #iniciar}
+     */
+    public void terminar(Operacao op, long inicio) {
+        if (inicio == DESLIGADA || inicio == SEM_AMOSTRA) return;
+        amostrar(op.ordinal(), System.nanoTime() - inicio);
+    }
+
+    private void amostrar(int o, long nanos) {
+        latencias[o].registrar(nanos, mascaras[o] + 1);
+        long m = medias[o];
+        m = m == 0 ? Math.max(1, nanos) : Math.max(1, m + (nanos - m) / 16);
+        medias[o] = m;
+        mascaras[o] = Integer.highestOneBit((int) Math.max(1, Math.min(INTERVALO_MAXIMO, ORCAMENTO / m))) - 1;
+    }
+
+    /**
+     * @return O início do bloco da thread atual em {@link #faixas}, ou -1 se ela não for dona de uma
+     * posição e contar no seu array do {@link ThreadLocal}
+     */
+    private int bloco() {
+        long id = Thread.currentThread().getId();
+        int f = (int) id & (FAIXAS - 1);
+        return (long) LONGS.getOpaque(idsDonas, f) == id ? f * POR_FAIXA : -1;
+    }
+
+    private long[] novosContadores() {
+        tomarFaixa();
+        long[] c = new long[POR_FAIXA];
+        contadores.add(new Contadores(c));
+        return c;
+    }
+
+    /**
+     * Toma para a thread atual a posição do seu id na tabela, se estiver livre ou for de uma thread
+     * encerrada. Uma thread encerrada segura a posição até outra tomá-la ou até o próximo relatório.
+     */
+    private synchronized void tomarFaixa() {
+        Thread t = Thread.currentThread();
+        int f = (int) t.getId() & (FAIXAS - 1);
+        if (donas[f] != null && !donas[f].isAlive()) liberarFaixa(f);
+        if (donas[f] != null) return;
+        donas[f] = t;
+        LONGS.setOpaque(idsDonas, f, t.getId());
+    }
+
+    /**
+     * Acumula os contadores de uma posição cuja dona terminou e a libera; chamado sob this.
+     */
+    private void liberarFaixa(int f) {
+        for (int o = 0; o < N; o++) {
+            int i = f * POR_FAIXA + o * CAMPOS;
+            encerradas[o] += (long) LONGS.getOpaque(faixas, i + CHAMADAS);
+            encerradas[N + o] += (long) LONGS.getOpaque(faixas, i + FALHAS);
+        }
+        Arrays.fill(faixas, f * POR_FAIXA, (f + 1) * POR_FAIXA, 0);
+        donas[f] = null;
+        LONGS.setOpaque(idsDonas, f, 0L);
+    }
+
+    /**
+     * Os contadores de uma thread e a thread, para que os de threads encerradas sejam descartados.
+     */
+    private static final class Contadores {
+        final WeakReference<Thread> dona = new WeakReference<>(Thread.currentThread());
+        final long[] valores;
+
+        Contadores(long[] valores) { this.valores = valores; }
+    }
+
+    /**
+     * Soma as chamadas (posições 0..N-1) e as falhas (N..2N-1) de todas as threads, descontando os
+     * valores zerados; acumula e descarta os contadores das threads encerradas.
+     */
+    private synchronized long[] somar() {
+        for (int f = 0; f < FAIXAS; f++) {
+            if (donas[f] != null && !donas[f].isAlive()) liberarFaixa(f);
+        }
+        long[] soma = encerradas.clone();
+        for (int f = 0; f < FAIXAS; f++) {
+            if (donas[f] == null) continue;
+            for (int o = 0; o < N; o++) {
+                soma[o] += (long) LONGS.getOpaque(faixas, f * POR_FAIXA + o * CAMPOS + CHAMADAS);
+                soma[N + o] += (long) LONGS.getOpaque(faixas, f * POR_FAIXA + o * CAMPOS + FALHAS);
+            }
+        }
+        for (Iterator<Contadores> it = contadores.iterator(); it.hasNext(); ) {
+            Contadores c = it.next();
+            boolean encerrada = c.dona.get() == null;
+            for (int o = 0; o < N; o++) {
+                long chamadas = (long) LONGS.getOpaque(c.valores, o * CAMPOS + CHAMADAS);
+                long falhas = (long) LONGS.getOpaque(c.valores, o * CAMPOS + FALHAS);
+                soma[o] += chamadas;
+                soma[N + o] += falhas;
+                if (encerrada) {
+                    encerradas[o] += chamadas;
+                    encerradas[N + o] += falhas;
+                }
+            }
+            if (encerrada) it.remove();
+        }
+        for (int i = 0; i < soma.length; i++) soma[i] -= descontados[i];
+        return soma;
+    }
+
+    // ** Leitura **
+
+    @Override
+    public boolean isAtiva() { return ativa; }
+
+    @Override
+    public void setAtiva(boolean ativa) { this.ativa = ativa; }
+
+    /**
+     * @param op A operação
+     * @return O intervalo de amostragem atual da operação: uma em cada quantas chamadas é cronometrada
+     */
+    public int getIntervalo(Operacao op) { return mascaras[op.ordinal()] + 1; }
+
+    @Override
+    public Map<String, Integer> getIntervalos() {
+        long[] s = somar();
+        Map<String, Integer> m = new LinkedHashMap<>();
+        for (Operacao op : OPERACOES) {
+            if (s[op.ordinal()] > 0) m.put(op.getNome(), getIntervalo(op));
+        }
+        return m;
+    }
+
+    @Override
+    public Map<String, Long> getMedidores() {
+        Map<String, Long> m = new LinkedHashMap<>();
+        for (Map.Entry<String, LongSupplier> e : medidores.entrySet()) m.put(e.getKey(), e.getValue().getAsLong());
+        return m;
+    }
+
+    @Override
+    public Map<String, Long> getChamadas() {
+        long[] s = somar();
+        Map<String, Long> m = new LinkedHashMap<>();
+        for (Operacao op : OPERACOES) {
+            if (s[op.ordinal()] > 0) m.put(op.getNome(), s[op.ordinal()]);
+        }
+        return m;
+    }
+
+    @Override
+    public Map<String, Long> getErros() {
+        Map<String, Long> m = new LinkedHashMap<>();
+        for (Operacao op : OPERACOES) {
+            for (Map.Entry<Class<?>, LongAdder> e : falhasPorTipo.get(op.ordinal()).entrySet()) {
+                m.put(op.getNome() + ":" + e.getKey().getSimpleName(), e.getValue().sum());
+            }
+        }
+        return m;
+    }
+
+    /**
+     * @param op A operação
+     * @return As chamadas da operação
+     */
+    public long getChamadas(Operacao op) { return somar()[op.ordinal()]; }
+
+    /**
+     * @param op A operação
+     * @return As falhas da operação
+     */
+    public long getFalhas(Operacao op) { return somar()[N + op.ordinal()]; }
+
+    /**
+     * @param op A operação
+     * @return O histograma das latências da operação, com as amostras já ponderadas
+     */
+    public Histograma getLatencias(Operacao op) { return latencias[op.ordinal()]; }
+
+    @Override
+    public double percentilMicros(String operacao, double percentil) {
+        for (Operacao op : OPERACOES) {
+            if (op.getNome().equals(operacao)) return latencias[op.ordinal()].percentil(percentil) / 1e3;
+        }
+        return 0;
+    }
+
+    /**
+     * Monta o relatório: uma linha com os medidores e uma linha por operação chamada ao menos uma vez,
+     * com as chamadas, as falhas, os percentis da latência em microssegundos, o maior valor amostrado, o
+     * intervalo de amostragem e as falhas por tipo de exceção.
+     *
+     * @return O relatório
+     */
+    @Override
+    public String getTexto() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> e : getMedidores().entrySet()) {
+            if (sb.length() > 0) sb.append(' ');
+            sb.append(e.getKey()).append('=').append(e.getValue());
+        }
+        sb.append('\n');
+        long[] s = somar();
+        for (Operacao op : OPERACOES) {
+            int i = op.ordinal();
+            if (s[i] == 0) continue;
+            Histograma h = latencias[i];
+            sb.append(op.getNome()).append(" chamadas=").append(s[i]).append(" falhas=").append(s[N + i]);
+            sb.append(String.format(Locale.ROOT, " p50=%.2fus p99=%.2fus p99.9=%.2fus max=%.2fus",
+                    h.percentil(50) / 1e3, h.percentil(99) / 1e3, h.percentil(99.9) / 1e3, h.getMaximo() / 1e3));
+            sb.append(" amostragem=1/").append(getIntervalo(op));
+            for (Map.Entry<Class<?>, LongAdder> e : falhasPorTipo.get(i).entrySet()) {
+                sb.append(' ').append(e.getKey().getSimpleName()).append('=').append(e.getValue().sum());
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public synchronized void zerar() {
+        long[] s = somar();
+        for (int i = 0; i < s.length; i++) descontados[i] += s[i];
+        for (int i = 0; i < N; i++) {
+            falhasPorTipo.get(i).clear();
+            latencias[i].zerar();
+        }
+    }
+
+    // ** JMX **
+
+    /**
+     * Registra a instrumentação no servidor de MBeans da plataforma, com um id novo.
+     */
+    public synchronized void registrarJmx() {
+        if (nomeJmx != null) return;
+        try {
+            ObjectName nome = new ObjectName("br.ufal.ic.p2.jackut:type=Instrumentacao,id=" + INSTANCIAS.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, nome);
+            nomeJmx = nome;
+        } catch (JMException e) {
+            throw new IllegalStateException("Não foi possível registrar a instrumentação no JMX", e);
+        }
+    }
+
+    /**
+     * Retira a instrumentação do servidor de MBeans, se estiver registrada.
+     */
+    public synchronized void desregistrarJmx() {
+        if (nomeJmx == null) return;
+        MBeanServer s = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (s.isRegistered(nomeJmx)) s.unregisterMBean(nomeJmx);
+        } catch (JMException e) {
+            throw new IllegalStateException("Não foi possível retirar a instrumentação do JMX", e);
+        } finally {
+            nomeJmx = null;
+        }
+    }
+
+    /**
+     * @return O nome JMX, ou null se a instrumentação não estiver registrada
+     */
+    public synchronized ObjectName getNomeJmx() { return nomeJmx; }
+}
@@ -0,0 +1,62 @@
+package br.ufal.ic.p2.jackut.metricas;
+
+import java.util.Map;
+
+/**
+ * Interface JMX da {@link Instrumentacao}, registrada como
+ * {@code br.ufal.ic.p2.jackut:type=Instrumentacao,id=<n>} (uma por fachada aberta).
+ */
+public interface InstrumentacaoMXBean {
+
+    /**
+     * @return True se as operações estão sendo medidas
+     */
+    boolean isAtiva();
+
+    /**
+     * Liga ou desliga a medição; os valores já medidos são mantidos.
+     *
+     * @param ativa True para medir
+     */
+    void setAtiva(boolean ativa);
+
+    /**
+     * @return O intervalo de amostragem de cada operação chamada ao menos uma vez: uma em cada quantas
+     * chamadas tem a latência medida
+     */
+    Map<String, Integer> getIntervalos();
+
+    /**
+     * @return Os medidores do sistema (usuários, comunidades, sessões ativas, recados e mensagens pendentes)
+     */
+    Map<String, Long> getMedidores();
+
+    /**
+     * @return As chamadas de cada operação chamada ao menos uma vez
+     */
+    Map<String, Long> getChamadas();
+
+    /**
+     * @return As falhas de cada operação por tipo de exceção, com chaves {@code operacao:Excecao}
+     */
+    Map<String, Long> getErros();
+
+    /**
+     * Calcula um percentil da latência de uma operação.
+     *
+     * @param operacao O nome da operação, como {@code getAtributoUsuario}
+     * @param percentil O percentil, entre 0 e 100
+     * @return A latência, em microssegundos, ou 0 se a operação não foi medida
+     */
+    double percentilMicros(String operacao, double percentil);
+
+    /**
+     * @return O relatório em texto, como em {@link br.ufal.ic.p2.jackut.Facade#getMetricas()}
+     */
+    String getTexto();
+
+    /**
+     * Zera os contadores e os histogramas.
+     */
+    void zerar();
+}
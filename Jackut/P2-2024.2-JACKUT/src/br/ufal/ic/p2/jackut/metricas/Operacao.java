@@ -0,0 +1,68 @@
+package br.ufal.ic.p2.jackut.metricas;
+
+import java.util.Locale;
+
+/**
+ * Operações da {@link br.ufal.ic.p2.jackut.Facade} medidas pela {@link Instrumentacao}. O nome de cada
+ * uma é o do método da fachada; as versões paginadas das listagens levam o sufixo {@code Pagina} e
+ * contam também as páginas lidas pelos iteradores ({@code iterarAmigos} etc.).
+ */
+public enum Operacao {
+    ZERAR_SISTEMA,
+    CRIAR_USUARIO,
+    ABRIR_SESSAO,
+    GET_ATRIBUTO_USUARIO,
+    EDITAR_PERFIL,
+    ADICIONAR_AMIGO,
+    EH_AMIGO,
+    GET_AMIGOS,
+    ENVIAR_RECADO,
+    LER_RECADO,
+    CRIAR_COMUNIDADE,
+    GET_DESCRICAO_COMUNIDADE,
+    GET_DONO_COMUNIDADE,
+    GET_MEMBROS_COMUNIDADE,
+    GET_COMUNIDADES,
+    ADICIONAR_COMUNIDADE,
+    ENVIAR_MENSAGEM,
+    LER_MENSAGEM,
+    ADICIONAR_IDOLO,
+    EH_FA,
+    GET_FAS,
+    ADICIONAR_PAQUERA,
+    EH_PAQUERA,
+    GET_PAQUERAS,
+    ADICIONAR_INIMIGO,
+    SUGERIR_AMIGOS,
+    REMOVER_USUARIO,
+    CRIAR_USUARIOS,
+    ADICIONAR_AMIGOS,
+    ADICIONAR_MEMBROS,
+    GET_AMIGOS_PAGINA,
+    GET_MEMBROS_COMUNIDADE_PAGINA,
+    GET_COMUNIDADES_PAGINA,
+    GET_FAS_PAGINA,
+    GET_PAQUERAS_PAGINA,
+    GET_USUARIOS_COM_ATRIBUTO,
+    AGUARDAR_ENTREGAS,
+    AGUARDAR_CARGA,
+    BUSCAR_USUARIOS,
+    BUSCAR_COMUNIDADES,
+    ANALISAR_REDE,
+    ENCERRAR_SISTEMA;
+
+    private final String nome;
+
+    Operacao() {
+        StringBuilder sb = new StringBuilder();
+        for (String parte : name().toLowerCase(Locale.ROOT).split("_")) {
+            sb.append(sb.length() == 0 ? parte : Character.toUpperCase(parte.charAt(0)) + parte.substring(1));
+        }
+        this.nome = sb.toString();
+    }
+
+    /**
+     * @return O nome do método da fachada, por exemplo {@code getAtributoUsuario}
+     */
+    public String getNome() { return nome; }
+}
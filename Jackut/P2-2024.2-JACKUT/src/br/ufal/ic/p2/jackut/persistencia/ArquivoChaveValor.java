@@ -0,0 +1,523 @@
+package br.ufal.ic.p2.jackut.persistencia;
+
+import br.ufal.ic.p2.jackut.exceptions.FalhaAoSalvarDadosException;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Armazenamento chave-valor embutido, num único arquivo gravado somente por acréscimo, em que cada
+ * chave guarda o seu valor mais recente.
+ *
+ * <p>Cada chamada a {@link #gravar(Map)} vira um lote: {@code [tamanho:int][crc32:int]} seguido dos
+ * registros {@code [chave:len+utf-8][valor:len+bytes]}, com tamanho -1 no valor de uma chave removida.
+ * O lote é aplicado inteiro ou não é aplicado: um lote incompleto ou corrompido no fim do arquivo (queda
+ * durante a escrita) é descartado na abertura; um lote corrompido seguido de outros faz a abertura falhar,
+ * sem truncar nada ({@link RegistroOperacoes#exigirCauda}). Em memória fica só o
+ * índice de cada chave para a posição do seu registro mais recente, que serve para a compactação; os
+ * valores são devolvidos uma única vez, na abertura.</p>
+ *
+ * <p>A sincronização com o disco segue a {@link Durabilidade}, como no {@link RegistroOperacoes}: os
+ * lotes vão para um buffer e são sincronizados em grupo por uma thread de fundo, a cada intervalo, ou por
+ * quem espera o fsync do seu lote ({@link #aguardar}), que junta os lotes que chegarem em até a espera
+ * máxima, ou até completar o lote configurado.</p>
+ *
+ * <p>Os registros substituídos e removidos continuam no arquivo até a compactação
+ * ({@link #compactarSeNecessario()}), feita quando o lixo passa do limite e do tamanho dos registros
+ * vivos. Os registros vivos são copiados para {@code <arquivo>.tmp} sem a trava do arquivo, enquanto os
+ * lotes continuam sendo acrescentados; com a trava, os lotes acrescentados nesse meio tempo são copiados
+ * para o fim da cópia, que é sincronizada e renomeada por cima do arquivo.</p>
+ */
+public class ArquivoChaveValor implements Closeable {
+
+    private static final ScheduledExecutorService AGENDADOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "jackut-chaveValor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Tamanho máximo de um lote lido; um tamanho maior só aparece num cabeçalho corrompido
+    private static final int MAXIMO_LOTE = 256 * 1024 * 1024;
+    // Bytes acumulados no buffer que fazem os lotes serem passados ao sistema operacional
+    private static final int LIMITE_BUFFER = 64 * 1024;
+
+    /**
+     * Posição do registro mais recente de uma chave no arquivo: o registro inteiro, chave e valor.
+     */
+    private static final class Local {
+        final long posicao;
+        final int tamanho;
+
+        Local(long posicao, int tamanho) {
+            this.posicao = posicao;
+            this.tamanho = tamanho;
+        }
+    }
+
+    private final File arquivo;
+    private final File temporario;
+    private final Durabilidade durabilidade;
+    private final long limiteLixo;
+
+    private FileChannel canal;
+    private ScheduledFuture<?> sincronizacao;
+    private final Map<String, Local> indice;
+    // Fim lógico do arquivo, com o buffer; até onde o arquivo foi escrito; soma dos registros vivos
+    private long fim, escrito, vivos;
+    // Incrementada por limpar: uma compactação começada antes é descartada
+    private long geracao;
+
+    // Último lote acrescentado, último passado ao sistema operacional e último sincronizado com o disco
+    private long ultimo, escrita;
+    private volatile long duravel;
+    private volatile long sincronizacoes, compactacoes;
+
+    private final Buffer buffer = new Buffer();
+    private final Buffer lote = new Buffer();
+    private final CRC32 crc = new CRC32();
+
+    // Serializa os fsyncs com o fechamento e a troca do arquivo; é adquirida depois da trava do arquivo
+    private final Object disco = new Object();
+    // Uma compactação de cada vez
+    private final Object compactacao = new Object();
+
+    private ArquivoChaveValor(File arquivo, Durabilidade durabilidade, long limiteLixo, Map<String, Local> indice,
+                              long fim, long vivos) {
+        this.arquivo = arquivo;
+        this.temporario = new File(arquivo.getPath() + ".tmp");
+        this.durabilidade = durabilidade;
+        this.limiteLixo = Math.max(0, limiteLixo);
+        this.indice = indice;
+        this.fim = this.escrito = fim;
+        this.vivos = vivos;
+    }
+
+    /**
+     * Abre o arquivo, lendo os lotes em ordem e guardando no destino o valor mais recente de cada chave.
+     * Um lote incompleto ou corrompido no fim do arquivo é descartado dele. O arquivo é criado se não
+     * existir.
+     *
+     * @param arquivo O arquivo
+     * @param durabilidade Quando os lotes são sincronizados com o disco
+     * @param limiteLixo Os bytes de registros substituídos a partir dos quais o arquivo é compactado
+     * @param destino Recebe o valor de cada chave
+     * @return O arquivo aberto
+     * @throws IOException Se o arquivo não puder ser lido ou tiver um lote corrompido antes de outros
+     */
+    public static ArquivoChaveValor abrir(File arquivo, Durabilidade durabilidade, long limiteLixo,
+                                          Map<String, byte[]> destino) throws IOException {
+        // uma compactação interrompida: o arquivo original continua valendo
+        new File(arquivo.getPath() + ".tmp").delete();
+        Map<String, Local> indice = new HashMap<>();
+        long aceito = 0, vivos = 0;
+        if (arquivo.exists()) {
+            CRC32 crc = new CRC32();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(arquivo)))) {
+                while (true) {
+                    int tamanho, esperado;
+                    byte[] dados;
+                    try {
+                        tamanho = in.readInt();
+                        esperado = in.readInt();
+                        if (tamanho <= 0 || tamanho > MAXIMO_LOTE) {
+                            RegistroOperacoes.exigirCauda(arquivo, aceito, aceito);
+                            break;
+                        }
+                        dados = new byte[tamanho];
+                        in.readFully(dados);
+                    } catch (EOFException e) { break; }
+                    crc.reset();
+                    crc.update(dados, 0, dados.length);
+                    if ((int) crc.getValue() != esperado) {
+                        RegistroOperacoes.exigirCauda(arquivo, aceito, aceito + 8 + tamanho);
+                        break;
+                    }
+                    vivos += aplicar(dados, aceito + 8, indice, destino);
+                    aceito += 8 + tamanho;
+                }
+            }
+            if (aceito < arquivo.length()) {
+                try (RandomAccessFile raf = new RandomAccessFile(arquivo, "rw")) { raf.setLength(aceito); }
+            }
+        }
+        ArquivoChaveValor a = new ArquivoChaveValor(arquivo, durabilidade, limiteLixo, indice, aceito, vivos);
+        a.abrirCanal();
+        return a;
+    }
+
+    // Aplica os registros de um lote lido ao índice e ao destino; retorna a variação dos bytes vivos
+    private static long aplicar(byte[] dados, long inicio, Map<String, Local> indice, Map<String, byte[]> destino)
+            throws IOException {
+        ByteBuffer b = ByteBuffer.wrap(dados);
+        long variacao = 0;
+        while (b.hasRemaining()) {
+            int p = b.position();
+            byte[] chave = new byte[b.getInt()];
+            b.get(chave);
+            int n = b.getInt();
+            byte[] valor = n < 0 ? null : new byte[n];
+            if (valor != null) b.get(valor);
+            String c = new String(chave, StandardCharsets.UTF_8);
+            Local antigo = valor == null ? indice.remove(c) : indice.put(c, new Local(inicio + p, b.position() - p));
+            if (antigo != null) variacao -= antigo.tamanho;
+            if (valor == null) destino.remove(c);
+            else {
+                destino.put(c, valor);
+                variacao += b.position() - p;
+            }
+        }
+        return variacao;
+    }
+
+    /**
+     * Acrescenta um lote de alterações ao arquivo. O lote fica no buffer até a próxima sincronização.
+     *
+     * @param alteracoes O novo valor de cada chave, ou null para removê-la
+     * @return O número do lote, para {@link #aguardar}
+     * @throws FalhaAoSalvarDadosException Se o arquivo não puder ser escrito
+     */
+    public synchronized long gravar(Map<String, byte[]> alteracoes) {
+        try {
+            if (canal == null) abrirCanal();
+            lote.reset();
+            for (Map.Entry<String, byte[]> e : alteracoes.entrySet()) {
+                byte[] chave = e.getKey().getBytes(StandardCharsets.UTF_8);
+                byte[] valor = e.getValue();
+                lote.escreverInt(chave.length);
+                lote.write(chave, 0, chave.length);
+                lote.escreverInt(valor == null ? -1 : valor.length);
+                if (valor != null) lote.write(valor, 0, valor.length);
+            }
+            if (lote.size() == 0) return ultimo;
+            crc.reset();
+            crc.update(lote.dados(), 0, lote.size());
+            buffer.escreverInt(lote.size());
+            buffer.escreverInt((int) crc.getValue());
+            long inicio = fim + 8;
+            buffer.write(lote.dados(), 0, lote.size());
+            fim = inicio + lote.size();
+            // as posições dos registros, na mesma ordem em que foram escritos
+            ByteBuffer b = ByteBuffer.wrap(lote.dados(), 0, lote.size());
+            for (Map.Entry<String, byte[]> e : alteracoes.entrySet()) {
+                int p = b.position();
+                b.position(p + 4 + b.getInt(p));
+                int n = b.getInt();
+                if (n > 0) b.position(b.position() + n);
+                Local antigo = n < 0 ? indice.remove(e.getKey())
+                                     : indice.put(e.getKey(), new Local(inicio + p, b.position() - p));
+                if (antigo != null) vivos -= antigo.tamanho;
+                if (n >= 0) vivos += b.position() - p;
+            }
+            ultimo++;
+            if (buffer.size() >= LIMITE_BUFFER) descarregar();
+            // o lote de fsync se completou: quem espera por ele não precisa esperar mais
+            else if (durabilidade.isGrupo() && ultimo - escrita == durabilidade.getLote()) notifyAll();
+            return ultimo;
+        } catch (IOException e) {
+            throw new FalhaAoSalvarDadosException(e);
+        }
+    }
+
+    /**
+     * Espera até que o lote {@code seq}, e todos os anteriores, estejam sincronizados com o disco. Se
+     * ele ainda está no buffer, espera, até {@code limite}, que outros lotes se juntem a ele ou que o
+     * lote de fsync se complete, e então faz o fsync do grupo; se outra thread já está sincronizando,
+     * espera por ela e só sincroniza de novo se o fsync dela não o incluiu.
+     *
+     * @param seq O número do lote devolvido por {@link #gravar}
+     * @param limite O instante ({@link System#nanoTime()}) em que o fsync deixa de esperar por outros lotes
+     * @throws FalhaAoSalvarDadosException Se o arquivo não puder ser sincronizado
+     */
+    public void aguardar(long seq, long limite) {
+        FileChannel c;
+        long ate;
+        synchronized (this) {
+            if (duravel >= seq) return;
+            boolean interrompida = false;
+            while (escrita < seq) {
+                long falta = limite - System.nanoTime();
+                if (falta <= 0 || interrompida || ultimo - escrita >= durabilidade.getLote()) {
+                    descarregar();
+                    break;
+                }
+                try { TimeUnit.NANOSECONDS.timedWait(this, falta); }
+                catch (InterruptedException e) { interrompida = true; }
+            }
+            if (interrompida) Thread.currentThread().interrupt();
+            if (duravel >= seq) return;
+            if (canal == null) {
+                throw new FalhaAoSalvarDadosException(new IOException("O arquivo foi fechado sem sincronizar."));
+            }
+            c = canal;
+            ate = escrita;
+        }
+        sincronizarAte(c, ate);
+    }
+
+    /**
+     * Grava o buffer no arquivo e força a sincronização com o disco, se houver algo pendente. O fsync
+     * acontece fora da trava do arquivo, como em {@link RegistroOperacoes#sincronizar()}.
+     *
+     * @throws FalhaAoSalvarDadosException Se o arquivo não puder ser escrito
+     */
+    public void sincronizar() {
+        FileChannel c;
+        long ate;
+        synchronized (this) {
+            descarregar();
+            if (escrita <= duravel || canal == null) return;
+            c = canal;
+            ate = escrita;
+        }
+        sincronizarAte(c, ate);
+    }
+
+    // Com a trava do arquivo: passa o buffer ao sistema operacional e acorda quem espera por ele
+    private void descarregar() {
+        if (buffer.size() == 0 || canal == null) return;
+        try {
+            ByteBuffer b = ByteBuffer.wrap(buffer.dados(), 0, buffer.size());
+            while (b.hasRemaining()) escrito += canal.write(b, escrito);
+        } catch (IOException e) {
+            throw new FalhaAoSalvarDadosException(e);
+        }
+        buffer.reset();
+        escrita = ultimo;
+        if (durabilidade.isGrupo()) notifyAll();
+    }
+
+    // Sem a trava do arquivo, para que novos lotes continuem sendo acrescentados enquanto o disco sincroniza
+    private void sincronizarAte(FileChannel c, long ate) {
+        synchronized (disco) {
+            // a compactação ou o fechamento já sincronizaram este lote, e o canal pode estar fechado
+            if (duravel >= ate) return;
+            try { c.force(false); }
+            catch (IOException e) { throw new FalhaAoSalvarDadosException(e); }
+            duravel = ate;
+            sincronizacoes++;
+        }
+    }
+
+    /**
+     * Remove todas as chaves, esvaziando o arquivo.
+     *
+     * @throws FalhaAoSalvarDadosException Se o arquivo não puder ser truncado
+     */
+    public synchronized void limpar() {
+        try {
+            if (canal == null) abrirCanal();
+            buffer.reset();
+            synchronized (disco) {
+                canal.truncate(0);
+                canal.force(false);
+                duravel = escrita = ultimo;
+            }
+        } catch (IOException e) {
+            throw new FalhaAoSalvarDadosException(e);
+        }
+        indice.clear();
+        fim = escrito = vivos = 0;
+        geracao++;
+    }
+
+    /**
+     * Compacta o arquivo se os registros substituídos e removidos passarem do limite e ocuparem mais
+     * do que os registros vivos. Executado periodicamente por quem usa o arquivo, numa thread de fundo.
+     *
+     * @return True se o arquivo foi compactado
+     * @throws FalhaAoSalvarDadosException Se a cópia não puder ser gravada
+     */
+    public boolean compactarSeNecessario() {
+        synchronized (compactacao) {
+            FileChannel origem;
+            long inicio, g;
+            List<Map.Entry<String, Local>> copia;
+            synchronized (this) {
+                long lixo = fim - vivos;
+                if (canal == null || lixo < limiteLixo || lixo < vivos) return false;
+                descarregar();
+                origem = canal;
+                inicio = escrito;
+                g = geracao;
+                copia = new ArrayList<>(indice.size());
+                for (Map.Entry<String, Local> e : indice.entrySet()) copia.add(Map.entry(e.getKey(), e.getValue()));
+            }
+            try {
+                return compactar(origem, inicio, g, copia);
+            } catch (IOException e) {
+                temporario.delete();
+                // o arquivo foi fechado ou esvaziado no meio da cópia: tenta de novo na próxima verificação
+                synchronized (this) { if (canal != origem || geracao != g) return false; }
+                throw new FalhaAoSalvarDadosException(e);
+            }
+        }
+    }
+
+    private boolean compactar(FileChannel origem, long inicio, long g, List<Map.Entry<String, Local>> copia)
+            throws IOException {
+        // os registros vivos, na ordem do arquivo, copiados em lotes novos sem a trava
+        copia.sort(Comparator.comparingLong(e -> e.getValue().posicao));
+        Map<String, Local> novo = new HashMap<>(copia.size() * 2);
+        FileChannel destino = FileChannel.open(temporario.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean trocado = false;
+        try {
+            Buffer l = new Buffer();
+            CRC32 c = new CRC32();
+            long posicao = 0;
+            for (int i = 0; i < copia.size(); i++) {
+                Local antigo = copia.get(i).getValue();
+                int p = l.size();
+                l.lerDe(origem, antigo.posicao, antigo.tamanho);
+                novo.put(copia.get(i).getKey(), new Local(posicao + 8 + p, antigo.tamanho));
+                if (l.size() >= LIMITE_BUFFER || i == copia.size() - 1) posicao += escreverLote(destino, posicao, l, c);
+            }
+
+            synchronized (this) {
+                synchronized (disco) {
+                    if (canal != origem || geracao != g) return false;
+                    descarregar();
+                    // os lotes acrescentados durante a cópia vão inteiros para o fim
+                    long cauda = escrito - inicio;
+                    for (long p = 0; p < cauda; ) p += origem.transferTo(inicio + p, cauda - p, destino.position(posicao + p));
+                    destino.force(true);
+                    Files.move(temporario.toPath(), arquivo.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                    Map<String, Local> atualizado = new HashMap<>(indice.size() * 2);
+                    long v = 0;
+                    for (Map.Entry<String, Local> e : indice.entrySet()) {
+                        Local a = e.getValue();
+                        Local n = a.posicao >= inicio ? new Local(a.posicao - inicio + posicao, a.tamanho) : novo.get(e.getKey());
+                        atualizado.put(e.getKey(), n);
+                        v += n.tamanho;
+                    }
+                    indice.clear();
+                    indice.putAll(atualizado);
+                    origem.close();
+                    canal = destino;
+                    trocado = true;
+                    fim = escrito = posicao + cauda;
+                    vivos = v;
+                    // a cópia foi sincronizada inteira
+                    duravel = escrita;
+                    compactacoes++;
+                    return true;
+                }
+            }
+        } finally {
+            if (!trocado) destino.close();
+        }
+    }
+
+    // Grava um lote copiado na compactação, esvaziando o buffer; retorna os bytes gravados
+    private static int escreverLote(FileChannel destino, long posicao, Buffer l, CRC32 c) throws IOException {
+        c.reset();
+        c.update(l.dados(), 0, l.size());
+        ByteBuffer cabecalho = ByteBuffer.allocate(8).putInt(l.size()).putInt((int) c.getValue());
+        cabecalho.flip();
+        ByteBuffer dados = ByteBuffer.wrap(l.dados(), 0, l.size());
+        long p = posicao;
+        while (cabecalho.hasRemaining()) p += destino.write(cabecalho, p);
+        while (dados.hasRemaining()) p += destino.write(dados, p);
+        int n = 8 + l.size();
+        l.reset();
+        return n;
+    }
+
+    /**
+     * @return Os bytes do arquivo, com o que ainda está no buffer
+     */
+    public synchronized long getTamanho() { return fim; }
+
+    /**
+     * @return Os bytes dos registros vivos, o tamanho que o arquivo teria depois de compactado
+     */
+    public synchronized long getVivos() { return vivos; }
+
+    /**
+     * @return As chaves guardadas
+     */
+    public synchronized int getChaves() { return indice.size(); }
+
+    /**
+     * @return Os lotes acrescentados desde a abertura
+     */
+    public synchronized long getLotes() { return ultimo; }
+
+    /**
+     * @return Os fsyncs feitos desde a abertura
+     */
+    public long getSincronizacoes() { return sincronizacoes; }
+
+    /**
+     * @return As compactações feitas desde a abertura
+     */
+    public long getCompactacoes() { return compactacoes; }
+
+    /**
+     * Sincroniza o que estiver pendente e fecha o arquivo. Uma nova chamada a {@link #gravar} reabre o
+     * arquivo; o índice continua valendo.
+     */
+    @Override
+    public synchronized void close() {
+        if (canal == null) return;
+        sincronizacao.cancel(false);
+        synchronized (disco) {
+            try {
+                sincronizar();
+                canal.close();
+            } catch (IOException e) {
+                throw new FalhaAoSalvarDadosException(e);
+            } finally {
+                canal = null;
+            }
+        }
+    }
+
+    private void abrirCanal() throws IOException {
+        canal = FileChannel.open(arquivo.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        sincronizacao = AGENDADOR.scheduleWithFixedDelay(this::sincronizarEmFundo,
+                durabilidade.getIntervaloMs(), durabilidade.getIntervaloMs(), TimeUnit.MILLISECONDS);
+    }
+
+    private void sincronizarEmFundo() {
+        try { sincronizar(); }
+        catch (RuntimeException e) { e.printStackTrace(); }
+    }
+
+    /**
+     * Buffer que expõe o array interno, para o CRC e a escrita no canal serem feitos sem cópia.
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer() { super(4096); }
+
+        byte[] dados() { return buf; }
+
+        void escreverInt(int v) {
+            write(v >>> 24);
+            write(v >>> 16);
+            write(v >>> 8);
+            write(v);
+        }
+
+        // Acrescenta um trecho de um arquivo
+        void lerDe(FileChannel origem, long posicao, int n) throws IOException {
+            if (count + n > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + n));
+            ByteBuffer b = ByteBuffer.wrap(buf, count, n);
+            while (b.hasRemaining()) {
+                if (origem.read(b, posicao + (b.position() - count)) < 0) throw new EOFException();
+            }
+            count += n;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package br.ufal.ic.p2.jackut.persistencia;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Quando uma operação gravada no {@link RegistroOperacoes} passa a sobreviver a uma queda.
+ *
+ * <p>No modo assíncrono (o padrão), quem registra uma operação não espera o disco: os registros são
+ * sincronizados em grupo por uma thread de fundo, a cada intervalo, e uma queda perde no máximo as
+ * operações desse intervalo. No modo em grupo, quem registra espera o fsync que inclui a sua operação
+ * antes de continuar; para que cada fsync confirme várias operações, a primeira que chega espera até
+ * {@link #getEsperaMaximaNanos()} por outras, e o fsync é antecipado quando {@link #getLote()} operações
+ * se acumulam. Com espera 0 e lote 1, cada operação tem o seu fsync, a menos que outras cheguem enquanto
+ * o disco sincroniza.</p>
+ */
+public final class Durabilidade {
+
+    private final boolean grupo;
+    private final long intervaloMs;
+    private final long esperaMaximaNanos;
+    private final int lote;
+
+    private Durabilidade(boolean grupo, long intervaloMs, long esperaMaximaNanos, int lote) {
+        this.grupo = grupo;
+        this.intervaloMs = Math.max(1, intervaloMs);
+        this.esperaMaximaNanos = Math.max(0, esperaMaximaNanos);
+        this.lote = Math.max(1, lote);
+    }
+
+    /**
+     * Cria o modo assíncrono.
+     *
+     * @param intervaloMs O intervalo, em milissegundos, entre as sincronizações de fundo
+     * @return A durabilidade
+     */
+    public static Durabilidade assincrona(long intervaloMs) {
+        return new Durabilidade(false, intervaloMs, 0, 1);
+    }
+
+    /**
+     * Cria o modo em grupo. As sincronizações de fundo continuam, para o que for registrado sem espera.
+     *
+     * @param intervaloMs O intervalo, em milissegundos, entre as sincronizações de fundo
+     * @param esperaMaximaUs Quanto, em microssegundos, uma operação espera por outras antes do fsync
+     * @param lote Quantas operações não sincronizadas antecipam o fsync
+     * @return A durabilidade
+     */
+    public static Durabilidade grupo(long intervaloMs, long esperaMaximaUs, int lote) {
+        return new Durabilidade(true, intervaloMs, TimeUnit.MICROSECONDS.toNanos(esperaMaximaUs), lote);
+    }
+
+    /**
+     * Converte o nome de um modo ({@code assincrona} ou {@code grupo}), sem diferenciar maiúsculas de
+     * minúsculas; um nome nulo ou desconhecido dá o modo assíncrono.
+     *
+     * @param nome O nome do modo
+     * @param intervaloMs O intervalo, em milissegundos, entre as sincronizações de fundo
+     * @param esperaMaximaUs A espera máxima do modo em grupo, em microssegundos
+     * @param lote O lote do modo em grupo
+     * @return A durabilidade
+     */
+    public static Durabilidade de(String nome, long intervaloMs, long esperaMaximaUs, int lote) {
+        return nome != null && nome.trim().equalsIgnoreCase("grupo")
+                ? grupo(intervaloMs, esperaMaximaUs, lote)
+                : assincrona(intervaloMs);
+    }
+
+    /** @return True se quem registra uma operação espera o fsync que a inclui */
+    public boolean isGrupo() { return grupo; }
+
+    /** @return O intervalo, em milissegundos, entre as sincronizações de fundo */
+    public long getIntervaloMs() { return intervaloMs; }
+
+    /** @return Quanto uma operação espera por outras antes do fsync, no modo em grupo */
+    public long getEsperaMaximaNanos() { return esperaMaximaNanos; }
+
+    /** @return Quantas operações não sincronizadas antecipam o fsync, no modo em grupo */
+    public int getLote() { return lote; }
+
+    @Override
+    public String toString() {
+        return grupo
+                ? "grupo esperaMaximaUs=" + TimeUnit.NANOSECONDS.toMicros(esperaMaximaNanos) + " lote=" + lote
+                : "assincrona intervaloMs=" + intervaloMs;
+    }
+}
@@ -0,0 +1,222 @@
+package br.ufal.ic.p2.jackut.persistencia;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Leitura do formato binário de snapshot gravado por {@link SaidaSnapshot}.
+ */
+public class EntradaSnapshot implements Closeable {
+
+    /**
+     * Última versão do formato que ainda é lida: a 6, dos snapshots que podiam ter arquivos de fragmento,
+     * só difere da atual pela quantidade de fragmentos antes da seção de usuários.
+     */
+    public static final int VERSAO_MAXIMA = 6;
+
+    private final DataInputStream in;
+    private final ByteBuffer buffer;
+    private final List<String> tabela;
+    private final int versao;
+
+    /**
+     * Cria a entrada, lendo e validando o cabeçalho.
+     *
+     * @param origem O fluxo de origem
+     * @throws IOException Se a leitura falhar ou o cabeçalho não for de um snapshot binário conhecido
+     */
+    public EntradaSnapshot(InputStream origem) throws IOException {
+        this(new DataInputStream(new BufferedInputStream(origem, 64 * 1024)), null, new ArrayList<>());
+    }
+
+    /**
+     * Cria a entrada sobre um buffer (em geral, um arquivo mapeado em memória), lendo e validando o
+     * cabeçalho. Neste modo, {@link #posicao()} informa a posição atual no buffer.
+     *
+     * @param origem O buffer, posicionado no início do snapshot
+     * @throws IOException Se o cabeçalho não for de um snapshot binário conhecido
+     */
+    public EntradaSnapshot(ByteBuffer origem) throws IOException {
+        this(new DataInputStream(new LeitorBuffer(origem)), origem, new ArrayList<>());
+    }
+
+    private EntradaSnapshot(DataInputStream in, ByteBuffer buffer, List<String> tabela) throws IOException {
+        this.in = in;
+        this.buffer = buffer;
+        this.tabela = tabela;
+        if (in.readInt() != SaidaSnapshot.MAGICO) throw new IOException("Snapshot em formato desconhecido.");
+        this.versao = (int) lerVarint();
+        if (versao < 1 || versao > VERSAO_MAXIMA)
+            throw new IOException("Versão de snapshot não suportada: " + versao);
+    }
+
+    /**
+     * Cria uma entrada para um único registro, sem cabeçalho, que usa a tabela de textos já lida de
+     * outra entrada. Usada para decodificar um usuário sob demanda.
+     *
+     * @param registro O buffer contendo apenas o registro
+     * @param versao A versão do snapshot de onde o registro veio
+     * @param tabela A tabela de textos do snapshot (não é alterada)
+     */
+    public EntradaSnapshot(ByteBuffer registro, int versao, List<String> tabela) {
+        this.in = new DataInputStream(new LeitorBuffer(registro));
+        this.buffer = registro;
+        this.versao = versao;
+        this.tabela = tabela;
+    }
+
+    /**
+     * Verifica se os primeiros bytes de um arquivo são de um snapshot binário.
+     *
+     * @param arquivo O arquivo
+     * @return True se o arquivo começa com o identificador do formato binário
+     * @throws IOException Se a leitura falhar
+     */
+    public static boolean ehSnapshotBinario(File arquivo) throws IOException {
+        try (DataInputStream d = new DataInputStream(new FileInputStream(arquivo))) {
+            return d.readInt() == SaidaSnapshot.MAGICO;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return A versão do formato deste snapshot
+     */
+    public int getVersao() { return versao; }
+
+    /**
+     * @return A tabela de textos lida até o momento
+     */
+    public List<String> getTabela() { return tabela; }
+
+    /**
+     * @return A posição atual no buffer de origem
+     * @throws IllegalStateException Se a entrada não foi criada sobre um buffer
+     */
+    public int posicao() {
+        if (buffer == null) throw new IllegalStateException("Entrada sem buffer.");
+        return buffer.position();
+    }
+
+    /**
+     * Lê a tabela de textos gravada por {@link SaidaSnapshot#escreverTabela}.
+     *
+     * @throws IOException Se a leitura falhar
+     */
+    public void lerTabela() throws IOException {
+        int n = lerQuantidade();
+        for (int i = 0; i < n; i++) tabela.add(lerTexto());
+    }
+
+    /**
+     * Lê um varint.
+     *
+     * @return O número lido
+     * @throws IOException Se a leitura falhar
+     */
+    public long lerVarint() throws IOException {
+        long v = 0;
+        for (int desloc = 0; desloc < 64; desloc += 7) {
+            int b = in.readUnsignedByte();
+            v |= (long) (b & 0x7F) << desloc;
+            if ((b & 0x80) == 0) return v;
+        }
+        throw new IOException("Varint malformado.");
+    }
+
+    /**
+     * Lê uma quantidade (varint que cabe em um int).
+     *
+     * @return A quantidade lida
+     * @throws IOException Se a leitura falhar ou o valor for inválido
+     */
+    public int lerQuantidade() throws IOException {
+        long n = lerVarint();
+        if (n > Integer.MAX_VALUE) throw new IOException("Quantidade inválida: " + n);
+        return (int) n;
+    }
+
+    /**
+     * Lê um texto gravado por {@link SaidaSnapshot#escreverTexto(String)}.
+     *
+     * @return O texto, que pode ser null
+     * @throws IOException Se a leitura falhar
+     */
+    public String lerTexto() throws IOException {
+        int n = lerQuantidade();
+        if (n == 0) return null;
+        byte[] b = new byte[n - 1];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Lê um login gravado por {@link SaidaSnapshot#escreverLogin(String)}.
+     *
+     * @return O login
+     * @throws IOException Se a leitura falhar ou o índice não existir na tabela
+     */
+    public String lerLogin() throws IOException {
+        int idx = lerQuantidade();
+        if (idx == 0) {
+            String s = lerTexto();
+            // na versão 1 a tabela era definida à medida que os textos apareciam
+            if (versao == 1) tabela.add(s);
+            return s;
+        }
+        if (idx > tabela.size()) throw new IOException("Índice de login inválido: " + idx);
+        return tabela.get(idx - 1);
+    }
+
+    /**
+     * Lê uma coleção de logins para dentro do destino fornecido.
+     *
+     * @param destino A coleção que recebe os logins, na ordem gravada
+     * @throws IOException Se a leitura falhar
+     */
+    public void lerLogins(Collection<String> destino) throws IOException {
+        int n = lerQuantidade();
+        for (int i = 0; i < n; i++) destino.add(lerLogin());
+    }
+
+    /**
+     * Lê uma coleção de textos para dentro do destino fornecido.
+     *
+     * @param destino A coleção que recebe os textos, na ordem gravada
+     * @throws IOException Se a leitura falhar
+     */
+    public void lerTextos(Collection<String> destino) throws IOException {
+        int n = lerQuantidade();
+        for (int i = 0; i < n; i++) destino.add(lerTexto());
+    }
+
+    @Override
+    public void close() throws IOException { in.close(); }
+
+    /**
+     * Adapta um {@link ByteBuffer} para {@link InputStream}, sem cópias intermediárias.
+     */
+    private static class LeitorBuffer extends InputStream {
+        private final ByteBuffer buf;
+
+        LeitorBuffer(ByteBuffer buf) { this.buf = buf; }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buf.hasRemaining()) return -1;
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+    }
+}
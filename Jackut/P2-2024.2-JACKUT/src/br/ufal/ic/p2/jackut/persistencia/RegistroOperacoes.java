@@ -0,0 +1,682 @@
+package br.ufal.ic.p2.jackut.persistencia;
+
+import br.ufal.ic.p2.jackut.exceptions.FalhaAoSalvarDadosException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Registro de operações (write-ahead log) do Jackut, gravado somente por acréscimo.
+ *
+ * <p>Cada operação que altera o estado vira um registro compacto:
+ * {@code [tamanho:int][crc32:int][sequencia:long][tipo:byte][nArgs:byte]([len:int][utf-8])*}. Várias
+ * operações do mesmo tipo, aplicadas juntas, podem ocupar um único registro, do tipo {@link TipoOperacao#LOTE}:
+ * {@code [sequencia:long][LOTE:byte][tipo:byte][quantidade:int]([nArgs:byte]([len:int][utf-8])*)*}.
+ * Os registros vão para um buffer e são sincronizados com o disco (fsync) em grupo, por uma thread
+ * de fundo, a cada intervalo configurado, ou por quem precisa que o seu registro sobreviva a uma queda
+ * antes de continuar (ver {@link Durabilidade}): no modo em grupo, {@link #registrar} só retorna quando a
+ * operação está no disco. Um registro incompleto ou corrompido no fim do arquivo (queda durante a escrita)
+ * é descartado na abertura.</p>
+ *
+ * <p>Depois que um snapshot é gravado, {@link #truncar()} esvazia o arquivo; a sequência continua
+ * crescendo, para que a reprodução ignore registros já contidos no snapshot. Quando o snapshot é gravado
+ * em segundo plano, enquanto operações continuam chegando, {@link #rotacionar()} separa antes os
+ * registros que ele vai conter num arquivo à parte ({@code jackut.log-<sequência>}), que continua sendo
+ * reproduzido na abertura até {@link #descartarAnteriores(long)}, chamado quando o snapshot fica pronto.</p>
+ */
+public class RegistroOperacoes implements Closeable {
+
+    /**
+     * Recebe as operações lidas do arquivo durante a reprodução.
+     */
+    public interface Aplicador {
+        /**
+         * Reaplica uma operação registrada.
+         *
+         * @param tipo O tipo da operação
+         * @param args Os argumentos gravados
+         */
+        void aplicar(TipoOperacao tipo, String[] args);
+    }
+
+    private static final ScheduledExecutorService AGENDADOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "jackut-registro");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final File arquivo;
+    private final Durabilidade durabilidade;
+
+    private FileOutputStream arquivoSaida;
+    private DataOutputStream saida;
+    private ScheduledFuture<?> sincronizacao;
+
+    private long sequencia;
+    private int registros;
+    // Arquivos separados por rotacionar, com operações até uma sequência que o snapshot ainda não contém
+    private final List<Anterior> anteriores;
+
+    // Sequência do último registro acrescentado e do último passado ao sistema operacional; registros
+    // acrescentados e passados ao sistema operacional desde a criação
+    private long ultima, escrita;
+    private long acrescentados, escritos;
+    // Sequência do último registro sincronizado com o disco, e as sincronizações feitas; escritos com a
+    // trava disco
+    private volatile long duravel;
+    private volatile long sincronizados, sincronizacoes;
+    // Operações que esperaram o fsync, no modo em grupo, e o tempo total que esperaram
+    private final LongAdder confirmacoes = new LongAdder();
+    private final LongAdder esperaNanos = new LongAdder();
+
+    private final Buffer buffer = new Buffer();
+    private final DataOutputStream bufferDados = new DataOutputStream(buffer);
+    private final CRC32 crc = new CRC32();
+
+    // Serializa os fsyncs com o fechamento do arquivo; é adquirida depois da trava do registro, nunca antes
+    private final Object disco = new Object();
+
+    private RegistroOperacoes(File arquivo, long sequencia, int registros, List<Anterior> anteriores,
+                              Durabilidade durabilidade) {
+        this.arquivo = arquivo;
+        this.sequencia = sequencia;
+        this.registros = registros;
+        this.anteriores = anteriores;
+        this.durabilidade = durabilidade;
+        // o que foi reproduzido já estava no arquivo
+        this.ultima = this.escrita = this.duravel = sequencia;
+    }
+
+    /**
+     * Arquivo separado por {@link #rotacionar()}.
+     */
+    private static final class Anterior {
+        final File arquivo;
+        // sequência do registro quando o arquivo foi separado: o arquivo só tem operações até ela
+        final long ate;
+        int registros;
+
+        Anterior(File arquivo, long ate) {
+            this.arquivo = arquivo;
+            this.ate = ate;
+        }
+    }
+
+    // Os arquivos separados por rotacionar que existem no diretório do registro, do mais antigo ao mais novo
+    private static List<Anterior> listarAnteriores(File arquivo) {
+        List<Anterior> lista = new ArrayList<>();
+        File[] fs = arquivo.getAbsoluteFile().getParentFile().listFiles();
+        if (fs == null) return lista;
+        Pattern nome = Pattern.compile(Pattern.quote(arquivo.getName()) + "-(\\d+)");
+        for (File f : fs) {
+            Matcher m = nome.matcher(f.getName());
+            if (m.matches()) lista.add(new Anterior(f, Long.parseLong(m.group(1))));
+        }
+        lista.sort(Comparator.comparingLong((Anterior a) -> a.ate));
+        return lista;
+    }
+
+    /**
+     * Abre o registro, reaplicando as operações com sequência maior que {@code aPartirDe}: primeiro as dos
+     * arquivos separados para um snapshot em segundo plano que não chegou a ser gravado, do mais antigo ao
+     * mais novo, depois as do arquivo do registro. Um registro incompleto no fim de cada arquivo é descartado.
+     *
+     * @param arquivo O arquivo do registro
+     * @param aPartirDe A sequência da última operação já contida no snapshot
+     * @param durabilidade Quando as operações novas são sincronizadas com o disco
+     * @param aplicador Quem reaplica as operações lidas; uma exceção dele interrompe a abertura, sem
+     *                  truncar nenhum arquivo
+     * @return O registro pronto para receber novas operações
+     * @throws IOException Se algum arquivo não puder ser lido
+     */
+    public static RegistroOperacoes abrir(File arquivo, long aPartirDe, Durabilidade durabilidade,
+                                          Aplicador aplicador) throws IOException {
+        List<Anterior> anteriores = listarAnteriores(arquivo);
+        List<Leitor> leitores = new ArrayList<>();
+        for (Anterior a : anteriores) leitores.add(new Leitor(a.arquivo));
+        Leitor atual = new Leitor(arquivo);
+        leitores.add(atual);
+
+        long ultima = aPartirDe;
+        try {
+            for (Leitor l : leitores) {
+                while (l.proximo()) {
+                    l.aceitar();
+                    if (l.seq <= ultima) continue;
+                    ultima = l.seq;
+                    if (l.tipo != null) for (String[] a : l.operacoes) aplicador.aplicar(l.tipo, a);
+                }
+            }
+        } finally {
+            for (Leitor l : leitores) l.close();
+        }
+        for (int i = 0; i < leitores.size(); i++) {
+            leitores.get(i).truncar();
+            if (i < anteriores.size()) anteriores.get(i).registros = leitores.get(i).aceitos;
+        }
+        return new RegistroOperacoes(arquivo, ultima, atual.aceitos, anteriores, durabilidade);
+    }
+
+    /**
+     * Acrescenta uma operação ao registro. A operação fica no buffer até a próxima sincronização em grupo;
+     * no modo em grupo, só retorna depois que ela estiver sincronizada com o disco.
+     *
+     * @param tipo O tipo da operação
+     * @param args Os argumentos da operação (logins, textos)
+     * @return A sequência atribuída à operação
+     * @throws FalhaAoSalvarDadosException Se o arquivo não puder ser escrito
+     */
+    public long registrar(TipoOperacao tipo, String... args) {
+        return confirmar(acrescentar(tipo, args));
+    }
+
+    /**
+     * Acrescenta várias operações do mesmo tipo ao registro, num único registro {@link TipoOperacao#LOTE}
+     * com uma só sequência. Na reprodução, as operações são reaplicadas na ordem da lista. No modo em
+     * grupo, só retorna depois que o lote estiver sincronizado com o disco.
+     *
+     * @param tipo O tipo das operações
+     * @param args Os argumentos de cada operação
+     * @return A sequência atribuída ao lote
+     * @throws FalhaAoSalvarDadosException Se o arquivo não puder ser escrito
+     */
+    public long registrarLote(TipoOperacao tipo, List<String[]> args) {
+        return confirmar(acrescentarLote(tipo, args));
+    }
+
+    private synchronized long acrescentar(TipoOperacao tipo, String[] args) {
+        try {
+            if (saida == null) abrirSaida();
+            return escreverRegistro(tipo, args);
+        } catch (IOException e) {
+            throw new FalhaAoSalvarDadosException(e);
+        }
+    }
+
+    private synchronized long acrescentarLote(TipoOperacao tipo, List<String[]> args) {
+        try {
+            if (saida == null) abrirSaida();
+            long seq = iniciarRegistro(TipoOperacao.LOTE);
+            bufferDados.writeByte(tipo.getCodigo());
+            bufferDados.writeInt(args.size());
+            for (String[] a : args) escreverArgumentos(a);
+            return concluirRegistro(seq, args.size());
+        } catch (IOException e) {
+            throw new FalhaAoSalvarDadosException(e);
+        }
+    }
+
+    // No modo em grupo, espera o fsync do registro até a sequência, fora da trava do registro
+    private long confirmar(long seq) {
+        if (!durabilidade.isGrupo()) return seq;
+        long inicio = System.nanoTime();
+        aguardar(seq, inicio + durabilidade.getEsperaMaximaNanos());
+        confirmacoes.increment();
+        esperaNanos.add(System.nanoTime() - inicio);
+        return seq;
+    }
+
+    private long escreverRegistro(TipoOperacao tipo, String[] args) throws IOException {
+        long seq = iniciarRegistro(tipo);
+        escreverArgumentos(args);
+        return concluirRegistro(seq, 1);
+    }
+
+    private long iniciarRegistro(TipoOperacao tipo) throws IOException {
+        long seq = ++sequencia;
+        buffer.reset();
+        bufferDados.writeLong(seq);
+        bufferDados.writeByte(tipo.getCodigo());
+        return seq;
+    }
+
+    private void escreverArgumentos(String[] args) throws IOException {
+        bufferDados.writeByte(args.length);
+        for (String a : args) buffer.escreverTexto(a);
+    }
+
+    // Grava o registro montado no buffer; operacoes é a quantidade de operações que ele contém
+    private long concluirRegistro(long seq, int operacoes) throws IOException {
+        crc.reset();
+        crc.update(buffer.dados(), 0, buffer.size());
+        saida.writeInt(buffer.size());
+        saida.writeInt((int) crc.getValue());
+        buffer.writeTo(saida);
+        registros += operacoes;
+        ultima = seq;
+        // o lote se completou: quem espera pelo fsync não precisa esperar mais
+        if (++acrescentados - escritos == durabilidade.getLote() && durabilidade.isGrupo()) notifyAll();
+        return seq;
+    }
+
+    /**
+     * Grava o buffer no arquivo e força a sincronização com o disco, se houver algo pendente.
+     *
+     * <p>Só a passagem do buffer para o sistema operacional é feita com o registro travado; o fsync
+     * acontece fora dessa trava, para que novas operações continuem sendo registradas enquanto o disco
+     * sincroniza.</p>
+     *
+     * @throws FalhaAoSalvarDadosException Se o arquivo não puder ser escrito
+     */
+    public void sincronizar() {
+        FileOutputStream arquivo;
+        long ate, total;
+        synchronized (this) {
+            descarregar();
+            if (escrita <= duravel || arquivoSaida == null) return;
+            arquivo = arquivoSaida;
+            ate = escrita;
+            total = escritos;
+        }
+        sincronizarAte(arquivo, ate, total);
+    }
+
+    /**
+     * Espera até que todos os registros com sequência até {@code seq} estejam sincronizados com o disco.
+     * Se eles ainda estão no buffer, espera, até {@code limite}, que outros registros se juntem a eles ou
+     * que o lote se complete, e então faz o fsync do grupo; se outra thread já está sincronizando, espera
+     * por ela e só sincroniza de novo se o fsync dela não os incluiu.
+     *
+     * @param seq A sequência da operação que precisa ser durável
+     * @param limite O instante ({@link System#nanoTime()}) em que o fsync deixa de esperar por outros registros
+     * @throws FalhaAoSalvarDadosException Se o arquivo não puder ser sincronizado
+     */
+    private void aguardar(long seq, long limite) {
+        FileOutputStream arquivo;
+        long ate, total;
+        synchronized (this) {
+            if (duravel >= seq) return;
+            boolean interrompida = false;
+            while (escrita < seq) {
+                long falta = limite - System.nanoTime();
+                if (falta <= 0 || interrompida || acrescentados - escritos >= durabilidade.getLote()) {
+                    descarregar();
+                    break;
+                }
+                try { TimeUnit.NANOSECONDS.timedWait(this, falta); }
+                catch (InterruptedException e) { interrompida = true; }
+            }
+            if (interrompida) Thread.currentThread().interrupt();
+            if (duravel >= seq) return;
+            if (arquivoSaida == null) {
+                throw new FalhaAoSalvarDadosException(new IOException("O registro foi fechado sem sincronizar."));
+            }
+            arquivo = arquivoSaida;
+            ate = escrita;
+            total = escritos;
+        }
+        sincronizarAte(arquivo, ate, total);
+    }
+
+    // Com a trava do registro: passa o buffer ao sistema operacional e acorda quem espera por ele
+    private void descarregar() {
+        if (ultima == escrita || saida == null) return;
+        try { saida.flush(); }
+        catch (IOException e) { throw new FalhaAoSalvarDadosException(e); }
+        escrita = ultima;
+        escritos = acrescentados;
+        if (durabilidade.isGrupo()) notifyAll();
+    }
+
+    // Sem a trava do registro, para que novas operações continuem sendo registradas enquanto o disco
+    // sincroniza; quem chega durante um fsync espera por ele e o aproveita, se ele cobrir seus registros
+    private void sincronizarAte(FileOutputStream arquivo, long ate, long total) {
+        // fecharSaida adquire esta trava antes de fechar o arquivo, e sincroniza tudo antes
+        synchronized (disco) {
+            if (duravel >= ate) return;
+            try { arquivo.getFD().sync(); }
+            catch (IOException e) { throw new FalhaAoSalvarDadosException(e); }
+            duravel = ate;
+            sincronizados = total;
+            sincronizacoes++;
+        }
+    }
+
+    /**
+     * Esvazia o arquivo depois que um snapshot contendo todas as operações registradas foi gravado, e
+     * apaga os arquivos separados por {@link #rotacionar()}.
+     *
+     * @throws FalhaAoSalvarDadosException Se o arquivo não puder ser truncado
+     */
+    public synchronized void truncar() {
+        fecharSaida();
+        try (FileOutputStream f = new FileOutputStream(arquivo)) {
+            f.getFD().sync();
+        } catch (IOException e) {
+            throw new FalhaAoSalvarDadosException(e);
+        }
+        registros = 0;
+        descartarAnteriores(Long.MAX_VALUE);
+    }
+
+    /**
+     * Separa as operações registradas até agora, para um snapshot gravado enquanto outras operações
+     * continuam chegando: o arquivo é sincronizado, fechado e renomeado para {@code <arquivo>-<sequência>},
+     * e as próximas operações vão para um arquivo novo. Não pode haver operações sendo registradas.
+     *
+     * @return A sequência da última operação separada
+     * @throws FalhaAoSalvarDadosException Se o arquivo não puder ser sincronizado ou renomeado
+     */
+    public synchronized long rotacionar() {
+        long ate = sequencia;
+        if (registros == 0) return ate;
+        fecharSaida();
+        Anterior a = new Anterior(new File(arquivo.getPath() + "-" + ate), ate);
+        try {
+            Files.move(arquivo.toPath(), a.arquivo.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new FalhaAoSalvarDadosException(e);
+        }
+        a.registros = registros;
+        anteriores.add(a);
+        registros = 0;
+        return ate;
+    }
+
+    /**
+     * Apaga os arquivos separados por {@link #rotacionar()} cujas operações já estão num snapshot gravado.
+     *
+     * @param ate A sequência da última operação contida no snapshot
+     */
+    public synchronized void descartarAnteriores(long ate) {
+        anteriores.removeIf(a -> a.ate <= ate && (a.arquivo.delete() || !a.arquivo.exists()));
+    }
+
+    /**
+     * @return A sequência da última operação registrada
+     */
+    public synchronized long getSequencia() { return sequencia; }
+
+    /**
+     * @return A quantidade de operações desde a última truncagem, contando cada operação de um lote e as
+     * dos arquivos separados que ainda não foram descartados
+     */
+    public synchronized int getRegistros() {
+        int n = registros;
+        for (Anterior a : anteriores) n += a.registros;
+        return n;
+    }
+
+    /**
+     * @return Quando as operações são sincronizadas com o disco
+     */
+    public Durabilidade getDurabilidade() { return durabilidade; }
+
+    /**
+     * @return Uma fotografia das sincronizações do registro
+     */
+    public Metricas getMetricas() {
+        return new Metricas(durabilidade, sincronizados, sincronizacoes, confirmacoes.sum(), esperaNanos.sum());
+    }
+
+    /**
+     * Sincroniza o que estiver pendente e fecha o arquivo. Uma nova chamada a {@link #registrar}
+     * reabre o arquivo para acréscimo.
+     */
+    @Override
+    public synchronized void close() {
+        fecharSaida();
+    }
+
+    /**
+     * Sincronizações do registro com o disco, desde a abertura.
+     */
+    public static final class Metricas {
+        /**
+         * Métricas de um sistema sem registro de operações (armazenamento por registros).
+         */
+        public static final Metricas NENHUMA = new Metricas(null, 0, 0, 0, 0);
+
+        private final Durabilidade durabilidade;
+        private final long sincronizados, sincronizacoes, confirmacoes, esperaNanos;
+
+        Metricas(Durabilidade durabilidade, long sincronizados, long sincronizacoes, long confirmacoes,
+                 long esperaNanos) {
+            this.durabilidade = durabilidade;
+            this.sincronizados = sincronizados;
+            this.sincronizacoes = sincronizacoes;
+            this.confirmacoes = confirmacoes;
+            this.esperaNanos = esperaNanos;
+        }
+
+        /** @return O modo de durabilidade, ou null sem registro */
+        public Durabilidade getDurabilidade() { return durabilidade; }
+
+        /** @return As operações sincronizadas com o disco */
+        public long getSincronizados() { return sincronizados; }
+
+        /** @return Os fsyncs feitos */
+        public long getSincronizacoes() { return sincronizacoes; }
+
+        /** @return As operações que esperaram o fsync antes de serem confirmadas (modo em grupo) */
+        public long getConfirmacoes() { return confirmacoes; }
+
+        /** @return O tempo total que as operações confirmadas esperaram */
+        public long getEsperaNanos() { return esperaNanos; }
+
+        /** @return As operações sincronizadas por fsync, em média */
+        public double getPorSincronizacao() {
+            return sincronizacoes == 0 ? 0 : (double) sincronizados / sincronizacoes;
+        }
+
+        @Override
+        public String toString() {
+            return "durabilidade=" + (durabilidade == null ? "-" : durabilidade) + " sincronizados=" + sincronizados
+                    + " sincronizacoes=" + sincronizacoes
+                    + " porSincronizacao=" + String.format(Locale.ROOT, "%.1f", getPorSincronizacao())
+                    + " confirmacoes=" + confirmacoes
+                    + " esperaMediaUs=" + (confirmacoes == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(esperaNanos / confirmacoes));
+        }
+    }
+
+    /**
+     * Buffer de um registro que expõe o array interno, para o CRC ser calculado sem cópia.
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer() { super(256); }
+
+        byte[] dados() { return buf; }
+
+        /**
+         * Grava um texto como UTF-8 precedido do tamanho em bytes (-1 para null). Textos só com
+         * caracteres ASCII, o caso comum de logins e comandos, são copiados sem conversão intermediária.
+         */
+        void escreverTexto(String s) {
+            if (s == null) { escreverInt(-1); return; }
+            int n = s.length();
+            int i = 0;
+            while (i < n && s.charAt(i) < 0x80) i++;
+            if (i < n) {
+                byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                escreverInt(b.length);
+                write(b, 0, b.length);
+                return;
+            }
+            escreverInt(n);
+            if (count + n > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + n));
+            for (i = 0; i < n; i++) buf[count++] = (byte) s.charAt(i);
+        }
+
+        private void escreverInt(int v) {
+            write(v >>> 24);
+            write(v >>> 16);
+            write(v >>> 8);
+            write(v);
+        }
+    }
+
+    private void abrirSaida() throws IOException {
+        arquivoSaida = new FileOutputStream(arquivo, true);
+        saida = new DataOutputStream(new BufferedOutputStream(arquivoSaida, 64 * 1024));
+        sincronizacao = AGENDADOR.scheduleWithFixedDelay(this::sincronizarEmFundo,
+                durabilidade.getIntervaloMs(), durabilidade.getIntervaloMs(), TimeUnit.MILLISECONDS);
+    }
+
+    private void fecharSaida() {
+        if (saida == null) return;
+        sincronizacao.cancel(false);
+        synchronized (disco) {
+            try {
+                sincronizar();
+                saida.close();
+            } catch (IOException e) {
+                throw new FalhaAoSalvarDadosException(e);
+            } finally {
+                saida = null;
+                arquivoSaida = null;
+            }
+        }
+    }
+
+    private void sincronizarEmFundo() {
+        try { sincronizar(); }
+        catch (RuntimeException e) { e.printStackTrace(); }
+    }
+
+    /**
+     * Confere que um registro inválido é a cauda deixada por uma queda no meio da escrita, e não um registro
+     * corrompido no meio do arquivo: o registro declarado chega ao fim do arquivo, ou só há zeros depois do
+     * seu início. A cauda pode ser truncada; o resto do arquivo, não.
+     *
+     * @param arquivo O arquivo
+     * @param inicio A posição do registro inválido
+     * @param fim A posição em que o registro terminaria, ou {@code inicio} se o tamanho lido é inválido
+     * @throws IOException Se houver dados depois do registro inválido
+     */
+    static void exigirCauda(File arquivo, long inicio, long fim) throws IOException {
+        long comprimento = arquivo.length();
+        if (fim > inicio && fim >= comprimento) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(arquivo)))) {
+            in.skipNBytes(inicio);
+            for (long p = inicio; p < comprimento; p++) {
+                if (in.readByte() != 0) {
+                    throw new IOException("Registro corrompido na posição " + inicio + " de " + arquivo
+                            + ", seguido de outros registros.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Lê os registros de um arquivo em ordem, parando no fim ou no registro incompleto ou corrompido deixado
+     * por uma queda durante a escrita. Usado na reprodução por {@link #abrir}.
+     */
+    private static final class Leitor implements Closeable {
+        final File arquivo;
+        private final DataInputStream in;
+        private final CRC32 crc = new CRC32();
+        // posição logo depois do registro atual e logo depois do último registro aceito
+        private long posicao;
+        private long aceito;
+        // operações nos registros aceitos
+        int aceitos;
+
+        long seq;
+        // o tipo das operações do registro atual (as de um lote), ou null se for desconhecido
+        TipoOperacao tipo;
+        // os argumentos de cada operação do registro atual: uma só, a menos que seja um lote
+        List<String[]> operacoes;
+
+        Leitor(File arquivo) throws IOException {
+            this.arquivo = arquivo;
+            this.in = arquivo.exists()
+                    ? new DataInputStream(new BufferedInputStream(new FileInputStream(arquivo)))
+                    : null;
+        }
+
+        /**
+         * Avança para o próximo registro válido.
+         *
+         * @return True se houver um registro, false no fim do arquivo ou na cauda deixada por uma queda
+         * @throws IOException Se o arquivo não puder ser lido ou tiver um registro corrompido no meio
+         */
+        boolean proximo() throws IOException {
+            if (in == null) return false;
+            int tamanho, esperado;
+            byte[] dados;
+            try {
+                tamanho  = in.readInt();
+                esperado = in.readInt();
+                if (tamanho <= 0 || tamanho > 64 * 1024 * 1024) {
+                    exigirCauda(arquivo, posicao, posicao);
+                    return false;
+                }
+                dados = new byte[tamanho];
+                in.readFully(dados);
+            } catch (EOFException e) { return false; }
+            crc.reset();
+            crc.update(dados, 0, dados.length);
+            if ((int) crc.getValue() != esperado) {
+                exigirCauda(arquivo, posicao, posicao + 8 + tamanho);
+                return false;
+            }
+
+            DataInputStream reg = new DataInputStream(new ByteArrayInputStream(dados));
+            seq = reg.readLong();
+            tipo = TipoOperacao.porCodigo(reg.readByte());
+            if (tipo == TipoOperacao.LOTE) {
+                tipo = TipoOperacao.porCodigo(reg.readByte());
+                int n = reg.readInt();
+                operacoes = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) operacoes.add(lerArgumentos(reg));
+            } else {
+                operacoes = Collections.singletonList(lerArgumentos(reg));
+            }
+            posicao += 8 + tamanho;
+            return true;
+        }
+
+        /**
+         * Mantém o registro atual no arquivo.
+         */
+        void aceitar() {
+            aceito = posicao;
+            aceitos += operacoes.size();
+        }
+
+        /**
+         * Descarta do arquivo tudo o que vem depois do último registro aceito. Deve ser chamado depois
+         * de {@link #close()}.
+         *
+         * @throws IOException Se o arquivo não puder ser truncado
+         */
+        void truncar() throws IOException {
+            if (!arquivo.exists() || aceito >= arquivo.length()) return;
+            try (RandomAccessFile raf = new RandomAccessFile(arquivo, "rw")) { raf.setLength(aceito); }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in != null) in.close();
+        }
+    }
+
+    private static String[] lerArgumentos(DataInputStream in) throws IOException {
+        String[] args = new String[in.readUnsignedByte()];
+        for (int i = 0; i < args.length; i++) args[i] = lerTexto(in);
+        return args;
+    }
+
+    private static String lerTexto(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        if (n < 0) return null;
+        byte[] b = new byte[n];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
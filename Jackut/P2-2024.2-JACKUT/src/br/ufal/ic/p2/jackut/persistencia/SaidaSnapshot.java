@@ -0,0 +1,260 @@
+package br.ufal.ic.p2.jackut.persistencia;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Escrita do formato binário de snapshot do Jackut.
+ *
+ * <p>Números são gravados como varints (7 bits por byte), textos como UTF-8 precedido do tamanho e
+ * logins/nomes de comunidade passam por uma tabela de textos gravada no início do snapshot
+ * ({@link #escreverTabela(Collection)}): cada referência grava só o índice do texto na tabela. Como
+ * logins se repetem em amigos, ídolos, membros etc., cada um ocupa no arquivo, em geral, um a três
+ * bytes por referência. Textos fora da tabela são gravados por extenso.</p>
+ *
+ * <p>Como a tabela é declarada antes dos registros, qualquer registro pode ser decodificado
+ * isoladamente, o que permite a carga sob demanda dos usuários (versão 2 do formato; a versão 1
+ * definia os textos da tabela à medida que apareciam). A versão 3 acrescenta o registro de mensagens
+ * de cada comunidade e os cursores dos membros. A versão 4 acrescenta o remetente de cada recado e os
+ * índices reversos usados na remoção de contas. A versão 5 grava a credencial de cada usuário (um hash
+ * da senha) no lugar da senha; senhas de versões anteriores são lidas como credenciais legadas. A versão 6,
+ * que podia dividir a seção de usuários em arquivos de fragmento, não é mais gravada; só é lida
+ * ({@link EntradaSnapshot}).</p>
+ */
+public class SaidaSnapshot implements Closeable {
+
+    /**
+     * Identificador gravado no início de todo snapshot binário.
+     */
+    public static final int MAGICO = 0x4A4B5554; // "JKUT"
+
+    /**
+     * Versão atual do formato.
+     */
+    public static final int VERSAO = 5;
+
+    private final OutputStream destino;
+    private final Map<String, Integer> tabela;
+    // buffer próprio, sem sincronização: cada saída é usada por uma thread de cada vez, e
+    // BufferedOutputStream trava a cada byte
+    private final byte[] buffer;
+    private int usados;
+    private long descarregados;
+
+    /**
+     * Cria a saída e grava o cabeçalho (identificador e versão).
+     *
+     * @param destino O fluxo de destino
+     * @throws IOException Se a escrita falhar
+     */
+    public SaidaSnapshot(OutputStream destino) throws IOException {
+        this(destino, new HashMap<>(), 64 * 1024);
+    }
+
+    /**
+     * Cria a saída de uma cópia em memória e grava o cabeçalho. Os logins são gravados como referências
+     * à tabela de textos já gravada no snapshot principal, que não pode mais ser alterada. O buffer é
+     * pequeno, pois muitas dessas saídas ficam abertas ao mesmo tempo, cada uma recebendo um registro de
+     * cada vez.
+     *
+     * @param destino O fluxo de destino
+     * @param principal A saída do snapshot principal, com a tabela de textos já gravada
+     * @return A saída
+     * @throws IOException Se a escrita falhar
+     */
+    public static SaidaSnapshot copia(OutputStream destino, SaidaSnapshot principal) throws IOException {
+        return new SaidaSnapshot(destino, principal.tabela, 512);
+    }
+
+    /**
+     * Cria a saída de um registro avulso, sem tabela de textos (os logins são gravados por extenso), e
+     * grava o cabeçalho. O registro é lido isoladamente por {@link EntradaSnapshot#EntradaSnapshot(ByteBuffer)},
+     * com a versão do cabeçalho; é assim que os armazenamentos por registro guardam cada parte de um
+     * usuário e cada comunidade. O buffer é pequeno, pois a saída vive só enquanto o registro é gravado.
+     *
+     * @param destino O fluxo de destino
+     * @return A saída
+     * @throws IOException Se a escrita falhar
+     */
+    public static SaidaSnapshot avulsa(OutputStream destino) throws IOException {
+        return new SaidaSnapshot(destino, new HashMap<>(), 512);
+    }
+
+    private SaidaSnapshot(OutputStream destino, Map<String, Integer> tabela, int buffer) throws IOException {
+        this.tabela = tabela;
+        this.destino = destino;
+        this.buffer = new byte[buffer];
+        escreverIntFixo(MAGICO);
+        escreverVarint(VERSAO);
+    }
+
+    /**
+     * Grava um número não negativo como varint.
+     *
+     * @param v O número
+     * @throws IOException Se a escrita falhar
+     */
+    public void escreverVarint(long v) throws IOException {
+        if (buffer.length - usados < 10) descarregar();
+        while ((v & ~0x7FL) != 0) {
+            buffer[usados++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buffer[usados++] = (byte) v;
+    }
+
+    /**
+     * Grava um texto (que pode ser null) como UTF-8 precedido do tamanho.
+     *
+     * @param s O texto
+     * @throws IOException Se a escrita falhar
+     */
+    public void escreverTexto(String s) throws IOException {
+        if (s == null) { escreverVarint(0); return; }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        escreverVarint(b.length + 1L);
+        escrever(b, 0, b.length);
+    }
+
+    /**
+     * Grava a tabela de textos; deve ser chamado uma única vez, antes de qualquer login.
+     *
+     * @param textos Os textos da tabela, na ordem que define seus índices
+     * @throws IOException Se a escrita falhar
+     */
+    public void escreverTabela(Collection<String> textos) throws IOException {
+        escreverVarint(textos.size());
+        for (String t : textos) {
+            tabela.put(t, tabela.size());
+            escreverTexto(t);
+        }
+    }
+
+    /**
+     * Grava um login (ou nome de comunidade) como referência à tabela de textos, ou por extenso se
+     * ele não estiver na tabela.
+     *
+     * @param s O login
+     * @throws IOException Se a escrita falhar
+     */
+    public void escreverLogin(String s) throws IOException {
+        Integer idx = tabela.get(s);
+        if (idx != null) {
+            escreverVarint(idx + 1L);
+            return;
+        }
+        escreverVarint(0);
+        escreverTexto(s);
+    }
+
+    /**
+     * Grava um long com 8 bytes fixos, usado nos ponteiros do rodapé do snapshot.
+     *
+     * @param v O número
+     * @throws IOException Se a escrita falhar
+     */
+    public void escreverLongFixo(long v) throws IOException {
+        escreverIntFixo((int) (v >>> 32));
+        escreverIntFixo((int) v);
+    }
+
+    /**
+     * Copia bytes já codificados (um registro de outro snapshot com a mesma tabela) para a saída.
+     *
+     * @param origem O buffer de origem
+     * @param inicio A posição inicial no buffer
+     * @param tamanho A quantidade de bytes
+     * @throws IOException Se a escrita falhar
+     */
+    public void escreverBytes(ByteBuffer origem, int inicio, int tamanho) throws IOException {
+        byte[] b = new byte[Math.min(tamanho, 8192)];
+        ByteBuffer d = origem.duplicate();
+        d.position(inicio);
+        for (int falta = tamanho; falta > 0; ) {
+            int n = Math.min(falta, b.length);
+            d.get(b, 0, n);
+            escrever(b, 0, n);
+            falta -= n;
+        }
+    }
+
+    /**
+     * @return A quantidade de bytes gravados desde o início do snapshot
+     */
+    public long posicao() { return descarregados + usados; }
+
+    /**
+     * Grava uma coleção de logins: a quantidade seguida de cada login.
+     *
+     * @param logins Os logins, na ordem em que devem ser lidos
+     * @throws IOException Se a escrita falhar
+     */
+    public void escreverLogins(Collection<String> logins) throws IOException {
+        escreverVarint(logins.size());
+        for (String l : logins) escreverLogin(l);
+    }
+
+    /**
+     * Grava uma coleção de textos: a quantidade seguida de cada texto.
+     *
+     * @param textos Os textos, na ordem em que devem ser lidos
+     * @throws IOException Se a escrita falhar
+     */
+    public void escreverTextos(Collection<String> textos) throws IOException {
+        escreverVarint(textos.size());
+        for (String t : textos) escreverTexto(t);
+    }
+
+    /**
+     * Esvazia o buffer no fluxo de destino.
+     *
+     * @throws IOException Se a escrita falhar
+     */
+    public void flush() throws IOException {
+        descarregar();
+        destino.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            descarregar();
+        } finally {
+            destino.close();
+        }
+    }
+
+    // Grava um int com 4 bytes fixos, na ordem de DataOutputStream
+    private void escreverIntFixo(int v) throws IOException {
+        if (buffer.length - usados < 4) descarregar();
+        buffer[usados++] = (byte) (v >>> 24);
+        buffer[usados++] = (byte) (v >>> 16);
+        buffer[usados++] = (byte) (v >>> 8);
+        buffer[usados++] = (byte) v;
+    }
+
+    // Copia bytes para o buffer; um bloco maior que o buffer vai direto para o destino
+    private void escrever(byte[] b, int inicio, int tamanho) throws IOException {
+        if (tamanho > buffer.length - usados) {
+            descarregar();
+            if (tamanho >= buffer.length) {
+                destino.write(b, inicio, tamanho);
+                descarregados += tamanho;
+                return;
+            }
+        }
+        System.arraycopy(b, inicio, buffer, usados, tamanho);
+        usados += tamanho;
+    }
+
+    private void descarregar() throws IOException {
+        if (usados == 0) return;
+        destino.write(buffer, 0, usados);
+        descarregados += usados;
+        usados = 0;
+    }
+}
@@ -0,0 +1,55 @@
+package br.ufal.ic.p2.jackut.persistencia;
+
+/**
+ * Tipos de operação gravados no {@link RegistroOperacoes}. Cada tipo corresponde a um método do
+ * {@link br.ufal.ic.p2.jackut.Jackut} que altera o estado do sistema; os argumentos gravados usam
+ * logins no lugar de sessões, pois as sessões não sobrevivem a um reinício.
+ *
+ * <p>Os códigos são gravados em disco e, portanto, não devem ser alterados nem reaproveitados.
+ * {@link #CRIAR_USUARIO} traz a senha por extenso e só é lido de registros antigos; os usuários novos
+ * são gravados com a credencial, em {@link #CRIAR_USUARIO_CREDENCIAL}.</p>
+ */
+public enum TipoOperacao {
+    ZERAR_SISTEMA(0),
+    CRIAR_USUARIO(1),
+    EDITAR_PERFIL(2),
+    ADICIONAR_AMIGO(3),
+    ENVIAR_RECADO(4),
+    LER_RECADO(5),
+    CRIAR_COMUNIDADE(6),
+    ADICIONAR_COMUNIDADE(7),
+    ENVIAR_MENSAGEM(8),
+    LER_MENSAGEM(9),
+    ADICIONAR_IDOLO(10),
+    ADICIONAR_PAQUERA(11),
+    ADICIONAR_INIMIGO(12),
+    REMOVER_USUARIO(13),
+    CRIAR_USUARIO_CREDENCIAL(14),
+    ATUALIZAR_CREDENCIAL(15),
+    /** Várias operações de um mesmo tipo num só registro ({@link RegistroOperacoes#registrarLote}). */
+    LOTE(16);
+
+    private static final TipoOperacao[] POR_CODIGO = new TipoOperacao[64];
+    static {
+        for (TipoOperacao t : values()) POR_CODIGO[t.codigo] = t;
+    }
+
+    private final byte codigo;
+
+    TipoOperacao(int codigo) { this.codigo = (byte) codigo; }
+
+    /**
+     * @return O código gravado em disco para este tipo
+     */
+    public byte getCodigo() { return codigo; }
+
+    /**
+     * Retorna o tipo correspondente a um código gravado em disco.
+     *
+     * @param codigo O código lido
+     * @return O tipo de operação, ou null se o código for desconhecido
+     */
+    public static TipoOperacao porCodigo(int codigo) {
+        return codigo >= 0 && codigo < POR_CODIGO.length ? POR_CODIGO[codigo] : null;
+    }
+}
@@ -0,0 +1,363 @@
+package br.ufal.ic.p2.jackut.sessao;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tabela de sessões abertas do Jackut, com expiração por inatividade e por tempo total.
+ *
+ * <p>O identificador de sessão entregue ao usuário tem 22 caracteres (base64 para URLs) e codifica dois
+ * números de 64 bits: a chave da sessão na tabela e um segredo sorteado com {@link SecureRandom}. A
+ * validação decodifica a chave sem criar objetos e compara o segredo.</p>
+ *
+ * <p>Uma sessão expira quando fica sem uso por mais que o tempo de inatividade ou quando passa do tempo
+ * máximo desde a abertura; a validação sempre confere os dois prazos. Sessões expiradas são recolhidas
+ * por uma roda de tempo ("timing wheel"): cada sessão fica no compartimento do seu prazo e, quando a
+ * roda passa por ele, é removida ou, se foi usada nesse meio tempo, movida para o compartimento do novo
+ * prazo.</p>
+ *
+ * <p>As sessões de cada login formam uma lista encadeada, o que permite revogar todas as sessões de um
+ * usuário em tempo proporcional à quantidade delas.</p>
+ */
+public class GerenciadorSessoes {
+
+    private static final ScheduledExecutorService VARREDOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "jackut-sessoes");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final String ALFABETO = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+    private static final int[] VALORES = new int[128];
+    static {
+        Arrays.fill(VALORES, -1);
+        for (int i = 0; i < ALFABETO.length(); i++) VALORES[ALFABETO.charAt(i)] = i;
+    }
+    private static final int TAMANHO_METADE = 11;
+
+    /**
+     * Sessão aberta. Os campos de encadeamento são alterados só dentro de {@code porLogin.compute}
+     * para o login da sessão.
+     */
+    private static final class Sessao {
+        final long chave;
+        final long segredo;
+        final String login;
+        final long abertura;
+        volatile long ultimoUso;
+        volatile boolean encerrada;
+        Sessao anterior, proxima;
+
+        Sessao(long chave, long segredo, String login, long agora) {
+            this.chave = chave;
+            this.segredo = segredo;
+            this.login = login;
+            this.abertura = agora;
+            this.ultimoUso = agora;
+        }
+    }
+
+    /**
+     * Compartimento da roda de tempo: as sessões cujo prazo cai no seu intervalo.
+     */
+    private static final class Compartimento extends ConcurrentLinkedQueue<Sessao> {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private final SecureRandom aleatorio = new SecureRandom();
+    private final ConcurrentHashMap<Long, Sessao> sessoes = new ConcurrentHashMap<>();
+    // login -> sessão aberta mais recentemente, início da lista das sessões do login
+    private final ConcurrentHashMap<String, Sessao> porLogin = new ConcurrentHashMap<>();
+
+    private final long inatividade;
+    private final long maxima;
+    private final long resolucao;
+    private final Compartimento[] roda;
+    private long proximoTique;
+    private ScheduledFuture<?> varredura;
+
+    private final long inicio = System.nanoTime();
+    private final LongAdder abertas = new LongAdder();
+    private final LongAdder expiradasPorInatividade = new LongAdder();
+    private final LongAdder expiradasPorTempoMaximo = new LongAdder();
+    private final LongAdder revogadas = new LongAdder();
+
+    /**
+     * Cria a tabela de sessões.
+     *
+     * @param inatividade O tempo máximo sem uso, em milissegundos (0 para não expirar por inatividade)
+     * @param maxima O tempo máximo desde a abertura, em milissegundos (0 para não expirar)
+     * @param resolucao O intervalo entre passagens da roda de tempo, em milissegundos
+     * @param compartimentos A quantidade de compartimentos da roda de tempo
+     */
+    public GerenciadorSessoes(long inatividade, long maxima, long resolucao, int compartimentos) {
+        this.inatividade = inatividade;
+        this.maxima = maxima;
+        this.resolucao = Math.max(1, resolucao);
+        this.roda = new Compartimento[Math.max(1, compartimentos)];
+        for (int i = 0; i < roda.length; i++) roda[i] = new Compartimento();
+    }
+
+    /**
+     * Abre uma sessão para um login já autenticado.
+     *
+     * @param login O login do usuário
+     * @return O identificador da sessão
+     */
+    public String abrir(String login) {
+        long agora = agora();
+        Sessao s;
+        do {
+            s = new Sessao(aleatorio.nextLong(), aleatorio.nextLong(), login, agora);
+        } while (sessoes.putIfAbsent(s.chave, s) != null);
+        final Sessao nova = s;
+        porLogin.compute(login, (k, primeira) -> {
+            nova.proxima = primeira;
+            if (primeira != null) primeira.anterior = nova;
+            return nova;
+        });
+        abertas.increment();
+        agendar(nova);
+        iniciarVarredura();
+        return codificar(s.chave) + codificar(s.segredo);
+    }
+
+    /**
+     * Valida um identificador de sessão, renovando o prazo de inatividade.
+     *
+     * @param id O identificador entregue por {@link #abrir(String)}
+     * @return O login dono da sessão, ou null se a sessão não existir ou tiver expirado
+     */
+    public String validar(String id) {
+        if (!formatoValido(id)) return null;
+        long chave = decodificar(id, 0), segredo = decodificar(id, TAMANHO_METADE);
+        Sessao s = sessoes.get(chave);
+        if (s == null || s.segredo != segredo || s.encerrada) return null;
+        long agora = agora();
+        if (expirar(s, agora)) return null;
+        if (agora - s.ultimoUso >= resolucao) s.ultimoUso = agora;
+        return s.login;
+    }
+
+    /**
+     * Encerra todas as sessões de um login.
+     *
+     * @param login O login
+     * @return A quantidade de sessões encerradas
+     */
+    public int revogar(String login) {
+        int[] n = {0};
+        porLogin.computeIfPresent(login, (k, primeira) -> {
+            for (Sessao s = primeira; s != null; s = s.proxima) {
+                s.encerrada = true;
+                sessoes.remove(s.chave, s);
+                n[0]++;
+            }
+            return null;
+        });
+        revogadas.add(n[0]);
+        return n[0];
+    }
+
+    /**
+     * Encerra todas as sessões.
+     */
+    public void limpar() {
+        for (String login : porLogin.keySet()) revogar(login);
+    }
+
+    /**
+     * Encerra todas as sessões e para a varredura em segundo plano; uma nova abertura de sessão a
+     * reinicia.
+     */
+    public synchronized void encerrar() {
+        limpar();
+        if (varredura != null) varredura.cancel(false);
+        varredura = null;
+        for (Compartimento c : roda) c.clear();
+    }
+
+    /**
+     * @return Uma fotografia dos contadores de sessões
+     */
+    public Metricas getMetricas() {
+        return new Metricas(sessoes.size(), abertas.sum(), expiradasPorInatividade.sum(),
+                expiradasPorTempoMaximo.sum(), revogadas.sum());
+    }
+
+    /**
+     * Contadores de sessões desde a criação da tabela.
+     */
+    public static final class Metricas {
+        private final long ativas, abertas, expiradasPorInatividade, expiradasPorTempoMaximo, revogadas;
+
+        Metricas(long ativas, long abertas, long expiradasPorInatividade, long expiradasPorTempoMaximo, long revogadas) {
+            this.ativas = ativas;
+            this.abertas = abertas;
+            this.expiradasPorInatividade = expiradasPorInatividade;
+            this.expiradasPorTempoMaximo = expiradasPorTempoMaximo;
+            this.revogadas = revogadas;
+        }
+
+        /** @return As sessões abertas no momento */
+        public long getAtivas() { return ativas; }
+
+        /** @return As sessões abertas desde a criação da tabela */
+        public long getAbertas() { return abertas; }
+
+        /** @return As sessões encerradas por inatividade */
+        public long getExpiradasPorInatividade() { return expiradasPorInatividade; }
+
+        /** @return As sessões encerradas por passarem do tempo máximo */
+        public long getExpiradasPorTempoMaximo() { return expiradasPorTempoMaximo; }
+
+        /** @return As sessões revogadas (remoção de conta, zerar ou encerrar o sistema) */
+        public long getRevogadas() { return revogadas; }
+
+        @Override
+        public String toString() {
+            return "ativas=" + ativas + " abertas=" + abertas + " expiradasPorInatividade=" + expiradasPorInatividade
+                    + " expiradasPorTempoMaximo=" + expiradasPorTempoMaximo + " revogadas=" + revogadas;
+        }
+    }
+
+    // ** Expiração **
+
+    private long agora() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio);
+    }
+
+    /**
+     * Calcula o instante em que a sessão expira, considerando o último uso.
+     */
+    private long prazo(Sessao s) {
+        long p = Long.MAX_VALUE;
+        if (inatividade > 0) p = s.ultimoUso + inatividade;
+        if (maxima > 0) p = Math.min(p, s.abertura + maxima);
+        return p;
+    }
+
+    /**
+     * Remove a sessão se um dos prazos já passou.
+     *
+     * @return True se a sessão expirou
+     */
+    private boolean expirar(Sessao s, long agora) {
+        if (prazo(s) > agora) return false;
+        if (remover(s)) {
+            if (maxima > 0 && s.abertura + maxima <= agora) expiradasPorTempoMaximo.increment();
+            else expiradasPorInatividade.increment();
+        }
+        return true;
+    }
+
+    /**
+     * Tira uma sessão da tabela e da lista do seu login.
+     *
+     * @return True se esta chamada removeu a sessão
+     */
+    private boolean remover(Sessao s) {
+        boolean[] removida = {false};
+        porLogin.computeIfPresent(s.login, (k, primeira) -> {
+            if (s.encerrada) return primeira;
+            s.encerrada = true;
+            removida[0] = true;
+            sessoes.remove(s.chave, s);
+            if (s.anterior != null) s.anterior.proxima = s.proxima;
+            if (s.proxima != null) s.proxima.anterior = s.anterior;
+            Sessao p = primeira == s ? s.proxima : primeira;
+            s.anterior = s.proxima = null;
+            return p;
+        });
+        return removida[0];
+    }
+
+    /**
+     * Coloca a sessão no compartimento da roda correspondente ao seu prazo.
+     */
+    private void agendar(Sessao s) {
+        long p = prazo(s);
+        if (p == Long.MAX_VALUE) return;
+        roda[(int) Math.floorMod(p / resolucao, (long) roda.length)].add(s);
+    }
+
+    private synchronized void iniciarVarredura() {
+        if (varredura != null || (inatividade <= 0 && maxima <= 0)) return;
+        proximoTique = agora() / resolucao;
+        varredura = VARREDOR.scheduleWithFixedDelay(this::varrer, resolucao, resolucao, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Passa pelos compartimentos da roda desde a última passagem: sessões expiradas são removidas e as
+     * que foram usadas nesse meio tempo vão para o compartimento do novo prazo.
+     */
+    private void varrer() {
+        try {
+            // só passa por compartimentos cujo intervalo já terminou: todas as sessões deles venceram,
+            // a menos que tenham sido usadas depois de agendadas
+            long agora = agora(), tique = agora / resolucao - 1;
+            List<Sessao> vencidas = new ArrayList<>();
+            // uma volta completa já passa por todos os compartimentos
+            long de = Math.max(proximoTique, tique - roda.length + 1);
+            for (long t = de; t <= tique; t++) {
+                Compartimento c = roda[(int) Math.floorMod(t, (long) roda.length)];
+                for (Sessao s; (s = c.poll()) != null; ) vencidas.add(s);
+            }
+            proximoTique = tique + 1;
+            for (Sessao s : vencidas) {
+                if (s.encerrada || expirar(s, agora)) continue;
+                agendar(s);
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // ** Identificadores **
+
+    /**
+     * Codifica um número de 64 bits em 11 caracteres do alfabeto base64 para URLs.
+     */
+    private static String codificar(long v) {
+        char[] c = new char[TAMANHO_METADE];
+        for (int i = TAMANHO_METADE - 1; i >= 0; i--) {
+            c[i] = ALFABETO.charAt((int) (v & 0x3F));
+            v >>>= 6;
+        }
+        return new String(c);
+    }
+
+    /**
+     * Verifica se um texto tem o formato de um identificador de sessão; logins passados no lugar de
+     * sessões costumam ser descartados aqui, sem consultar a tabela.
+     */
+    private static boolean formatoValido(String id) {
+        if (id == null || id.length() != 2 * TAMANHO_METADE) return false;
+        for (int i = 0; i < id.length(); i++) {
+            char ch = id.charAt(i);
+            int d = ch < 128 ? VALORES[ch] : -1;
+            // o primeiro caractere de cada metade carrega só os 4 bits mais altos
+            if (d < 0 || (i % TAMANHO_METADE == 0 && d > 0xF)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Decodifica 11 caracteres gravados por {@link #codificar(long)}, já validados por
+     * {@link #formatoValido(String)}.
+     */
+    private static long decodificar(String id, int de) {
+        long v = 0;
+        for (int i = de; i < de + TAMANHO_METADE; i++) v = (v << 6) | VALORES[id.charAt(i)];
+        return v;
+    }
+}
@@ -0,0 +1,135 @@
+package br.ufal.ic.p2.jackut.util;
+
+import java.util.Arrays;
+
+/**
+ * Conjunto de inteiros primitivos que preserva a ordem de inserção, usado para guardar relacionamentos
+ * (amigos, ídolos, paqueras, ...) como ids de {@link DicionarioLogins} em vez de logins.
+ *
+ * <p>Os elementos ficam num {@code int[]} na ordem de inserção, com 4 bytes por elemento. Até
+ * {@value #LIMITE_BUSCA_LINEAR} elementos a busca é linear; acima disso o conjunto mantém também uma
+ * cópia ordenada, e {@link #contem(int)} passa a ser uma busca binária. Inserções e remoções custam
+ * O(n) cópias de memória.</p>
+ *
+ * <p>A classe não é sincronizada: cada conjunto é protegido pela trava do login a que pertence.</p>
+ */
+public class ConjuntoInteiros {
+
+    private static final int[] VAZIO = new int[0];
+    private static final int LIMITE_BUSCA_LINEAR = 16;
+
+    private int[] elementos = VAZIO;
+    // cópia ordenada de elementos, só quando o conjunto passa de LIMITE_BUSCA_LINEAR
+    private int[] ordenados;
+    private int tamanho;
+
+    /**
+     * @return A quantidade de elementos
+     */
+    public int tamanho() { return tamanho; }
+
+    /**
+     * Retorna o elemento na posição fornecida, na ordem de inserção.
+     *
+     * @param i A posição, de 0 a {@code tamanho() - 1}
+     * @return O elemento
+     */
+    public int get(int i) {
+        if (i >= tamanho) throw new IndexOutOfBoundsException(i);
+        return elementos[i];
+    }
+
+    /**
+     * Verifica se o conjunto contém um elemento.
+     *
+     * @param x O elemento
+     * @return True se o elemento estiver no conjunto, false caso contrário
+     */
+    public boolean contem(int x) {
+        if (ordenados != null) return Arrays.binarySearch(ordenados, 0, tamanho, x) >= 0;
+        for (int i = 0; i < tamanho; i++) if (elementos[i] == x) return true;
+        return false;
+    }
+
+    /**
+     * Adiciona um elemento ao fim do conjunto, se ainda não estiver presente.
+     *
+     * @param x O elemento
+     * @return True se o elemento foi adicionado, false se já estava presente
+     */
+    public boolean adicionar(int x) {
+        if (contem(x)) return false;
+        if (tamanho == elementos.length) elementos = Arrays.copyOf(elementos, crescer(tamanho));
+        elementos[tamanho] = x;
+        if (ordenados != null) {
+            if (tamanho == ordenados.length) ordenados = Arrays.copyOf(ordenados, elementos.length);
+            int p = -Arrays.binarySearch(ordenados, 0, tamanho, x) - 1;
+            System.arraycopy(ordenados, p, ordenados, p + 1, tamanho - p);
+            ordenados[p] = x;
+        } else if (tamanho == LIMITE_BUSCA_LINEAR) {
+            ordenados = Arrays.copyOf(elementos, elementos.length);
+            Arrays.sort(ordenados, 0, tamanho + 1);
+        }
+        tamanho++;
+        return true;
+    }
+
+    /**
+     * Garante espaço para mais {@code n} elementos sem realocar os arrays, para inserções em lote.
+     *
+     * @param n A quantidade de elementos que ainda serão adicionados
+     */
+    public void reservar(int n) {
+        int capacidade = tamanho + n;
+        if (capacidade <= elementos.length) return;
+        elementos = Arrays.copyOf(elementos, capacidade);
+        if (ordenados != null) ordenados = Arrays.copyOf(ordenados, capacidade);
+    }
+
+    /**
+     * Remove um elemento, preservando a ordem dos demais.
+     *
+     * @param x O elemento
+     * @return True se o elemento foi removido, false se não estava presente
+     */
+    public boolean remover(int x) {
+        if (ordenados != null) {
+            int p = Arrays.binarySearch(ordenados, 0, tamanho, x);
+            if (p < 0) return false;
+            System.arraycopy(ordenados, p + 1, ordenados, p, tamanho - p - 1);
+        }
+        int i = 0;
+        while (i < tamanho && elementos[i] != x) i++;
+        if (i == tamanho) return false;
+        System.arraycopy(elementos, i + 1, elementos, i, tamanho - i - 1);
+        tamanho--;
+        if (ordenados != null && tamanho <= LIMITE_BUSCA_LINEAR / 2) ordenados = null;
+        return true;
+    }
+
+    /**
+     * Retorna uma cópia ordenada dos elementos, que pode ser consultada com
+     * {@link Arrays#binarySearch(int[], int)} sem a trava do conjunto.
+     *
+     * @return Um novo array com os elementos em ordem crescente
+     */
+    public int[] copiaOrdenada() {
+        if (ordenados != null) return Arrays.copyOf(ordenados, tamanho);
+        int[] c = Arrays.copyOf(elementos, tamanho);
+        Arrays.sort(c);
+        return c;
+    }
+
+    /**
+     * Remove todos os elementos e libera os arrays.
+     */
+    public void limpar() {
+        elementos = VAZIO;
+        ordenados = null;
+        tamanho = 0;
+    }
+
+    private static int crescer(int n) {
+        return n < 4 ? 4 : n + (n >> 1);
+    }
+}
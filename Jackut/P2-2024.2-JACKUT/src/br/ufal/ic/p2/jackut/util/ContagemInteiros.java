@@ -0,0 +1,102 @@
+package br.ufal.ic.p2.jackut.util;
+
+import java.util.Arrays;
+
+/**
+ * Acumulador de pontuações por chave inteira não negativa (ids de {@link DicionarioLogins}), em tabela
+ * de endereçamento aberto com arrays primitivos, sem objetos por chave.
+ *
+ * <p>Uma chave pode ser {@linkplain #excluir(int) excluída}: as somas seguintes a ignoram e ela não é
+ * contada entre as {@linkplain #valorEm(int) posições} com pontuação. A classe não é sincronizada e
+ * é pensada para uso local a uma consulta.</p>
+ */
+public class ContagemInteiros {
+
+    private static final int VAZIA = -1;
+    private static final long EXCLUIDA = Long.MIN_VALUE;
+
+    private int[] chaves;
+    private long[] valores;
+    private int tamanho;
+
+    /**
+     * @param capacidadeEsperada A quantidade de chaves esperada, para evitar redimensionamentos
+     */
+    public ContagemInteiros(int capacidadeEsperada) {
+        int c = Integer.highestOneBit(Math.max(8, capacidadeEsperada) * 2 - 1) << 1;
+        chaves = new int[c];
+        Arrays.fill(chaves, VAZIA);
+        valores = new long[c];
+    }
+
+    /**
+     * Soma um valor à pontuação de uma chave, que começa em 0; chaves excluídas são ignoradas.
+     *
+     * @param chave A chave, não negativa
+     * @param delta O valor a somar
+     */
+    public void somar(int chave, long delta) {
+        int p = posicao(chave);
+        if (chaves[p] == VAZIA) {
+            inserir(p, chave, delta);
+        } else if (valores[p] != EXCLUIDA) {
+            valores[p] += delta;
+        }
+    }
+
+    /**
+     * Exclui uma chave: a sua pontuação é descartada e as somas seguintes a ignoram.
+     *
+     * @param chave A chave, não negativa
+     */
+    public void excluir(int chave) {
+        int p = posicao(chave);
+        if (chaves[p] == VAZIA) inserir(p, chave, EXCLUIDA);
+        else valores[p] = EXCLUIDA;
+    }
+
+    /**
+     * @return A quantidade de posições da tabela, para percorrê-la com {@link #chaveEm} e {@link #valorEm}
+     */
+    public int posicoes() { return chaves.length; }
+
+    /**
+     * @param p A posição, de 0 a {@code posicoes() - 1}
+     * @return A chave na posição, ou -1 se a posição estiver livre
+     */
+    public int chaveEm(int p) { return chaves[p]; }
+
+    /**
+     * @param p A posição, de 0 a {@code posicoes() - 1}
+     * @return A pontuação da chave na posição, ou {@link Long#MIN_VALUE} se ela estiver livre ou excluída
+     */
+    public long valorEm(int p) { return chaves[p] == VAZIA ? EXCLUIDA : valores[p]; }
+
+    private int posicao(int chave) {
+        int m = chaves.length - 1;
+        int h = chave * 0x9E3779B9;
+        int p = (h ^ h >>> 16) & m;
+        while (chaves[p] != VAZIA && chaves[p] != chave) p = (p + 1) & m;
+        return p;
+    }
+
+    private void inserir(int p, int chave, long valor) {
+        chaves[p] = chave;
+        valores[p] = valor;
+        if (++tamanho * 2 > chaves.length) crescer();
+    }
+
+    private void crescer() {
+        int[] cs = chaves;
+        long[] vs = valores;
+        chaves = new int[cs.length * 2];
+        Arrays.fill(chaves, VAZIA);
+        valores = new long[cs.length * 2];
+        for (int i = 0; i < cs.length; i++) {
+            if (cs[i] == VAZIA) continue;
+            int p = posicao(cs[i]);
+            chaves[p] = cs[i];
+            valores[p] = vs[i];
+        }
+    }
+}
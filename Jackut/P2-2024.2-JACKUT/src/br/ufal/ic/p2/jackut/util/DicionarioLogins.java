@@ -0,0 +1,72 @@
+package br.ufal.ic.p2.jackut.util;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dicionário login -> id inteiro, usado para que os relacionamentos entre usuários sejam guardados em
+ * {@link ConjuntoInteiros} em vez de coleções de logins.
+ *
+ * <p>Os ids são atribuídos sequencialmente a partir de 0 e nunca mudam nem são reaproveitados: um login
+ * removido mantém seu id, que volta a ser usado se o login for cadastrado de novo. A consulta de ids
+ * ({@link #buscar(String)}) e de logins ({@link #login(int)}) não trava; a atribuição de novos ids é
+ * sincronizada.</p>
+ */
+public class DicionarioLogins {
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] logins = new String[64];
+    private int proximo;
+
+    /**
+     * Retorna o id de um login, atribuindo um novo se o login ainda não tiver id.
+     *
+     * @param login O login
+     * @return O id do login
+     */
+    public int id(String login) {
+        Integer id = ids.get(login);
+        return id != null ? id : atribuir(login);
+    }
+
+    /**
+     * Retorna o id de um login sem atribuir um novo.
+     *
+     * @param login O login
+     * @return O id do login, ou -1 se o login não tiver id
+     */
+    public int buscar(String login) {
+        Integer id = login == null ? null : ids.get(login);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Retorna o login de um id atribuído por {@link #id(String)}.
+     *
+     * @param id O id
+     * @return O login
+     */
+    public String login(int id) { return logins[id]; }
+
+    /**
+     * Esquece todos os logins. Só pode ser chamado quando nenhum id estiver em uso.
+     */
+    public synchronized void limpar() {
+        ids.clear();
+        logins = new String[64];
+        proximo = 0;
+    }
+
+    private synchronized int atribuir(String login) {
+        Integer existente = ids.get(login);
+        if (existente != null) return existente;
+        int id = proximo++;
+        String[] ls = logins;
+        if (id == ls.length) ls = Arrays.copyOf(ls, ls.length * 2);
+        ls[id] = login;
+        logins = ls;
+        // o id só fica visível depois que o login foi gravado no array
+        ids.put(login, id);
+        return id;
+    }
+}
@@ -0,0 +1,123 @@
+package br.ufal.ic.p2.jackut.util;
+
+import java.util.function.IntBinaryOperator;
+
+/**
+ * Seleção das {@code k} chaves de maior pontuação numa sequência de pares (chave, pontuação), com um
+ * heap mínimo limitado a {@code k} elementos em arrays primitivos: cada oferta custa O(log k), e a
+ * memória não depende da quantidade de candidatos.
+ *
+ * <p>Empates na pontuação são desfeitos por uma comparação das chaves (a menor chave, se nenhuma for
+ * fornecida), para que o resultado não dependa da ordem das ofertas. A classe não é sincronizada.</p>
+ */
+public class MelhoresK {
+
+    private final int[] chaves;
+    private final long[] valores;
+    private final IntBinaryOperator desempate;
+    private int tamanho;
+
+    /**
+     * @param k A quantidade de chaves a selecionar, positiva
+     */
+    public MelhoresK(int k) {
+        this(k, Integer::compare);
+    }
+
+    /**
+     * @param k A quantidade de chaves a selecionar, positiva
+     * @param desempate Compara duas chaves de mesma pontuação: negativo se a primeira deve vir antes
+     */
+    public MelhoresK(int k, IntBinaryOperator desempate) {
+        chaves = new int[k];
+        valores = new long[k];
+        this.desempate = desempate;
+    }
+
+    /**
+     * Oferece uma chave; ela entra na seleção se houver espaço ou se for melhor que a pior selecionada.
+     *
+     * @param chave A chave
+     * @param valor A pontuação
+     */
+    public void oferecer(int chave, long valor) {
+        if (tamanho < chaves.length) {
+            int i = tamanho++;
+            chaves[i] = chave;
+            valores[i] = valor;
+            subir(i);
+        } else if (pior(chaves[0], valores[0], chave, valor)) {
+            chaves[0] = chave;
+            valores[0] = valor;
+            descer(0);
+        }
+    }
+
+    /**
+     * @return Se a seleção já tem {@code k} chaves, ou seja, se uma nova oferta precisa superar a pior
+     */
+    public boolean estaCheio() { return tamanho == chaves.length; }
+
+    /**
+     * @return A pior chave selecionada; só faz sentido com a seleção não vazia
+     */
+    public int getPiorChave() { return chaves[0]; }
+
+    /**
+     * @return A pontuação da pior chave selecionada; só faz sentido com a seleção não vazia
+     */
+    public long getPiorValor() { return valores[0]; }
+
+    /**
+     * Esvazia a seleção, devolvendo as chaves da melhor para a pior.
+     *
+     * @return As chaves selecionadas, no máximo {@code k}
+     */
+    public int[] extrair() {
+        int[] r = new int[tamanho];
+        for (int i = r.length - 1; i >= 0; i--) {
+            r[i] = chaves[0];
+            tamanho--;
+            chaves[0] = chaves[tamanho];
+            valores[0] = valores[tamanho];
+            descer(0);
+        }
+        return r;
+    }
+
+    /**
+     * Verifica se o par (a, va) é pior que o par (b, vb): menor pontuação ou, no empate, chave que vem depois.
+     */
+    private boolean pior(int a, long va, int b, long vb) {
+        return va < vb || va == vb && a != b && desempate.applyAsInt(a, b) > 0;
+    }
+
+    private void subir(int i) {
+        while (i > 0) {
+            int pai = (i - 1) >>> 1;
+            if (!pior(chaves[i], valores[i], chaves[pai], valores[pai])) return;
+            trocar(i, pai);
+            i = pai;
+        }
+    }
+
+    private void descer(int i) {
+        while (true) {
+            int e = 2 * i + 1, d = e + 1, menor = i;
+            if (e < tamanho && pior(chaves[e], valores[e], chaves[menor], valores[menor])) menor = e;
+            if (d < tamanho && pior(chaves[d], valores[d], chaves[menor], valores[menor])) menor = d;
+            if (menor == i) return;
+            trocar(i, menor);
+            i = menor;
+        }
+    }
+
+    private void trocar(int i, int j) {
+        int c = chaves[i];
+        chaves[i] = chaves[j];
+        chaves[j] = c;
+        long v = valores[i];
+        valores[i] = valores[j];
+        valores[j] = v;
+    }
+}
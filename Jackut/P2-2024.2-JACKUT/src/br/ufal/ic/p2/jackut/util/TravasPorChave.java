@@ -0,0 +1,122 @@
+package br.ufal.ic.p2.jackut.util;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Conjunto fixo de travas ("lock striping") indexadas pelo hash de uma chave, como o login de um usuário
+ * ou o nome de uma comunidade.
+ *
+ * <p>Operações que envolvem várias chaves adquirem as travas sempre em ordem crescente de índice, o que
+ * impede deadlocks entre operações concorrentes. Operações globais usam {@link #travarTodas()}.</p>
+ *
+ * <p>Um {@link Observador} pode ser avisado de cada trava adquirida, com ela ainda adquirida, e da chave
+ * pela qual foi adquirida: é o momento de guardar o estado dessa chave antes que a operação o altere.</p>
+ */
+public class TravasPorChave {
+
+    /**
+     * Avisado de cada trava adquirida.
+     */
+    public interface Observador {
+        /**
+         * Chamado com a trava adquirida, antes de a operação que a adquiriu continuar, uma vez para cada
+         * chave; não deve lançar exceções nem adquirir outras travas.
+         *
+         * @param indice O índice da trava
+         * @param chave A chave pela qual a trava foi adquirida, ou null se foi adquirida por
+         *              {@link #travarTodas()}, e qualquer chave dela pode mudar
+         */
+        void travada(int indice, String chave);
+    }
+
+    private final ReentrantLock[] travas;
+    private final int mascara;
+    private volatile Observador observador;
+
+    /**
+     * Cria o conjunto de travas.
+     *
+     * @param quantidade A quantidade mínima de travas; é arredondada para a próxima potência de dois.
+     */
+    public TravasPorChave(int quantidade) {
+        int n = Integer.highestOneBit(Math.max(1, quantidade - 1)) << 1;
+        this.travas  = new ReentrantLock[n];
+        this.mascara = n - 1;
+        for (int i = 0; i < n; i++) travas[i] = new ReentrantLock();
+    }
+
+    /**
+     * Trava adquirida por {@link #travar(String...)} ou {@link #travarTodas()}; deve ser liberada
+     * com {@code close()}, de preferência em um bloco try-with-resources.
+     */
+    public interface Trava extends AutoCloseable {
+        /**
+         * Libera as travas adquiridas.
+         */
+        @Override
+        void close();
+    }
+
+    /**
+     * Adquire as travas das chaves fornecidas, em ordem crescente de índice.
+     *
+     * @param chaves As chaves a travar (repetições são permitidas).
+     * @return A trava a ser liberada ao final da operação.
+     */
+    public Trava travar(String... chaves) {
+        int[] idx = new int[chaves.length];
+        for (int i = 0; i < chaves.length; i++) idx[i] = indice(chaves[i]);
+        Arrays.sort(idx);
+        int n = 0;
+        for (int i = 0; i < idx.length; i++) {
+            if (n == 0 || idx[n - 1] != idx[i]) idx[n++] = idx[i];
+        }
+        final int[] adquiridas = Arrays.copyOf(idx, n);
+        for (int i : adquiridas) travas[i].lock();
+        Observador o = observador;
+        if (o != null) for (String c : chaves) o.travada(indice(c), c);
+        return () -> {
+            for (int i = adquiridas.length - 1; i >= 0; i--) travas[adquiridas[i]].unlock();
+        };
+    }
+
+    /**
+     * Adquire todas as travas, bloqueando qualquer outra operação que dependa delas.
+     *
+     * @return A trava a ser liberada ao final da operação.
+     */
+    public Trava travarTodas() {
+        for (ReentrantLock t : travas) t.lock();
+        Observador o = observador;
+        if (o != null) for (int i = 0; i < travas.length; i++) o.travada(i, null);
+        return () -> {
+            for (int i = travas.length - 1; i >= 0; i--) travas[i].unlock();
+        };
+    }
+
+    /**
+     * Define quem é avisado de cada trava adquirida.
+     *
+     * @param observador O observador, ou null para nenhum.
+     */
+    public void setObservador(Observador observador) {
+        this.observador = observador;
+    }
+
+    /**
+     * @return A quantidade de travas.
+     */
+    public int getQuantidade() { return travas.length; }
+
+    /**
+     * Calcula o índice da trava responsável por uma chave.
+     *
+     * @param chave A chave.
+     * @return O índice da trava.
+     */
+    public int indice(String chave) {
+        int h = chave == null ? 0 : chave.hashCode();
+        return (h ^ (h >>> 16)) & mascara;
+    }
+}